@@ -1,6 +1,11 @@
 package bio.terra.janitor.app.configuration;
 
+import bio.terra.janitor.db.ResourceType;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -15,82 +20,549 @@ public class PrimaryConfiguration {
   private boolean schedulerEnabled;
 
   /**
-   * The maximum number of unsubmitted flights to recover at start up time. This is to prevent
-   * blowing out the service at start up, but if we have too many flights to recover, they will not
-   * all be recovered immediately.
+   * Whether scheduling instances should elect a single leader to run the scheduler. If false, every
+   * instance with the scheduler enabled runs it.
    */
-  private int unsubmittedFlightRecoveryLimit = 1000;
+  private boolean leaderElectionEnabled;
 
-  /** How often to query for flights to submit. */
-  private Duration flightSubmissionPeriod = Duration.ofMinutes(1);
+  /** How long the scheduler leader's lease lasts without being renewed. */
+  private Duration leaderLeaseDuration = Duration.ofSeconds(10);
 
-  /** How often to query for flights that have been completed. */
-  private Duration flightCompletionPeriod = Duration.ofMinutes(1);
+  /**
+   * How often to try to acquire or renew the scheduler leader's lease. Should be well below {@link
+   * #leaderLeaseDuration} so that the leader renews its lease before it expires.
+   */
+  private Duration leaderLeaseRenewalPeriod = Duration.ofSeconds(2);
+
+  /**
+   * Whether to run the scheduler's periodic tasks on virtual threads, one per run, instead of on
+   * its fixed pool of platform threads. The pool still keeps time. Stairway runs the cleanup
+   * flights themselves on its own platform threads either way, so this does not change how many
+   * flights may run at once.
+   */
+  private boolean schedulerVirtualThreadsEnabled = false;
+
+  /**
+   * How long the scheduler waits at shutdown for its in-progress claims to finish and for its
+   * claimed flights to be submitted. Claimed flights that are still unsubmitted are released back
+   * to READY. Stairway's own quiet down timeout applies after this.
+   */
+  private Duration drainTimeout = Duration.ofSeconds(10);
+
+  /**
+   * How often to recover flights that were recorded in the Janitor's database but never submitted
+   * to Stairway. Unsubmitted flights are also recovered at start up time.
+   */
+  private Duration unsubmittedFlightRecoveryPeriod = Duration.ofMinutes(5);
+
+  /**
+   * Bounds on the recovery period. Recovery runs less often while it finds no unsubmitted flights
+   * and more often while it recovers a full page each time.
+   */
+  private Duration unsubmittedFlightRecoveryMinPeriod = Duration.ofMinutes(1);
+
+  private Duration unsubmittedFlightRecoveryMaxPeriod = Duration.ofMinutes(30);
+
+  /**
+   * How long a flight must have been initiating before periodic recovery considers it unsubmitted.
+   * Gives the scheduler time to submit flights that it has just created.
+   */
+  private Duration unsubmittedFlightRecoveryGracePeriod = Duration.ofMinutes(5);
+
+  /** How many initiating flights to check with Stairway at a time when recovering. */
+  private int unsubmittedFlightRecoveryPageSize = 100;
+
+  /**
+   * The longest to wait between queries for flights to submit. The scheduler wakes up earlier when
+   * a READY resource expires or when a resource becomes READY.
+   */
+  private Duration flightSubmissionPeriod = Duration.ofMinutes(5);
+
+  /**
+   * How many expired resources to claim and submit for cleanup in a single database transaction.
+   */
+  private int flightSubmissionBatchSize = 100;
+
+  /**
+   * How many claimed flights may wait to be submitted to Stairway before the scheduler stops
+   * claiming more. Must be at least {@link #flightSubmissionBatchSize}.
+   */
+  private int flightSubmissionQueueCapacity = 500;
+
+  /** How many threads submit claimed flights to Stairway concurrently. */
+  private int flightSubmissionThreads = 4;
+
+  /**
+   * How many cleanup flights may be submitted but not yet running or finished at once, as a
+   * multiple of Stairway's max parallel flights. Expired resources beyond this window stay READY
+   * until Stairway catches up.
+   */
+  private double flightSubmissionWindowMultiplier = 2.0;
+
+  /**
+   * How far ahead of their expiration READY resources are staged in memory, so that their flights
+   * can be claimed and submitted as soon as they expire. Zero disables staging.
+   */
+  private Duration flightSubmissionLookahead = Duration.ofSeconds(10);
+
+  /** How many resources may be staged at once. */
+  private int flightSubmissionLookaheadLimit = 1000;
+
+  /**
+   * The weights and in-flight limits used to share flight submissions fairly between the kinds of
+   * resources. A kind without a matching policy has a weight of 1 and no in-flight limit.
+   */
+  private List<ResourceKindPolicy> resourceKindPolicies = new ArrayList<>();
+
+  /**
+   * The cleanup priority of resources of each type that are tracked without one. Types missing from
+   * the map default to 0. Resources that cost more while they are leaked should have a higher
+   * priority, so that they are cleaned first when there is a backlog. Priorities must be between 0
+   * and {@link bio.terra.janitor.db.TrackedResource#MAX_PRIORITY}.
+   */
+  private Map<ResourceType, Integer> resourceTypePriorities = defaultResourceTypePriorities();
+
+  /**
+   * How long an expired resource may wait to be claimed before it goes ahead of higher priority
+   * resources of its kind. This bounds how long low priority resources starve behind a steady
+   * stream of higher priority ones. Zero claims every resource in expiration order.
+   */
+  private Duration priorityMaxWait = Duration.ofHours(1);
+
+  /**
+   * Whether to limit how many resources of each type may be cleaning at once. Each type's limit
+   * grows while its flights succeed and shrinks when they fail or slow down.
+   *
+   * <p>Off by default, since the limits start at {@link #resourceTypeBulkheadInitialLimit} and
+   * would cap a type well below what it ran at before until they grow. Size the initial limit for
+   * the deployment's usual load before turning it on.
+   */
+  private boolean resourceTypeBulkheadsEnabled = false;
+
+  /** The limit each resource type starts with. */
+  private int resourceTypeBulkheadInitialLimit = 20;
+
+  private int resourceTypeBulkheadMinLimit = 1;
+
+  private int resourceTypeBulkheadMaxLimit = 500;
+
+  /**
+   * How many times longer than its type's average a flight may take before it counts as slow and
+   * shrinks the type's limit.
+   */
+  private double resourceTypeBulkheadLatencyTolerance = 3.0;
+
+  /** How long after shrinking a type's limit to wait before shrinking it again. */
+  private Duration resourceTypeBulkheadDecreaseCooldown = Duration.ofMinutes(1);
+
+  /**
+   * How often to sweep for flights that have been completed. Flights are normally completed as soon
+   * as they end, so the sweep is only a safety net for flights that were missed, e.g. because the
+   * instance that ran them shut down.
+   */
+  private Duration flightCompletionPeriod = Duration.ofMinutes(10);
+
+  /**
+   * Bounds on the completion sweep period. The sweep backs off while it finds nothing to complete
+   * and speeds up while it reaches {@link #flightCompletionLimit}.
+   */
+  private Duration flightCompletionMinPeriod = Duration.ofMinutes(1);
+
+  private Duration flightCompletionMaxPeriod = Duration.ofMinutes(30);
 
   /** How many flights to process for completion at a time. */
   private int flightCompletionLimit = 1000;
 
+  /**
+   * How many flights to complete together. The Stairway statuses of a batch are fetched with one
+   * query and its state transitions are applied in one transaction.
+   */
+  private int flightCompletionBatchSize = 100;
+
   /** How often to query for flights that have completed fatally. */
   private Duration fatalFlightCompletionPeriod = Duration.ofMinutes(1);
 
-  /** How many fatal flights to process for completion at a time. */
+  /** Bounds on the fatal flight completion period, which adapts to how many flights it finds. */
+  private Duration fatalFlightCompletionMinPeriod = Duration.ofSeconds(10);
+
+  private Duration fatalFlightCompletionMaxPeriod = Duration.ofMinutes(10);
+
+  /** How many fatal flights to read from Stairway at a time while completing them. */
   private int fatalFlightCompletionLimit = 1000;
 
+  /**
+   * How long after a flight completes fatally to wait before processing it. Only fatal flights that
+   * completed before this delay are processed, so that a fatal flight whose completion is still
+   * being recorded is not skipped.
+   */
+  private Duration fatalFlightCompletionDelay = Duration.ofMinutes(1);
+
   /** How often to record the counts of the different resources in the database. */
   private Duration recordResourceCountPeriod = Duration.ofMinutes(10);
 
+  /**
+   * Bounds on the resource count period. Counts are recorded less often while they do not change.
+   */
+  private Duration recordResourceCountMinPeriod = Duration.ofMinutes(1);
+
+  private Duration recordResourceCountMaxPeriod = Duration.ofHours(1);
+
+  /**
+   * How many times an ERROR resource is automatically made READY again before it is left for a
+   * human to bump. 0 disables automatic retries.
+   */
+  private int errorRetryMaxAttempts = 5;
+
+  /**
+   * How long after its first failure an ERROR resource is retried. The backoff doubles with each
+   * failed retry, up to the max backoff.
+   */
+  private Duration errorRetryInitialBackoff = Duration.ofMinutes(10);
+
+  private Duration errorRetryMaxBackoff = Duration.ofHours(12);
+
+  /** How often to look for ERROR resources that are due to be retried. */
+  private Duration errorRetryPeriod = Duration.ofMinutes(5);
+
+  /** Bounds on the error retry period. Retries are looked for less often while there are none. */
+  private Duration errorRetryMinPeriod = Duration.ofMinutes(1);
+
+  private Duration errorRetryMaxPeriod = Duration.ofMinutes(30);
+
+  /** The max number of ERROR resources to retry at a time. */
+  private int errorRetryLimit = 1000;
+
   public boolean isSchedulerEnabled() {
     return schedulerEnabled;
   }
 
-  public int getUnsubmittedFlightRecoveryLimit() {
-    return unsubmittedFlightRecoveryLimit;
+  public boolean isSchedulerVirtualThreadsEnabled() {
+    return schedulerVirtualThreadsEnabled;
+  }
+
+  public boolean isLeaderElectionEnabled() {
+    return leaderElectionEnabled;
+  }
+
+  public Duration getDrainTimeout() {
+    return drainTimeout;
+  }
+
+  public Duration getLeaderLeaseDuration() {
+    return leaderLeaseDuration;
+  }
+
+  public Duration getLeaderLeaseRenewalPeriod() {
+    return leaderLeaseRenewalPeriod;
+  }
+
+  public Duration getUnsubmittedFlightRecoveryPeriod() {
+    return unsubmittedFlightRecoveryPeriod;
+  }
+
+  public Duration getUnsubmittedFlightRecoveryMinPeriod() {
+    return unsubmittedFlightRecoveryMinPeriod;
+  }
+
+  public Duration getUnsubmittedFlightRecoveryMaxPeriod() {
+    return unsubmittedFlightRecoveryMaxPeriod;
+  }
+
+  public Duration getUnsubmittedFlightRecoveryGracePeriod() {
+    return unsubmittedFlightRecoveryGracePeriod;
+  }
+
+  public int getUnsubmittedFlightRecoveryPageSize() {
+    return unsubmittedFlightRecoveryPageSize;
   }
 
   public Duration getFlightSubmissionPeriod() {
     return flightSubmissionPeriod;
   }
 
+  public int getFlightSubmissionBatchSize() {
+    return flightSubmissionBatchSize;
+  }
+
+  public int getFlightSubmissionQueueCapacity() {
+    return flightSubmissionQueueCapacity;
+  }
+
+  public int getFlightSubmissionThreads() {
+    return flightSubmissionThreads;
+  }
+
+  public double getFlightSubmissionWindowMultiplier() {
+    return flightSubmissionWindowMultiplier;
+  }
+
+  public Duration getFlightSubmissionLookahead() {
+    return flightSubmissionLookahead;
+  }
+
+  public int getFlightSubmissionLookaheadLimit() {
+    return flightSubmissionLookaheadLimit;
+  }
+
+  public List<ResourceKindPolicy> getResourceKindPolicies() {
+    return resourceKindPolicies;
+  }
+
+  private static Map<ResourceType, Integer> defaultResourceTypePriorities() {
+    Map<ResourceType, Integer> priorities = new EnumMap<>(ResourceType.class);
+    priorities.put(ResourceType.GOOGLE_PROJECT, 3);
+    priorities.put(ResourceType.AZURE_VIRTUAL_MACHINE, 3);
+    priorities.put(ResourceType.AZURE_BATCH_POOL, 3);
+    priorities.put(ResourceType.AZURE_DATABASE, 2);
+    priorities.put(ResourceType.AZURE_CONTAINER_INSTANCE, 2);
+    priorities.put(ResourceType.AZURE_DISK, 1);
+    priorities.put(ResourceType.AZURE_PUBLIC_IP, 1);
+    return priorities;
+  }
+
+  public Map<ResourceType, Integer> getResourceTypePriorities() {
+    return resourceTypePriorities;
+  }
+
+  public Duration getPriorityMaxWait() {
+    return priorityMaxWait;
+  }
+
+  public boolean isResourceTypeBulkheadsEnabled() {
+    return resourceTypeBulkheadsEnabled;
+  }
+
+  public int getResourceTypeBulkheadInitialLimit() {
+    return resourceTypeBulkheadInitialLimit;
+  }
+
+  public int getResourceTypeBulkheadMinLimit() {
+    return resourceTypeBulkheadMinLimit;
+  }
+
+  public int getResourceTypeBulkheadMaxLimit() {
+    return resourceTypeBulkheadMaxLimit;
+  }
+
+  public double getResourceTypeBulkheadLatencyTolerance() {
+    return resourceTypeBulkheadLatencyTolerance;
+  }
+
+  public Duration getResourceTypeBulkheadDecreaseCooldown() {
+    return resourceTypeBulkheadDecreaseCooldown;
+  }
+
   public Duration getFlightCompletionPeriod() {
     return flightCompletionPeriod;
   }
 
+  public Duration getFlightCompletionMinPeriod() {
+    return flightCompletionMinPeriod;
+  }
+
+  public Duration getFlightCompletionMaxPeriod() {
+    return flightCompletionMaxPeriod;
+  }
+
   public int getFlightCompletionLimit() {
     return flightCompletionLimit;
   }
 
+  public int getFlightCompletionBatchSize() {
+    return flightCompletionBatchSize;
+  }
+
   public Duration getFatalFlightCompletionPeriod() {
     return fatalFlightCompletionPeriod;
   }
 
+  public Duration getFatalFlightCompletionMinPeriod() {
+    return fatalFlightCompletionMinPeriod;
+  }
+
+  public Duration getFatalFlightCompletionMaxPeriod() {
+    return fatalFlightCompletionMaxPeriod;
+  }
+
   public int getFatalFlightCompletionLimit() {
     return fatalFlightCompletionLimit;
   }
 
+  public Duration getFatalFlightCompletionDelay() {
+    return fatalFlightCompletionDelay;
+  }
+
   public Duration getRecordResourceCountPeriod() {
     return recordResourceCountPeriod;
   }
 
+  public Duration getRecordResourceCountMinPeriod() {
+    return recordResourceCountMinPeriod;
+  }
+
+  public Duration getRecordResourceCountMaxPeriod() {
+    return recordResourceCountMaxPeriod;
+  }
+
+  public int getErrorRetryMaxAttempts() {
+    return errorRetryMaxAttempts;
+  }
+
+  public Duration getErrorRetryInitialBackoff() {
+    return errorRetryInitialBackoff;
+  }
+
+  public Duration getErrorRetryMaxBackoff() {
+    return errorRetryMaxBackoff;
+  }
+
+  public Duration getErrorRetryPeriod() {
+    return errorRetryPeriod;
+  }
+
+  public Duration getErrorRetryMinPeriod() {
+    return errorRetryMinPeriod;
+  }
+
+  public Duration getErrorRetryMaxPeriod() {
+    return errorRetryMaxPeriod;
+  }
+
+  public int getErrorRetryLimit() {
+    return errorRetryLimit;
+  }
+
   public void setSchedulerEnabled(boolean schedulerEnabled) {
     this.schedulerEnabled = schedulerEnabled;
   }
 
+  public void setSchedulerVirtualThreadsEnabled(boolean schedulerVirtualThreadsEnabled) {
+    this.schedulerVirtualThreadsEnabled = schedulerVirtualThreadsEnabled;
+  }
+
+  public void setLeaderElectionEnabled(boolean leaderElectionEnabled) {
+    this.leaderElectionEnabled = leaderElectionEnabled;
+  }
+
+  public void setDrainTimeout(Duration drainTimeout) {
+    this.drainTimeout = drainTimeout;
+  }
+
+  public void setLeaderLeaseDuration(Duration leaderLeaseDuration) {
+    this.leaderLeaseDuration = leaderLeaseDuration;
+  }
+
+  public void setLeaderLeaseRenewalPeriod(Duration leaderLeaseRenewalPeriod) {
+    this.leaderLeaseRenewalPeriod = leaderLeaseRenewalPeriod;
+  }
+
   public void setFlightSubmissionPeriod(Duration flightSubmissionPeriod) {
     this.flightSubmissionPeriod = flightSubmissionPeriod;
   }
 
+  public void setFlightSubmissionBatchSize(int flightSubmissionBatchSize) {
+    this.flightSubmissionBatchSize = flightSubmissionBatchSize;
+  }
+
+  public void setFlightSubmissionQueueCapacity(int flightSubmissionQueueCapacity) {
+    this.flightSubmissionQueueCapacity = flightSubmissionQueueCapacity;
+  }
+
+  public void setFlightSubmissionThreads(int flightSubmissionThreads) {
+    this.flightSubmissionThreads = flightSubmissionThreads;
+  }
+
+  public void setFlightSubmissionWindowMultiplier(double flightSubmissionWindowMultiplier) {
+    this.flightSubmissionWindowMultiplier = flightSubmissionWindowMultiplier;
+  }
+
+  public void setFlightSubmissionLookahead(Duration flightSubmissionLookahead) {
+    this.flightSubmissionLookahead = flightSubmissionLookahead;
+  }
+
+  public void setFlightSubmissionLookaheadLimit(int flightSubmissionLookaheadLimit) {
+    this.flightSubmissionLookaheadLimit = flightSubmissionLookaheadLimit;
+  }
+
+  public void setResourceKindPolicies(List<ResourceKindPolicy> resourceKindPolicies) {
+    this.resourceKindPolicies = resourceKindPolicies;
+  }
+
+  public void setResourceTypePriorities(Map<ResourceType, Integer> resourceTypePriorities) {
+    this.resourceTypePriorities = resourceTypePriorities;
+  }
+
+  public void setPriorityMaxWait(Duration priorityMaxWait) {
+    this.priorityMaxWait = priorityMaxWait;
+  }
+
+  public void setResourceTypeBulkheadsEnabled(boolean resourceTypeBulkheadsEnabled) {
+    this.resourceTypeBulkheadsEnabled = resourceTypeBulkheadsEnabled;
+  }
+
+  public void setResourceTypeBulkheadInitialLimit(int resourceTypeBulkheadInitialLimit) {
+    this.resourceTypeBulkheadInitialLimit = resourceTypeBulkheadInitialLimit;
+  }
+
+  public void setResourceTypeBulkheadMinLimit(int resourceTypeBulkheadMinLimit) {
+    this.resourceTypeBulkheadMinLimit = resourceTypeBulkheadMinLimit;
+  }
+
+  public void setResourceTypeBulkheadMaxLimit(int resourceTypeBulkheadMaxLimit) {
+    this.resourceTypeBulkheadMaxLimit = resourceTypeBulkheadMaxLimit;
+  }
+
+  public void setResourceTypeBulkheadLatencyTolerance(
+      double resourceTypeBulkheadLatencyTolerance) {
+    this.resourceTypeBulkheadLatencyTolerance = resourceTypeBulkheadLatencyTolerance;
+  }
+
+  public void setResourceTypeBulkheadDecreaseCooldown(
+      Duration resourceTypeBulkheadDecreaseCooldown) {
+    this.resourceTypeBulkheadDecreaseCooldown = resourceTypeBulkheadDecreaseCooldown;
+  }
+
   public void setFlightCompletionPeriod(Duration flightCompletionPeriod) {
     this.flightCompletionPeriod = flightCompletionPeriod;
   }
 
-  public void setUnsubmittedFlightRecoveryLimit(int unsubmittedFlightRecoveryLimit) {
-    this.unsubmittedFlightRecoveryLimit = unsubmittedFlightRecoveryLimit;
+  public void setFlightCompletionMinPeriod(Duration flightCompletionMinPeriod) {
+    this.flightCompletionMinPeriod = flightCompletionMinPeriod;
+  }
+
+  public void setFlightCompletionMaxPeriod(Duration flightCompletionMaxPeriod) {
+    this.flightCompletionMaxPeriod = flightCompletionMaxPeriod;
+  }
+
+  public void setUnsubmittedFlightRecoveryPeriod(Duration unsubmittedFlightRecoveryPeriod) {
+    this.unsubmittedFlightRecoveryPeriod = unsubmittedFlightRecoveryPeriod;
+  }
+
+  public void setUnsubmittedFlightRecoveryMinPeriod(Duration unsubmittedFlightRecoveryMinPeriod) {
+    this.unsubmittedFlightRecoveryMinPeriod = unsubmittedFlightRecoveryMinPeriod;
+  }
+
+  public void setUnsubmittedFlightRecoveryMaxPeriod(Duration unsubmittedFlightRecoveryMaxPeriod) {
+    this.unsubmittedFlightRecoveryMaxPeriod = unsubmittedFlightRecoveryMaxPeriod;
+  }
+
+  public void setUnsubmittedFlightRecoveryGracePeriod(
+      Duration unsubmittedFlightRecoveryGracePeriod) {
+    this.unsubmittedFlightRecoveryGracePeriod = unsubmittedFlightRecoveryGracePeriod;
+  }
+
+  public void setUnsubmittedFlightRecoveryPageSize(int unsubmittedFlightRecoveryPageSize) {
+    this.unsubmittedFlightRecoveryPageSize = unsubmittedFlightRecoveryPageSize;
   }
 
   public void setFlightCompletionLimit(int flightCompletionLimit) {
     this.flightCompletionLimit = flightCompletionLimit;
   }
 
+  public void setFlightCompletionBatchSize(int flightCompletionBatchSize) {
+    this.flightCompletionBatchSize = flightCompletionBatchSize;
+  }
+
   public void setFatalFlightCompletionLimit(int fatalFlightCompletionLimit) {
     this.fatalFlightCompletionLimit = fatalFlightCompletionLimit;
   }
@@ -99,7 +571,106 @@ public class PrimaryConfiguration {
     this.fatalFlightCompletionPeriod = fatalFlightCompletionPeriod;
   }
 
+  public void setFatalFlightCompletionMinPeriod(Duration fatalFlightCompletionMinPeriod) {
+    this.fatalFlightCompletionMinPeriod = fatalFlightCompletionMinPeriod;
+  }
+
+  public void setFatalFlightCompletionMaxPeriod(Duration fatalFlightCompletionMaxPeriod) {
+    this.fatalFlightCompletionMaxPeriod = fatalFlightCompletionMaxPeriod;
+  }
+
+  public void setFatalFlightCompletionDelay(Duration fatalFlightCompletionDelay) {
+    this.fatalFlightCompletionDelay = fatalFlightCompletionDelay;
+  }
+
   public void setRecordResourceCountPeriod(Duration recordResourceCountPeriod) {
     this.recordResourceCountPeriod = recordResourceCountPeriod;
   }
+
+  public void setRecordResourceCountMinPeriod(Duration recordResourceCountMinPeriod) {
+    this.recordResourceCountMinPeriod = recordResourceCountMinPeriod;
+  }
+
+  public void setRecordResourceCountMaxPeriod(Duration recordResourceCountMaxPeriod) {
+    this.recordResourceCountMaxPeriod = recordResourceCountMaxPeriod;
+  }
+
+  public void setErrorRetryMaxAttempts(int errorRetryMaxAttempts) {
+    this.errorRetryMaxAttempts = errorRetryMaxAttempts;
+  }
+
+  public void setErrorRetryInitialBackoff(Duration errorRetryInitialBackoff) {
+    this.errorRetryInitialBackoff = errorRetryInitialBackoff;
+  }
+
+  public void setErrorRetryMaxBackoff(Duration errorRetryMaxBackoff) {
+    this.errorRetryMaxBackoff = errorRetryMaxBackoff;
+  }
+
+  public void setErrorRetryPeriod(Duration errorRetryPeriod) {
+    this.errorRetryPeriod = errorRetryPeriod;
+  }
+
+  public void setErrorRetryMinPeriod(Duration errorRetryMinPeriod) {
+    this.errorRetryMinPeriod = errorRetryMinPeriod;
+  }
+
+  public void setErrorRetryMaxPeriod(Duration errorRetryMaxPeriod) {
+    this.errorRetryMaxPeriod = errorRetryMaxPeriod;
+  }
+
+  public void setErrorRetryLimit(int errorRetryLimit) {
+    this.errorRetryLimit = errorRetryLimit;
+  }
+
+  /**
+   * How flight submissions are shared with the resources of a client and type. A policy with no
+   * client or no resource type matches any. When several policies match a kind of resource, the
+   * one that names both its client and type is used first, then the one naming its type.
+   */
+  public static class ResourceKindPolicy {
+    /** The "client" label value of the resources, or null to match any client. */
+    private String client;
+
+    /** The type of the resources, or null to match any type. */
+    private ResourceType resourceType;
+
+    /** The share of flight submissions relative to other kinds while all of them are waiting. */
+    private double weight = 1.0;
+
+    /** How many resources of the kind may be cleaning at once. 0 means no limit. */
+    private int maxInFlight = 0;
+
+    public String getClient() {
+      return client;
+    }
+
+    public ResourceType getResourceType() {
+      return resourceType;
+    }
+
+    public double getWeight() {
+      return weight;
+    }
+
+    public int getMaxInFlight() {
+      return maxInFlight;
+    }
+
+    public void setClient(String client) {
+      this.client = client;
+    }
+
+    public void setResourceType(ResourceType resourceType) {
+      this.resourceType = resourceType;
+    }
+
+    public void setWeight(double weight) {
+      this.weight = weight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+    }
+  }
 }
@@ -8,18 +8,25 @@ import bio.terra.janitor.generated.model.*;
 import bio.terra.janitor.service.janitor.JanitorApiService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
 import java.util.Optional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 public class JanitorApiController implements JanitorApi {
+  /** The media type of newline delimited JSON. */
+  public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
   private final JanitorApiService janitorApiService;
   private final HttpServletRequest request;
   private final AuthenticatedUserRequestFactory authenticatedUserRequestFactory;
@@ -52,16 +59,42 @@ public class JanitorApiController implements JanitorApi {
       @Valid CloudResourceUid cloudResourceUid,
       @Valid ResourceState state,
       @Min(0) @Valid Integer offset,
-      @Min(0) @Valid Integer limit) {
+      @Min(0) @Valid Integer limit,
+      @Valid String pageToken) {
     if (limit == 0 && offset > 0) {
       throw new BadRequestException("No offset allowed when there is no limit set.");
     }
+    if (pageToken != null && offset > 0) {
+      throw new BadRequestException("No offset allowed with a page token.");
+    }
     return new ResponseEntity<>(
         janitorApiService.getResources(
-            cloudResourceUid, state, offset, limit, getAuthenticatedRequest()),
+            cloudResourceUid, state, offset, limit, pageToken, getAuthenticatedRequest()),
         HttpStatus.OK);
   }
 
+  /**
+   * Streams the resources matching the filters as newline delimited JSON, one {@link
+   * TrackedResourceInfo} per line, without building the whole list in memory, followed by a line
+   * with the {@link JanitorApiService#EXPORT_COUNT_FIELD} once every resource has been written. The
+   * response is gzipped by the server if the client accepts it.
+   *
+   * <p>Not part of the generated {@link JanitorApi}, whose responses are built as a whole before
+   * they are written.
+   */
+  @GetMapping("/api/janitor/v1/resource/export")
+  public void exportResources(
+      @RequestParam(name = "cloudResourceUid", required = false)
+          CloudResourceUid cloudResourceUid,
+      @RequestParam(name = "state", required = false) ResourceState state,
+      HttpServletResponse response)
+      throws IOException {
+    JanitorApiService.ResourceExport export =
+        janitorApiService.exportResources(cloudResourceUid, state, getAuthenticatedRequest());
+    response.setContentType(NDJSON_MEDIA_TYPE);
+    export.writeTo(response.getOutputStream());
+  }
+
   @Override
   public ResponseEntity<CreatedResource> createResource(
       @Valid @RequestBody CreateResourceRequestBody body) {
@@ -76,6 +109,12 @@ public class JanitorApiController implements JanitorApi {
     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
   }
 
+  @Override
+  public ResponseEntity<Void> cleanResourceNow(@NotNull @Valid CloudResourceUid cloudResourceUid) {
+    janitorApiService.cleanResourceNow(cloudResourceUid, getAuthenticatedRequest());
+    return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+  }
+
   @Override
   public ResponseEntity<Void> bumpErrors() {
     janitorApiService.bumpErrors(getAuthenticatedRequest());
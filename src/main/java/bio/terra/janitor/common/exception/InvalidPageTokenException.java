@@ -0,0 +1,15 @@
+package bio.terra.janitor.common.exception;
+
+import bio.terra.common.exception.BadRequestException;
+
+/** Exception when the page token in a request was not returned by the Janitor. */
+public class InvalidPageTokenException extends BadRequestException {
+
+  public InvalidPageTokenException(String message) {
+    super(message);
+  }
+
+  public InvalidPageTokenException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,15 @@
+package bio.terra.janitor.common.exception;
+
+import bio.terra.common.exception.BadRequestException;
+
+/** Exception when the cleanup priority of a resource in a request is out of range. */
+public class InvalidPriorityException extends BadRequestException {
+
+  public InvalidPriorityException(String message) {
+    super(message);
+  }
+
+  public InvalidPriorityException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
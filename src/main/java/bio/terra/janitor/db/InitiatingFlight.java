@@ -0,0 +1,21 @@
+package bio.terra.janitor.db;
+
+import com.google.auto.value.AutoValue;
+import java.time.Instant;
+
+/**
+ * A {@link TrackedResourceAndFlight} whose {@link CleanupFlight} is {@link
+ * CleanupFlightState#INITIATING}, with when the cleanup flight was created.
+ */
+@AutoValue
+public abstract class InitiatingFlight {
+  public abstract TrackedResourceAndFlight resourceAndFlight();
+
+  /** When the cleanup flight was created in the Janitor's database. */
+  public abstract Instant creation();
+
+  public static InitiatingFlight create(
+      TrackedResourceAndFlight resourceAndFlight, Instant creation) {
+    return new AutoValue_InitiatingFlight(resourceAndFlight, creation);
+  }
+}
@@ -10,39 +10,127 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 @Component
 public class JanitorDao {
   private final NamedParameterJdbcTemplate jdbcTemplate;
-  /** The labels key used to distinguish janitor clients. */
+  /**
+   * The labels key used to distinguish janitor clients. Its value is also stored in the client
+   * column of tracked_resource when the resource is created, or the empty string if it has none.
+   */
   private static final String CLIENT_LABEL_KEY = "client";
 
+  /**
+   * The Postgres notification channel on which the expiration of a resource that became READY is
+   * published. Notifications are sent when the transaction that made the resource READY commits.
+   */
+  public static final String RESOURCE_READY_CHANNEL = "janitor_resource_ready";
+
+  /**
+   * The Postgres notification channel on which the id of a resource that should be cleaned up right
+   * away is published. Notifications are sent when the transaction that requested it commits.
+   */
+  public static final String RESOURCE_CLEAN_NOW_CHANNEL = "janitor_resource_clean_now";
+
+  /**
+   * The predicate of the IDX_TR_READY_EXPIRATION partial index. Queries that should use the index
+   * must contain it as a literal; the planner cannot match a bind parameter to the index predicate
+   * once the driver switches to a generic prepared plan.
+   */
+  private static final String READY_STATE_PREDICATE = "state = 'READY'";
+
+  /**
+   * The predicate of the IDX_TR_ERROR_NEXT_RETRY partial index. Like {@link
+   * #READY_STATE_PREDICATE}, it must be a literal.
+   */
+  private static final String ERROR_STATE_PREDICATE = "state = 'ERROR'";
+
+  /**
+   * The predicate of the UX_TR_ACTIVE_RESOURCE_UID unique partial index, which allows at most one
+   * active, i.e. not DONE or DUPLICATED, resource per uid. Like {@link #READY_STATE_PREDICATE}, it
+   * must be a literal, and it must match the index exactly for ON CONFLICT to infer the index.
+   */
+  private static final String ACTIVE_STATE_PREDICATE = "state NOT IN ('DONE', 'DUPLICATED')";
+
+  /**
+   * The claim order of the resources of a kind that have waited long enough to go ahead of
+   * priority, served by the IDX_TR_READY_KIND_EXPIRATION index. See {@link
+   * #updateReadyResourcesToCleaning(Instant, Instant, ResourceKind, int)}.
+   */
+  @VisibleForTesting static final String AGED_CLAIM_ORDER = "expiration";
+
+  /**
+   * The claim order of the other resources of a kind, served by the IDX_TR_READY_KIND_PRIORITY
+   * index.
+   */
+  @VisibleForTesting static final String PRIORITY_CLAIM_ORDER = "priority DESC, expiration";
+
+  /**
+   * Returns the SQL that moves up to :limit READY resources of the kind :resource_type and :client
+   * that have expired by :expired_by to :cleaning_state, in {@code claimOrder}.
+   */
+  @VisibleForTesting
+  static String claimReadyResourcesSql(String claimOrder) {
+    return "UPDATE tracked_resource SET state = :cleaning_state WHERE id IN ("
+        + "SELECT tr.id FROM tracked_resource tr "
+        + "WHERE "
+        + READY_STATE_PREDICATE
+        + " AND resource_type = :resource_type AND client = :client "
+        + "AND expiration <= :expired_by "
+        + "ORDER BY "
+        + claimOrder
+        + " LIMIT :limit FOR UPDATE SKIP LOCKED) "
+        + "RETURNING id, resource_uid, creation, expiration, state, metadata, priority";
+  }
+
+  /**
+   * Returns a predicate matching the resources whose uid is the serialized {@link
+   * CloudResourceUid} bound to {@code param}. The IDX_TR_RESOURCE_UID_HASH index looks the uid up
+   * by the hash of its canonical jsonb text, so the match does not depend on how the uid was
+   * serialized. The uids themselves are compared as well to rule out hash collisions.
+   */
+  private static String resourceUidEquals(String param) {
+    return String.format(
+        "resource_uid_hash = md5(:%1$s::jsonb::text)::uuid AND resource_uid = :%1$s::jsonb", param);
+  }
+
   /**
    * This mapper must stay constant over time to ensure that older versions of obvious can be read.
    * Change here must be accompanied by an upgrade process to ensure that all data is rewritten in
@@ -61,11 +149,38 @@ public class JanitorDao {
    *
    * <p>Note that we assume int input {@code cloudResourceUid} is valid.
    */
-  @Transactional(propagation = Propagation.REQUIRED, isolation = Isolation.SERIALIZABLE)
+  @Transactional(propagation = Propagation.REQUIRED)
   public void createResource(TrackedResource resource, Map<String, String> labels) {
+    insertResource(resource, labels, "");
+  }
+
+  /**
+   * Creates the tracked_resource record and adding labels like {@link
+   * #createResource(TrackedResource, Map)}, unless the resource is active and there already is an
+   * active resource with the same uid. Returns whether the resource was created.
+   *
+   * <p>If another transaction is creating an active resource with the same uid, this waits for it
+   * to commit or roll back instead of failing.
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public boolean createResourceIfNoActiveDuplicate(
+      TrackedResource resource, Map<String, String> labels) {
+    return insertResource(
+        resource,
+        labels,
+        " ON CONFLICT (resource_uid_hash) WHERE " + ACTIVE_STATE_PREDICATE + " DO NOTHING");
+  }
+
+  /**
+   * Inserts the tracked_resource record with {@code onConflict} appended to the INSERT statement,
+   * then adds its labels if it was inserted. Returns whether it was inserted.
+   */
+  private boolean insertResource(
+      TrackedResource resource, Map<String, String> labels, String onConflict) {
     String sql =
-        "INSERT INTO tracked_resource (id, resource_uid, resource_type, creation, expiration, state, metadata) values "
-            + "(:id, :resource_uid::jsonb, :resource_type, :creation, :expiration, :state, :metadata::jsonb)";
+        "INSERT INTO tracked_resource (id, resource_uid, resource_type, client, creation, expiration, state, metadata, priority) values "
+            + "(:id, :resource_uid::jsonb, :resource_type, :client, :creation, :expiration, :state, :metadata::jsonb, :priority)"
+            + onConflict;
 
     MapSqlParameterSource params =
         new MapSqlParameterSource()
@@ -74,12 +189,16 @@ public class JanitorDao {
             .addValue(
                 "resource_type",
                 new ResourceTypeVisitor().accept(resource.cloudResourceUid()).toString())
+            .addValue("client", labels == null ? "" : labels.getOrDefault(CLIENT_LABEL_KEY, ""))
             .addValue("creation", resource.creation().atOffset(ZoneOffset.UTC))
             .addValue("state", resource.trackedResourceState().toString())
             .addValue("expiration", resource.expiration().atOffset(ZoneOffset.UTC))
-            .addValue("metadata", serialize(resource.metadata()));
+            .addValue("metadata", serialize(resource.metadata()))
+            .addValue("priority", resource.priority());
 
-    jdbcTemplate.update(sql, params);
+    if (jdbcTemplate.update(sql, params) == 0) {
+      return false;
+    }
 
     if (labels != null && !labels.isEmpty()) {
       String insertLabelSql =
@@ -98,13 +217,44 @@ public class JanitorDao {
 
       jdbcTemplate.batchUpdate(insertLabelSql, sqlParameterSourceList);
     }
+    if (resource.trackedResourceState().equals(TrackedResourceState.READY)) {
+      notifyResourceReady(resource.expiration());
+    }
+    return true;
+  }
+
+  /**
+   * Marks the active resources with {@code cloudResourceUid} that expire before {@code expiration}
+   * as DUPLICATED. Returns the ids of the duplicated resources.
+   *
+   * <p>If another transaction is updating the same resources, this waits for it to finish and then
+   * rechecks them instead of failing.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResourceId> updateOlderActiveResourcesToDuplicated(
+      CloudResourceUid cloudResourceUid, Instant expiration) {
+    String sql =
+        "UPDATE tracked_resource SET state = :duplicated_state WHERE "
+            + resourceUidEquals("resource_uid")
+            + " AND "
+            + ACTIVE_STATE_PREDICATE
+            + " AND expiration < :expiration RETURNING id";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("duplicated_state", TrackedResourceState.DUPLICATED.toString())
+            .addValue("resource_uid", serialize(cloudResourceUid))
+            .addValue("expiration", expiration.atOffset(ZoneOffset.UTC));
+    return jdbcTemplate.queryForList(sql, params, UUID.class).stream()
+        .map(TrackedResourceId::create)
+        .collect(Collectors.toList());
   }
 
   /** Returns the {@link TrackedResource} for a {@link TrackedResourceId} if there is one. */
   @Transactional(propagation = Propagation.SUPPORTS)
   public Optional<TrackedResource> retrieveTrackedResource(TrackedResourceId trackedResourceId) {
     String sql =
-        "SELECT id, resource_uid, creation, expiration, state, metadata FROM tracked_resource tr "
+        "SELECT id, resource_uid, creation, expiration, state, metadata, priority "
+            + "FROM tracked_resource tr "
             + "WHERE id = :id";
     MapSqlParameterSource params =
         new MapSqlParameterSource().addValue("id", trackedResourceId.uuid());
@@ -112,6 +262,23 @@ public class JanitorDao {
         DataAccessUtils.singleResult(jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER)));
   }
 
+  /** Returns the {@link TrackedResource}s that exist for the {@code trackedResourceIds}. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> retrieveTrackedResources(
+      Collection<TrackedResourceId> trackedResourceIds) {
+    if (trackedResourceIds.isEmpty()) {
+      return List.of();
+    }
+    String sql =
+        "SELECT id, resource_uid, creation, expiration, state, metadata, priority "
+            + "FROM tracked_resource tr "
+            + "WHERE id IN (:ids)";
+    List<UUID> ids =
+        trackedResourceIds.stream().map(TrackedResourceId::uuid).collect(Collectors.toList());
+    MapSqlParameterSource params = new MapSqlParameterSource().addValue("ids", ids);
+    return jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER);
+  }
+
   /**
    * Modifies the {@link TrackedResourceState} for a single id. Returns the updated TrackedResource,
    * if one was updated.
@@ -121,24 +288,444 @@ public class JanitorDao {
       TrackedResourceId trackedResourceId, TrackedResourceState newState) {
     String sql =
         "UPDATE tracked_resource SET state = :state WHERE id = :id "
-            + "RETURNING id, resource_uid, creation, expiration, state, metadata";
+            + "RETURNING id, resource_uid, creation, expiration, state, metadata, priority";
     MapSqlParameterSource params =
         new MapSqlParameterSource()
             .addValue("state", newState.toString())
             .addValue("id", trackedResourceId.uuid());
+    Optional<TrackedResource> resource =
+        Optional.ofNullable(
+            DataAccessUtils.singleResult(
+                jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER)));
+    if (newState.equals(TrackedResourceState.READY)) {
+      resource.ifPresent(r -> notifyResourceReady(r.expiration()));
+    }
+    return resource;
+  }
+
+  /**
+   * Moves the resources with {@code trackedResourceIds} that are in one of the {@code
+   * expectedStates} to {@code newState} in one statement. Returns the updated resources. Resources
+   * in any other state are left alone and omitted.
+   *
+   * <p>The state is checked and changed atomically, so no lock or isolation level is needed to keep
+   * a concurrent transition from being overwritten.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> transitionResourceStates(
+      Collection<TrackedResourceId> trackedResourceIds,
+      Set<TrackedResourceState> expectedStates,
+      TrackedResourceState newState) {
+    if (trackedResourceIds.isEmpty()) {
+      return List.of();
+    }
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue(
+                "ids",
+                trackedResourceIds.stream()
+                    .map(TrackedResourceId::uuid)
+                    .collect(Collectors.toList()));
+    return transitionResourceStates("id IN (:ids)", params, expectedStates, newState);
+  }
+
+  /**
+   * Moves the resource with {@code trackedResourceId} to {@code newState} if it is in one of the
+   * {@code expectedStates}, like {@link #transitionResourceStates(Collection, Set,
+   * TrackedResourceState)}. Returns the updated resource, if it was updated.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<TrackedResource> transitionResourceState(
+      TrackedResourceId trackedResourceId,
+      Set<TrackedResourceState> expectedStates,
+      TrackedResourceState newState) {
+    return Optional.ofNullable(
+        DataAccessUtils.singleResult(
+            transitionResourceStates(List.of(trackedResourceId), expectedStates, newState)));
+  }
+
+  /**
+   * Moves the resources with {@code cloudResourceUid} that are in one of the {@code
+   * expectedStates} to {@code newState} in one statement, like {@link
+   * #transitionResourceStates(Collection, Set, TrackedResourceState)}. Returns the updated
+   * resources.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> transitionResourceStates(
+      CloudResourceUid cloudResourceUid,
+      Set<TrackedResourceState> expectedStates,
+      TrackedResourceState newState) {
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("resource_uid", serialize(cloudResourceUid));
+    return transitionResourceStates(
+        resourceUidEquals("resource_uid"), params, expectedStates, newState);
+  }
+
+  /**
+   * Moves the resources matching {@code predicate} with {@code params} that are in one of the
+   * {@code expectedStates} to {@code newState}. Returns the updated resources.
+   */
+  private List<TrackedResource> transitionResourceStates(
+      String predicate,
+      MapSqlParameterSource params,
+      Set<TrackedResourceState> expectedStates,
+      TrackedResourceState newState) {
+    if (expectedStates.isEmpty()) {
+      return List.of();
+    }
+    String sql =
+        "UPDATE tracked_resource SET state = :new_state WHERE "
+            + predicate
+            + " AND state IN (:expected_states) "
+            + "RETURNING id, resource_uid, creation, expiration, state, metadata, priority";
+    params
+        .addValue("new_state", newState.toString())
+        .addValue(
+            "expected_states",
+            expectedStates.stream()
+                .map(TrackedResourceState::toString)
+                .collect(Collectors.toList()));
+    List<TrackedResource> resources = jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER);
+    if (newState.equals(TrackedResourceState.READY) && !resources.isEmpty()) {
+      // Wake the scheduler immediately and let it look up the earliest expiration itself.
+      notifyResourceReady(currentInstant());
+    }
+    return resources;
+  }
+
+  /**
+   * Modifies the expiration for a single id. Returns the updated TrackedResource, if one was
+   * updated.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<TrackedResource> updateResourceExpiration(
+      TrackedResourceId trackedResourceId, Instant expiration) {
+    String sql =
+        "UPDATE tracked_resource SET expiration = :expiration WHERE id = :id "
+            + "RETURNING id, resource_uid, creation, expiration, state, metadata, priority";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("expiration", expiration.atOffset(ZoneOffset.UTC))
+            .addValue("id", trackedResourceId.uuid());
     return Optional.ofNullable(
         DataAccessUtils.singleResult(jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER)));
   }
 
-  /** Returns the tracked reosurces matching the {@code filter}. */
+  /**
+   * Publishes the {@code expiration} of a resource that became READY on {@link
+   * #RESOURCE_READY_CHANNEL}.
+   */
+  private void notifyResourceReady(Instant expiration) {
+    notify(RESOURCE_READY_CHANNEL, expiration.toString());
+  }
+
+  /**
+   * Publishes the id of a resource that should be cleaned up right away on {@link
+   * #RESOURCE_CLEAN_NOW_CHANNEL}.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void notifyResourceCleanNow(TrackedResourceId trackedResourceId) {
+    notify(RESOURCE_CLEAN_NOW_CHANNEL, trackedResourceId.toString());
+  }
+
+  private void notify(String channel, String payload) {
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("channel", channel).addValue("payload", payload);
+    jdbcTemplate.queryForList("SELECT pg_notify(:channel, :payload)", params);
+  }
+
+  /** Returns the earliest expiration of all READY resources, if there are any. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<Instant> retrieveEarliestReadyExpiration() {
+    String sql = "SELECT min(expiration) FROM tracked_resource WHERE " + READY_STATE_PREDICATE;
+    return Optional.ofNullable(
+            jdbcTemplate.queryForObject(sql, new MapSqlParameterSource(), OffsetDateTime.class))
+        .map(OffsetDateTime::toInstant);
+  }
+
+  /** Returns the earliest expiration after {@code after} of READY resources, if there is one. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<Instant> retrieveEarliestReadyExpiration(Instant after) {
+    String sql =
+        "SELECT min(expiration) FROM tracked_resource WHERE "
+            + READY_STATE_PREDICATE
+            + " AND expiration > :after";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("after", after.atOffset(ZoneOffset.UTC));
+    return Optional.ofNullable(jdbcTemplate.queryForObject(sql, params, OffsetDateTime.class))
+        .map(OffsetDateTime::toInstant);
+  }
+
+  /**
+   * Returns up to {@code limit} READY resources that expire after {@code after} and by {@code
+   * expiringBy}, earliest expiration first, without claiming them.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> retrieveReadyResourcesExpiringBetween(
+      Instant after, Instant expiringBy, int limit) {
+    String sql =
+        "SELECT id, resource_uid, creation, expiration, state, metadata, priority "
+            + "FROM tracked_resource "
+            + "WHERE "
+            + READY_STATE_PREDICATE
+            + " AND expiration > :after AND expiration <= :expiring_by "
+            + "ORDER BY expiration LIMIT :limit";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("after", after.atOffset(ZoneOffset.UTC))
+            .addValue("expiring_by", expiringBy.atOffset(ZoneOffset.UTC))
+            .addValue("limit", limit);
+    return jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER);
+  }
+
+  /**
+   * Moves the resources with {@code trackedResourceIds} that are still READY and have expired by
+   * {@code expiredBy} to the CLEANING state. Returns the updated resources.
+   *
+   * <p>Resources that were abandoned, duplicated, claimed or had their expiration pushed back since
+   * they were read are left alone. Rows locked by other transactions are skipped instead of waited
+   * on.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> updateReadyResourcesToCleaning(
+      Collection<TrackedResourceId> trackedResourceIds, Instant expiredBy) {
+    if (trackedResourceIds.isEmpty()) {
+      return List.of();
+    }
+    String sql =
+        "UPDATE tracked_resource SET state = :cleaning_state WHERE id IN ("
+            + "SELECT id FROM tracked_resource "
+            + "WHERE id IN (:ids) AND "
+            + READY_STATE_PREDICATE
+            + " AND expiration <= :expired_by FOR UPDATE SKIP LOCKED) "
+            + "RETURNING id, resource_uid, creation, expiration, state, metadata, priority";
+    List<UUID> ids =
+        trackedResourceIds.stream().map(TrackedResourceId::uuid).collect(Collectors.toList());
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("cleaning_state", TrackedResourceState.CLEANING.toString())
+            .addValue("ids", ids)
+            .addValue("expired_by", expiredBy.atOffset(ZoneOffset.UTC));
+    return jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER);
+  }
+
+  /**
+   * Moves up to {@code limit} READY resources of {@code kind} that have expired by {@code
+   * expiredBy} to the CLEANING state and returns the updated resources.
+   *
+   * <p>Resources that expired by {@code agedBy} have waited long enough to be claimed ahead of
+   * priority, so they go first, earliest expiration first. The rest are claimed highest priority
+   * first and then earliest expiration first. This bounds how long a low priority resource waits
+   * behind a steady stream of higher priority ones, and each order is served by an index.
+   *
+   * <p>Rows locked by other transactions are skipped instead of waited on, so concurrent callers
+   * claim disjoint sets of resources.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> updateReadyResourcesToCleaning(
+      Instant expiredBy, Instant agedBy, ResourceKind kind, int limit) {
+    List<TrackedResource> claimed =
+        new ArrayList<>(claimReadyResources(AGED_CLAIM_ORDER, agedBy, kind, limit));
+    if (claimed.size() < limit) {
+      claimed.addAll(
+          claimReadyResources(PRIORITY_CLAIM_ORDER, expiredBy, kind, limit - claimed.size()));
+    }
+    return claimed;
+  }
+
+  private List<TrackedResource> claimReadyResources(
+      String claimOrder, Instant expiredBy, ResourceKind kind, int limit) {
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("cleaning_state", TrackedResourceState.CLEANING.toString())
+            .addValue("expired_by", expiredBy.atOffset(ZoneOffset.UTC))
+            .addValue("resource_type", kind.resourceType().toString())
+            .addValue("client", kind.client())
+            .addValue("limit", limit);
+    return jdbcTemplate.query(
+        claimReadyResourcesSql(claimOrder), params, TRACKED_RESOURCE_ROW_MAPPER);
+  }
+
+  /** Returns the READY resources that have expired by {@code expiredBy} for each kind. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<ResourceKindBacklog> retrieveReadyBacklog(Instant expiredBy) {
+    String sql =
+        "SELECT count(*) AS count, min(expiration) AS oldest_expiration, "
+            + "max(priority) AS max_priority, resource_type, client FROM tracked_resource WHERE "
+            + READY_STATE_PREDICATE
+            + " AND expiration <= :expired_by GROUP BY resource_type, client";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("expired_by", expiredBy.atOffset(ZoneOffset.UTC));
+    return jdbcTemplate.query(
+        sql,
+        params,
+        (rs, rowNum) ->
+            ResourceKindBacklog.create(
+                ResourceKind.create(
+                    rs.getString("client"), ResourceType.valueOf(rs.getString("resource_type"))),
+                rs.getInt("count"),
+                rs.getObject("oldest_expiration", OffsetDateTime.class).toInstant(),
+                rs.getInt("max_priority")));
+  }
+
+  /**
+   * Schedules the next automatic retry of the ERROR resources with {@code trackedResourceIds} that
+   * have been retried fewer than {@code maxAttempts} times. Each is retried {@code initialBackoff}
+   * after {@code now}, doubled for every previous retry, up to {@code maxBackoff}. Returns the ids
+   * of the resources that were scheduled. The others are left in ERROR with no retry scheduled.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Set<TrackedResourceId> scheduleErrorRetries(
+      Collection<TrackedResourceId> trackedResourceIds,
+      Instant now,
+      int maxAttempts,
+      Duration initialBackoff,
+      Duration maxBackoff) {
+    if (trackedResourceIds.isEmpty()) {
+      return Set.of();
+    }
+    String sql =
+        "UPDATE tracked_resource SET next_retry_time = :now + make_interval(secs => "
+            + "least(:initial_seconds * power(2, retry_attempts), :max_seconds)) "
+            + "WHERE id IN (:ids) AND state = :error_state AND retry_attempts < :max_attempts "
+            + "RETURNING id";
+    List<UUID> ids =
+        trackedResourceIds.stream().map(TrackedResourceId::uuid).collect(Collectors.toList());
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("now", now.atOffset(ZoneOffset.UTC))
+            .addValue("initial_seconds", (double) initialBackoff.toSeconds())
+            .addValue("max_seconds", (double) maxBackoff.toSeconds())
+            .addValue("ids", ids)
+            .addValue("error_state", TrackedResourceState.ERROR.toString())
+            .addValue("max_attempts", maxAttempts);
+    return jdbcTemplate
+        .queryForList(sql, params, UUID.class)
+        .stream()
+        .map(TrackedResourceId::create)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Moves up to {@code limit} ERROR resources whose retry is due by {@code retryBy} back to the
+   * READY state, earliest retry first, and counts the retry. Returns the updated resources.
+   *
+   * <p>Rows locked by other transactions are skipped instead of waited on.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResource> updateErrorResourcesToReady(Instant retryBy, int limit) {
+    String sql =
+        "UPDATE tracked_resource SET state = :ready_state, retry_attempts = retry_attempts + 1, "
+            + "next_retry_time = NULL WHERE id IN ("
+            + "SELECT id FROM tracked_resource "
+            + "WHERE "
+            + ERROR_STATE_PREDICATE
+            + " AND next_retry_time <= :retry_by "
+            + "ORDER BY next_retry_time LIMIT :limit FOR UPDATE SKIP LOCKED) "
+            + "RETURNING id, resource_uid, creation, expiration, state, metadata, priority";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("ready_state", TrackedResourceState.READY.toString())
+            .addValue("retry_by", retryBy.atOffset(ZoneOffset.UTC))
+            .addValue("limit", limit);
+    List<TrackedResource> resources = jdbcTemplate.query(sql, params, TRACKED_RESOURCE_ROW_MAPPER);
+    if (!resources.isEmpty()) {
+      // The retried resources have already expired, so wake the scheduler immediately.
+      notifyResourceReady(currentInstant());
+    }
+    return resources;
+  }
+
+  /**
+   * Forgets the automatic retries of the resource with {@code trackedResourceId}, so that it gets
+   * all of its retries again if it fails again.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void resetErrorRetries(TrackedResourceId trackedResourceId) {
+    jdbcTemplate.update(
+        "UPDATE tracked_resource SET retry_attempts = 0, next_retry_time = NULL WHERE id = :id",
+        new MapSqlParameterSource().addValue("id", trackedResourceId.uuid()));
+  }
+
+  /** Returns how many resources of each kind are in the CLEANING state. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Map<ResourceKind, Integer> retrieveCleaningCounts() {
+    String sql =
+        "SELECT count(*) AS count, resource_type, client FROM tracked_resource "
+            + "WHERE state = :cleaning_state GROUP BY resource_type, client";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("cleaning_state", TrackedResourceState.CLEANING.toString());
+    return jdbcTemplate.query(
+        sql,
+        params,
+        rs -> {
+          Map<ResourceKind, Integer> counts = new HashMap<>();
+          while (rs.next()) {
+            counts.put(
+                ResourceKind.create(
+                    rs.getString("client"), ResourceType.valueOf(rs.getString("resource_type"))),
+                rs.getInt("count"));
+          }
+          return counts;
+        });
+  }
+
+  /**
+   * Returns how many resources of each type have a cleanup flight in any of the {@code
+   * flightStates} that was submitted by the Janitor {@code instance}.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Map<ResourceType, Integer> retrieveFlightTypeCounts(
+      Set<CleanupFlightState> flightStates, String instance) {
+    String sql =
+        "SELECT count(*) AS count, tr.resource_type FROM cleanup_flight cf "
+            + "JOIN tracked_resource tr ON tr.id = cf.tracked_resource_id "
+            + "WHERE cf.flight_state IN (:flight_states) AND cf.instance = :instance "
+            + "GROUP BY tr.resource_type";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue(
+                "flight_states",
+                flightStates.stream()
+                    .map(CleanupFlightState::toString)
+                    .collect(Collectors.toList()))
+            .addValue("instance", instance);
+    return jdbcTemplate.query(
+        sql,
+        params,
+        rs -> {
+          Map<ResourceType, Integer> counts = new EnumMap<>(ResourceType.class);
+          while (rs.next()) {
+            counts.put(ResourceType.valueOf(rs.getString("resource_type")), rs.getInt("count"));
+          }
+          return counts;
+        });
+  }
+
+  /**
+   * Returns the tracked reosurces matching the {@code filter}. A page of resources, with a limit or
+   * a position to start after, is in (creation, id) order.
+   */
   @Transactional(propagation = Propagation.SUPPORTS)
   public List<TrackedResource> retrieveResourcesMatching(TrackedResourceFilter filter) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    return jdbcTemplate.query(
+        resourcesMatchingSql(filter, params), params, TRACKED_RESOURCE_ROW_MAPPER);
+  }
+
+  /**
+   * Returns the query of {@link #retrieveResourcesMatching(TrackedResourceFilter)} for {@code
+   * filter}, adding its parameters to {@code params}.
+   */
+  @VisibleForTesting
+  static String resourcesMatchingSql(TrackedResourceFilter filter, MapSqlParameterSource params) {
     StringBuilder sql =
         new StringBuilder(
-            "SELECT id, resource_uid, creation, expiration, state, metadata FROM tracked_resource ");
-    MapSqlParameterSource params = new MapSqlParameterSource();
+            "SELECT id, resource_uid, creation, expiration, state, metadata, priority "
+                + "FROM tracked_resource ");
     addFilterClauses(filter, sql, params);
-    return jdbcTemplate.query(sql.toString(), params, TRACKED_RESOURCE_ROW_MAPPER);
+    return sql.toString();
   }
 
   /**
@@ -165,16 +752,28 @@ public class JanitorDao {
               .collect(Collectors.toList()));
     }
     if (filter.cloudResourceUid().isPresent()) {
-      whereClauses.add("resource_uid = :filter_cloud_resource_uid::jsonb");
+      whereClauses.add(resourceUidEquals("filter_cloud_resource_uid"));
       params.addValue("filter_cloud_resource_uid", serialize(filter.cloudResourceUid().get()));
     }
     if (filter.expiredBy().isPresent()) {
       whereClauses.add("expiration <= :filters_expired_by");
       params.addValue("filters_expired_by", filter.expiredBy().get().atOffset(ZoneOffset.UTC));
     }
+    if (filter.after().isPresent()) {
+      // A row comparison, so that the (creation, id) index can seek straight to the position.
+      whereClauses.add("(creation, id) > (:filter_after_creation, :filter_after_id)");
+      params
+          .addValue(
+              "filter_after_creation", filter.after().get().creation().atOffset(ZoneOffset.UTC))
+          .addValue("filter_after_id", filter.after().get().trackedResourceId().uuid());
+    }
     if (!whereClauses.isEmpty()) {
       sql.append(whereClauses.stream().collect(Collectors.joining(" AND ", " WHERE ", "")));
     }
+    if (isPaged(filter)) {
+      // A stable order, so that pages neither overlap nor skip resources.
+      sql.append(" ORDER BY creation, id ");
+    }
     if (filter.limit().isPresent() && filter.limit().getAsInt() > 0) {
       sql.append(" LIMIT :filter_limit ");
       params.addValue("filter_limit", filter.limit().getAsInt());
@@ -185,12 +784,18 @@ public class JanitorDao {
     }
   }
 
+  /** Returns whether {@code filter} selects a page of the matching resources. */
+  private static boolean isPaged(TrackedResourceFilter filter) {
+    return (filter.limit().isPresent() && filter.limit().getAsInt() > 0)
+        || filter.after().isPresent();
+  }
+
   /** Return the resource and flight associated with the {@code flightId}, if they exist. */
   @Transactional(propagation = Propagation.SUPPORTS)
   public Optional<TrackedResourceAndFlight> retrieveResourceAndFlight(String flightId) {
     String sql =
         "SELECT tr.id, tr.resource_uid, tr.creation, tr.expiration, tr.state, tr.metadata, "
-            + "cf.flight_id, cf.flight_state FROM tracked_resource tr "
+            + "tr.priority, cf.flight_id, cf.flight_state FROM tracked_resource tr "
             + "JOIN cleanup_flight cf ON tr.id = cf.tracked_resource_id "
             + "WHERE cf.flight_id = :flight_id";
     MapSqlParameterSource params = new MapSqlParameterSource().addValue("flight_id", flightId);
@@ -205,6 +810,28 @@ public class JanitorDao {
                         CLEANUP_FLIGHT_ROW_MAPPER.mapRow(rs, rowNum)))));
   }
 
+  /** Return the resources and flights associated with the {@code flightIds} that exist. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<TrackedResourceAndFlight> retrieveResourcesAndFlights(Collection<String> flightIds) {
+    if (flightIds.isEmpty()) {
+      return List.of();
+    }
+    String sql =
+        "SELECT tr.id, tr.resource_uid, tr.creation, tr.expiration, tr.state, tr.metadata, "
+            + "tr.priority, cf.flight_id, cf.flight_state FROM tracked_resource tr "
+            + "JOIN cleanup_flight cf ON tr.id = cf.tracked_resource_id "
+            + "WHERE cf.flight_id IN (:flight_ids)";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("flight_ids", List.copyOf(flightIds));
+    return jdbcTemplate.query(
+        sql,
+        params,
+        (rs, rowNum) ->
+            TrackedResourceAndFlight.create(
+                TRACKED_RESOURCE_ROW_MAPPER.mapRow(rs, rowNum),
+                CLEANUP_FLIGHT_ROW_MAPPER.mapRow(rs, rowNum)));
+  }
+
   /**
    * Return the resource and labels associated with the {@code trackedResourceId}, if they exist.
    */
@@ -213,7 +840,7 @@ public class JanitorDao {
       TrackedResourceId trackedResourceId) {
     String sql =
         "SELECT tr.id, tr.resource_uid, tr.creation, tr.expiration, tr.state, tr.metadata, "
-            + "l.key, l.value FROM tracked_resource tr "
+            + "tr.priority, l.key, l.value FROM tracked_resource tr "
             + "LEFT JOIN label l ON tr.id = l.tracked_resource_id "
             + "WHERE tr.id = :id";
     MapSqlParameterSource params =
@@ -229,7 +856,7 @@ public class JanitorDao {
       CleanupFlightState flightState, int limit) {
     String sql =
         "SELECT tr.id, tr.resource_uid, tr.creation, tr.expiration, tr.state, tr.metadata, "
-            + "cf.flight_id, cf.flight_state FROM tracked_resource tr "
+            + "tr.priority, cf.flight_id, cf.flight_state FROM tracked_resource tr "
             + "JOIN cleanup_flight cf ON tr.id = cf.tracked_resource_id "
             + "WHERE cf.flight_state = :flight_state LIMIT :limit";
     MapSqlParameterSource params =
@@ -245,17 +872,146 @@ public class JanitorDao {
                 CLEANUP_FLIGHT_ROW_MAPPER.mapRow(rs, rowNum)));
   }
 
-  /** Returns {@link TrackedResourceAndLabels} matching {@link TrackedResourceFilter}. */
+  /**
+   * Returns up to {@code limit} resources with an INITIATING cleanup flight created by {@code
+   * createdBy}, in flight id order starting after {@code afterFlightId}. Pass the last flight id of
+   * each page as the next {@code afterFlightId} to page through all of them.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<InitiatingFlight> retrieveInitiatingFlights(
+      Instant createdBy, String afterFlightId, int limit) {
+    return retrieveInitiatingFlights(Optional.empty(), createdBy, afterFlightId, limit);
+  }
+
+  /**
+   * Like {@link #retrieveInitiatingFlights(Instant, String, int)}, but only returns the flights
+   * submitted by one of the Janitor {@code instances}, or by a Janitor from before flights recorded
+   * their instance.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<InitiatingFlight> retrieveInitiatingFlights(
+      Collection<String> instances, Instant createdBy, String afterFlightId, int limit) {
+    return retrieveInitiatingFlights(
+        Optional.of(List.copyOf(instances)), createdBy, afterFlightId, limit);
+  }
+
+  private List<InitiatingFlight> retrieveInitiatingFlights(
+      Optional<List<String>> instances, Instant createdBy, String afterFlightId, int limit) {
+    String instancePredicate = "";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("flight_state", CleanupFlightState.INITIATING.toString())
+            .addValue("created_by", createdBy.atOffset(ZoneOffset.UTC))
+            .addValue("after_flight_id", afterFlightId)
+            .addValue("limit", limit);
+    if (instances.isPresent()) {
+      instancePredicate =
+          instances.get().isEmpty()
+              ? "AND cf.instance IS NULL "
+              : "AND (cf.instance IN (:instances) OR cf.instance IS NULL) ";
+      params.addValue("instances", instances.get());
+    }
+    String sql =
+        "SELECT tr.id, tr.resource_uid, tr.creation, tr.expiration, tr.state, tr.metadata, "
+            + "tr.priority, cf.flight_id, cf.flight_state, cf.creation AS flight_creation "
+            + "FROM tracked_resource tr "
+            + "JOIN cleanup_flight cf ON tr.id = cf.tracked_resource_id "
+            + "WHERE cf.flight_state = :flight_state AND cf.creation <= :created_by "
+            + "AND cf.flight_id > :after_flight_id "
+            + instancePredicate
+            + "ORDER BY cf.flight_id LIMIT :limit";
+    return jdbcTemplate.query(
+        sql,
+        params,
+        (rs, rowNum) ->
+            InitiatingFlight.create(
+                TrackedResourceAndFlight.create(
+                    TRACKED_RESOURCE_ROW_MAPPER.mapRow(rs, rowNum),
+                    CLEANUP_FLIGHT_ROW_MAPPER.mapRow(rs, rowNum)),
+                rs.getObject("flight_creation", OffsetDateTime.class).toInstant()));
+  }
+
+  /**
+   * Returns {@link TrackedResourceAndLabels} matching {@link TrackedResourceFilter}, in the same
+   * order as {@link #retrieveResourcesMatching}.
+   */
   @Transactional(propagation = Propagation.SUPPORTS)
   public List<TrackedResourceAndLabels> retrieveResourcesAndLabels(TrackedResourceFilter filter) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    String sql = resourcesAndLabelsSql(filter, params, isPaged(filter));
+    return jdbcTemplate.query(sql, params, new TrackedResourceAndLabelsExtractor());
+  }
+
+  /**
+   * Passes each {@link TrackedResourceAndLabels} matching {@link TrackedResourceFilter} to {@code
+   * consumer} in (creation, id) order, as soon as it is read.
+   *
+   * <p>Rows are fetched {@code fetchSize} at a time through a cursor, so memory use does not grow
+   * with the number of matching resources. Postgres only uses a cursor outside of auto-commit, so
+   * this should be called within a transaction; otherwise all rows are fetched at once.
+   *
+   * <p>The transaction is held open while {@code consumer} runs, so {@code timeout} bounds both how
+   * long the query may run and how long the consumer may take between fetches. If the consumer is
+   * slower than that, e.g. because it writes to a stalled client, Postgres ends the session and the
+   * next fetch fails instead of holding the connection indefinitely. The session timeout is set
+   * for the calling transaction only.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void streamResourcesAndLabels(
+      TrackedResourceFilter filter,
+      int fetchSize,
+      Duration timeout,
+      Consumer<TrackedResourceAndLabels> consumer) {
+    // SET LOCAL only lasts until the end of the current transaction, so the timeout never outlives
+    // the export on the pooled connection. SET does not take bind parameters, hence the literal.
+    jdbcTemplate
+        .getJdbcTemplate()
+        .execute("SET LOCAL idle_in_transaction_session_timeout = " + timeout.toMillis());
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    ParsedSql parsedSql =
+        NamedParameterUtils.parseSqlStatement(
+            resourcesAndLabelsSql(filter, params, /* ordered= */ true));
+    PreparedStatementCreator statementCreator =
+        new PreparedStatementCreatorFactory(
+                NamedParameterUtils.substituteNamedParameters(parsedSql, params),
+                NamedParameterUtils.buildSqlParameterList(parsedSql, params))
+            .newPreparedStatementCreator(
+                NamedParameterUtils.buildValueArray(parsedSql, params, null));
+    TrackedResourceAndLabelsGrouper grouper = new TrackedResourceAndLabelsGrouper(consumer);
+    // Set the fetch size on the statement rather than the shared template, which leaves it unset.
+    jdbcTemplate
+        .getJdbcTemplate()
+        .query(
+            connection -> {
+              PreparedStatement statement = statementCreator.createPreparedStatement(connection);
+              statement.setFetchSize(fetchSize);
+              statement.setQueryTimeout((int) Math.max(1, timeout.toSeconds()));
+              return statement;
+            },
+            grouper);
+    grouper.finish();
+  }
+
+  /**
+   * Returns the query for the resources matching {@code filter} joined with their labels, and adds
+   * its parameters to {@code params}. If {@code ordered}, the rows are in (creation, id) order, so
+   * the rows of each resource are adjacent.
+   */
+  private static String resourcesAndLabelsSql(
+      TrackedResourceFilter filter, MapSqlParameterSource params, boolean ordered) {
+    // Filter and page the resources before joining their labels, so that a limit counts resources
+    // rather than labels.
     StringBuilder sql =
         new StringBuilder(
             "SELECT tr.id, tr.resource_uid, tr.creation, tr.expiration, tr.state, tr.metadata, "
-                + "l.key, l.value FROM tracked_resource tr "
-                + "LEFT JOIN label l ON tr.id = l.tracked_resource_id ");
-    MapSqlParameterSource params = new MapSqlParameterSource();
+                + "tr.priority, l.key, l.value FROM (SELECT id, resource_uid, creation, "
+                + "expiration, state, metadata, priority FROM tracked_resource ");
     addFilterClauses(filter, sql, params);
-    return jdbcTemplate.query(sql.toString(), params, new TrackedResourceAndLabelsExtractor());
+    sql.append(") tr LEFT JOIN label l ON tr.id = l.tracked_resource_id");
+    if (ordered) {
+      sql.append(" ORDER BY tr.creation, tr.id");
+    }
+    return sql.toString();
   }
 
   /** Creates a {@link CleanupFlight} associated with {@code trackedResourceId}. */
@@ -271,6 +1027,77 @@ public class JanitorDao {
             .addValue("flight_state", cleanupFlight.state().toString()));
   }
 
+  /**
+   * Creates the {@link CleanupFlight}s associated with each tracked resource in one batch, as
+   * submitted by the Janitor {@code instance}.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void createCleanupFlights(
+      List<TrackedResourceAndFlight> resourceAndFlights, String instance) {
+    if (resourceAndFlights.isEmpty()) {
+      return;
+    }
+    MapSqlParameterSource[] sqlParameterSourceList =
+        resourceAndFlights.stream()
+            .map(
+                resourceAndFlight ->
+                    new MapSqlParameterSource()
+                        .addValue(
+                            "tracked_resource_id",
+                            resourceAndFlight.trackedResource().trackedResourceId().uuid())
+                        .addValue("flight_id", resourceAndFlight.cleanupFlight().flightId())
+                        .addValue(
+                            "flight_state", resourceAndFlight.cleanupFlight().state().toString())
+                        .addValue("instance", instance))
+            .toArray(MapSqlParameterSource[]::new);
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO cleanup_flight (tracked_resource_id, flight_id, flight_state, instance) "
+            + "VALUES (:tracked_resource_id, :flight_id, :flight_state, :instance)",
+        sqlParameterSourceList);
+  }
+
+  /** Returns how many cleanup flights are in any of the {@code flightStates}. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public int countFlightsWith(Set<CleanupFlightState> flightStates) {
+    String sql = "SELECT count(*) FROM cleanup_flight WHERE flight_state IN (:flight_states)";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue(
+                "flight_states",
+                flightStates.stream()
+                    .map(CleanupFlightState::toString)
+                    .collect(Collectors.toList()));
+    return jdbcTemplate.queryForObject(sql, params, Integer.class);
+  }
+
+  /**
+   * Returns how many cleanup flights submitted by the Janitor {@code instance} are in any of the
+   * {@code flightStates}.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public int countFlightsWith(Set<CleanupFlightState> flightStates, String instance) {
+    String sql =
+        "SELECT count(*) FROM cleanup_flight "
+            + "WHERE flight_state IN (:flight_states) AND instance = :instance";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue(
+                "flight_states",
+                flightStates.stream()
+                    .map(CleanupFlightState::toString)
+                    .collect(Collectors.toList()))
+            .addValue("instance", instance);
+    return jdbcTemplate.queryForObject(sql, params, Integer.class);
+  }
+
+  /** Records that the flight was resubmitted by the Janitor {@code instance}. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void updateFlightInstance(String flightId, String instance) {
+    jdbcTemplate.update(
+        "UPDATE cleanup_flight SET instance = :instance WHERE flight_id = :flight_id",
+        new MapSqlParameterSource().addValue("instance", instance).addValue("flight_id", flightId));
+  }
+
   /** Retrieve the {@link CleanupFlight}s associated with the tracked resource. */
   @Transactional(propagation = Propagation.SUPPORTS)
   public List<CleanupFlight> retrieveFlights(TrackedResourceId trackedResourceId) {
@@ -290,6 +1117,64 @@ public class JanitorDao {
     return Optional.ofNullable(rawState).map(CleanupFlightState::valueOf);
   }
 
+  /**
+   * Locks the cleanup_flight row for {@code flightId} for the rest of the current transaction.
+   * Returns the {@link CleanupFlightState} of the locked flight, or empty if there is no such
+   * flight or if it is already locked by another transaction.
+   *
+   * <p>This allows multiple Janitor instances to process the same flights without blocking on or
+   * double processing each other's work.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public Optional<CleanupFlightState> lockFlight(String flightId) {
+    String sql =
+        "SELECT flight_state FROM cleanup_flight WHERE flight_id = :flight_id "
+            + "FOR UPDATE SKIP LOCKED";
+    MapSqlParameterSource params = new MapSqlParameterSource().addValue("flight_id", flightId);
+    String rawState =
+        DataAccessUtils.singleResult(jdbcTemplate.queryForList(sql, params, String.class));
+    return Optional.ofNullable(rawState).map(CleanupFlightState::valueOf);
+  }
+
+  /**
+   * Locks the cleanup_flight rows for the {@code flightIds} for the rest of the current
+   * transaction, like {@link #lockFlight(String)}. Returns the {@link CleanupFlightState} of each
+   * locked flight. Flights that do not exist or are already locked by another transaction are
+   * omitted.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public Map<String, CleanupFlightState> lockFlights(Collection<String> flightIds) {
+    if (flightIds.isEmpty()) {
+      return Map.of();
+    }
+    String sql =
+        "SELECT flight_id, flight_state FROM cleanup_flight WHERE flight_id IN (:flight_ids) "
+            + "FOR UPDATE SKIP LOCKED";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("flight_ids", List.copyOf(flightIds));
+    return jdbcTemplate.query(sql, params, CLEANUP_FLIGHT_ROW_MAPPER).stream()
+        .collect(Collectors.toMap(CleanupFlight::flightId, CleanupFlight::state));
+  }
+
+  /** Modifies the {@link CleanupFlightState} of each flight id to its mapped state in one batch. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void updateFlightStates(Map<String, CleanupFlightState> flightStates) {
+    if (flightStates.isEmpty()) {
+      return;
+    }
+    MapSqlParameterSource[] sqlParameterSourceList =
+        flightStates.entrySet().stream()
+            .map(
+                entry ->
+                    new MapSqlParameterSource()
+                        .addValue("flight_state", entry.getValue().toString())
+                        .addValue("flight_id", entry.getKey()))
+            .toArray(MapSqlParameterSource[]::new);
+    jdbcTemplate.batchUpdate(
+        "UPDATE cleanup_flight SET flight_state = :flight_state WHERE flight_id = :flight_id",
+        sqlParameterSourceList);
+  }
+
   /**
    * Modifies the {@link CleanupFlightState} of a single flight. Returns the updated CleanupFlight,
    * if one was updated.
@@ -308,6 +1193,49 @@ public class JanitorDao {
         DataAccessUtils.singleResult(jdbcTemplate.query(sql, params, CLEANUP_FLIGHT_ROW_MAPPER)));
   }
 
+  /**
+   * Deletes the cleanup flights with {@code flightIds} that are still INITIATING and submitted by
+   * the Janitor {@code instance}, and moves their CLEANING resources back to READY. Returns the ids
+   * of the released resources.
+   *
+   * <p>The caller must have confirmed that Stairway does not know about the flights while holding
+   * their locks, e.g. with {@link #lockFlights(Collection)}. Flights that another instance has
+   * taken over to recover are no longer this instance's to release. Flights locked by other
+   * transactions are skipped instead of waited on.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Set<TrackedResourceId> releaseInitiatingFlights(
+      Collection<String> flightIds, String instance) {
+    if (flightIds.isEmpty()) {
+      return Set.of();
+    }
+    String sql =
+        "WITH released AS (DELETE FROM cleanup_flight WHERE flight_id IN ("
+            + "SELECT flight_id FROM cleanup_flight "
+            + "WHERE flight_id IN (:flight_ids) AND flight_state = :flight_state "
+            + "AND instance = :instance "
+            + "FOR UPDATE SKIP LOCKED) RETURNING tracked_resource_id) "
+            + "UPDATE tracked_resource SET state = :ready_state "
+            + "WHERE id IN (SELECT tracked_resource_id FROM released) AND state = :cleaning_state "
+            + "RETURNING id";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("flight_ids", List.copyOf(flightIds))
+            .addValue("flight_state", CleanupFlightState.INITIATING.toString())
+            .addValue("instance", instance)
+            .addValue("ready_state", TrackedResourceState.READY.toString())
+            .addValue("cleaning_state", TrackedResourceState.CLEANING.toString());
+    Set<TrackedResourceId> released =
+        jdbcTemplate.queryForList(sql, params, UUID.class).stream()
+            .map(TrackedResourceId::create)
+            .collect(Collectors.toSet());
+    if (!released.isEmpty()) {
+      // The released resources have already expired, so wake the scheduler immediately.
+      notifyResourceReady(currentInstant());
+    }
+    return released;
+  }
+
   @Transactional(propagation = Propagation.SUPPORTS)
   public Map<String, String> retrieveLabels(TrackedResourceId trackedResourceId) {
     String sql =
@@ -325,25 +1253,134 @@ public class JanitorDao {
             Collectors.toMap(AbstractMap.SimpleEntry::getKey, AbstractMap.SimpleEntry::getValue));
   }
 
+  /** Returns the {@link SchedulerLease} with the name {@code leaseName} if there is one. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<SchedulerLease> retrieveSchedulerLease(String leaseName) {
+    String sql = "SELECT holder, heartbeat, expiration FROM scheduler_lease WHERE name = :name";
+    MapSqlParameterSource params = new MapSqlParameterSource().addValue("name", leaseName);
+    return Optional.ofNullable(
+        DataAccessUtils.singleResult(jdbcTemplate.query(sql, params, SCHEDULER_LEASE_ROW_MAPPER)));
+  }
+
+  /**
+   * Acquires or renews the {@link SchedulerLease} with the name {@code leaseName} for {@code
+   * holder} for {@code leaseDuration}. The lease is only granted if there is no lease yet, if the
+   * lease is already held by {@code holder}, or if the lease has expired. Returns the granted
+   * lease, if it was granted.
+   *
+   * <p>The lease times come from the database clock rather than the caller's, so that clock skew
+   * between Janitor instances cannot let two holders believe they hold the lease at once.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<SchedulerLease> acquireSchedulerLease(
+      String leaseName, String holder, Duration leaseDuration) {
+    String sql =
+        "INSERT INTO scheduler_lease (name, holder, heartbeat, expiration) "
+            + "VALUES (:name, :holder, now(), now() + make_interval(secs => :lease_seconds)) "
+            + "ON CONFLICT (name) DO UPDATE SET holder = excluded.holder, "
+            + "heartbeat = excluded.heartbeat, expiration = excluded.expiration "
+            + "WHERE scheduler_lease.holder = excluded.holder "
+            + "OR scheduler_lease.expiration <= excluded.heartbeat "
+            + "RETURNING holder, heartbeat, expiration";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("name", leaseName)
+            .addValue("holder", holder)
+            .addValue("lease_seconds", leaseDuration.toMillis() / 1000.0);
+    return Optional.ofNullable(
+        DataAccessUtils.singleResult(jdbcTemplate.query(sql, params, SCHEDULER_LEASE_ROW_MAPPER)));
+  }
+
+  /**
+   * Releases the {@link SchedulerLease} with the name {@code leaseName} if it is held by {@code
+   * holder}, letting another holder acquire it immediately. Returns whether the lease was released.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public boolean releaseSchedulerLease(String leaseName, String holder) {
+    String sql =
+        "UPDATE scheduler_lease SET heartbeat = now(), expiration = now() "
+            + "WHERE name = :name AND holder = :holder";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource().addValue("name", leaseName).addValue("holder", holder);
+    return jdbcTemplate.update(sql, params) == 1;
+  }
+
+  /** Returns the watermark with the name {@code name} if it has been set. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Optional<Instant> retrieveWatermark(String name) {
+    String sql = "SELECT watermark FROM cleanup_watermark WHERE name = :name";
+    MapSqlParameterSource params = new MapSqlParameterSource().addValue("name", name);
+    return Optional.ofNullable(
+        DataAccessUtils.singleResult(
+            jdbcTemplate.query(
+                sql,
+                params,
+                (rs, rowNum) -> rs.getObject("watermark", OffsetDateTime.class).toInstant())));
+  }
+
+  /**
+   * Advances the watermark with the name {@code name} to {@code watermark}. A watermark never moves
+   * backwards, so this does nothing if the watermark is already later than {@code watermark}.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void advanceWatermark(String name, Instant watermark) {
+    String sql =
+        "INSERT INTO cleanup_watermark (name, watermark) VALUES (:name, :watermark) "
+            + "ON CONFLICT (name) DO UPDATE "
+            + "SET watermark = GREATEST(cleanup_watermark.watermark, excluded.watermark)";
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("name", name)
+            .addValue("watermark", watermark.atOffset(ZoneOffset.UTC));
+    jdbcTemplate.update(sql, params);
+  }
+
+  /** Returns the watermarks whose names start with {@code namePrefix}, by name. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public Map<String, Instant> retrieveWatermarks(String namePrefix) {
+    String sql =
+        "SELECT name, watermark FROM cleanup_watermark WHERE starts_with(name, :name_prefix)";
+    MapSqlParameterSource params = new MapSqlParameterSource().addValue("name_prefix", namePrefix);
+    return jdbcTemplate.query(
+        sql,
+        params,
+        rs -> {
+          Map<String, Instant> watermarks = new HashMap<>();
+          while (rs.next()) {
+            watermarks.put(
+                rs.getString("name"), rs.getObject("watermark", OffsetDateTime.class).toInstant());
+          }
+          return watermarks;
+        });
+  }
+
+  /** Deletes the watermarks with the names {@code names}. */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void deleteWatermarks(Collection<String> names) {
+    if (names.isEmpty()) {
+      return;
+    }
+    String sql = "DELETE FROM cleanup_watermark WHERE name IN (:names)";
+    jdbcTemplate.update(sql, new MapSqlParameterSource().addValue("names", names));
+  }
+
   /**
    * Retrieve a table for the counts of all of the kind/state combinations of tracked resources in
    * the database.
    */
   public Table<ResourceKind, TrackedResourceState, Integer> retrieveResourceCounts() {
     String sql =
-        "SELECT count(*) as count, tr.state, tr.resource_type, "
-            + "(SELECT value FROM label WHERE tracked_resource_id =  tr.id and key = :client_key) as client "
-            + "FROM tracked_resource tr GROUP BY tr.state, tr.resource_type, client";
+        "SELECT count(*) as count, state, resource_type, client "
+            + "FROM tracked_resource GROUP BY state, resource_type, client";
     return jdbcTemplate.query(
         sql,
-        new MapSqlParameterSource().addValue("client_key", CLIENT_LABEL_KEY),
+        new MapSqlParameterSource(),
         rs -> {
           Table<ResourceKind, TrackedResourceState, Integer> counts = HashBasedTable.create();
           while (rs.next()) {
             ResourceKind kind =
                 ResourceKind.create(
-                    rs.getString("client") == null ? "" : rs.getString("client"),
-                    ResourceType.valueOf(rs.getString("resource_type")));
+                    rs.getString("client"), ResourceType.valueOf(rs.getString("resource_type")));
             TrackedResourceState state = TrackedResourceState.valueOf(rs.getString("state"));
             int count = rs.getInt("count");
             counts.put(kind, state, count);
@@ -361,6 +1398,7 @@ public class JanitorDao {
               .expiration(rs.getObject("expiration", OffsetDateTime.class).toInstant())
               .trackedResourceState(TrackedResourceState.valueOf(rs.getString("state")))
               .metadata(deserializeMetadata(rs.getString("metadata")))
+              .priority(rs.getInt("priority"))
               .build();
 
   private static final RowMapper<CleanupFlight> CLEANUP_FLIGHT_ROW_MAPPER =
@@ -368,6 +1406,13 @@ public class JanitorDao {
           CleanupFlight.create(
               rs.getString("flight_id"), CleanupFlightState.valueOf(rs.getString("flight_state")));
 
+  private static final RowMapper<SchedulerLease> SCHEDULER_LEASE_ROW_MAPPER =
+      (rs, rowNum) ->
+          SchedulerLease.create(
+              rs.getString("holder"),
+              rs.getObject("heartbeat", OffsetDateTime.class).toInstant(),
+              rs.getObject("expiration", OffsetDateTime.class).toInstant());
+
   /**
    * A {@link ResultSetExtractor} for extracting the results of a join of the one resource to many
    * labels relationship.
@@ -377,7 +1422,8 @@ public class JanitorDao {
     @Override
     public List<TrackedResourceAndLabels> extractData(ResultSet rs)
         throws SQLException, DataAccessException {
-      Map<TrackedResourceId, TrackedResourceAndLabels.Builder> resources = new HashMap<>();
+      // Keep the order of the rows.
+      Map<TrackedResourceId, TrackedResourceAndLabels.Builder> resources = new LinkedHashMap<>();
       int rowNum = 0;
       while (rs.next()) {
         TrackedResourceId id = TrackedResourceId.create(rs.getObject("id", UUID.class));
@@ -401,6 +1447,48 @@ public class JanitorDao {
     }
   }
 
+  /**
+   * Groups rows of resources and their labels, with the rows of each resource adjacent, into {@link
+   * TrackedResourceAndLabels}. Each is passed to a consumer as soon as its last row is read, so
+   * only one resource is held at a time.
+   */
+  private static class TrackedResourceAndLabelsGrouper implements RowCallbackHandler {
+    private final Consumer<TrackedResourceAndLabels> consumer;
+    @Nullable private TrackedResourceId currentId;
+    @Nullable private TrackedResourceAndLabels.Builder current;
+    private int rowNum = 0;
+
+    private TrackedResourceAndLabelsGrouper(Consumer<TrackedResourceAndLabels> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+      TrackedResourceId id = TrackedResourceId.create(rs.getObject("id", UUID.class));
+      if (!id.equals(currentId)) {
+        finish();
+        currentId = id;
+        current = TrackedResourceAndLabels.builder();
+        current.trackedResource(TRACKED_RESOURCE_ROW_MAPPER.mapRow(rs, rowNum));
+      }
+      String labelKey = rs.getString("key");
+      if (labelKey != null) {
+        // Label may be null from left join for a resource with no labels.
+        current.labelsBuilder().put(labelKey, rs.getString("value"));
+      }
+      ++rowNum;
+    }
+
+    /** Passes on the resource being grouped, if any. Called after the last row. */
+    private void finish() {
+      if (current != null) {
+        consumer.accept(current.build());
+      }
+      currentId = null;
+      current = null;
+    }
+  }
+
   /**
    * Serializes {@link CloudResourceUid} into json format string.
    *
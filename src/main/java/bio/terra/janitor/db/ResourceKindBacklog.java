@@ -0,0 +1,28 @@
+package bio.terra.janitor.db;
+
+import com.google.auto.value.AutoValue;
+import java.time.Instant;
+
+/** The expired READY resources of a {@link ResourceKind} that are waiting to be cleaned. */
+@AutoValue
+public abstract class ResourceKindBacklog {
+  public abstract ResourceKind kind();
+
+  /** How many resources are waiting. */
+  public abstract int count();
+
+  /** The earliest expiration of the waiting resources. */
+  public abstract Instant oldestExpiration();
+
+  /** The highest priority of the waiting resources. */
+  public abstract int maxPriority();
+
+  public static ResourceKindBacklog create(ResourceKind kind, int count, Instant oldestExpiration) {
+    return create(kind, count, oldestExpiration, 0);
+  }
+
+  public static ResourceKindBacklog create(
+      ResourceKind kind, int count, Instant oldestExpiration, int maxPriority) {
+    return new AutoValue_ResourceKindBacklog(kind, count, oldestExpiration, maxPriority);
+  }
+}
@@ -0,0 +1,24 @@
+package bio.terra.janitor.db;
+
+import com.google.auto.value.AutoValue;
+import java.time.Instant;
+
+/**
+ * A lease granting one Janitor instance the right to run the flight scheduler. This class
+ * represents a record in the scheduler_lease table in the Janitor's database.
+ */
+@AutoValue
+public abstract class SchedulerLease {
+  /** The id of the Janitor instance that holds or last held the lease. */
+  public abstract String holder();
+
+  /** When the holder last acquired or renewed the lease. */
+  public abstract Instant heartbeat();
+
+  /** When the lease expires unless it is renewed. */
+  public abstract Instant expiration();
+
+  public static SchedulerLease create(String holder, Instant heartbeat, Instant expiration) {
+    return new AutoValue_SchedulerLease(holder, heartbeat, expiration);
+  }
+}
@@ -5,6 +5,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableMap;
 import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
 
 /** A request to track a resource. This is a precursor to having a {@link TrackedResource}. */
 @AutoValue
@@ -24,6 +25,12 @@ public abstract class TrackRequest {
   /** Additional metadata about the resource. */
   public abstract ResourceMetadata metadata();
 
+  /**
+   * The priority to clean up the resource with. If empty, the default priority of its resource type
+   * is used.
+   */
+  public abstract Optional<Integer> priority();
+
   public static Builder builder() {
     return new AutoValue_TrackRequest.Builder().labels(ImmutableMap.of());
   }
@@ -41,6 +48,10 @@ public abstract class TrackRequest {
 
     public abstract Builder metadata(ResourceMetadata value);
 
+    public abstract Builder priority(Optional<Integer> priority);
+
+    public abstract Builder priority(Integer priority);
+
     public abstract TrackRequest build();
   }
 }
@@ -10,6 +10,9 @@ import java.time.Instant;
  */
 @AutoValue
 public abstract class TrackedResource {
+  /** The highest priority a resource may have. */
+  public static final int MAX_PRIORITY = 100;
+
   public abstract TrackedResourceId trackedResourceId();
 
   public abstract TrackedResourceState trackedResourceState();
@@ -22,8 +25,15 @@ public abstract class TrackedResource {
 
   public abstract ResourceMetadata metadata();
 
+  /**
+   * How urgently the resource should be cleaned once it expires, relative to other expired
+   * resources. Higher priorities are cleaned first. Between 0 and {@link #MAX_PRIORITY}, defaults
+   * to 0.
+   */
+  public abstract int priority();
+
   public static Builder builder() {
-    return new AutoValue_TrackedResource.Builder();
+    return new AutoValue_TrackedResource.Builder().priority(0);
   }
 
   public abstract Builder toBuilder();
@@ -42,6 +52,8 @@ public abstract class TrackedResource {
 
     public abstract Builder metadata(ResourceMetadata value);
 
+    public abstract Builder priority(int priority);
+
     public abstract TrackedResource build();
   }
 }
@@ -0,0 +1,27 @@
+package bio.terra.janitor.db;
+
+import com.google.auto.value.AutoValue;
+import java.time.Instant;
+
+/**
+ * A position in the (creation, id) order of tracked resources, used to page through resources
+ * without skipping or repeating any.
+ */
+@AutoValue
+public abstract class TrackedResourceCursor {
+  /** The creation time of the last resource before this position. */
+  public abstract Instant creation();
+
+  /** The id of the last resource before this position. */
+  public abstract TrackedResourceId trackedResourceId();
+
+  public static TrackedResourceCursor create(
+      Instant creation, TrackedResourceId trackedResourceId) {
+    return new AutoValue_TrackedResourceCursor(creation, trackedResourceId);
+  }
+
+  /** Returns the position just after {@code resource}. */
+  public static TrackedResourceCursor after(TrackedResource resource) {
+    return create(resource.creation(), resource.trackedResourceId());
+  }
+}
@@ -31,6 +31,12 @@ public abstract class TrackedResourceFilter {
   /** If present, offset the returned resources by this much. Only useful with a limit. */
   public abstract OptionalInt offset();
 
+  /**
+   * If present, only resources after this position in (creation, id) order are allowed. Unlike
+   * {@link #offset()}, resources created or removed between pages do not shift the next page.
+   */
+  public abstract Optional<TrackedResourceCursor> after();
+
   /** Creates a new builder that allows all resources. */
   public static Builder builder() {
     return new AutoValue_TrackedResourceFilter.Builder()
@@ -54,6 +60,10 @@ public abstract class TrackedResourceFilter {
 
     public abstract Builder offset(int offset);
 
+    public abstract Builder after(TrackedResourceCursor after);
+
+    public abstract Builder after(Optional<TrackedResourceCursor> after);
+
     abstract TrackedResourceFilter autoBuild();
 
     public TrackedResourceFilter build() {
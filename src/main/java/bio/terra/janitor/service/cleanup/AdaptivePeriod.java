@@ -0,0 +1,75 @@
+package bio.terra.janitor.service.cleanup;
+
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+
+/**
+ * The period of a periodic task that adapts to how much work the task finds. The period doubles
+ * after each run that finds nothing to do and halves after each run that hits its limit, staying
+ * within its bounds.
+ *
+ * <p>The bounds are widened to include the initial period if they do not already.
+ */
+class AdaptivePeriod {
+  /** How much work a run of the task found. */
+  enum Load {
+    /** The run found nothing to do. */
+    IDLE,
+    /** The run found some work, but less than its limit. */
+    NORMAL,
+    /** The run hit its limit, so there is probably more work waiting. */
+    SATURATED;
+  }
+
+  private final Duration min;
+  private final Duration max;
+  /** The current period. Guarded by {@code this}. */
+  private Duration period;
+
+  AdaptivePeriod(Duration period, Duration min, Duration max) {
+    Preconditions.checkArgument(!min.isNegative() && !min.isZero(), "min must be positive.");
+    Preconditions.checkArgument(min.compareTo(max) <= 0, "min must not be larger than max.");
+    this.min = period.compareTo(min) < 0 ? period : min;
+    this.max = period.compareTo(max) > 0 ? period : max;
+    this.period = period;
+  }
+
+  /** Returns the current period. */
+  public synchronized Duration get() {
+    return period;
+  }
+
+  /** Adjusts the period for the {@code load} found by a run and returns the new period. */
+  public synchronized Duration update(Load load) {
+    switch (load) {
+      case IDLE:
+        period = period.multipliedBy(2);
+        if (period.compareTo(max) > 0) {
+          period = max;
+        }
+        break;
+      case SATURATED:
+        period = period.dividedBy(2);
+        if (period.compareTo(min) < 0) {
+          period = min;
+        }
+        break;
+      case NORMAL:
+        break;
+      default:
+        throw new AssertionError("Unknown Load.");
+    }
+    return period;
+  }
+
+  /**
+   * Returns the load of a run that handled {@code handled} items when it could have handled up to
+   * {@code limit}.
+   */
+  static Load loadOf(int handled, int limit) {
+    if (handled <= 0) {
+      return Load.IDLE;
+    }
+    return handled >= limit ? Load.SATURATED : Load.NORMAL;
+  }
+}
@@ -0,0 +1,102 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.db.ResourceKind;
+import bio.terra.janitor.db.ResourceKindBacklog;
+import bio.terra.janitor.db.ResourceType;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The expired READY backlog and the CLEANING counts of each {@link ResourceKind}, and the in-flight
+ * counts of each {@link ResourceType} on this Janitor instance, read once at the start of a
+ * scheduling run and kept up to date by the batches claimed during the run.
+ *
+ * <p>Reading them once per run instead of once per batch keeps the grouped backlog and count
+ * queries off of the claim path. The counts may drift from the database while the run goes on, as
+ * other instances claim resources and flights finish, but only until the next run reads them again.
+ */
+class ClaimRound {
+  private final Instant expiredBy;
+
+  // All of the following fields are guarded by this.
+  /** The remaining backlog of each kind that may still have expired READY resources. */
+  private final Map<ResourceKind, ResourceKindBacklog> backlogs = new LinkedHashMap<>();
+  /** How many resources of each kind are CLEANING, across all Janitor instances. */
+  private final Map<ResourceKind, Integer> inFlight;
+  /** How many resources of each type have flights in flight that this instance submitted. */
+  private final Map<ResourceType, Integer> typeInFlight = new EnumMap<>(ResourceType.class);
+
+  ClaimRound(
+      Instant expiredBy,
+      List<ResourceKindBacklog> backlogs,
+      Map<ResourceKind, Integer> inFlight,
+      Map<ResourceType, Integer> typeInFlight) {
+    this.expiredBy = expiredBy;
+    backlogs.forEach(backlog -> this.backlogs.put(backlog.kind(), backlog));
+    this.inFlight = new HashMap<>(inFlight);
+    this.typeInFlight.putAll(typeInFlight);
+  }
+
+  /** Returns the expiration time by which resources are claimed in this round. */
+  Instant expiredBy() {
+    return expiredBy;
+  }
+
+  /** Returns the remaining backlog of each kind. */
+  synchronized List<ResourceKindBacklog> backlogs() {
+    return List.copyOf(backlogs.values());
+  }
+
+  /** Returns whether any kind may still have expired READY resources. */
+  synchronized boolean hasBacklog() {
+    return !backlogs.isEmpty();
+  }
+
+  /** Returns how many resources of each kind are CLEANING, across all Janitor instances. */
+  synchronized Map<ResourceKind, Integer> inFlight() {
+    return Map.copyOf(inFlight);
+  }
+
+  /**
+   * Returns how many resources of each resource type have flights in flight that this instance
+   * submitted.
+   */
+  synchronized Map<ResourceType, Integer> typeInFlight() {
+    return Map.copyOf(typeInFlight);
+  }
+
+  /**
+   * Records that {@code claimed} of the {@code allocated} resources of {@code kind} were claimed.
+   * Claiming fewer than were allocated means the kind has no more expired READY resources that are
+   * not locked by another claim, so it is dropped from the round.
+   */
+  synchronized void recordClaimed(ResourceKind kind, int allocated, int claimed) {
+    inFlight.merge(kind, claimed, Integer::sum);
+    typeInFlight.merge(kind.resourceType(), claimed, Integer::sum);
+    ResourceKindBacklog backlog = backlogs.get(kind);
+    if (backlog == null) {
+      return;
+    }
+    int remaining = backlog.count() - claimed;
+    if (claimed < allocated || remaining <= 0) {
+      backlogs.remove(kind);
+    } else {
+      backlogs.put(
+          kind,
+          ResourceKindBacklog.create(
+              kind, remaining, backlog.oldestExpiration(), backlog.maxPriority()));
+    }
+  }
+
+  /**
+   * Records that {@code claimed} staged resources of {@code type} were claimed by id. Staged
+   * resources are only claimed once the round has no backlog left, so this only adds to the counts.
+   */
+  synchronized void recordStagedClaimed(ResourceType type, int claimed) {
+    typeInFlight.merge(type, claimed, Integer::sum);
+  }
+}
@@ -0,0 +1,44 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.app.configuration.PrimaryConfiguration;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+
+/**
+ * How resources whose cleanup failed are automatically retried. A resource that ends in ERROR is
+ * made READY again after an exponential backoff: {@code initialBackoff} after its first failure,
+ * doubling with each retry that fails again, up to {@code maxBackoff}. After {@code maxAttempts}
+ * retries it is quarantined, i.e. left in ERROR until a human bumps it.
+ */
+class ErrorRetryPolicy {
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+
+  ErrorRetryPolicy(PrimaryConfiguration primaryConfiguration) {
+    this.maxAttempts = primaryConfiguration.getErrorRetryMaxAttempts();
+    this.initialBackoff = primaryConfiguration.getErrorRetryInitialBackoff();
+    this.maxBackoff = primaryConfiguration.getErrorRetryMaxBackoff();
+    Preconditions.checkArgument(maxAttempts >= 0, "maxAttempts must not be negative.");
+    Preconditions.checkArgument(
+        !initialBackoff.isNegative() && initialBackoff.compareTo(maxBackoff) <= 0,
+        "initialBackoff must be between 0 and maxBackoff.");
+  }
+
+  /** Returns whether ERROR resources are retried at all. */
+  boolean isEnabled() {
+    return maxAttempts > 0;
+  }
+
+  int maxAttempts() {
+    return maxAttempts;
+  }
+
+  Duration initialBackoff() {
+    return initialBackoff;
+  }
+
+  Duration maxBackoff() {
+    return maxBackoff;
+  }
+}
@@ -0,0 +1,152 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.db.JanitorDao;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Completes the flights queued by the {@link FlightCompletionHook} in small batches as soon as
+ * they end, so that finished resources do not wait for the periodic completion sweep.
+ *
+ * <p>The hook may run before Stairway has recorded the flight's final status, so flights that are
+ * not completed are retried a few times after a short delay. Flights that still are not completed
+ * are left to {@link FlightManager#updateCompletedFlights(int, int)}, which remains the safety net.
+ */
+class FlightCompletionConsumer {
+  private final Logger logger = LoggerFactory.getLogger(FlightCompletionConsumer.class);
+
+  /** How long to wait for a flight to end before checking whether to stop. */
+  private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+  /** How long to wait before retrying a flight that was not completed. */
+  private static final Duration RETRY_DELAY = Duration.ofMillis(500);
+  /** How many times to try to complete a flight before leaving it to the sweep. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final FlightCompletionHook hook;
+  private final FlightManager flightManager;
+  private final int batchSize;
+  private final ThreadFactory threadFactory;
+  private final Runnable wakeConsumer = this::wake;
+
+  private volatile boolean running = false;
+  /** The thread consuming flight ids. Only set while holding {@code this}. */
+  private volatile Thread thread;
+
+  FlightCompletionConsumer(
+      FlightCompletionHook hook,
+      FlightManager flightManager,
+      int batchSize,
+      ThreadFactory threadFactory) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive.");
+    this.hook = hook;
+    this.flightManager = flightManager;
+    this.batchSize = batchSize;
+    this.threadFactory = threadFactory;
+  }
+
+  /** Starts consuming on a new thread from the thread factory. */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread = threadFactory.newThread(this::consume);
+    thread.start();
+    hook.addListener(wakeConsumer);
+  }
+
+  /** Stops consuming. Flights that are not completed yet are left to the sweep. */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    hook.removeListener(wakeConsumer);
+    LockSupport.unpark(thread);
+  }
+
+  private void wake() {
+    LockSupport.unpark(thread);
+  }
+
+  private void consume() {
+    // Flights to retry in the order they are due. Only accessed by the consuming thread.
+    Deque<PendingFlight> retries = new ArrayDeque<>();
+    // A stopped consumer's thread exits even if the consumer is started again with a new thread.
+    while (running && Thread.currentThread() == thread) {
+      Instant now = JanitorDao.currentInstant();
+      List<PendingFlight> batch = new ArrayList<>();
+      while (batch.size() < batchSize
+          && !retries.isEmpty()
+          && !retries.peekFirst().due().isAfter(now)) {
+        batch.add(retries.pollFirst());
+      }
+      String flightId;
+      while (batch.size() < batchSize && (flightId = hook.poll()) != null) {
+        batch.add(new PendingFlight(flightId, 1, now));
+      }
+      if (batch.isEmpty()) {
+        Duration timeout =
+            retries.isEmpty()
+                ? POLL_TIMEOUT
+                : Duration.between(now, retries.peekFirst().due()).plusMillis(1);
+        LockSupport.parkNanos(this, timeout.toNanos());
+        continue;
+      }
+      Set<String> completedFlightIds;
+      try {
+        completedFlightIds =
+            flightManager.completeFlights(
+                batch.stream()
+                    .map(PendingFlight::flightId)
+                    .distinct()
+                    .collect(Collectors.toList()));
+      } catch (RuntimeException e) {
+        logger.error("Error completing ended flights. Leaving them to be retried.", e);
+        completedFlightIds = Set.of();
+      }
+      Instant due = JanitorDao.currentInstant().plus(RETRY_DELAY);
+      for (PendingFlight pending : batch) {
+        if (!completedFlightIds.contains(pending.flightId()) && pending.attempt() < MAX_ATTEMPTS) {
+          retries.addLast(new PendingFlight(pending.flightId(), pending.attempt() + 1, due));
+        }
+      }
+    }
+  }
+
+  /** A flight to try to complete once it is {@code due}. */
+  private static class PendingFlight {
+    private final String flightId;
+    private final int attempt;
+    private final Instant due;
+
+    private PendingFlight(String flightId, int attempt, Instant due) {
+      this.flightId = flightId;
+      this.attempt = attempt;
+      this.due = due;
+    }
+
+    String flightId() {
+      return flightId;
+    }
+
+    int attempt() {
+      return attempt;
+    }
+
+    Instant due() {
+      return due;
+    }
+  }
+}
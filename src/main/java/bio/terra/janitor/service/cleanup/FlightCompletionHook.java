@@ -0,0 +1,50 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.stairway.FlightContext;
+import bio.terra.stairway.HookAction;
+import bio.terra.stairway.StairwayHook;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link StairwayHook} that queues the ids of flights as they end in this Stairway instance, so
+ * that they can be completed right away instead of waiting for {@link
+ * FlightManager#updateCompletedFlights(int, int)} to find them.
+ *
+ * <p>Flight ids are only queued while there are listeners to consume them. The queue is lock-free
+ * so that ending a flight never blocks on a consumer.
+ */
+@Component
+public class FlightCompletionHook implements StairwayHook {
+  private final Queue<String> endedFlightIds = new ConcurrentLinkedQueue<>();
+  /** Called after a flight id is queued. */
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  @Override
+  public HookAction endFlight(FlightContext context) {
+    if (!listeners.isEmpty()) {
+      endedFlightIds.offer(context.getFlightId());
+      listeners.forEach(Runnable::run);
+    }
+    return HookAction.CONTINUE;
+  }
+
+  /** Adds a listener to be called each time a flight id is queued. */
+  void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  void removeListener(Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  /** Removes and returns the next queued flight id, if there is one. */
+  @Nullable
+  String poll() {
+    return endedFlightIds.poll();
+  }
+}
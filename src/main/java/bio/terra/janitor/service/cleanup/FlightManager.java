@@ -3,15 +3,18 @@ package bio.terra.janitor.service.cleanup;
 import bio.terra.janitor.db.*;
 import bio.terra.stairway.*;
 import bio.terra.stairway.exception.DatabaseOperationException;
-import bio.terra.stairway.exception.FlightNotFoundException;
+import bio.terra.stairway.exception.DuplicateFlightIdException;
 import bio.terra.stairway.exception.StairwayException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.TransactionStatus;
@@ -21,7 +24,11 @@ import org.springframework.transaction.support.TransactionTemplate;
  * Manages the Flights to clean up tracked resources. It queries {@link JanitorDao} and {@link
  * Stairway} to hand off work between the two.
  *
- * <p>This class is meant to be run by only the primary Janitor instance, not by the secondaries.
+ * <p>This class may be run by multiple Janitor instances concurrently, as long as they share the
+ * Janitor and Stairway databases. Resources are claimed with row locks that skip rows locked by
+ * other instances, so each instance claims disjoint resources. Flights are locked the same way
+ * while they are recovered or completed, so an instance skips flights that another instance is
+ * already handling.
  *
  * <p>The handoff is done by this class and tracked in the cleanup_flight table and Stairway's
  * database. Invariants:
@@ -45,133 +52,448 @@ import org.springframework.transaction.support.TransactionTemplate;
 class FlightManager {
   private Logger logger = LoggerFactory.getLogger(FlightManager.class);
 
+  /** The name of the watermark on the completion time of handled FATAL flights. */
+  @VisibleForTesting static final String FATAL_FLIGHT_WATERMARK = "fatal_flight_completion";
+
+  /**
+   * The order that resources that have not waited long enough to go ahead of priority are claimed
+   * in within each kind, highest priority first and then earliest expiration first, like {@link
+   * JanitorDao#updateReadyResourcesToCleaning(Instant, Instant, ResourceKind, int)}.
+   */
+  static final Comparator<TrackedResource> CLAIM_ORDER =
+      Comparator.comparingInt(TrackedResource::priority)
+          .reversed()
+          .thenComparing(TrackedResource::expiration);
+
   private final Stairway stairway;
   private final JanitorDao janitorDao;
   private final TransactionTemplate transactionTemplate;
   private final FlightSubmissionFactory submissionFactory;
   private final MetricsHelper metricsHelper;
+  private final WeightedFairScheduler fairScheduler;
+  private final ResourceTypeBulkheads bulkheads;
+  private final ErrorRetryPolicy errorRetryPolicy;
+  /** How long an expired resource may wait before it is claimed ahead of priority. */
+  private final Duration priorityMaxWait;
+  /** The unique id of this Janitor instance, recorded on the flights it submits. */
+  private final String instanceId;
 
   public FlightManager(
       Stairway stairway,
       JanitorDao janitorDao,
       TransactionTemplate transactionTemplate,
       FlightSubmissionFactory submissionFactory,
-      MetricsHelper metricsHelper) {
+      MetricsHelper metricsHelper,
+      WeightedFairScheduler fairScheduler,
+      ResourceTypeBulkheads bulkheads,
+      ErrorRetryPolicy errorRetryPolicy,
+      Duration priorityMaxWait,
+      String instanceId) {
     this.stairway = stairway;
     this.janitorDao = janitorDao;
     this.transactionTemplate = transactionTemplate;
     this.submissionFactory = submissionFactory;
     this.metricsHelper = metricsHelper;
+    this.fairScheduler = fairScheduler;
+    this.bulkheads = bulkheads;
+    this.errorRetryPolicy = errorRetryPolicy;
+    this.priorityMaxWait = priorityMaxWait;
+    this.instanceId = instanceId;
+  }
+
+  /** Returns the unique id of this Janitor instance. */
+  public String instanceId() {
+    return instanceId;
   }
 
   /**
-   * Schedule a single resource for cleaning. Returns whether a flight id if a flight was attempted
-   * to be submitted to Stairway.
+   * Starts a new {@link ClaimRound} of the resources that have expired by {@code expiredBy},
+   * reading the backlog and the CLEANING counts of each {@link ResourceKind}, and this instance's
+   * in-flight counts of each {@link ResourceType} for the {@link ResourceTypeBulkheads}, once for
+   * all of the round's batches.
    */
-  public Optional<String> submitFlight(Instant expiredBy) {
-    Stopwatch stopwatch = Stopwatch.createStarted();
-    String flightId = stairway.createFlightId();
-    Optional<TrackedResource> resource =
-        transactionTemplate.execute(
-            status -> updateResourceForCleaning(expiredBy, flightId, status));
-    if (!resource.isPresent()) {
-      // No resource to schedule.
-      return Optional.empty();
+  public ClaimRound startClaimRound(Instant expiredBy) {
+    List<ResourceKindBacklog> backlogs = janitorDao.retrieveReadyBacklog(expiredBy);
+    metricsHelper.recordReadyBacklog(
+        backlogs.stream()
+            .collect(
+                Collectors.toMap(ResourceKindBacklog::kind, backlog -> (long) backlog.count())));
+    ClaimRound round =
+        new ClaimRound(
+            expiredBy,
+            backlogs,
+            fairScheduler.hasInFlightLimits() ? janitorDao.retrieveCleaningCounts() : Map.of(),
+            bulkheads.isEnabled()
+                ? janitorDao.retrieveFlightTypeCounts(FlightScheduler.IN_FLIGHT_STATES, instanceId)
+                : Map.of());
+    if (bulkheads.isEnabled()) {
+      Map<ResourceType, Integer> typeInFlight = round.typeInFlight();
+      Set<ResourceType> activeTypes = new HashSet<>(typeInFlight.keySet());
+      backlogs.forEach(backlog -> activeTypes.add(backlog.kind().resourceType()));
+      for (ResourceType type : activeTypes) {
+        metricsHelper.recordBulkhead(
+            type, typeInFlight.getOrDefault(type, 0), bulkheads.limit(type));
+      }
     }
-    metricsHelper.incrementSubmission(
-        new ResourceTypeVisitor().accept(resource.get().cloudResourceUid()));
-    // If submission fails, it will be recovered later.
-    boolean submissionSuccessful = submitToStairway(flightId, resource.get());
-    // Only record duration of submission if there was something to attempt to schedule.
-    metricsHelper.recordSubmissionDuration(
-        Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)), submissionSuccessful);
-    return Optional.of(flightId);
+    return round;
+  }
+
+  /**
+   * Claims up to {@code batchSize} resources of the {@code round} for cleaning and creates their
+   * initiating cleanup flights in a single transaction, without submitting the flights to Stairway.
+   * Each claimed flight should be passed to {@link #submitClaimedFlight(TrackedResourceAndFlight)};
+   * any that are not are resubmitted by {@link #recoverUnsubmittedFlights(Instant, int)}.
+   *
+   * <p>The {@code round} is updated with the claimed resources once the transaction commits.
+   */
+  public List<TrackedResourceAndFlight> claimFlightBatch(ClaimRound round, int batchSize) {
+    Map<ResourceKind, Integer> allocation =
+        fairScheduler.allocate(
+            round.backlogs(),
+            round.inFlight(),
+            bulkheads.remainingCapacity(round.typeInFlight()),
+            batchSize);
+    Map<ResourceKind, Integer> claimedCounts = new HashMap<>();
+    List<TrackedResourceAndFlight> claimed =
+        transactionTemplate.execute(
+            status ->
+                updateResourcesForCleaning(round.expiredBy(), allocation, claimedCounts, status));
+    allocation.forEach(
+        (kind, allocated) -> {
+          int kindClaimed = claimedCounts.getOrDefault(kind, 0);
+          round.recordClaimed(kind, allocated, kindClaimed);
+          if (kindClaimed < allocated) {
+            fairScheduler.refund(kind, allocated - kindClaimed);
+          }
+        });
+    return claimed;
   }
 
   /**
-   * Retrieves and updates a TrackedResource that is ready and has expired by {@code expiredBy} to
-   * {@link TrackedResourceState#CLEANING}. Inserts a new {@link CleanupFlight} for that resource as
-   * initiating.
+   * Submits a flight claimed by {@link #claimFlightBatch(ClaimRound, int)} to Stairway. Returns
+   * whether the submission was successful. If submission fails, it will be recovered later.
+   */
+  public boolean submitClaimedFlight(TrackedResourceAndFlight resourceAndFlight) {
+    ResourceType type =
+        new ResourceTypeVisitor().accept(resourceAndFlight.trackedResource().cloudResourceUid());
+    metricsHelper.incrementSubmission(type);
+    metricsHelper.recordFlightStartDelay(
+        type,
+        Duration.between(
+            resourceAndFlight.trackedResource().expiration(), JanitorDao.currentInstant()));
+    // A duplicate means the flight is already with Stairway, so it is as good as submitted.
+    return submitToStairway(
+            resourceAndFlight.cleanupFlight().flightId(), resourceAndFlight.trackedResource())
+        != Submission.FAILED;
+  }
+
+  /**
+   * Updates the number of TrackedResources of each kind in the {@code allocation} that are ready
+   * and have expired by {@code expiredBy} to {@link TrackedResourceState#CLEANING}, and records
+   * how many of each kind were updated in {@code claimedCounts}. Within each kind, resources that
+   * have waited longer than the priority max wait go first, then the highest priority ones. Inserts
+   * a new initiating {@link CleanupFlight} for each of those resources.
    *
    * <p>This should be done as a part of a transaction. The TransactionStatus is unused, but a part
    * of the signature as a reminder.
    */
-  private Optional<TrackedResource> updateResourceForCleaning(
-      Instant expiredBy, String flightId, TransactionStatus unused) {
-    List<TrackedResource> resources =
-        janitorDao.retrieveResourcesMatching(
-            TrackedResourceFilter.builder()
-                .allowedStates(ImmutableSet.of(TrackedResourceState.READY))
-                .expiredBy(expiredBy)
-                .limit(1)
-                .build());
-    if (resources.isEmpty()) {
-      return Optional.empty();
-    }
-    if (resources.size() > 1) {
-      throw new IllegalStateException(
-          String.format("Retrieved more than 1 resource with limit 1, %d", resources.size()));
+  private List<TrackedResourceAndFlight> updateResourcesForCleaning(
+      Instant expiredBy,
+      Map<ResourceKind, Integer> allocation,
+      Map<ResourceKind, Integer> claimedCounts,
+      TransactionStatus unused) {
+    Instant now = JanitorDao.currentInstant();
+    Instant agedBy = expiredBy.minus(priorityMaxWait);
+    List<TrackedResource> resources = new ArrayList<>();
+    for (Map.Entry<ResourceKind, Integer> kindAllocation : allocation.entrySet()) {
+      ResourceKind kind = kindAllocation.getKey();
+      List<TrackedResource> claimed =
+          janitorDao.updateReadyResourcesToCleaning(
+              expiredBy, agedBy, kind, kindAllocation.getValue());
+      claimedCounts.put(kind, claimed.size());
+      claimed.forEach(
+          resource ->
+              metricsHelper.recordClaimWaitDuration(
+                  kind, Duration.between(resource.expiration(), now)));
+      resources.addAll(claimed);
     }
-    TrackedResource resource = resources.get(0);
+    return createInitiatingFlights(resources);
+  }
+
+  /**
+   * Claims the staged {@code resources} that are still ready and have expired by {@code expiredBy}
+   * for cleaning and creates their initiating cleanup flights in a single transaction, like {@link
+   * #claimFlightBatch(ClaimRound, int)}.
+   *
+   * <p>Staged resources are claimed by id, so they skip the {@link WeightedFairScheduler}. They
+   * should only be claimed once the {@code round} has no backlog left for them to compete with.
+   * They are still claimed highest priority first within the limits of the {@link
+   * ResourceTypeBulkheads}, counting the resources in flight as of the {@code round}. Resources
+   * that are not claimed are left READY for the next regular claim.
+   */
+  public List<TrackedResourceAndFlight> claimStagedFlights(
+      ClaimRound round, List<TrackedResource> resources, Instant expiredBy) {
+    List<TrackedResourceAndFlight> claimed =
+        transactionTemplate.execute(
+            status -> updateStagedResourcesForCleaning(round, resources, expiredBy, status));
+    claimed.stream()
+        .collect(
+            Collectors.groupingBy(
+                resourceAndFlight ->
+                    new ResourceTypeVisitor()
+                        .accept(resourceAndFlight.trackedResource().cloudResourceUid()),
+                Collectors.counting()))
+        .forEach((type, count) -> round.recordStagedClaimed(type, count.intValue()));
+    return claimed;
+  }
 
-    janitorDao.createCleanupFlight(
-        resource.trackedResourceId(),
-        CleanupFlight.create(flightId, CleanupFlightState.INITIATING));
-    return janitorDao.updateResourceState(
-        resource.trackedResourceId(), TrackedResourceState.CLEANING);
+  /**
+   * Claims the resource with {@code trackedResourceId} for cleaning, if it is still ready and has
+   * expired by {@code expiredBy}, and creates its initiating cleanup flight in a single
+   * transaction, like {@link #claimFlightBatch(ClaimRound, int)}.
+   *
+   * <p>This is for resources that should be cleaned up right away, so it skips the {@link
+   * WeightedFairScheduler} and the {@link ResourceTypeBulkheads}.
+   */
+  public Optional<TrackedResourceAndFlight> claimPriorityFlight(
+      TrackedResourceId trackedResourceId, Instant expiredBy) {
+    List<TrackedResourceAndFlight> claimed =
+        transactionTemplate.execute(
+            status ->
+                createInitiatingFlights(
+                    janitorDao.updateReadyResourcesToCleaning(
+                        List.of(trackedResourceId), expiredBy)));
+    return claimed.stream().findFirst();
   }
 
   /**
-   * Recover up to {@code limit} tracked resources with flight ids in the Janitor's storage that are
-   * not known to Stairway. Resubmit the flights, returning how many flights were resubmitted.
+   * Updates the staged {@code resources} that are still ready and have expired by {@code
+   * expiredBy} to {@link TrackedResourceState#CLEANING}, highest priority first within the limits
+   * of the {@link ResourceTypeBulkheads} as of the {@code round}. Inserts a new initiating {@link
+   * CleanupFlight} for each of those resources.
    *
-   * <p>This function assumes that it is not running concurrently with any other submissions to
-   * Stairway, e.g {@link #submitFlight(Instant)}.
+   * <p>This should be done as a part of a transaction. The TransactionStatus is unused, but a part
+   * of the signature as a reminder.
    */
-  public int recoverUnsubmittedFlights(int limit) {
+  private List<TrackedResourceAndFlight> updateStagedResourcesForCleaning(
+      ClaimRound round,
+      List<TrackedResource> resources,
+      Instant expiredBy,
+      TransactionStatus unused) {
+    List<TrackedResource> prioritized = resources.stream().sorted(CLAIM_ORDER).toList();
+    List<TrackedResourceId> ids = new ArrayList<>();
+    if (bulkheads.isEnabled()) {
+      Map<ResourceType, Integer> typeCapacity = bulkheads.remainingCapacity(round.typeInFlight());
+      for (TrackedResource resource : prioritized) {
+        ResourceType type = new ResourceTypeVisitor().accept(resource.cloudResourceUid());
+        if (typeCapacity.getOrDefault(type, 0) > 0) {
+          typeCapacity.merge(type, -1, Integer::sum);
+          ids.add(resource.trackedResourceId());
+        }
+      }
+    } else {
+      prioritized.forEach(resource -> ids.add(resource.trackedResourceId()));
+    }
+    return createInitiatingFlights(janitorDao.updateReadyResourcesToCleaning(ids, expiredBy));
+  }
+
+  /** Creates a new initiating {@link CleanupFlight} for each of the claimed {@code resources}. */
+  private List<TrackedResourceAndFlight> createInitiatingFlights(List<TrackedResource> resources) {
     List<TrackedResourceAndFlight> resourceAndFlights =
-        janitorDao.retrieveResourcesWith(CleanupFlightState.INITIATING, limit);
+        resources.stream()
+            .map(
+                resource ->
+                    TrackedResourceAndFlight.create(
+                        resource,
+                        CleanupFlight.create(
+                            stairway.createFlightId(), CleanupFlightState.INITIATING)))
+            .toList();
+    janitorDao.createCleanupFlights(resourceAndFlights, instanceId);
+    return resourceAndFlights;
+  }
+
+  /**
+   * Recover the tracked resources with flights in the Janitor's storage that have been initiating
+   * since {@code createdBy} but are not known to Stairway. Resubmit the flights, returning how many
+   * flights were resubmitted.
+   *
+   * <p>Pages through all such flights {@code pageSize} at a time, checking which of a page's
+   * flights Stairway knows about with a single query.
+   *
+   * <p>This may run concurrently with other submissions to Stairway, e.g {@link
+   * #submitClaimedFlight(TrackedResourceAndFlight)}. A flight id is only ever submitted once to
+   * Stairway, so racing to resubmit a flight that is being submitted elsewhere is harmless.
+   */
+  public int recoverUnsubmittedFlights(Instant createdBy, int pageSize) {
+    return recoverUnsubmittedFlights(
+        lastFlightId -> janitorDao.retrieveInitiatingFlights(createdBy, lastFlightId, pageSize),
+        pageSize);
+  }
+
+  /**
+   * Like {@link #recoverUnsubmittedFlights(Instant, int)}, but only recovers the flights submitted
+   * by one of the Janitor {@code instances}, or by a Janitor from before flights recorded their
+   * instance. The flights of other instances are left alone, as they may still be submitting them.
+   */
+  public int recoverUnsubmittedFlights(Set<String> instances, Instant createdBy, int pageSize) {
+    return recoverUnsubmittedFlights(
+        lastFlightId ->
+            janitorDao.retrieveInitiatingFlights(instances, createdBy, lastFlightId, pageSize),
+        pageSize);
+  }
+
+  /**
+   * Recovers the flights returned by {@code pages}, which returns the next page of up to {@code
+   * pageSize} initiating flights after the flight id it is passed.
+   */
+  private int recoverUnsubmittedFlights(
+      Function<String, List<InitiatingFlight>> pages, int pageSize) {
     int submissions = 0;
-    for (TrackedResourceAndFlight resourceAndFlight : resourceAndFlights) {
-      String flightId = resourceAndFlight.cleanupFlight().flightId();
+    String lastFlightId = "";
+    List<InitiatingFlight> page;
+    do {
+      page = pages.apply(lastFlightId);
+      if (page.isEmpty()) {
+        break;
+      }
+      List<String> flightIds =
+          page.stream()
+              .map(flight -> flight.resourceAndFlight().cleanupFlight().flightId())
+              .toList();
+      lastFlightId = flightIds.get(flightIds.size() - 1);
+      Set<String> submittedFlightIds;
       try {
-        // If there is some flight state, then the flight has been submitted successfully and does
-        // not need to be recovered. There's nothing to do but wait for the flight to update it's
-        // state from INITIATING.
-        stairway.getFlightState(flightId);
-        metricsHelper.incrementRecoveredSubmittedFlight();
-      } catch (FlightNotFoundException e) {
-        // Stairway does not know about the flightId, so we must not have submitted successfully.
-        // Try to resubmit.
-        if (submitToStairway(flightId, resourceAndFlight.trackedResource())) {
+        submittedFlightIds = getSubmittedFlightIds(flightIds);
+      } catch (DatabaseOperationException | InterruptedException e) {
+        logger.error("Error getting the state of initiating flights.", e);
+        break;
+      }
+      for (InitiatingFlight initiatingFlight : page) {
+        TrackedResourceAndFlight resourceAndFlight = initiatingFlight.resourceAndFlight();
+        if (submittedFlightIds.contains(resourceAndFlight.cleanupFlight().flightId())) {
+          // The flight has been submitted successfully and does not need to be recovered. There's
+          // nothing to do but wait for the flight to update it's state from INITIATING.
+          metricsHelper.incrementRecoveredSubmittedFlight();
+          continue;
+        }
+        if (!transactionTemplate.execute(
+            status -> takeOverUnsubmittedFlight(resourceAndFlight, status))) {
+          continue;
+        }
+        // Stairway did not know about the flightId, so we must not have submitted successfully. Try
+        // to resubmit outside of the transaction, so that the flight is not locked while waiting on
+        // Stairway. If it was submitted since we checked, the resubmission is a harmless duplicate.
+        Submission submission =
+            submitToStairway(
+                resourceAndFlight.cleanupFlight().flightId(), resourceAndFlight.trackedResource());
+        if (submission == Submission.DUPLICATE) {
+          metricsHelper.incrementRecoveredDuplicateFlight();
+        } else if (submission == Submission.SUBMITTED) {
+          metricsHelper.recordRecoveredUnsubmittedFlightAge(
+              Duration.between(initiatingFlight.creation(), JanitorDao.currentInstant()));
           ++submissions;
         }
-      } catch (DatabaseOperationException | InterruptedException e) {
-        logger.error(String.format("Error recovering flight id [%s]", flightId), e);
       }
-    }
+    } while (page.size() == pageSize);
     return submissions;
   }
 
   /**
-   * Submits a cleanup flight for the resource to Stairway, or fails logging any exceptions. Returns
-   * success.
+   * Releases claimed flights that were never submitted to Stairway, e.g. because the scheduler is
+   * shutting down, by deleting their initiating flights and making their resources READY again.
+   * Returns how many flights were released.
+   *
+   * <p>A flight is only released once Stairway is confirmed not to know about it while the flight
+   * is locked, so a flight that was submitted after all is never released from under Stairway.
+   * Flights that have been submitted, are locked or have been taken over by another Janitor
+   * instance are not released and are left for {@link #recoverUnsubmittedFlights(Instant, int)}.
+   */
+  public int releaseUnsubmittedFlights(List<TrackedResourceAndFlight> resourceAndFlights) {
+    List<String> flightIds =
+        resourceAndFlights.stream()
+            .map(resourceAndFlight -> resourceAndFlight.cleanupFlight().flightId())
+            .toList();
+    return transactionTemplate.execute(
+        status -> {
+          List<String> lockedFlightIds =
+              janitorDao.lockFlights(flightIds).entrySet().stream()
+                  .filter(entry -> entry.getValue().equals(CleanupFlightState.INITIATING))
+                  .map(Map.Entry::getKey)
+                  .toList();
+          if (lockedFlightIds.isEmpty()) {
+            return 0;
+          }
+          Set<String> submittedFlightIds;
+          try {
+            submittedFlightIds = getSubmittedFlightIds(lockedFlightIds);
+          } catch (DatabaseOperationException | InterruptedException e) {
+            logger.error("Error getting the state of unsubmitted flights.", e);
+            return 0;
+          }
+          List<String> unsubmittedFlightIds =
+              lockedFlightIds.stream().filter(id -> !submittedFlightIds.contains(id)).toList();
+          return janitorDao.releaseInitiatingFlights(unsubmittedFlightIds, instanceId).size();
+        });
+  }
+
+  /** Returns which of the {@code flightIds} Stairway knows about. */
+  private Set<String> getSubmittedFlightIds(List<String> flightIds)
+      throws DatabaseOperationException, InterruptedException {
+    FlightFilter flightFilter = new FlightFilter().addFilterFlightIds(flightIds);
+    return stairway.getFlights(/* offset =*/ 0, flightIds.size(), flightFilter).stream()
+        .map(FlightState::getFlightId)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Takes over the flight for this Janitor instance if it is still initiating, so that it counts
+   * against this instance's in-flight window and is not released by another instance draining.
+   * Returns whether the flight was taken over and should be resubmitted.
+   *
+   * <p>This should be done as a part of a transaction, which must be committed before the flight
+   * is resubmitted so that its row is not locked while waiting on Stairway. The TransactionStatus
+   * is unused, but a part of the signature as a reminder.
    */
-  private boolean submitToStairway(String flightId, TrackedResource resource) {
+  private boolean takeOverUnsubmittedFlight(
+      TrackedResourceAndFlight resourceAndFlight, TransactionStatus unused) {
+    String flightId = resourceAndFlight.cleanupFlight().flightId();
+    if (!janitorDao.lockFlight(flightId).equals(Optional.of(CleanupFlightState.INITIATING))) {
+      // The flight has started or is being recovered by another Janitor instance.
+      return false;
+    }
+    janitorDao.updateFlightInstance(flightId, instanceId);
+    return true;
+  }
+
+  /** The outcome of submitting a cleanup flight to Stairway. */
+  private enum Submission {
+    /** The flight was submitted. */
+    SUBMITTED,
+    /** Stairway already had the flight, e.g. because another Janitor instance submitted it. */
+    DUPLICATE,
+    /** The submission failed. The flight will be recovered later. */
+    FAILED
+  }
+
+  /** Submits a cleanup flight for the resource to Stairway, logging any exceptions. */
+  private Submission submitToStairway(String flightId, TrackedResource resource) {
     FlightSubmissionFactory.FlightSubmission flightSubmission =
         submissionFactory.createSubmission(resource);
     try {
       stairway.submitToQueue(
           flightId, flightSubmission.clazz(), flightSubmission.inputParameters());
+    } catch (DuplicateFlightIdException e) {
+      logger.info("Flight id [{}] was already submitted to Stairway.", flightId);
+      return Submission.DUPLICATE;
     } catch (StairwayException | InterruptedException e) {
       logger.error(
           String.format(
               "Error scheduling flight for tracked_resource_id [%s]",
               resource.trackedResourceId().toString()),
           e);
-      return false;
+      return Submission.FAILED;
     }
-    return true;
+    return Submission.SUBMITTED;
   }
 
   /**
@@ -179,86 +501,158 @@ class FlightManager {
    * transition their state out of cleaning as appropriate. Returns how many resources finished
    * their cleanup flights.
    *
-   * <p>This function assumes that it is not running concurrently with itself.
+   * <p>Flights being completed concurrently by another Janitor instance are skipped.
    */
   public int updateCompletedFlights(int limit) {
+    return updateCompletedFlights(limit, limit);
+  }
+
+  /**
+   * Like {@link #updateCompletedFlights(int)}, but completes the flights in batches of up to {@code
+   * batchSize}. The Stairway statuses of each batch are looked up with one query and the resulting
+   * state transitions are applied in one transaction.
+   */
+  public int updateCompletedFlights(int limit, int batchSize) {
     List<TrackedResourceAndFlight> resourceAndFlights =
         janitorDao.retrieveResourcesWith(CleanupFlightState.FINISHING, limit);
+    // Shuffle so that concurrent Janitor instances are less likely to contend for the same flights.
+    Collections.shuffle(resourceAndFlights);
     int completedFlights = 0;
-    for (TrackedResourceAndFlight resourceAndFlight : resourceAndFlights) {
-      Stopwatch stopwatch = Stopwatch.createStarted();
-      boolean flightCompleted = completeFlight(resourceAndFlight);
+    for (List<TrackedResourceAndFlight> batch : Lists.partition(resourceAndFlights, batchSize)) {
+      completedFlights += completeFlightBatchWithMetrics(batch).size();
+    }
+    metricsHelper.incrementCompletionPath(MetricsHelper.SWEEP_COMPLETION_PATH, completedFlights);
+    return completedFlights;
+  }
+
+  /**
+   * Completes the {@code flightIds} that are finishing cleanup as a single batch, like {@link
+   * #updateCompletedFlights(int, int)}. This is for flights that are known to have just ended, so
+   * they can be completed without waiting for the next sweep. Returns the ids of the flights that
+   * were completed.
+   */
+  public Set<String> completeFlights(List<String> flightIds) {
+    List<TrackedResourceAndFlight> batch =
+        janitorDao.retrieveResourcesAndFlights(flightIds).stream()
+            .filter(r -> r.cleanupFlight().state().equals(CleanupFlightState.FINISHING))
+            .collect(Collectors.toList());
+    if (batch.isEmpty()) {
+      return Set.of();
+    }
+    Set<String> completedFlightIds = completeFlightBatchWithMetrics(batch);
+    metricsHelper.incrementCompletionPath(
+        MetricsHelper.HOOK_COMPLETION_PATH, completedFlightIds.size());
+    return completedFlightIds;
+  }
+
+  /** Calls {@link #completeFlightBatch(List)} and records metrics about the batch. */
+  private Set<String> completeFlightBatchWithMetrics(List<TrackedResourceAndFlight> batch) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Set<String> completedFlightIds = completeFlightBatch(batch);
+    for (TrackedResourceAndFlight resourceAndFlight : batch) {
       metricsHelper.incrementCompletion(
           new ResourceTypeVisitor().accept(resourceAndFlight.trackedResource().cloudResourceUid()),
           resourceAndFlight.trackedResource().trackedResourceState(),
-          flightCompleted);
-      metricsHelper.recordCompletionDuration(
-          Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)), flightCompleted);
-      if (flightCompleted) {
-        ++completedFlights;
-      }
+          completedFlightIds.contains(resourceAndFlight.cleanupFlight().flightId()));
     }
-    return completedFlights;
+    metricsHelper.recordCompletionBatchDuration(
+        Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)));
+    metricsHelper.recordCompletionBatchSize(batch.size());
+    return completedFlightIds;
   }
 
   /**
-   * Completes the flight if Stairway has finished the flight non-fatally. Returns whether we were
-   * able to update the state of the resource and flight successfully for the completed flight.
+   * Completes the flights of the batch that Stairway has finished non-fatally. Returns the ids of
+   * the flights whose resource and flight states were updated successfully.
    */
-  private boolean completeFlight(TrackedResourceAndFlight resourceAndFlight) {
-    String flightId = resourceAndFlight.cleanupFlight().flightId();
-    Optional<FlightStatus> flightStatus;
+  private Set<String> completeFlightBatch(List<TrackedResourceAndFlight> batch) {
+    List<String> flightIds =
+        batch.stream().map(r -> r.cleanupFlight().flightId()).collect(Collectors.toList());
+    Map<String, FlightState> flightStates;
     try {
-      flightStatus = getCompleteFlightStatus(flightId);
-    } catch (FlightNotFoundException e) {
-      logger.error(
-          "Completed tracked resource flight not found. Tracked resource id [{}]. Flight id [{}].",
-          resourceAndFlight.trackedResource().trackedResourceId(),
-          flightId);
-      flightStatus = Optional.empty();
+      flightStates = getCompleteFlightStates(flightIds);
     } catch (DatabaseOperationException | InterruptedException e) {
       logger.error(
-          String.format(
-              "Error getting state of finishing flight. Tracked resource id [%s]. Flight id [%s].",
-              resourceAndFlight.trackedResource().trackedResourceId(), flightId),
-          e);
-      return false;
+          String.format("Error getting state of finishing flights. Flight ids %s.", flightIds), e);
+      return Set.of();
     }
 
-    CompletedFlightState completedFlightState;
-    if (flightStatus.isEmpty()) {
-      completedFlightState = CompletedFlightState.LOST;
-    } else {
-      switch (flightStatus.get()) {
+    Map<TrackedResourceAndFlight, CompletedFlightState> completedFlightStates = new HashMap<>();
+    for (TrackedResourceAndFlight resourceAndFlight : batch) {
+      String flightId = resourceAndFlight.cleanupFlight().flightId();
+      FlightState flightState = flightStates.get(flightId);
+      if (flightState == null) {
+        logger.error(
+            "Completed tracked resource flight not found. Tracked resource id [{}]. Flight id [{}].",
+            resourceAndFlight.trackedResource().trackedResourceId(),
+            flightId);
+        completedFlightStates.put(resourceAndFlight, CompletedFlightState.LOST);
+        continue;
+      }
+      switch (flightState.getFlightStatus()) {
         case SUCCESS:
-          completedFlightState = CompletedFlightState.SUCCESS;
+          completedFlightStates.put(resourceAndFlight, CompletedFlightState.SUCCESS);
           break;
 
         case ERROR:
         case FATAL:
-          completedFlightState = CompletedFlightState.ERROR;
+          completedFlightStates.put(resourceAndFlight, CompletedFlightState.ERROR);
           break;
 
         default:
           // The flight hasn't finished or has finished fatally. Let Stairway keep working or the
           // fatal monitor handle this respectively.
-          return false;
+          break;
       }
     }
-
-    return transactionTemplate.execute(
-        status ->
-            updateFinishedCleanupState(
-                resourceAndFlight.trackedResource().trackedResourceId(),
-                flightId,
-                completedFlightState,
-                status));
+    if (completedFlightStates.isEmpty()) {
+      return Set.of();
+    }
+    Set<String> completedFlightIds =
+        transactionTemplate.execute(
+            status -> updateFinishedCleanupStates(completedFlightStates, status));
+    for (Map.Entry<TrackedResourceAndFlight, CompletedFlightState> entry :
+        completedFlightStates.entrySet()) {
+      String flightId = entry.getKey().cleanupFlight().flightId();
+      if (!completedFlightIds.contains(flightId)) {
+        continue;
+      }
+      boolean success = entry.getValue().equals(CompletedFlightState.SUCCESS);
+      bulkheads.recordFlightEnded(
+          new ResourceTypeVisitor().accept(entry.getKey().trackedResource().cloudResourceUid()),
+          success,
+          success ? flightLatency(flightStates.get(flightId)).orElse(null) : null);
+    }
+    return completedFlightIds;
   }
 
-  // Small indirection so we have something to mock for testing that is not a Spring-injected class.
+  /**
+   * Returns the {@link FlightState} of each of the {@code flightIds} that Stairway knows about,
+   * with a single Stairway query.
+   *
+   * <p>Small indirection so we have something to mock for testing that is not a Spring-injected
+   * class.
+   */
   @VisibleForTesting
-  Optional<FlightStatus> getCompleteFlightStatus(String flightId) throws InterruptedException {
-    return Optional.of(stairway.getFlightState(flightId).getFlightStatus());
+  Map<String, FlightState> getCompleteFlightStates(List<String> flightIds)
+      throws DatabaseOperationException, InterruptedException {
+    FlightFilter flightFilter = new FlightFilter().addFilterFlightIds(flightIds);
+    return stairway.getFlights(/* offset =*/ 0, flightIds.size(), flightFilter).stream()
+        .collect(Collectors.toMap(FlightState::getFlightId, flightState -> flightState));
+  }
+
+  /**
+   * Returns how long the flight took from submission to completion, if it has completed.
+   *
+   * <p>Stairway does not record when a flight starts running, so this includes the time the flight
+   * waited in Stairway's queue. It is only recorded for successful flights. A failed flight already
+   * shrinks its type's limit, and its latency mostly reflects how long it retried before giving up,
+   * which would skew the running average that later successful flights are compared with.
+   */
+  private static Optional<Duration> flightLatency(FlightState flightState) {
+    return flightState
+        .getCompleted()
+        .map(completed -> Duration.between(flightState.getSubmitted(), completed));
   }
 
   /* An enum for the possible states of a completed flight. */
@@ -269,31 +663,39 @@ class FlightManager {
   }
 
   /**
-   * Update the TrackedResourceState and CleanupFlightState for the finishing flight. Returns
-   * whether the update was successful.
+   * Update the TrackedResourceState and CleanupFlightState for the finishing flights with batched
+   * updates. Returns the ids of the flights that were updated successfully. Flights that are no
+   * longer finishing or whose resource is in an unexpected state are skipped.
    *
-   * <p>This should be done as a part of a transaction.
+   * <p>This should be done as a part of a transaction. The TransactionStatus is unused, but a part
+   * of the signature as a reminder.
    */
-  private boolean updateFinishedCleanupState(
-      TrackedResourceId trackedResourceId,
-      String flightId,
-      CompletedFlightState completedFlightState,
-      TransactionStatus transactionStatus) {
-    // Retrieve the TrackedResource within this transaction to ensure no one else is abandoning or
-    // duplicating it while we finish it.
-    Optional<TrackedResource> resource = janitorDao.retrieveTrackedResource(trackedResourceId);
-    if (!resource.isPresent()) {
-      logger.error(
-          "Unable to find tracked_resource while finishing flight. Tracked resource id [{}]. Flight id [{}].",
-          trackedResourceId,
-          flightId);
-      transactionStatus.setRollbackOnly();
-      return false;
-    }
-    TrackedResourceState resourceState = resource.get().trackedResourceState();
-    if (resourceState.equals(TrackedResourceState.CLEANING)) {
+  private Set<String> updateFinishedCleanupStates(
+      Map<TrackedResourceAndFlight, CompletedFlightState> completedFlightStates,
+      TransactionStatus unused) {
+    Map<String, CleanupFlightState> lockedFlights =
+        janitorDao.lockFlights(
+            completedFlightStates.keySet().stream()
+                .map(r -> r.cleanupFlight().flightId())
+                .collect(Collectors.toList()));
+    // Another Janitor instance has already completed or is completing the other flights.
+    Map<TrackedResourceAndFlight, CompletedFlightState> finishingFlights =
+        completedFlightStates.entrySet().stream()
+            .filter(
+                entry ->
+                    CleanupFlightState.FINISHING.equals(
+                        lockedFlights.get(entry.getKey().cleanupFlight().flightId())))
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    // Move the CLEANING resources to their final states, grouped by final state so that each group
+    // is a single compare-and-set update. Resources that were abandoned or duplicated while their
+    // flight was running are left alone.
+    Map<TrackedResourceState, List<TrackedResourceId>> idsByFinalState = new HashMap<>();
+    Map<TrackedResourceId, TrackedResourceAndFlight> flightsByResourceId = new HashMap<>();
+    for (Map.Entry<TrackedResourceAndFlight, CompletedFlightState> entry :
+        finishingFlights.entrySet()) {
+      TrackedResourceId trackedResourceId = entry.getKey().trackedResource().trackedResourceId();
       TrackedResourceState finalState;
-      switch (completedFlightState) {
+      switch (entry.getValue()) {
         case SUCCESS:
           finalState = TrackedResourceState.DONE;
           break;
@@ -301,94 +703,266 @@ class FlightManager {
           finalState = TrackedResourceState.ERROR;
           break;
         case LOST:
-          // We lost the flight in some unexpected way. We pessimistically assume that the resource
-          // was not cleaned up.
+          // We lost the flight in some unexpected way. We pessimistically assume that the
+          // resource was not cleaned up.
           finalState = TrackedResourceState.ERROR;
           break;
         default:
           throw new AssertionError("Unknown CompletedFlightState.");
       }
-      janitorDao.updateResourceState(trackedResourceId, finalState);
+      idsByFinalState
+          .computeIfAbsent(finalState, unusedState -> new ArrayList<>())
+          .add(trackedResourceId);
+      flightsByResourceId.put(trackedResourceId, entry.getKey());
+    }
+    Set<TrackedResourceId> finishedIds = new HashSet<>();
+    List<TrackedResource> erroredResources = new ArrayList<>();
+    for (Map.Entry<TrackedResourceState, List<TrackedResourceId>> entry :
+        idsByFinalState.entrySet()) {
+      List<TrackedResource> transitioned =
+          janitorDao.transitionResourceStates(
+              entry.getValue(), Set.of(TrackedResourceState.CLEANING), entry.getKey());
+      transitioned.forEach(resource -> finishedIds.add(resource.trackedResourceId()));
+      if (entry.getKey().equals(TrackedResourceState.ERROR)) {
+        erroredResources.addAll(transitioned);
+      }
+    }
+    // Only read back the resources that were not CLEANING, which should be rare.
+    List<TrackedResourceId> skippedIds =
+        flightsByResourceId.keySet().stream()
+            .filter(id -> !finishedIds.contains(id))
+            .collect(Collectors.toList());
+    Map<TrackedResourceId, TrackedResource> skippedResources =
+        skippedIds.isEmpty()
+            ? Map.of()
+            : janitorDao.retrieveTrackedResources(skippedIds).stream()
+                .collect(Collectors.toMap(TrackedResource::trackedResourceId, r -> r));
+
+    Map<String, CleanupFlightState> flightStates = new HashMap<>();
+    for (Map.Entry<TrackedResourceAndFlight, CompletedFlightState> entry :
+        finishingFlights.entrySet()) {
+      TrackedResourceId trackedResourceId = entry.getKey().trackedResource().trackedResourceId();
+      String flightId = entry.getKey().cleanupFlight().flightId();
+      if (!finishedIds.contains(trackedResourceId)) {
+        TrackedResource resource = skippedResources.get(trackedResourceId);
+        if (resource == null) {
+          logger.error(
+              "Unable to find tracked_resource while finishing flight. Tracked resource id [{}]. Flight id [{}].",
+              trackedResourceId,
+              flightId);
+          continue;
+        }
+        TrackedResourceState resourceState = resource.trackedResourceState();
+        if (!resourceState.equals(TrackedResourceState.ABANDONED)
+            && !resourceState.equals(TrackedResourceState.DUPLICATED)) {
+          // The resource should not have moved from CLEANING to any other state while there was a
+          // flight working on it.
+          logger.error(
+              "Unexpected TrackedResourceState {} while finishing flight. Tracked resource id [{}]. Flight id [{}].",
+              resourceState,
+              trackedResourceId,
+              flightId);
+          continue;
+        }
+      }
+      // The flight is locked, so no one else is modifying the CleanupFlightState while we do this.
+      flightStates.put(
+          flightId,
+          entry.getValue().equals(CompletedFlightState.LOST)
+              ? CleanupFlightState.LOST
+              : CleanupFlightState.FINISHED);
+    }
+    janitorDao.updateFlightStates(flightStates);
+    scheduleErrorRetries(erroredResources);
+    return flightStates.keySet();
+  }
 
-    } else if (!resourceState.equals(TrackedResourceState.ABANDONED)
-        && !resourceState.equals(TrackedResourceState.DUPLICATED)) {
-      // The resource should not have moved from CLEANING to any other state while there was a
-      // flight working on it.
-      logger.error(
-          "Unexpected TrackedResourceState {} while finishing flight. Tracked resource id [{}]. Flight id [{}].",
-          resourceState,
-          trackedResourceId,
-          flightId);
-      transactionStatus.setRollbackOnly();
-      return false;
+  /**
+   * Schedules the automatic retries of the {@code resources} that were just moved to {@link
+   * TrackedResourceState#ERROR}, or quarantines them if they have run out of retries.
+   *
+   * <p>This should be done as a part of the transaction that moved them to ERROR.
+   */
+  private void scheduleErrorRetries(List<TrackedResource> resources) {
+    if (resources.isEmpty() || !errorRetryPolicy.isEnabled()) {
+      return;
     }
-    // We assume no one else is modifying the CleanupFlightState while we do this.
-    CleanupFlightState cleanupFlightState =
-        completedFlightState.equals(CompletedFlightState.LOST)
-            ? CleanupFlightState.LOST
-            : CleanupFlightState.FINISHED;
-    janitorDao.updateFlightState(flightId, cleanupFlightState);
-    return true;
+    Set<TrackedResourceId> scheduled =
+        janitorDao.scheduleErrorRetries(
+            resources.stream().map(TrackedResource::trackedResourceId).collect(Collectors.toList()),
+            JanitorDao.currentInstant(),
+            errorRetryPolicy.maxAttempts(),
+            errorRetryPolicy.initialBackoff(),
+            errorRetryPolicy.maxBackoff());
+    for (TrackedResource resource : resources) {
+      if (!scheduled.contains(resource.trackedResourceId())) {
+        logger.warn(
+            "Resource {} ran out of retries. Leaving it in ERROR.", resource.trackedResourceId());
+        metricsHelper.incrementErrorQuarantine(
+            new ResourceTypeVisitor().accept(resource.cloudResourceUid()));
+      }
+    }
+  }
+
+  /**
+   * Moves up to {@code limit} ERROR resources whose automatic retry is due by {@code retryBy} back
+   * to {@link TrackedResourceState#READY}, so that they are claimed with the other expired
+   * resources. Returns how many resources were retried.
+   */
+  public int retryErrorResources(Instant retryBy, int limit) {
+    List<TrackedResource> retried =
+        transactionTemplate.execute(
+            status -> janitorDao.updateErrorResourcesToReady(retryBy, limit));
+    retried.forEach(
+        resource ->
+            metricsHelper.incrementErrorRetry(
+                new ResourceTypeVisitor().accept(resource.cloudResourceUid())));
+    return retried.size();
   }
 
   /**
-   * Finds up to {@code limit} flights that are FATAL in Stairway transition their state out of
-   * cleaning as appropriate. Returns how many resources finished their cleanup flights.
+   * Finds the flights that became FATAL in Stairway since the last call and up to {@code
+   * completedBy}, and transitions their state out of cleaning as appropriate. Stairway is read
+   * {@code pageSize} flights at a time. Returns how many resources finished their cleanup flights.
+   *
+   * <p>Progress is persisted as a watermark on the flights' completion times, so each FATAL flight
+   * is normally only handled once even though Stairway retains FATAL flights for a long time. The
+   * watermark is not advanced past a flight that failed to update, so it is retried next time.
+   * Flights being updated concurrently by another Janitor instance are skipped and retried. FATAL
+   * flights that the Janitor cannot update at all, e.g. because it has no cleanup flight for them,
+   * are skipped for good.
    *
-   * <p>This function assumes that it is not running concurrently with itself.
+   * <p>{@code completedBy} should lag the current time enough that Stairway will not record any
+   * more flights completed before it.
    */
-  public int updateFatalFlights(int limit) {
-    FlightFilter flightFilter =
-        new FlightFilter().addFilterFlightStatus(FlightFilterOp.EQUAL, FlightStatus.FATAL);
-    List<FlightState> flights;
-    try {
-      flights = stairway.getFlights(/* offset =*/ 0, limit, flightFilter);
-    } catch (DatabaseOperationException | InterruptedException e) {
-      logger.error("Error getting FATAL flights.", e);
+  public int updateFatalFlights(Instant completedBy, int pageSize) {
+    Instant watermark = janitorDao.retrieveWatermark(FATAL_FLIGHT_WATERMARK).orElse(Instant.EPOCH);
+    if (!completedBy.isAfter(watermark)) {
       return 0;
     }
+    FlightFilter flightFilter =
+        new FlightFilter()
+            .addFilterFlightStatus(FlightFilterOp.EQUAL, FlightStatus.FATAL)
+            .addFilterCompletedTime(FlightFilterOp.GREATER_THAN, watermark)
+            .addFilterCompletedTime(FlightFilterOp.LESS_EQUAL, completedBy);
+    // The earliest completion time of the flights that failed to update, if there are any.
+    Optional<Instant> earliestFailure = Optional.empty();
     int completedFlights = 0;
-    for (FlightState flight : flights) {
-      Stopwatch stopwatch = Stopwatch.createStarted();
-      boolean flightCompleted = updateFatalFlight(flight.getFlightId());
-      metricsHelper.recordFatalUpdateDuration(
-          Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)), flightCompleted);
-      if (flightCompleted) {
-        ++completedFlights;
+    int offset = 0;
+    List<FlightState> page;
+    do {
+      try {
+        page = stairway.getFlights(offset, pageSize, flightFilter);
+      } catch (DatabaseOperationException | InterruptedException e) {
+        logger.error("Error getting FATAL flights.", e);
+        // Don't advance the watermark past flights we have not read.
+        return completedFlights;
+      }
+      offset += page.size();
+      for (FlightState flight : page) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        FatalUpdate update = updateFatalFlight(flight);
+        metricsHelper.recordFatalUpdateDuration(
+            Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)),
+            update == FatalUpdate.COMPLETED);
+        if (update == FatalUpdate.COMPLETED) {
+          ++completedFlights;
+        } else if (update == FatalUpdate.RETRY) {
+          Instant completed = flight.getCompleted().orElse(watermark);
+          if (earliestFailure.isEmpty() || completed.isBefore(earliestFailure.get())) {
+            earliestFailure = Optional.of(completed);
+          }
+        }
       }
+    } while (page.size() == pageSize);
+    // Completion times are stored with microsecond precision, so back off by a microsecond to keep
+    // the earliest failed flight after the watermark.
+    Instant newWatermark =
+        earliestFailure.map(failure -> failure.minus(1, ChronoUnit.MICROS)).orElse(completedBy);
+    if (newWatermark.isAfter(watermark)) {
+      janitorDao.advanceWatermark(FATAL_FLIGHT_WATERMARK, newWatermark);
+      watermark = newWatermark;
     }
+    metricsHelper.recordFatalFlightWatermarkLag(
+        Duration.between(watermark, JanitorDao.currentInstant()));
     return completedFlights;
   }
 
-  private boolean updateFatalFlight(String flightId) {
-    return transactionTemplate.execute(status -> updateFatalCleanupState(flightId, status));
+  /** The outcome of handling a FATAL flight. */
+  private enum FatalUpdate {
+    /** The flight's cleanup state was updated, or already had been. */
+    COMPLETED,
+    /**
+     * The flight can never be updated, e.g. because it has no cleanup flight or tracked resource.
+     * It is skipped for good.
+     */
+    SKIPPED,
+    /** The update failed for now, e.g. because another instance has the flight locked. */
+    RETRY
+  }
+
+  private FatalUpdate updateFatalFlight(FlightState flight) {
+    List<TrackedResource> endedResources = new ArrayList<>();
+    FatalUpdate update =
+        transactionTemplate.execute(
+            status -> updateFatalCleanupState(flight, endedResources, status));
+    // Only adjust the bulkhead once the flight's FATAL state has been committed, so that a rolled
+    // back update or a retry by another instance does not count the same flight twice.
+    for (TrackedResource resource : endedResources) {
+      bulkheads.recordFlightEnded(
+          new ResourceTypeVisitor().accept(resource.cloudResourceUid()),
+          /* success= */ false,
+          /* latency= */ null);
+    }
+    return update;
   }
 
   /**
-   * Update the TrackedResourceState and CleanupFlightState for the fatal flight. Returns whether
-   * the update was successful.
+   * Update the TrackedResourceState and CleanupFlightState for the fatal flight. The resource is
+   * added to {@code endedResources} if this marked its flight as FATAL.
+   *
+   * <p>A flight without a cleanup flight or tracked resource, or whose resource is in an unexpected
+   * state, can never be updated. It is {@link FatalUpdate#SKIPPED} so that the fatal flight
+   * watermark passes it instead of being held back forever. Only {@link FatalUpdate#RETRY}, for
+   * failures that a later attempt may get past, holds the watermark.
    *
    * <p>This should be done as a part of a transaction.
    */
-  private boolean updateFatalCleanupState(String flightId, TransactionStatus transactionStatus) {
+  private FatalUpdate updateFatalCleanupState(
+      FlightState flight,
+      List<TrackedResource> endedResources,
+      TransactionStatus transactionStatus) {
+    String flightId = flight.getFlightId();
+    Optional<CleanupFlightState> lockedFlightState = janitorDao.lockFlight(flightId);
     Optional<TrackedResourceAndFlight> resourceAndFlight =
         janitorDao.retrieveResourceAndFlight(flightId);
     if (!resourceAndFlight.isPresent()) {
+      // The watermark passes the flight after this, so this is only logged once.
       logger.error(
-          "Unable to find tracked_resource for flight id {} while finishing fatal.", flightId);
+          "Unable to find tracked_resource for flight id {} while finishing fatal. Skipping it.",
+          flightId);
+      metricsHelper.incrementFatalFlightOrphaned();
       transactionStatus.setRollbackOnly();
-      return false;
+      return FatalUpdate.SKIPPED;
+    }
+    if (lockedFlightState.isEmpty()) {
+      // Another Janitor instance is updating this flight.
+      return FatalUpdate.RETRY;
     }
     TrackedResource trackedResource = resourceAndFlight.get().trackedResource();
     TrackedResourceState resourceState = trackedResource.trackedResourceState();
     if (resourceAndFlight.get().cleanupFlight().state().equals(CleanupFlightState.FATAL)) {
       // We already marked the flight as completed - this is not an error.
       metricsHelper.incrementFatalFlightUndeleted();
-      return true;
+      return FatalUpdate.COMPLETED;
     }
-    if (resourceState.equals(TrackedResourceState.CLEANING)) {
-      janitorDao.updateResourceState(
-          trackedResource.trackedResourceId(), TrackedResourceState.ERROR);
+    Optional<TrackedResource> erroredResource =
+        janitorDao.transitionResourceState(
+            trackedResource.trackedResourceId(),
+            Set.of(TrackedResourceState.CLEANING),
+            TrackedResourceState.ERROR);
+    if (erroredResource.isPresent()) {
+      scheduleErrorRetries(List.of(erroredResource.get()));
     } else if (!resourceState.equals(TrackedResourceState.ABANDONED)
         && !resourceState.equals(TrackedResourceState.DUPLICATED)) {
       logger.error(
@@ -397,9 +971,10 @@ class FlightManager {
           trackedResource.trackedResourceId(),
           resourceAndFlight.get().cleanupFlight().flightId());
       transactionStatus.setRollbackOnly();
-      return false;
+      return FatalUpdate.SKIPPED;
     }
     janitorDao.updateFlightState(flightId, CleanupFlightState.FATAL);
-    return true;
+    endedResources.add(trackedResource);
+    return FatalUpdate.COMPLETED;
   }
 }
@@ -1,55 +1,291 @@
 package bio.terra.janitor.service.cleanup;
 
+import bio.terra.janitor.app.configuration.JanitorJdbcConfiguration;
 import bio.terra.janitor.app.configuration.PrimaryConfiguration;
+import bio.terra.janitor.db.CleanupFlightState;
 import bio.terra.janitor.db.JanitorDao;
 import bio.terra.janitor.db.ResourceKind;
+import bio.terra.janitor.db.TrackedResource;
+import bio.terra.janitor.db.TrackedResourceAndFlight;
+import bio.terra.janitor.db.TrackedResourceId;
 import bio.terra.janitor.db.TrackedResourceState;
 import bio.terra.janitor.service.stairway.StairwayComponent;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 
-/** The FlightScheduler runs the {@link FlightManager} periodically to clean resources. */
+/**
+ * The FlightScheduler runs the {@link FlightManager} periodically to clean resources.
+ *
+ * <p>Flight submission is not run on a fixed period. After each run, it sleeps until the next READY
+ * resource expires, and it is woken early when a resource becomes READY. {@link
+ * PrimaryConfiguration#getFlightSubmissionPeriod()} bounds how long it sleeps.
+ *
+ * <p>READY resources that expire within {@link PrimaryConfiguration#getFlightSubmissionLookahead()}
+ * are staged in a {@link LookaheadStager}, which claims them as soon as they expire, so the
+ * scheduler itself only needs to wake up a lookahead before the next unstaged resource expires.
+ *
+ * <p>A resource that an admin asks to clean up right away is claimed as soon as the notification
+ * arrives, and its flight skips ahead of the queued flights and the in-flight window.
+ *
+ * <p>Flights are completed as they end by a {@link FlightCompletionConsumer}. The periodic
+ * completion sweep only catches flights that it missed.
+ *
+ * <p>When the application shuts down, the scheduler is drained: it stops claiming resources,
+ * submits or releases the flights it has already claimed, and then quiets down Stairway. A clean
+ * drain is recorded as a watermark so that the next scheduler to start can skip its startup scan
+ * for unsubmitted flights.
+ */
 @Component
 public class FlightScheduler {
   private Logger logger = LoggerFactory.getLogger(FlightScheduler.class);
 
   /** Only need as many threads as we have scheduled tasks. */
-  private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(4);
+  private static final int EXECUTOR_THREADS = 8;
+
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Runs the scheduled tasks once they are due. This is {@link #executor} itself, unless {@link
+   * PrimaryConfiguration#isSchedulerVirtualThreadsEnabled()}, in which case each run gets a virtual
+   * thread of its own and {@link #executor} only keeps time.
+   */
+  private final ExecutorService taskExecutor;
+
+  /**
+   * Acquires and renews the scheduler lease. It has a thread of its own so that a renewal never
+   * waits behind the long-running scheduler tasks until the lease has expired.
+   */
+  private final ScheduledExecutorService leaseExecutor;
+
+  /** Whether {@link #initialize()} started scheduling on this instance. */
+  private volatile boolean initialized = false;
+
+  /** The tasks started by {@link #startTasks()}. Guarded by {@code this}. */
+  private final List<Future<?>> tasks = new ArrayList<>();
 
   private final PrimaryConfiguration primaryConfiguration;
   private final StairwayComponent stairwayComponent;
   private final JanitorDao janitorDao;
   private final FlightManager flightManager;
   private final MetricsHelper metricsHelper;
+  private final SchedulerLeaderElection leaderElection;
+  private final FlightSubmissionPipeline submissionPipeline;
+  private final LookaheadStager lookaheadStager;
+  private final SelfSchedulingTask submissionTask;
+  /**
+   * The claim round of the last run of {@link #scheduleFlights()}, whose counts staged claims
+   * reuse. Null before the first run.
+   */
+  private volatile ClaimRound lastRound;
+  /**
+   * The tasks that run periodically while this instance is scheduling, each with an {@link
+   * AdaptivePeriod}.
+   */
+  private final SelfSchedulingTask recoveryTask;
+
+  private final SelfSchedulingTask completionTask;
+  private final SelfSchedulingTask fatalCompletionTask;
+  private final SelfSchedulingTask resourceCountTask;
+  private final SelfSchedulingTask errorRetryTask;
+  /**
+   * The resource counts recorded by the last run of {@link #recordResourceCount()}. Only accessed
+   * by that task, which never runs concurrently with itself.
+   */
+  private Table<ResourceKind, TrackedResourceState, Integer> lastResourceCounts;
+  private final ResourceReadyListener resourceReadyListener;
+  private final FlightCompletionConsumer completionConsumer;
+
+  /**
+   * The minimum delay between flight submission runs that are not woken by a notification. Keeps
+   * the scheduler from spinning on expired resources that it could not claim, e.g. because another
+   * instance is claiming them.
+   */
+  private static final Duration MIN_SUBMISSION_DELAY = Duration.ofMillis(100);
+
+  /** The name of the flight submission task. */
+  private static final String SUBMISSION_TASK = "scheduleFlights";
+
+  /**
+   * How far ahead of this instance's clock a resource to clean now may have been expired by another
+   * instance and still be claimed.
+   */
+  private static final Duration CLEAN_NOW_CLOCK_SKEW = Duration.ofSeconds(30);
+
+  /** How long to wait before scheduling more flights once the in-flight window is full. */
+  private static final Duration FULL_WINDOW_DELAY = Duration.ofSeconds(5);
+
+  /**
+   * The cleanup flight states that count against the in-flight window and the {@link
+   * ResourceTypeBulkheads}. The flight sets the state to FINISHING once Stairway is done with it.
+   */
+  static final ImmutableSet<CleanupFlightState> IN_FLIGHT_STATES =
+      ImmutableSet.of(CleanupFlightState.INITIATING, CleanupFlightState.IN_FLIGHT);
+
+  /**
+   * The name prefixes of the watermarks of when each scheduler instance last started scheduling
+   * flights and when it drained without leaving any unsubmitted flights behind. Each instance's
+   * watermarks are named by the prefix followed by its {@link SchedulerLeaderElection#holderId()}.
+   */
+  @VisibleForTesting static final String STARTED_WATERMARK_PREFIX = "scheduler_started/";
+
+  @VisibleForTesting static final String DRAINED_WATERMARK_PREFIX = "scheduler_drained/";
+
+  /** The phases of {@link #drain()} recorded in metrics. */
+  static final String STOP_CLAIMING_PHASE = "stop_claiming";
+
+  static final String DRAIN_SUBMISSIONS_PHASE = "drain_submissions";
+  static final String STAIRWAY_QUIET_DOWN_PHASE = "stairway_quiet_down";
 
   @Autowired
   public FlightScheduler(
       PrimaryConfiguration primaryConfiguration,
       StairwayComponent stairwayComponent,
       JanitorDao janitorDao,
+      JanitorJdbcConfiguration jdbcConfiguration,
       TransactionTemplate transactionTemplate,
       FlightSubmissionFactory submissionFactory,
+      FlightCompletionHook flightCompletionHook,
       MetricsHelper metricsHelper) {
     this.primaryConfiguration = primaryConfiguration;
+    ScheduledThreadPoolExecutor scheduledExecutor =
+        new ScheduledThreadPoolExecutor(
+            EXECUTOR_THREADS, newThreadFactory("flight-scheduler-", /* daemon= */ false));
+    // Don't wait for the next run of each task when draining at shutdown.
+    scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.executor = scheduledExecutor;
+    this.taskExecutor =
+        primaryConfiguration.isSchedulerVirtualThreadsEnabled()
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : scheduledExecutor;
+    this.leaseExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            newThreadFactory("flight-scheduler-lease-", /* daemon= */ true));
     this.janitorDao = janitorDao;
     this.stairwayComponent = stairwayComponent;
+    String instanceId =
+        String.format(
+            "%s-%s", System.getenv().getOrDefault("HOSTNAME", "janitor"), UUID.randomUUID());
     this.flightManager =
         new FlightManager(
             stairwayComponent.get(),
             janitorDao,
             transactionTemplate,
             submissionFactory,
-            metricsHelper);
+            metricsHelper,
+            new WeightedFairScheduler(primaryConfiguration.getResourceKindPolicies()),
+            new ResourceTypeBulkheads(primaryConfiguration),
+            new ErrorRetryPolicy(primaryConfiguration),
+            primaryConfiguration.getPriorityMaxWait(),
+            instanceId);
     this.metricsHelper = metricsHelper;
+    this.submissionPipeline =
+        new FlightSubmissionPipeline(
+            flightManager,
+            metricsHelper,
+            primaryConfiguration.getFlightSubmissionQueueCapacity(),
+            primaryConfiguration.getFlightSubmissionThreads(),
+            newThreadFactory("flight-submitter-", /* daemon= */ true));
+    this.lookaheadStager =
+        new LookaheadStager(
+            primaryConfiguration.getFlightSubmissionLookaheadLimit(),
+            newThreadFactory("flight-stager-", /* daemon= */ true),
+            this::claimStaged);
+    this.leaderElection =
+        new SchedulerLeaderElection(
+            janitorDao, metricsHelper, primaryConfiguration.getLeaderLeaseDuration(), instanceId);
+    this.submissionTask =
+        new SelfSchedulingTask(
+            SUBMISSION_TASK,
+            executor,
+            taskRunner(),
+            this::scheduleFlights,
+            primaryConfiguration.getFlightSubmissionPeriod());
+    // Wake up in time to stage the resource if it expires within the lookahead.
+    Duration lookahead = primaryConfiguration.getFlightSubmissionLookahead();
+    this.resourceReadyListener =
+        new ResourceReadyListener(
+            jdbcConfiguration,
+            expiration -> submissionTask.wakeAt(expiration.minus(lookahead)),
+            this::cleanNow);
+    this.recoveryTask =
+        newAdaptiveTask(
+            "recoverUnsubmittedFlights",
+            new AdaptivePeriod(
+                primaryConfiguration.getUnsubmittedFlightRecoveryPeriod(),
+                primaryConfiguration.getUnsubmittedFlightRecoveryMinPeriod(),
+                primaryConfiguration.getUnsubmittedFlightRecoveryMaxPeriod()),
+            this::recoverUnsubmittedFlights);
+    this.completionTask =
+        newAdaptiveTask(
+            "completeFlights",
+            new AdaptivePeriod(
+                primaryConfiguration.getFlightCompletionPeriod(),
+                primaryConfiguration.getFlightCompletionMinPeriod(),
+                primaryConfiguration.getFlightCompletionMaxPeriod()),
+            this::completeFlights);
+    this.fatalCompletionTask =
+        newAdaptiveTask(
+            "completeFatalFlights",
+            new AdaptivePeriod(
+                primaryConfiguration.getFatalFlightCompletionPeriod(),
+                primaryConfiguration.getFatalFlightCompletionMinPeriod(),
+                primaryConfiguration.getFatalFlightCompletionMaxPeriod()),
+            this::completeFatalFlights);
+    this.resourceCountTask =
+        newAdaptiveTask(
+            "recordResourceCount",
+            new AdaptivePeriod(
+                primaryConfiguration.getRecordResourceCountPeriod(),
+                primaryConfiguration.getRecordResourceCountMinPeriod(),
+                primaryConfiguration.getRecordResourceCountMaxPeriod()),
+            this::recordResourceCount);
+    this.errorRetryTask =
+        newAdaptiveTask(
+            "retryErrorResources",
+            new AdaptivePeriod(
+                primaryConfiguration.getErrorRetryPeriod(),
+                primaryConfiguration.getErrorRetryMinPeriod(),
+                primaryConfiguration.getErrorRetryMaxPeriod()),
+            this::retryErrorResources);
+    this.completionConsumer =
+        new FlightCompletionConsumer(
+            flightCompletionHook,
+            flightManager,
+            primaryConfiguration.getFlightCompletionBatchSize(),
+            newThreadFactory("flight-completer-", /* daemon= */ true));
   }
 
   /**
@@ -68,72 +304,384 @@ public class FlightScheduler {
       logger.info("Janitor scheduling disabled.");
       return;
     }
-    executor.execute(this::startSchedulingFlights);
-    // The scheduled task will not execute concurrently with itself even if it takes a long time.
-    // See javadoc on ScheduledExecutorService#scheduleAtFixedRate.
-    executor.scheduleAtFixedRate(
-        new LogThrowables(this::completeFlights),
-        /* initialDelay= */ 0,
-        /* period= */ primaryConfiguration.getFlightCompletionPeriod().toMillis(),
-        TimeUnit.MILLISECONDS);
-    executor.scheduleAtFixedRate(
-        new LogThrowables(this::completeFatalFlights),
-        /* initialDelay= */ 0,
-        /* period= */ primaryConfiguration.getFatalFlightCompletionPeriod().toMillis(),
-        TimeUnit.MILLISECONDS);
-    executor.scheduleAtFixedRate(
-        new LogThrowables(this::recordResourceCount),
-        /* initialDelay= */ 0,
-        /* period= */ primaryConfiguration.getRecordResourceCountPeriod().toMillis(),
-        TimeUnit.MILLISECONDS);
+    initialized = true;
+    // Flights end on the instance that ran them, so every instance completes its own flights as
+    // they end, leader or not.
+    completionConsumer.start();
+    if (primaryConfiguration.isLeaderElectionEnabled()) {
+      // Only run the scheduled tasks while this instance holds the scheduler lease.
+      logger.info("Janitor scheduling leader election enabled.");
+      leaseExecutor.scheduleAtFixedRate(
+          new LogThrowables(this::checkLeadership),
+          /* initialDelay= */ 0,
+          /* period= */ primaryConfiguration.getLeaderLeaseRenewalPeriod().toMillis(),
+          TimeUnit.MILLISECONDS);
+    } else {
+      startTasks();
+    }
+  }
+
+  /**
+   * Tries to acquire or renew the scheduler lease, starting or stopping the scheduled tasks when
+   * this instance gains or loses leadership.
+   */
+  private void checkLeadership() {
+    boolean wasLeader = leaderElection.isLeader();
+    boolean isLeader = leaderElection.tryAcquire();
+    if (isLeader && !wasLeader) {
+      startTasks();
+    } else if (!isLeader && wasLeader) {
+      stopTasks();
+    }
+  }
+
+  /**
+   * Returns a task that runs {@code run} and then waits for {@code period}, adapting the period to
+   * the load that each run reports.
+   */
+  private SelfSchedulingTask newAdaptiveTask(
+      String name, AdaptivePeriod period, Supplier<AdaptivePeriod.Load> run) {
+    return new SelfSchedulingTask(
+        name,
+        executor,
+        taskRunner(),
+        () -> {
+          Duration nextPeriod = period.update(run.get());
+          metricsHelper.recordTaskPeriod(name, nextPeriod);
+          return JanitorDao.currentInstant().plus(nextPeriod);
+        },
+        period.get());
+  }
+
+  /**
+   * Returns what the {@link SelfSchedulingTask}s hand their runs off to once they are due. Without
+   * virtual threads, they run right away on the {@link #executor} thread that kept time for them.
+   */
+  private Executor taskRunner() {
+    return taskExecutor == executor ? MoreExecutors.directExecutor() : taskExecutor;
+  }
+
+  private synchronized void startTasks() {
+    tasks.add(taskExecutor.submit(new LogThrowables(this::startSchedulingFlights)));
+    // startSchedulingFlights recovers all unsubmitted flights first, so delay periodic recovery.
+    recoveryTask.startAt(
+        JanitorDao.currentInstant()
+            .plus(primaryConfiguration.getUnsubmittedFlightRecoveryPeriod()));
+    completionTask.start();
+    fatalCompletionTask.start();
+    resourceCountTask.start();
+    if (primaryConfiguration.getErrorRetryMaxAttempts() > 0) {
+      errorRetryTask.start();
+    }
+  }
+
+  /**
+   * Cancels the scheduled tasks. Runs that are already in progress are allowed to finish; that is
+   * safe because the {@link FlightManager} tolerates concurrent instances.
+   */
+  private synchronized void stopTasks() {
+    stopScheduling();
+    submissionPipeline.stop();
+  }
+
+  /**
+   * Cancels the scheduled tasks and stops claiming resources, but leaves the claimed flights queued
+   * for submission. Waits for the listener and stager threads, which claim resources outside of the
+   * scheduled tasks, to finish their claims in progress. Returns whether they finished.
+   */
+  private synchronized boolean stopScheduling() {
+    tasks.forEach(task -> task.cancel(/* mayInterruptIfRunning= */ false));
+    tasks.clear();
+    recoveryTask.stop();
+    completionTask.stop();
+    fatalCompletionTask.stop();
+    resourceCountTask.stop();
+    errorRetryTask.stop();
+    submissionTask.stop();
+    submissionPipeline.stopClaiming();
+    boolean listenerStopped = resourceReadyListener.stop();
+    boolean stagerStopped = lookaheadStager.stop();
+    return listenerStopped && stagerStopped;
   }
 
   private void startSchedulingFlights() {
-    int numRecoveredFlights =
-        flightManager.recoverUnsubmittedFlights(
-            primaryConfiguration.getUnsubmittedFlightRecoveryLimit());
-    if (numRecoveredFlights == primaryConfiguration.getUnsubmittedFlightRecoveryLimit()) {
-      // TODO add alerting for this case.
-      logger.error(
-          "Recovering as many flights as the limit {}. Some flights may still need recovering.",
-          numRecoveredFlights);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    // An instance that drained cleanly after it last started left no unsubmitted flights behind.
+    // This includes this instance, which may be starting again after losing leadership.
+    Map<String, Instant> started = retrieveInstanceWatermarks(STARTED_WATERMARK_PREFIX);
+    Map<String, Instant> drained = retrieveInstanceWatermarks(DRAINED_WATERMARK_PREFIX);
+    Set<String> uncleanInstances =
+        started.entrySet().stream()
+            .filter(
+                entry -> {
+                  Instant drainedAt = drained.get(entry.getKey());
+                  return drainedAt == null || !drainedAt.isAfter(entry.getValue());
+                })
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toSet());
+    boolean recoveryScan = !uncleanInstances.isEmpty();
+    String holderId = leaderElection.holderId();
+    janitorDao.advanceWatermark(STARTED_WATERMARK_PREFIX + holderId, JanitorDao.currentInstant());
+    if (recoveryScan) {
+      // Only recover the flights of the instances that did not drain cleanly. Other instances may
+      // be submitting their own flights right now, and those are not known to Stairway until they
+      // are submitted. An unclean instance that is still running may be too, in which case
+      // recovering one of its flights is a harmless duplicate submission.
+      int numRecoveredFlights =
+          flightManager.recoverUnsubmittedFlights(
+              uncleanInstances,
+              JanitorDao.currentInstant(),
+              primaryConfiguration.getUnsubmittedFlightRecoveryPageSize());
+      logger.info("Recovered {} unsubmitted flights.", numRecoveredFlights);
+    } else {
+      // Flights left behind by anything else are still caught by periodic recovery.
+      logger.info("Every scheduler drained cleanly. Skipping unsubmitted flight recovery.");
+    }
+    // Forget the other instances that are accounted for: a drained instance has shut down, and the
+    // recovery scan recovered the flights that the unclean instances left behind so far. If one of
+    // them is still running and leaves flights behind later, periodic recovery catches them.
+    Set<String> forgotten = new HashSet<>(drained.keySet());
+    if (recoveryScan) {
+      forgotten.addAll(uncleanInstances);
+    }
+    forgotten.remove(holderId);
+    janitorDao.deleteWatermarks(
+        forgotten.stream()
+            .flatMap(
+                instance ->
+                    Stream.of(
+                        STARTED_WATERMARK_PREFIX + instance, DRAINED_WATERMARK_PREFIX + instance))
+            .toList());
+    synchronized (this) {
+      if (tasks.isEmpty()) {
+        // The tasks were stopped while recovering.
+        return;
+      }
+      submissionPipeline.start();
+      if (!primaryConfiguration.getFlightSubmissionLookahead().isZero()) {
+        lookaheadStager.start();
+      }
+      submissionTask.start();
+      resourceReadyListener.start();
     }
-    logger.info("Recovered {} unsubmitted flights.", numRecoveredFlights);
-    executor.scheduleAtFixedRate(
-        new LogThrowables(this::scheduleFlights),
-        /* initialDelay= */ 0,
-        /* period= */ primaryConfiguration.getFlightSubmissionPeriod().toMillis(),
-        TimeUnit.MILLISECONDS);
+    metricsHelper.recordResumeDuration(
+        Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)), recoveryScan);
+  }
+
+  /** Returns the watermarks with the name {@code prefix} by the instance they belong to. */
+  private Map<String, Instant> retrieveInstanceWatermarks(String prefix) {
+    return janitorDao.retrieveWatermarks(prefix).entrySet().stream()
+        .collect(
+            Collectors.toMap(
+                entry -> entry.getKey().substring(prefix.length()), Map.Entry::getValue));
   }
 
   /**
    * Try to schedule flights to cleanup resources until there are no resources ready to be cleaned
-   * up.
+   * up or the in-flight window is full. Returns when to next schedule flights.
+   *
+   * <p>Resources are claimed here and their flights are submitted to Stairway by the {@link
+   * FlightSubmissionPipeline}'s submitter threads.
+   *
+   * <p>Only a multiple of Stairway's max parallel flights may be in flight at once. Claiming more
+   * would only queue them in Stairway, where they can no longer be abandoned or reordered cheaply.
    */
-  private void scheduleFlights() {
+  private Instant scheduleFlights() {
     logger.info("Beginning scheduling flights.");
+    int batchSize = primaryConfiguration.getFlightSubmissionBatchSize();
+    int windowLimit = windowLimit();
     int flightsScheduled = 0;
-    while (flightManager.submitFlight(JanitorDao.currentInstant()).isPresent()) {
-      ++flightsScheduled;
+    int batchScheduled;
+    int claimLimit;
+    boolean windowFull = false;
+    ClaimRound round = flightManager.startClaimRound(JanitorDao.currentInstant());
+    lastRound = round;
+    try {
+      do {
+        int inFlight = countInFlight();
+        metricsHelper.recordInFlightWindow(inFlight, windowLimit);
+        claimLimit = Math.min(batchSize, windowLimit - inFlight);
+        if (claimLimit <= 0) {
+          windowFull = true;
+          break;
+        }
+        batchScheduled = submissionPipeline.claimBatch(round, claimLimit);
+        flightsScheduled += batchScheduled;
+        // A partial batch means there were no more resources ready to be cleaned up.
+      } while (batchScheduled > 0 && batchScheduled == claimLimit && round.hasBacklog());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
     logger.info("Done scheduling {} flights.", flightsScheduled);
+
+    Instant now = JanitorDao.currentInstant();
+    if (windowFull) {
+      logger.info("In-flight window of {} flights is full.", windowLimit);
+      metricsHelper.recordTaskPeriod(SUBMISSION_TASK, FULL_WINDOW_DELAY);
+      return now.plus(FULL_WINDOW_DELAY);
+    }
+    Instant latest = now.plus(primaryConfiguration.getFlightSubmissionPeriod());
+    Instant earliest = now.plus(MIN_SUBMISSION_DELAY);
+    Duration lookahead = primaryConfiguration.getFlightSubmissionLookahead();
+    // Staged resources skip the fair scheduler, so only stage them when there is no expired backlog
+    // left for them to jump ahead of, e.g. of kinds that are at their in-flight limit.
+    Instant horizon = round.hasBacklog() ? now : stageUpcomingResources(now);
+    Optional<Instant> nextExpiration = janitorDao.retrieveEarliestReadyExpiration();
+    if (!lookahead.isZero() && nextExpiration.filter(now::isBefore).isPresent()) {
+      // Nothing expired is left to claim, and the resources expiring by the horizon are staged, so
+      // only wake up in time to stage the next resource after it.
+      nextExpiration =
+          janitorDao
+              .retrieveEarliestReadyExpiration(horizon)
+              .map(expiration -> expiration.minus(lookahead));
+    }
+    Instant next = nextExpiration.filter(latest::isAfter).orElse(latest);
+    if (next.isBefore(earliest)) {
+      next = earliest;
+    }
+    metricsHelper.recordTaskPeriod(SUBMISSION_TASK, Duration.between(now, next));
+    return next;
   }
 
-  private void completeFlights() {
+  /**
+   * Stages the READY resources that expire after {@code now} and within the lookahead. Returns the
+   * horizon up to which every such resource is staged, which is {@code now} if staging is disabled.
+   */
+  private Instant stageUpcomingResources(Instant now) {
+    Duration lookahead = primaryConfiguration.getFlightSubmissionLookahead();
+    if (lookahead.isZero()) {
+      return now;
+    }
+    int limit = primaryConfiguration.getFlightSubmissionLookaheadLimit();
+    Instant horizon = now.plus(lookahead);
+    List<TrackedResource> upcoming =
+        janitorDao.retrieveReadyResourcesExpiringBetween(now, horizon, limit);
+    int staged = lookaheadStager.stage(upcoming);
+    if (staged == upcoming.size() && upcoming.size() < limit) {
+      return horizon;
+    }
+    // Not everything fit, so only the resources up to the last staged one are covered.
+    return staged == 0 ? now : upcoming.get(staged - 1).expiration();
+  }
+
+  /**
+   * Claims the staged {@code resources} that have expired and queues their flights for submission,
+   * within the in-flight window. Runs on the {@link LookaheadStager}'s thread. Resources that are
+   * not claimed stay READY for {@link #scheduleFlights()}.
+   *
+   * <p>If the last run of {@link #scheduleFlights()} left an expired backlog, the staged resources
+   * are left to the next run instead so that they are shared out by the fair scheduler.
+   */
+  private void claimStaged(List<TrackedResource> resources) {
+    ClaimRound round = lastRound;
+    if (round == null || round.hasBacklog()) {
+      logger.info("Leaving {} staged resources for the next scheduling run.", resources.size());
+      submissionTask.wakeAt(JanitorDao.currentInstant());
+      return;
+    }
+    List<TrackedResource> prioritized =
+        resources.stream().sorted(FlightManager.CLAIM_ORDER).toList();
+    int claimed = 0;
+    try {
+      for (List<TrackedResource> batch :
+          Lists.partition(prioritized, primaryConfiguration.getFlightSubmissionBatchSize())) {
+        int claimLimit = windowLimit() - countInFlight();
+        if (claimLimit <= 0) {
+          break;
+        }
+        claimed +=
+            submissionPipeline.claimStaged(
+                round,
+                batch.subList(0, Math.min(claimLimit, batch.size())),
+                JanitorDao.currentInstant());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    logger.info("Claimed {} of {} staged resources.", claimed, resources.size());
+  }
+
+  /**
+   * Claims the resource with {@code trackedResourceId} that should be cleaned up right away and
+   * queues its flight ahead of the others. Runs on the {@link ResourceReadyListener}'s thread.
+   */
+  private void cleanNow(TrackedResourceId trackedResourceId) {
+    try {
+      boolean claimed =
+          submissionPipeline.claimPriority(
+              trackedResourceId, JanitorDao.currentInstant().plus(CLEAN_NOW_CLOCK_SKEW));
+      logger.info("Claimed resource {} to clean now: {}.", trackedResourceId, claimed);
+    } catch (RuntimeException e) {
+      // The resource has expired, so it will still be claimed with the other expired resources.
+      logger.error(String.format("Error claiming resource %s to clean now.", trackedResourceId), e);
+    }
+  }
+
+  /**
+   * Returns how many cleanup flights submitted by this instance are in flight. Each instance only
+   * counts its own flights against its window, as the window is sized by its own Stairway.
+   */
+  private int countInFlight() {
+    return janitorDao.countFlightsWith(IN_FLIGHT_STATES, flightManager.instanceId());
+  }
+
+  /** Returns how many cleanup flights submitted by this instance may be in flight at once. */
+  private int windowLimit() {
+    return (int)
+        Math.ceil(
+            primaryConfiguration.getFlightSubmissionWindowMultiplier()
+                * stairwayComponent.getMaxParallelFlights());
+  }
+
+  /**
+   * Recovers flights whose submission to Stairway failed, e.g. because of a transient Stairway
+   * error, without waiting for the next restart.
+   */
+  private AdaptivePeriod.Load recoverUnsubmittedFlights() {
+    logger.info("Beginning recovering unsubmitted flights.");
+    Instant createdBy =
+        JanitorDao.currentInstant()
+            .minus(primaryConfiguration.getUnsubmittedFlightRecoveryGracePeriod());
+    int pageSize = primaryConfiguration.getUnsubmittedFlightRecoveryPageSize();
+    int numRecoveredFlights = flightManager.recoverUnsubmittedFlights(createdBy, pageSize);
+    logger.info("Done recovering {} unsubmitted flights.", numRecoveredFlights);
+    return AdaptivePeriod.loadOf(numRecoveredFlights, pageSize);
+  }
+
+  private AdaptivePeriod.Load completeFlights() {
     logger.info("Beginning completing flights.");
+    int limit = primaryConfiguration.getFlightCompletionLimit();
     int completedFlights =
-        flightManager.updateCompletedFlights(primaryConfiguration.getFlightCompletionLimit());
+        flightManager.updateCompletedFlights(
+            limit, primaryConfiguration.getFlightCompletionBatchSize());
     logger.info("Done completing {} flights.", completedFlights);
+    return AdaptivePeriod.loadOf(completedFlights, limit);
   }
 
-  private void completeFatalFlights() {
+  private AdaptivePeriod.Load completeFatalFlights() {
     logger.info("Beginning completing fatal flights.");
-    int completedFlights =
-        flightManager.updateFatalFlights(primaryConfiguration.getFatalFlightCompletionLimit());
+    Instant completedBy =
+        JanitorDao.currentInstant().minus(primaryConfiguration.getFatalFlightCompletionDelay());
+    int pageSize = primaryConfiguration.getFatalFlightCompletionLimit();
+    int completedFlights = flightManager.updateFatalFlights(completedBy, pageSize);
     logger.info("Done completing {} fatal flights.", completedFlights);
+    return AdaptivePeriod.loadOf(completedFlights, pageSize);
   }
 
-  private void recordResourceCount() {
+  /** Makes the ERROR resources whose automatic retry is due READY again. */
+  private AdaptivePeriod.Load retryErrorResources() {
+    logger.info("Beginning retrying error resources.");
+    int limit = primaryConfiguration.getErrorRetryLimit();
+    int retried = flightManager.retryErrorResources(JanitorDao.currentInstant(), limit);
+    logger.info("Done retrying {} error resources.", retried);
+    return AdaptivePeriod.loadOf(retried, limit);
+  }
+
+  /**
+   * Records the counts of the different resources. Unchanged counts are reported as an idle run and
+   * changed counts as a saturated one, so that counts are recorded more often while they change.
+   */
+  private AdaptivePeriod.Load recordResourceCount() {
     logger.info("Beginning recording resource counts.");
     Table<ResourceKind, TrackedResourceState, Integer> counts = janitorDao.retrieveResourceCounts();
     for (var rowMapEntry : counts.rowMap().entrySet()) {
@@ -148,11 +696,124 @@ public class FlightScheduler {
       }
     }
     logger.info("Done recording resource counts.");
+    AdaptivePeriod.Load load;
+    if (lastResourceCounts == null) {
+      load = AdaptivePeriod.Load.NORMAL;
+    } else if (counts.equals(lastResourceCounts)) {
+      load = AdaptivePeriod.Load.IDLE;
+    } else {
+      load = AdaptivePeriod.Load.SATURATED;
+    }
+    lastResourceCounts = counts;
+    return load;
+  }
+
+  /** Returns whether this instance currently holds the scheduler lease. */
+  @VisibleForTesting
+  boolean isLeader() {
+    return leaderElection.isLeader();
+  }
+
+  /**
+   * Drains the scheduler when the application shuts down, in three phases:
+   *
+   * <ol>
+   *   <li>Stops claiming resources and waits for the claims in progress to finish.
+   *   <li>Gives the claimed flights a chance to be submitted, then releases the rest back to READY
+   *       and lets a standby instance take over.
+   *   <li>Quiets down Stairway, then stops completing flights.
+   * </ol>
+   *
+   * <p>The first two phases share {@link PrimaryConfiguration#getDrainTimeout()}. If they finish
+   * without leaving any unsubmitted flights behind, the drain is recorded so that the next
+   * scheduler to start can skip its recovery scan.
+   */
+  @EventListener(ContextClosedEvent.class)
+  public void drain() {
+    if (!initialized || executor.isShutdown()) {
+      return;
+    }
+    logger.info("Draining the flight scheduler.");
+    Instant deadline = JanitorDao.currentInstant().plus(primaryConfiguration.getDrainTimeout());
+    boolean drainedCleanly;
+    synchronized (this) {
+      // Only a scheduler that was scheduling knows that it left nothing behind.
+      drainedCleanly = !tasks.isEmpty();
+    }
+    try {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      // Stop checking leadership first so that a renewal cannot start the tasks again.
+      leaseExecutor.shutdown();
+      drainedCleanly &=
+          leaseExecutor.awaitTermination(remaining(deadline).toMillis(), TimeUnit.MILLISECONDS);
+      executor.shutdown();
+      taskExecutor.shutdown();
+      // Wait for the listener and stager threads too, so that no claim races the drain below.
+      drainedCleanly &= stopScheduling();
+      drainedCleanly &=
+          executor.awaitTermination(remaining(deadline).toMillis(), TimeUnit.MILLISECONDS);
+      drainedCleanly &=
+          taskExecutor.awaitTermination(remaining(deadline).toMillis(), TimeUnit.MILLISECONDS);
+      recordPhase(STOP_CLAIMING_PHASE, stopwatch);
+
+      stopwatch = Stopwatch.createStarted();
+      List<TrackedResourceAndFlight> unsubmitted = submissionPipeline.drain(remaining(deadline));
+      int released = flightManager.releaseUnsubmittedFlights(unsubmitted);
+      logger.info("Released {} of {} unsubmitted flights.", released, unsubmitted.size());
+      drainedCleanly &=
+          submissionPipeline.awaitTermination(remaining(deadline))
+              && released == unsubmitted.size();
+      if (drainedCleanly) {
+        janitorDao.advanceWatermark(
+            DRAINED_WATERMARK_PREFIX + leaderElection.holderId(), JanitorDao.currentInstant());
+      } else {
+        logger.info("The flight scheduler did not drain cleanly before the timeout.");
+      }
+      // Let a standby instance take over without waiting for the lease to expire.
+      leaderElection.release();
+      recordPhase(DRAIN_SUBMISSIONS_PHASE, stopwatch);
+
+      stopwatch = Stopwatch.createStarted();
+      if (stairwayComponent.getStatus().equals(StairwayComponent.Status.OK)) {
+        stairwayComponent.shutdown();
+      }
+      // Complete the flights that ended while Stairway quieted down.
+      completionConsumer.stop();
+      recordPhase(STAIRWAY_QUIET_DOWN_PHASE, stopwatch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.warn("Interrupted while draining the flight scheduler.", e);
+    }
+    logger.info("Done draining the flight scheduler.");
+  }
+
+  /** Returns how long is left until {@code deadline}, which is zero once it has passed. */
+  private static Duration remaining(Instant deadline) {
+    Duration remaining = Duration.between(JanitorDao.currentInstant(), deadline);
+    return remaining.isNegative() ? Duration.ZERO : remaining;
+  }
+
+  private void recordPhase(String phase, Stopwatch stopwatch) {
+    metricsHelper.recordShutdownPhaseDuration(
+        phase, Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)));
   }
 
   public void shutdown() {
     // Don't schedule  anything new during shutdown.
+    leaseExecutor.shutdown();
     executor.shutdown();
+    taskExecutor.shutdown();
+    completionConsumer.stop();
+    resourceReadyListener.stop();
+    lookaheadStager.stop();
+    submissionPipeline.stop();
+    // Let a standby instance take over without waiting for the lease to expire.
+    leaderElection.release();
+  }
+
+  /** Returns a factory for threads named {@code namePrefix} followed by a counter. */
+  private static ThreadFactory newThreadFactory(String namePrefix, boolean daemon) {
+    return new ThreadFactoryBuilder().setNameFormat(namePrefix + "%d").setDaemon(daemon).build();
   }
 
   /**
@@ -0,0 +1,285 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.db.TrackedResource;
+import bio.terra.janitor.db.TrackedResourceAndFlight;
+import bio.terra.janitor.db.TrackedResourceId;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A two stage pipeline for submitting cleanup flights. The claim stage claims expired resources in
+ * the Janitor database on the caller's thread; the submit stage submits their flights to Stairway
+ * on a pool of submitter threads. This way the database and Stairway latencies overlap instead of
+ * adding up for every resource.
+ *
+ * <p>Claimed flights wait for a submitter in a bounded queue. Claiming blocks while the queue does
+ * not have room for a whole batch, so the claim stage never gets further ahead of Stairway than
+ * the queue capacity. Priority flights skip to the front of the queue without waiting for room.
+ *
+ * <p>Claimed flights are already recorded as INITIATING cleanup flights. Flights still queued when
+ * the pipeline stops are left for {@link FlightManager#recoverUnsubmittedFlights(Instant, int)}
+ * to resubmit. A pipeline that is drained instead stops claiming, gives the submitters a chance to
+ * empty the queue and hands back whatever is left, so the caller can release it.
+ */
+class FlightSubmissionPipeline {
+  private final Logger logger = LoggerFactory.getLogger(FlightSubmissionPipeline.class);
+
+  /** The pipeline stage names recorded in metrics. */
+  static final String CLAIM_STAGE = "claim";
+
+  static final String SUBMIT_STAGE = "submit";
+
+  /** How long a submitter waits for a flight before checking whether to stop. */
+  private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+  /** How often to check whether the queue is empty while draining. */
+  private static final Duration DRAIN_POLL_INTERVAL = Duration.ofMillis(100);
+
+  private final FlightManager flightManager;
+  private final MetricsHelper metricsHelper;
+  private final int queueCapacity;
+  private final int submitterThreads;
+  private final ThreadFactory threadFactory;
+  private final BlockingDeque<TrackedResourceAndFlight> queue = new LinkedBlockingDeque<>();
+  /**
+   * Permits for the free slots in the queue. A permit is taken for each claimed flight and
+   * returned once the flight has been submitted or dropped.
+   */
+  private final Semaphore queueSlots;
+  /** The ids of the queued priority flights, which did not take a permit. */
+  private final Set<String> priorityFlightIds = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean running = false;
+  /** Whether new flights may be claimed. Only true while running. */
+  private volatile boolean claiming = false;
+  /** The submitter threads. Guarded by {@code this}. */
+  private ExecutorService submitters;
+
+  FlightSubmissionPipeline(
+      FlightManager flightManager,
+      MetricsHelper metricsHelper,
+      int queueCapacity,
+      int submitterThreads,
+      ThreadFactory threadFactory) {
+    Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive.");
+    Preconditions.checkArgument(submitterThreads > 0, "submitterThreads must be positive.");
+    this.flightManager = flightManager;
+    this.metricsHelper = metricsHelper;
+    this.queueCapacity = queueCapacity;
+    this.submitterThreads = submitterThreads;
+    this.threadFactory = threadFactory;
+    this.queueSlots = new Semaphore(queueCapacity);
+  }
+
+  /** Starts the submitter threads. */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    claiming = true;
+    submitters = Executors.newFixedThreadPool(submitterThreads, threadFactory);
+    for (int i = 0; i < submitterThreads; ++i) {
+      submitters.submit(this::submitFlights);
+    }
+  }
+
+  /**
+   * Stops the submitter threads once their current submissions finish. Queued flights are dropped
+   * and left to be recovered.
+   */
+  public synchronized void stop() {
+    List<TrackedResourceAndFlight> dropped = stopSubmitters();
+    if (!dropped.isEmpty()) {
+      logger.info("Leaving {} unsubmitted flights for recovery.", dropped.size());
+    }
+  }
+
+  /**
+   * Stops claiming new flights. Claims that are already in progress still queue their flights, and
+   * the submitters keep submitting queued flights.
+   */
+  public void stopClaiming() {
+    claiming = false;
+  }
+
+  /**
+   * Stops claiming and waits up to {@code timeout} for the submitters to empty the queue, then
+   * stops the submitter threads once their current submissions finish. Returns the flights that
+   * were still queued, which were never submitted.
+   */
+  public List<TrackedResourceAndFlight> drain(Duration timeout) throws InterruptedException {
+    stopClaiming();
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    while (!queue.isEmpty() && stopwatch.elapsed(TimeUnit.NANOSECONDS) < timeout.toNanos()) {
+      Thread.sleep(DRAIN_POLL_INTERVAL.toMillis());
+    }
+    synchronized (this) {
+      return stopSubmitters();
+    }
+  }
+
+  /**
+   * Waits up to {@code timeout} for the submitter threads of a stopped pipeline to finish their
+   * current submissions. Returns whether they finished.
+   */
+  public boolean awaitTermination(Duration timeout) throws InterruptedException {
+    ExecutorService stoppedSubmitters;
+    synchronized (this) {
+      Preconditions.checkState(!running, "The pipeline must be stopped first.");
+      stoppedSubmitters = submitters;
+    }
+    return stoppedSubmitters == null
+        || stoppedSubmitters.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the submitter threads and removes every queued flight from the queue. Returns the
+   * removed flights. Must be called while holding {@code this}.
+   */
+  private List<TrackedResourceAndFlight> stopSubmitters() {
+    if (!running) {
+      return List.of();
+    }
+    running = false;
+    claiming = false;
+    submitters.shutdown();
+    List<TrackedResourceAndFlight> dropped = new ArrayList<>();
+    queue.drainTo(dropped);
+    dropped.forEach(this::releaseSlot);
+    metricsHelper.recordSubmissionQueueDepth(queue.size());
+    return dropped;
+  }
+
+  /**
+   * Claims up to {@code batchSize} resources of the {@code round} and queues their flights for
+   * submission. Blocks until the queue has room for the whole batch. Returns how many resources
+   * were claimed, which is 0 if the pipeline is not claiming.
+   */
+  public int claimBatch(ClaimRound round, int batchSize) throws InterruptedException {
+    return claim(batchSize, () -> flightManager.claimFlightBatch(round, batchSize));
+  }
+
+  /**
+   * Claims the staged {@code resources} that are still ready and have expired by {@code expiredBy}
+   * and queues their flights for submission, like {@link #claimBatch(ClaimRound, int)}. Returns how
+   * many resources were claimed, which is 0 if the pipeline is not claiming.
+   */
+  public int claimStaged(ClaimRound round, List<TrackedResource> resources, Instant expiredBy)
+      throws InterruptedException {
+    return claim(
+        resources.size(), () -> flightManager.claimStagedFlights(round, resources, expiredBy));
+  }
+
+  /**
+   * Claims the resource with {@code trackedResourceId} if it is still ready and has expired by
+   * {@code expiredBy}, and queues its flight ahead of every other queued flight. Does not wait for
+   * room in the queue. Returns whether the resource was claimed.
+   */
+  public boolean claimPriority(TrackedResourceId trackedResourceId, Instant expiredBy) {
+    if (!claiming) {
+      return false;
+    }
+    Optional<TrackedResourceAndFlight> claimed =
+        flightManager.claimPriorityFlight(trackedResourceId, expiredBy);
+    claimed.ifPresent(
+        resourceAndFlight -> {
+          priorityFlightIds.add(resourceAndFlight.cleanupFlight().flightId());
+          queue.addFirst(resourceAndFlight);
+        });
+    metricsHelper.incrementPipelineStage(CLAIM_STAGE, claimed.isPresent() ? 1 : 0);
+    metricsHelper.recordSubmissionQueueDepth(queue.size());
+    return claimed.isPresent();
+  }
+
+  /**
+   * Reserves room in the queue for {@code batchSize} flights, then runs {@code claimer} and queues
+   * the flights it claims. Returns how many flights were claimed.
+   */
+  private int claim(int batchSize, Supplier<List<TrackedResourceAndFlight>> claimer)
+      throws InterruptedException {
+    Preconditions.checkArgument(
+        batchSize <= queueCapacity,
+        "batchSize %s must not be larger than the queue capacity %s.",
+        batchSize,
+        queueCapacity);
+    queueSlots.acquire(batchSize);
+    List<TrackedResourceAndFlight> claimed = List.of();
+    try {
+      if (!claiming) {
+        return 0;
+      }
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      claimed = claimer.get();
+      metricsHelper.incrementPipelineStage(CLAIM_STAGE, claimed.size());
+      queue.addAll(claimed);
+      metricsHelper.recordSubmissionQueueDepth(queue.size());
+      if (!claimed.isEmpty()) {
+        // Record a single duration for the whole batch, like before the pipeline. Each flight's
+        // submission to Stairway is recorded separately by the submitters.
+        metricsHelper.recordSubmissionDuration(
+            Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)), true);
+      }
+    } finally {
+      queueSlots.release(batchSize - claimed.size());
+    }
+    return claimed.size();
+  }
+
+  /** Returns the permit taken by a flight that left the queue, unless it was a priority flight. */
+  private void releaseSlot(TrackedResourceAndFlight resourceAndFlight) {
+    if (!priorityFlightIds.remove(resourceAndFlight.cleanupFlight().flightId())) {
+      queueSlots.release();
+    }
+  }
+
+  /** Submits queued flights to Stairway until the pipeline is stopped. */
+  private void submitFlights() {
+    while (running) {
+      TrackedResourceAndFlight resourceAndFlight;
+      try {
+        resourceAndFlight = queue.poll(POLL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (resourceAndFlight == null) {
+        continue;
+      }
+      metricsHelper.recordSubmissionQueueDepth(queue.size());
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      boolean submissionSuccessful = false;
+      try {
+        submissionSuccessful = flightManager.submitClaimedFlight(resourceAndFlight);
+      } catch (RuntimeException e) {
+        // Keep the submitter running. The flight will be recovered later.
+        logger.error(
+            String.format(
+                "Error submitting flight id [%s]", resourceAndFlight.cleanupFlight().flightId()),
+            e);
+      } finally {
+        releaseSlot(resourceAndFlight);
+      }
+      metricsHelper.incrementPipelineStage(SUBMIT_STAGE, 1);
+      metricsHelper.recordFlightSubmissionDuration(
+          Duration.ofNanos(stopwatch.elapsed(TimeUnit.NANOSECONDS)), submissionSuccessful);
+    }
+  }
+}
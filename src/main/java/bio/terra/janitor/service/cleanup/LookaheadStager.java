@@ -0,0 +1,166 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.db.JanitorDao;
+import bio.terra.janitor.db.TrackedResource;
+import bio.terra.janitor.db.TrackedResourceId;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds READY resources that are about to expire in memory until they expire, then hands them all
+ * at once to be claimed. This lets their flights be submitted at their expiration instead of
+ * whenever the scheduler next wakes up and queries for expired resources.
+ *
+ * <p>Staged resources are not claimed, so they may be abandoned, duplicated, claimed elsewhere or
+ * have their expiration pushed back while they wait. Whoever claims them must check that they are
+ * still READY and expired.
+ */
+class LookaheadStager {
+  private final Logger logger = LoggerFactory.getLogger(LookaheadStager.class);
+
+  /** How long {@link #stop()} waits for the staging thread to finish handing off resources. */
+  private static final Duration STOP_TIMEOUT = Duration.ofSeconds(30);
+
+  private final int limit;
+  private final ThreadFactory threadFactory;
+  /** Called on the staging thread with the staged resources that have expired. */
+  private final Consumer<List<TrackedResource>> onExpired;
+
+  private final DelayQueue<StagedResource> queue = new DelayQueue<>();
+  /** The ids of the staged resources, so that a resource is only staged once. */
+  private final Set<TrackedResourceId> stagedIds = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean running = false;
+  /** The thread waiting for staged resources to expire. Only set while holding {@code this}. */
+  private volatile Thread thread;
+
+  LookaheadStager(
+      int limit, ThreadFactory threadFactory, Consumer<List<TrackedResource>> onExpired) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive.");
+    this.limit = limit;
+    this.threadFactory = threadFactory;
+    this.onExpired = onExpired;
+  }
+
+  /** Starts waiting for staged resources on a new thread from the thread factory. */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread = threadFactory.newThread(this::handOff);
+    thread.start();
+  }
+
+  /**
+   * Stops waiting and forgets the staged resources, which are still READY. Waits up to {@link
+   * #STOP_TIMEOUT} for the staging thread to finish handing off resources that already expired.
+   * Returns whether the thread finished.
+   */
+  public synchronized boolean stop() {
+    if (!running) {
+      return true;
+    }
+    running = false;
+    thread.interrupt();
+    queue.clear();
+    stagedIds.clear();
+    try {
+      thread.join(STOP_TIMEOUT.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      logger.warn("The staging thread did not stop within {}.", STOP_TIMEOUT);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stages the {@code resources} that are not already staged, in order, until the limit of staged
+   * resources is reached. Returns how many of the {@code resources}, from the start of the list,
+   * are staged after this call.
+   */
+  public int stage(List<TrackedResource> resources) {
+    if (!running) {
+      return 0;
+    }
+    int covered = 0;
+    for (TrackedResource resource : resources) {
+      if (!stagedIds.contains(resource.trackedResourceId())) {
+        if (stagedIds.size() >= limit) {
+          break;
+        }
+        stagedIds.add(resource.trackedResourceId());
+        queue.add(new StagedResource(resource));
+      }
+      ++covered;
+    }
+    return covered;
+  }
+
+  /** Returns how many resources are staged. */
+  public int size() {
+    return stagedIds.size();
+  }
+
+  /** Hands each group of staged resources that expire together off until stopped. */
+  private void handOff() {
+    // A stopped stager's thread exits even if the stager is started again with a new thread.
+    while (running && Thread.currentThread() == thread) {
+      List<TrackedResource> expired = new ArrayList<>();
+      try {
+        expired.add(queue.take().resource);
+      } catch (InterruptedException e) {
+        continue;
+      }
+      // Take every other resource that has expired by now as well.
+      StagedResource next;
+      while ((next = queue.poll()) != null) {
+        expired.add(next.resource);
+      }
+      expired.forEach(resource -> stagedIds.remove(resource.trackedResourceId()));
+      try {
+        onExpired.accept(expired);
+      } catch (RuntimeException e) {
+        logger.error("Error claiming staged resources. Leaving them to be claimed later.", e);
+      }
+    }
+  }
+
+  /** A staged resource that is due once it expires. */
+  private static class StagedResource implements Delayed {
+    private final TrackedResource resource;
+
+    private StagedResource(TrackedResource resource) {
+      this.resource = resource;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(
+          Duration.between(JanitorDao.currentInstant(), resource.expiration()).toNanos(),
+          TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      if (other instanceof StagedResource) {
+        return resource.expiration().compareTo(((StagedResource) other).resource.expiration());
+      }
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+}
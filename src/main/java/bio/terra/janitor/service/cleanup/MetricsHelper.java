@@ -11,7 +11,9 @@ import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.metrics.ObservableLongGauge;
 import io.opentelemetry.api.metrics.ObservableLongMeasurement;
 import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Component;
 
@@ -20,16 +22,48 @@ import org.springframework.stereotype.Component;
 public class MetricsHelper implements AutoCloseable {
   private static final String PREFIX = "terra/janitor/cleanup";
   public static final String SUBMISSION_DURATION_METER_NAME = PREFIX + "/submission_duration";
+  public static final String FLIGHT_SUBMISSION_DURATION_METER_NAME =
+      PREFIX + "/flight_submission_duration";
   public static final String SUBMISSION_COUNT_METER_NAME = PREFIX + "/submission_count";
-  public static final String COMPLETION_DURATION_METER_NAME = PREFIX + "/completion_duration";
+  public static final String COMPLETION_BATCH_DURATION_METER_NAME =
+      PREFIX + "/completion_batch_duration";
+  public static final String COMPLETION_BATCH_SIZE_METER_NAME = PREFIX + "/completion_batch_size";
   public static final String COMPLETION_COUNT_METER_NAME = PREFIX + "/completion_count";
+  public static final String COMPLETION_PATH_COUNT_METER_NAME = PREFIX + "/completion_path_count";
   public static final String FATAL_UPDATE_DURATION_METER_NAME = PREFIX + "/fatal_update_duration";
   public static final String FATAL_UPDATE_COUNT_METER_NAME = PREFIX + "/fatal_update_count";
   public static final String TRACKED_RESOURCE_GAUGE_METER_NAME = PREFIX + "/tracked_resource_gauge";
   public static final String RECOVERED_SUBMITTED_FLIGHTS_COUNT_METER_NAME =
       PREFIX + "/recovered_submitted_flights_count";
+  public static final String RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME =
+      PREFIX + "/recovered_duplicate_flights_count";
+  public static final String RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME =
+      PREFIX + "/recovered_unsubmitted_flight_age";
   public static final String FATAL_FLIGHT_UNDELETED_COUNT_METER_NAME =
       PREFIX + "/fatal_flight_undeleted_count";
+  public static final String FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME =
+      PREFIX + "/fatal_flight_orphaned_count";
+  public static final String LEADERSHIP_CHANGE_COUNT_METER_NAME =
+      PREFIX + "/leadership_change_count";
+  public static final String LEADERLESS_GAP_DURATION_METER_NAME =
+      PREFIX + "/leaderless_gap_duration";
+  public static final String PIPELINE_STAGE_COUNT_METER_NAME = PREFIX + "/pipeline_stage_count";
+  public static final String SUBMISSION_QUEUE_DEPTH_METER_NAME =
+      PREFIX + "/submission_queue_depth";
+  public static final String IN_FLIGHT_WINDOW_GAUGE_METER_NAME =
+      PREFIX + "/in_flight_window_gauge";
+  public static final String FATAL_FLIGHT_WATERMARK_LAG_METER_NAME =
+      PREFIX + "/fatal_flight_watermark_lag";
+  public static final String TASK_PERIOD_GAUGE_METER_NAME = PREFIX + "/task_period_gauge";
+  public static final String READY_BACKLOG_GAUGE_METER_NAME = PREFIX + "/ready_backlog_gauge";
+  public static final String CLAIM_WAIT_DURATION_METER_NAME = PREFIX + "/claim_wait_duration";
+  public static final String BULKHEAD_GAUGE_METER_NAME = PREFIX + "/bulkhead_gauge";
+  public static final String FLIGHT_START_DELAY_METER_NAME = PREFIX + "/flight_start_delay";
+  public static final String ERROR_RETRY_COUNT_METER_NAME = PREFIX + "/error_retry_count";
+  public static final String ERROR_QUARANTINE_COUNT_METER_NAME = PREFIX + "/error_quarantine_count";
+  public static final String SHUTDOWN_PHASE_DURATION_METER_NAME =
+      PREFIX + "/shutdown_phase_duration";
+  public static final String RESUME_DURATION_METER_NAME = PREFIX + "/resume_duration";
 
   public static final AttributeKey<String> SUCCESS_KEY = AttributeKey.stringKey("success");
   public static final AttributeKey<String> RESOURCE_STATE_KEY =
@@ -37,6 +71,27 @@ public class MetricsHelper implements AutoCloseable {
   public static final AttributeKey<String> RESOURCE_TYPE_KEY =
       AttributeKey.stringKey("resource_type");
   public static final AttributeKey<String> CLIENT_KEY = AttributeKey.stringKey("client");
+  public static final AttributeKey<String> LEADER_KEY = AttributeKey.stringKey("leader");
+  public static final AttributeKey<String> STAGE_KEY = AttributeKey.stringKey("stage");
+  public static final AttributeKey<String> WINDOW_KEY = AttributeKey.stringKey("window");
+  /** The {@link #WINDOW_KEY} values for the in-flight count and its limit. */
+  public static final String IN_FLIGHT_WINDOW = "in_flight";
+
+  public static final String LIMIT_WINDOW = "limit";
+
+  public static final AttributeKey<String> TASK_KEY = AttributeKey.stringKey("task");
+  public static final AttributeKey<String> PATH_KEY = AttributeKey.stringKey("path");
+  /**
+   * The {@link #PATH_KEY} values for flights completed by the periodic sweep and by the flight
+   * completion hook.
+   */
+  public static final String SWEEP_COMPLETION_PATH = "sweep";
+
+  public static final String HOOK_COMPLETION_PATH = "hook";
+
+  public static final AttributeKey<String> PHASE_KEY = AttributeKey.stringKey("phase");
+  public static final AttributeKey<String> RECOVERY_SCAN_KEY =
+      AttributeKey.stringKey("recovery_scan");
 
   /** Unit string for millisecond. */
   private static final String MILLISECOND = "ms";
@@ -44,13 +99,34 @@ public class MetricsHelper implements AutoCloseable {
   private static final String COUNT = "1";
 
   private final DoubleHistogram submissionDuration;
+  private final DoubleHistogram flightSubmissionDuration;
   private final LongCounter submissionCount;
-  private final DoubleHistogram completionDuration;
+  private final DoubleHistogram completionBatchDuration;
+  private final DoubleHistogram completionBatchSize;
   private final LongCounter completionCount;
+  private final LongCounter completionPathCount;
   private final DoubleHistogram fatalUpdateDuration;
   private final ObservableLongGauge trackedResourceGauge;
   private final LongCounter recoveredSubmittedFlightsCount;
+  private final LongCounter recoveredDuplicateFlightsCount;
+  private final DoubleHistogram recoveredUnsubmittedFlightAge;
   private final LongCounter fatalFlightUndeletedCount;
+  private final LongCounter fatalFlightOrphanedCount;
+  private final LongCounter leadershipChangeCount;
+  private final DoubleHistogram leaderlessGapDuration;
+  private final LongCounter pipelineStageCount;
+  private final ObservableLongGauge submissionQueueDepthGauge;
+  private final ObservableLongGauge inFlightWindowGauge;
+  private final ObservableLongGauge fatalFlightWatermarkLagGauge;
+  private final ObservableLongGauge taskPeriodGauge;
+  private final ObservableLongGauge readyBacklogGauge;
+  private final DoubleHistogram claimWaitDuration;
+  private final DoubleHistogram flightStartDelay;
+  private final ObservableLongGauge bulkheadGauge;
+  private final LongCounter errorRetryCount;
+  private final LongCounter errorQuarantineCount;
+  private final DoubleHistogram shutdownPhaseDuration;
+  private final DoubleHistogram resumeDuration;
 
   /**
    * Gauges are read via callback. We need to keep track of the current ready resource ratio for
@@ -59,12 +135,53 @@ public class MetricsHelper implements AutoCloseable {
   private final ConcurrentHashMap<Pair<TrackedResourceState, ResourceKind>, Long>
       currentTrackedResourceCount = new ConcurrentHashMap<>();
 
+  /**
+   * The latest depth of the flight submission queue, read by submissionQueueDepthGauge. Null until
+   * it is first recorded so that nothing is exported before then.
+   */
+  private final AtomicReference<Long> currentSubmissionQueueDepth = new AtomicReference<>();
+
+  /**
+   * The latest in-flight window occupancy and limit keyed by {@link #WINDOW_KEY} value, read by
+   * inFlightWindowGauge.
+   */
+  private final ConcurrentHashMap<String, Long> currentInFlightWindow = new ConcurrentHashMap<>();
+
+  /**
+   * The latest lag of the FATAL flight watermark in milliseconds, read by
+   * fatalFlightWatermarkLagGauge. Null until it is first recorded.
+   */
+  private final AtomicReference<Long> currentFatalFlightWatermarkLag = new AtomicReference<>();
+
+  /** The latest period in milliseconds of each scheduler task, read by taskPeriodGauge. */
+  private final ConcurrentHashMap<String, Long> currentTaskPeriod = new ConcurrentHashMap<>();
+
+  /**
+   * The latest number of expired READY resources of each kind, read by readyBacklogGauge. Kinds
+   * that stop waiting are kept at 0 so that their last backlog is not reported forever.
+   */
+  private final ConcurrentHashMap<ResourceKind, Long> currentReadyBacklog =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The latest cleaning resources and concurrency limit of each resource type, keyed by the type
+   * and {@link #WINDOW_KEY} value, read by bulkheadGauge.
+   */
+  private final ConcurrentHashMap<Pair<ResourceType, String>, Long> currentBulkheads =
+      new ConcurrentHashMap<>();
+
   public MetricsHelper(OpenTelemetry openTelemetry) {
     var meter = openTelemetry.getMeter(bio.terra.common.stairway.MetricsHelper.class.getName());
     this.submissionDuration =
         meter
             .histogramBuilder(SUBMISSION_DURATION_METER_NAME)
-            .setDescription("Duration of a cleanup flight submission.")
+            .setDescription("Duration of a cleanup flight submission batch.")
+            .setUnit(MILLISECOND)
+            .build();
+    this.flightSubmissionDuration =
+        meter
+            .histogramBuilder(FLIGHT_SUBMISSION_DURATION_METER_NAME)
+            .setDescription("Duration of submitting a single claimed cleanup flight to Stairway.")
             .setUnit(MILLISECOND)
             .build();
     this.submissionCount =
@@ -73,18 +190,30 @@ public class MetricsHelper implements AutoCloseable {
             .setDescription("Counter of cleanup flight submissions.")
             .setUnit(COUNT)
             .build();
-    this.completionDuration =
+    this.completionBatchDuration =
         meter
-            .histogramBuilder(COMPLETION_DURATION_METER_NAME)
-            .setDescription("Duration of a cleanup flight completion.")
+            .histogramBuilder(COMPLETION_BATCH_DURATION_METER_NAME)
+            .setDescription("Duration of a cleanup flight completion batch.")
             .setUnit(MILLISECOND)
             .build();
+    this.completionBatchSize =
+        meter
+            .histogramBuilder(COMPLETION_BATCH_SIZE_METER_NAME)
+            .setDescription("Number of cleanup flights in a completion batch.")
+            .setUnit(COUNT)
+            .build();
     this.completionCount =
         meter
             .counterBuilder(COMPLETION_COUNT_METER_NAME)
             .setDescription("Counter of cleanup flight completions.")
             .setUnit(COUNT)
             .build();
+    this.completionPathCount =
+        meter
+            .counterBuilder(COMPLETION_PATH_COUNT_METER_NAME)
+            .setDescription("Counter of cleanup flights completed by each completion path.")
+            .setUnit(COUNT)
+            .build();
     this.fatalUpdateDuration =
         meter
             .histogramBuilder(FATAL_UPDATE_DURATION_METER_NAME)
@@ -115,6 +244,20 @@ public class MetricsHelper implements AutoCloseable {
                 "Count of the number of recovered flights that were already submitted successfully to Stairway.")
             .setUnit(COUNT)
             .build();
+    this.recoveredDuplicateFlightsCount =
+        meter
+            .counterBuilder(RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of recovered flights that Stairway rejected as already submitted when resubmitted.")
+            .setUnit(COUNT)
+            .build();
+    this.recoveredUnsubmittedFlightAge =
+        meter
+            .histogramBuilder(RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME)
+            .setDescription(
+                "Age of the unsubmitted cleanup flights that were resubmitted to Stairway by recovery.")
+            .setUnit(MILLISECOND)
+            .build();
     this.fatalFlightUndeletedCount =
         meter
             .counterBuilder(FATAL_FLIGHT_UNDELETED_COUNT_METER_NAME)
@@ -122,23 +265,175 @@ public class MetricsHelper implements AutoCloseable {
                 "Count of the number of fatal cleanup flights that were not deleted from Stairway when they were completed by the Janitor.")
             .setUnit(COUNT)
             .build();
+    this.fatalFlightOrphanedCount =
+        meter
+            .counterBuilder(FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of fatal Stairway flights that had no cleanup flight or tracked resource in the Janitor.")
+            .setUnit(COUNT)
+            .build();
+    this.leadershipChangeCount =
+        meter
+            .counterBuilder(LEADERSHIP_CHANGE_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of times this instance acquired or lost the scheduler lease.")
+            .setUnit(COUNT)
+            .build();
+    this.leaderlessGapDuration =
+        meter
+            .histogramBuilder(LEADERLESS_GAP_DURATION_METER_NAME)
+            .setDescription(
+                "Duration between the previous scheduler leader's last heartbeat and a new leader taking over.")
+            .setUnit(MILLISECOND)
+            .build();
+    this.pipelineStageCount =
+        meter
+            .counterBuilder(PIPELINE_STAGE_COUNT_METER_NAME)
+            .setDescription("Count of cleanup flights through each flight submission stage.")
+            .setUnit(COUNT)
+            .build();
+    this.submissionQueueDepthGauge =
+        meter
+            .gaugeBuilder(SUBMISSION_QUEUE_DEPTH_METER_NAME)
+            .setDescription("Gauge of the claimed cleanup flights waiting to be submitted.")
+            .setUnit(COUNT)
+            .ofLongs()
+            .buildWithCallback(
+                (ObservableLongMeasurement m) -> {
+                  Long depth = currentSubmissionQueueDepth.get();
+                  if (depth != null) {
+                    m.record(depth);
+                  }
+                });
+    this.inFlightWindowGauge =
+        meter
+            .gaugeBuilder(IN_FLIGHT_WINDOW_GAUGE_METER_NAME)
+            .setDescription(
+                "Gauge of the cleanup flights submitted but not yet finished, and the limit on them.")
+            .setUnit(COUNT)
+            .ofLongs()
+            .buildWithCallback(
+                (ObservableLongMeasurement m) ->
+                    currentInFlightWindow.forEach(
+                        (window, count) -> m.record(count, Attributes.of(WINDOW_KEY, window))));
+    this.fatalFlightWatermarkLagGauge =
+        meter
+            .gaugeBuilder(FATAL_FLIGHT_WATERMARK_LAG_METER_NAME)
+            .setDescription(
+                "Gauge of how far the FATAL flights handled by the Janitor lag behind the present.")
+            .setUnit(MILLISECOND)
+            .ofLongs()
+            .buildWithCallback(
+                (ObservableLongMeasurement m) -> {
+                  Long lag = currentFatalFlightWatermarkLag.get();
+                  if (lag != null) {
+                    m.record(lag);
+                  }
+                });
+    this.taskPeriodGauge =
+        meter
+            .gaugeBuilder(TASK_PERIOD_GAUGE_METER_NAME)
+            .setDescription("Gauge of the current period of each flight scheduler task.")
+            .setUnit(MILLISECOND)
+            .ofLongs()
+            .buildWithCallback(
+                (ObservableLongMeasurement m) ->
+                    currentTaskPeriod.forEach(
+                        (task, period) -> m.record(period, Attributes.of(TASK_KEY, task))));
+    this.readyBacklogGauge =
+        meter
+            .gaugeBuilder(READY_BACKLOG_GAUGE_METER_NAME)
+            .setDescription("Gauge of the expired READY resources waiting to be cleaned.")
+            .setUnit(COUNT)
+            .ofLongs()
+            .buildWithCallback(
+                (ObservableLongMeasurement m) ->
+                    currentReadyBacklog.forEach(
+                        (kind, count) -> m.record(count, kindAttributes(kind))));
+    this.claimWaitDuration =
+        meter
+            .histogramBuilder(CLAIM_WAIT_DURATION_METER_NAME)
+            .setDescription(
+                "Duration between a resource expiring and it being claimed for cleaning.")
+            .setUnit(MILLISECOND)
+            .build();
+    this.flightStartDelay =
+        meter
+            .histogramBuilder(FLIGHT_START_DELAY_METER_NAME)
+            .setDescription(
+                "Duration between a resource expiring and its cleanup flight being submitted.")
+            .setUnit(MILLISECOND)
+            .build();
+    this.bulkheadGauge =
+        meter
+            .gaugeBuilder(BULKHEAD_GAUGE_METER_NAME)
+            .setDescription(
+                "Gauge of the cleaning resources of each type, and the adaptive limit on them.")
+            .setUnit(COUNT)
+            .ofLongs()
+            .buildWithCallback(
+                (ObservableLongMeasurement m) ->
+                    currentBulkheads.forEach(
+                        (typeAndWindow, count) ->
+                            m.record(
+                                count,
+                                Attributes.of(
+                                    RESOURCE_TYPE_KEY, typeAndWindow.getLeft().toString(),
+                                    WINDOW_KEY, typeAndWindow.getRight()))));
+    this.errorRetryCount =
+        meter
+            .counterBuilder(ERROR_RETRY_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of ERROR resources that were automatically made READY again.")
+            .setUnit(COUNT)
+            .build();
+    this.errorQuarantineCount =
+        meter
+            .counterBuilder(ERROR_QUARANTINE_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of ERROR resources that ran out of automatic retries.")
+            .setUnit(COUNT)
+            .build();
+    this.shutdownPhaseDuration =
+        meter
+            .histogramBuilder(SHUTDOWN_PHASE_DURATION_METER_NAME)
+            .setDescription("Duration of each phase of draining the scheduler at shutdown.")
+            .setUnit(MILLISECOND)
+            .build();
+    this.resumeDuration =
+        meter
+            .histogramBuilder(RESUME_DURATION_METER_NAME)
+            .setDescription(
+                "Duration between the scheduler starting and it being ready to submit flights.")
+            .setUnit(MILLISECOND)
+            .build();
   }
 
-  /** Record the duration of an attempt to submit a cleanup flight. */
+  /** Record the duration of an attempt to submit a batch of cleanup flights. */
   public void recordSubmissionDuration(Duration duration, boolean flightSubmitted) {
     Attributes attributes = Attributes.of(SUCCESS_KEY, Boolean.toString(flightSubmitted));
     submissionDuration.record(duration.toMillis(), attributes);
   }
 
+  /** Record the duration of an attempt to submit a single claimed cleanup flight to Stairway. */
+  public void recordFlightSubmissionDuration(Duration duration, boolean flightSubmitted) {
+    Attributes attributes = Attributes.of(SUCCESS_KEY, Boolean.toString(flightSubmitted));
+    flightSubmissionDuration.record(duration.toMillis(), attributes);
+  }
+
   public void incrementSubmission(ResourceType resourceType) {
     var attributes = Attributes.of(RESOURCE_TYPE_KEY, resourceType.toString());
     submissionCount.add(1, attributes);
   }
 
-  /** Record the duration of an attempt to complete a cleanup flight. */
-  public void recordCompletionDuration(Duration duration, boolean flightCompleted) {
-    Attributes attributes = Attributes.of(SUCCESS_KEY, Boolean.toString(flightCompleted));
-    completionDuration.record(duration.toMillis(), attributes);
+  /** Record the duration of an attempt to complete a batch of cleanup flights. */
+  public void recordCompletionBatchDuration(Duration duration) {
+    completionBatchDuration.record(duration.toMillis());
+  }
+
+  /** Record the number of cleanup flights in a completion batch. */
+  public void recordCompletionBatchSize(long batchSize) {
+    completionBatchSize.record(batchSize);
   }
 
   public void incrementCompletion(
@@ -154,6 +449,11 @@ public class MetricsHelper implements AutoCloseable {
     completionCount.add(1, attributes);
   }
 
+  /** Increment the count of cleanup flights completed by the completion {@code path}. */
+  public void incrementCompletionPath(String path, long count) {
+    completionPathCount.add(count, Attributes.of(PATH_KEY, path));
+  }
+
   /**
    * Record the duration of an attempt to update a cleanup flight that ended fatally in Stairway.
    */
@@ -175,6 +475,23 @@ public class MetricsHelper implements AutoCloseable {
     recoveredSubmittedFlightsCount.add(1);
   }
 
+  /**
+   * Increment the count of the cleanup flights that recovery resubmitted to Stairway, but that
+   * Stairway rejected as duplicates because they had been submitted since recovery checked, e.g. by
+   * a late original submission or another Janitor instance. These are not counted as resubmitted.
+   */
+  public void incrementRecoveredDuplicateFlight() {
+    recoveredDuplicateFlightsCount.add(1);
+  }
+
+  /**
+   * Record the age of a cleanup flight that was never submitted to Stairway and was resubmitted by
+   * recovery. The number of recordings is the number of recovered flights.
+   */
+  public void recordRecoveredUnsubmittedFlightAge(Duration age) {
+    recoveredUnsubmittedFlightAge.record(age.toMillis());
+  }
+
   /**
    * Increment the count of the cleanup flights that finished as {@link
    * bio.terra.janitor.db.CleanupFlightState#FATAL} but were not yet deleted from Stairway.
@@ -183,8 +500,128 @@ public class MetricsHelper implements AutoCloseable {
     fatalFlightUndeletedCount.add(1);
   }
 
+  /**
+   * Increment the count of the FATAL Stairway flights that had no cleanup flight or tracked
+   * resource in the Janitor's storage, which were skipped instead of completed.
+   */
+  public void incrementFatalFlightOrphaned() {
+    fatalFlightOrphanedCount.add(1);
+  }
+
+  /** Increment the count of this instance becoming or ceasing to be the scheduler leader. */
+  public void incrementLeadershipChange(boolean leader) {
+    leadershipChangeCount.add(1, Attributes.of(LEADER_KEY, Boolean.toString(leader)));
+  }
+
+  /** Record the duration that there was no scheduler leader before this instance took over. */
+  public void recordLeaderlessGapDuration(Duration duration) {
+    leaderlessGapDuration.record(duration.toMillis());
+  }
+
+  /** Increment the count of cleanup flights through a flight submission pipeline stage. */
+  public void incrementPipelineStage(String stage, long count) {
+    pipelineStageCount.add(count, Attributes.of(STAGE_KEY, stage));
+  }
+
+  /** Records the latest number of claimed cleanup flights waiting to be submitted. */
+  public void recordSubmissionQueueDepth(long depth) {
+    currentSubmissionQueueDepth.set(depth);
+  }
+
+  /**
+   * Records the latest number of cleanup flights submitted but not yet finished, and the most that
+   * the scheduler allows.
+   */
+  public void recordInFlightWindow(long inFlight, long limit) {
+    currentInFlightWindow.put(IN_FLIGHT_WINDOW, inFlight);
+    currentInFlightWindow.put(LIMIT_WINDOW, limit);
+  }
+
+  /**
+   * Records how far behind the present the watermark of handled FATAL flights is. FATAL flights
+   * that completed after the watermark have not been handled yet.
+   */
+  public void recordFatalFlightWatermarkLag(Duration lag) {
+    currentFatalFlightWatermarkLag.set(lag.toMillis());
+  }
+
+  /** Records the current period of the flight scheduler {@code task}. */
+  public void recordTaskPeriod(String task, Duration period) {
+    currentTaskPeriod.put(task, period.toMillis());
+  }
+
+  /**
+   * Records the latest number of expired READY resources of each kind. Kinds missing from {@code
+   * backlog} have none.
+   */
+  public void recordReadyBacklog(Map<ResourceKind, Long> backlog) {
+    currentReadyBacklog.replaceAll((kind, count) -> backlog.getOrDefault(kind, 0L));
+    currentReadyBacklog.putAll(backlog);
+  }
+
+  /** Record how long a resource of {@code kind} waited after expiring before it was claimed. */
+  public void recordClaimWaitDuration(ResourceKind kind, Duration wait) {
+    claimWaitDuration.record(wait.toMillis(), kindAttributes(kind));
+  }
+
+  /**
+   * Records how long after its resource of {@code resourceType} expired a cleanup flight was
+   * submitted to Stairway.
+   */
+  public void recordFlightStartDelay(ResourceType resourceType, Duration delay) {
+    flightStartDelay.record(
+        delay.toMillis(), Attributes.of(RESOURCE_TYPE_KEY, resourceType.toString()));
+  }
+
+  /**
+   * Records the latest number of cleaning resources of {@code resourceType}, and the current limit
+   * of its bulkhead.
+   */
+  public void recordBulkhead(ResourceType resourceType, long inFlight, long limit) {
+    currentBulkheads.put(Pair.of(resourceType, IN_FLIGHT_WINDOW), inFlight);
+    currentBulkheads.put(Pair.of(resourceType, LIMIT_WINDOW), limit);
+  }
+
+  /** Increments the number of ERROR resources of {@code resourceType} that were retried. */
+  public void incrementErrorRetry(ResourceType resourceType) {
+    errorRetryCount.add(1, Attributes.of(RESOURCE_TYPE_KEY, resourceType.toString()));
+  }
+
+  /**
+   * Increments the number of ERROR resources of {@code resourceType} that are left for a human
+   * because they failed too many times.
+   */
+  public void incrementErrorQuarantine(ResourceType resourceType) {
+    errorQuarantineCount.add(1, Attributes.of(RESOURCE_TYPE_KEY, resourceType.toString()));
+  }
+
+  /** Record the duration of a {@code phase} of draining the scheduler at shutdown. */
+  public void recordShutdownPhaseDuration(String phase, Duration duration) {
+    shutdownPhaseDuration.record(duration.toMillis(), Attributes.of(PHASE_KEY, phase));
+  }
+
+  /**
+   * Record how long the scheduler took to resume submitting flights, and whether it had to scan
+   * for unsubmitted flights first.
+   */
+  public void recordResumeDuration(Duration duration, boolean recoveryScan) {
+    resumeDuration.record(
+        duration.toMillis(), Attributes.of(RECOVERY_SCAN_KEY, Boolean.toString(recoveryScan)));
+  }
+
+  private static Attributes kindAttributes(ResourceKind kind) {
+    return Attributes.of(
+        RESOURCE_TYPE_KEY, kind.resourceType().toString(), CLIENT_KEY, kind.client());
+  }
+
   @Override
   public void close() throws Exception {
     trackedResourceGauge.close();
+    submissionQueueDepthGauge.close();
+    inFlightWindowGauge.close();
+    fatalFlightWatermarkLagGauge.close();
+    taskPeriodGauge.close();
+    readyBacklogGauge.close();
+    bulkheadGauge.close();
   }
 }
@@ -19,7 +19,21 @@ public class MetricsViews {
             .build(),
         View.builder()
             .setName(MetricsHelper.SUBMISSION_DURATION_METER_NAME)
-            .setDescription("Duration of a cleanup flight submission")
+            .setDescription("Duration of a cleanup flight submission batch")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .setAttributeFilter(Set.of(MetricsHelper.SUCCESS_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.FLIGHT_SUBMISSION_DURATION_METER_NAME)
+  public Pair<InstrumentSelector, View> flightSubmissionDurationView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.FLIGHT_SUBMISSION_DURATION_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.FLIGHT_SUBMISSION_DURATION_METER_NAME)
+            .setDescription("Duration of submitting a single claimed cleanup flight to Stairway")
             .setAggregation(Aggregation.base2ExponentialBucketHistogram())
             .setAttributeFilter(Set.of(MetricsHelper.SUCCESS_KEY.getKey()))
             .build());
@@ -39,17 +53,29 @@ public class MetricsViews {
             .build());
   }
 
-  @Bean(name = MetricsHelper.COMPLETION_DURATION_METER_NAME)
-  public Pair<InstrumentSelector, View> completionDurationView() {
+  @Bean(name = MetricsHelper.COMPLETION_BATCH_DURATION_METER_NAME)
+  public Pair<InstrumentSelector, View> completionBatchDurationView() {
     return Pair.of(
         InstrumentSelector.builder()
-            .setMeterName(MetricsHelper.COMPLETION_DURATION_METER_NAME)
+            .setMeterName(MetricsHelper.COMPLETION_BATCH_DURATION_METER_NAME)
             .build(),
         View.builder()
-            .setName(MetricsHelper.COMPLETION_DURATION_METER_NAME)
-            .setDescription("Duration of a cleanup flight completion")
+            .setName(MetricsHelper.COMPLETION_BATCH_DURATION_METER_NAME)
+            .setDescription("Duration of a cleanup flight completion batch")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.COMPLETION_BATCH_SIZE_METER_NAME)
+  public Pair<InstrumentSelector, View> completionBatchSizeView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.COMPLETION_BATCH_SIZE_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.COMPLETION_BATCH_SIZE_METER_NAME)
+            .setDescription("Number of cleanup flights in a completion batch")
             .setAggregation(Aggregation.base2ExponentialBucketHistogram())
-            .setAttributeFilter(Set.of(MetricsHelper.SUCCESS_KEY.getKey()))
             .build());
   }
 
@@ -67,6 +93,20 @@ public class MetricsViews {
             .build());
   }
 
+  @Bean(name = MetricsHelper.COMPLETION_PATH_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> completionPathCountView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.COMPLETION_PATH_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.COMPLETION_PATH_COUNT_METER_NAME)
+            .setDescription("Counter of cleanup flights completed by each completion path")
+            .setAggregation(Aggregation.sum())
+            .setAttributeFilter(Set.of(MetricsHelper.PATH_KEY.getKey()))
+            .build());
+  }
+
   @Bean(name = MetricsHelper.FATAL_UPDATE_DURATION_METER_NAME)
   public Pair<InstrumentSelector, View> fatalUpdateDurationView() {
     return Pair.of(
@@ -113,6 +153,34 @@ public class MetricsViews {
             .build());
   }
 
+  @Bean(name = MetricsHelper.RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> recoveredDuplicateFlightsCountView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of recovered flights that Stairway rejected as already submitted when resubmitted")
+            .setAggregation(Aggregation.sum())
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME)
+  public Pair<InstrumentSelector, View> recoveredUnsubmittedFlightAgeView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME)
+            .setDescription(
+                "Age of the unsubmitted cleanup flights that were resubmitted to Stairway by recovery")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .build());
+  }
+
   @Bean(name = MetricsHelper.FATAL_FLIGHT_UNDELETED_COUNT_METER_NAME)
   public Pair<InstrumentSelector, View> fatalFlightUndeletedCount() {
     return Pair.of(
@@ -126,4 +194,234 @@ public class MetricsViews {
             .setAggregation(Aggregation.sum())
             .build());
   }
+
+  @Bean(name = MetricsHelper.FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> fatalFlightOrphanedCount() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of fatal Stairway flights that had no cleanup flight or tracked resource in the Janitor")
+            .setAggregation(Aggregation.sum())
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.LEADERSHIP_CHANGE_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> leadershipChangeCountView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.LEADERSHIP_CHANGE_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.LEADERSHIP_CHANGE_COUNT_METER_NAME)
+            .setDescription(
+                "Count of the number of times this instance acquired or lost the scheduler lease")
+            .setAggregation(Aggregation.sum())
+            .setAttributeFilter(Set.of(MetricsHelper.LEADER_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.LEADERLESS_GAP_DURATION_METER_NAME)
+  public Pair<InstrumentSelector, View> leaderlessGapDurationView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.LEADERLESS_GAP_DURATION_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.LEADERLESS_GAP_DURATION_METER_NAME)
+            .setDescription(
+                "Duration between the previous scheduler leader's last heartbeat and a new leader taking over")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.PIPELINE_STAGE_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> pipelineStageCountView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.PIPELINE_STAGE_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.PIPELINE_STAGE_COUNT_METER_NAME)
+            .setDescription("Count of cleanup flights through each flight submission stage")
+            .setAggregation(Aggregation.sum())
+            .setAttributeFilter(Set.of(MetricsHelper.STAGE_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.SUBMISSION_QUEUE_DEPTH_METER_NAME)
+  public Pair<InstrumentSelector, View> submissionQueueDepthView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.SUBMISSION_QUEUE_DEPTH_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.SUBMISSION_QUEUE_DEPTH_METER_NAME)
+            .setDescription("Gauge of the claimed cleanup flights waiting to be submitted")
+            .setAggregation(Aggregation.lastValue())
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.IN_FLIGHT_WINDOW_GAUGE_METER_NAME)
+  public Pair<InstrumentSelector, View> inFlightWindowGaugeView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.IN_FLIGHT_WINDOW_GAUGE_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.IN_FLIGHT_WINDOW_GAUGE_METER_NAME)
+            .setDescription(
+                "Gauge of the cleanup flights submitted but not yet finished, and the limit on them")
+            .setAggregation(Aggregation.lastValue())
+            .setAttributeFilter(Set.of(MetricsHelper.WINDOW_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.READY_BACKLOG_GAUGE_METER_NAME)
+  public Pair<InstrumentSelector, View> readyBacklogGaugeView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.READY_BACKLOG_GAUGE_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.READY_BACKLOG_GAUGE_METER_NAME)
+            .setDescription("Gauge of the expired READY resources waiting to be cleaned")
+            .setAggregation(Aggregation.lastValue())
+            .setAttributeFilter(
+                Set.of(
+                    MetricsHelper.RESOURCE_TYPE_KEY.getKey(), MetricsHelper.CLIENT_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.CLAIM_WAIT_DURATION_METER_NAME)
+  public Pair<InstrumentSelector, View> claimWaitDurationView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.CLAIM_WAIT_DURATION_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.CLAIM_WAIT_DURATION_METER_NAME)
+            .setDescription("Duration between a resource expiring and it being claimed")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .setAttributeFilter(
+                Set.of(
+                    MetricsHelper.RESOURCE_TYPE_KEY.getKey(), MetricsHelper.CLIENT_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.FLIGHT_START_DELAY_METER_NAME)
+  public Pair<InstrumentSelector, View> flightStartDelayView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.FLIGHT_START_DELAY_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.FLIGHT_START_DELAY_METER_NAME)
+            .setDescription("Duration between a resource expiring and its flight being submitted")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .setAttributeFilter(Set.of(MetricsHelper.RESOURCE_TYPE_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.BULKHEAD_GAUGE_METER_NAME)
+  public Pair<InstrumentSelector, View> bulkheadGaugeView() {
+    return Pair.of(
+        InstrumentSelector.builder().setMeterName(MetricsHelper.BULKHEAD_GAUGE_METER_NAME).build(),
+        View.builder()
+            .setName(MetricsHelper.BULKHEAD_GAUGE_METER_NAME)
+            .setDescription("Gauge of the cleaning resources of each type, and the limit on them")
+            .setAggregation(Aggregation.lastValue())
+            .setAttributeFilter(
+                Set.of(
+                    MetricsHelper.RESOURCE_TYPE_KEY.getKey(), MetricsHelper.WINDOW_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.TASK_PERIOD_GAUGE_METER_NAME)
+  public Pair<InstrumentSelector, View> taskPeriodGaugeView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.TASK_PERIOD_GAUGE_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.TASK_PERIOD_GAUGE_METER_NAME)
+            .setDescription("Gauge of the current period of each flight scheduler task")
+            .setAggregation(Aggregation.lastValue())
+            .setAttributeFilter(Set.of(MetricsHelper.TASK_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.FATAL_FLIGHT_WATERMARK_LAG_METER_NAME)
+  public Pair<InstrumentSelector, View> fatalFlightWatermarkLagView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.FATAL_FLIGHT_WATERMARK_LAG_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.FATAL_FLIGHT_WATERMARK_LAG_METER_NAME)
+            .setDescription(
+                "Gauge of how far the FATAL flights handled by the Janitor lag behind the present")
+            .setAggregation(Aggregation.lastValue())
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.ERROR_RETRY_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> errorRetryCountView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.ERROR_RETRY_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.ERROR_RETRY_COUNT_METER_NAME)
+            .setDescription("Counter of ERROR resources that were automatically retried")
+            .setAggregation(Aggregation.sum())
+            .setAttributeFilter(Set.of(MetricsHelper.RESOURCE_TYPE_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.ERROR_QUARANTINE_COUNT_METER_NAME)
+  public Pair<InstrumentSelector, View> errorQuarantineCountView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.ERROR_QUARANTINE_COUNT_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.ERROR_QUARANTINE_COUNT_METER_NAME)
+            .setDescription("Counter of ERROR resources that ran out of automatic retries")
+            .setAggregation(Aggregation.sum())
+            .setAttributeFilter(Set.of(MetricsHelper.RESOURCE_TYPE_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.SHUTDOWN_PHASE_DURATION_METER_NAME)
+  public Pair<InstrumentSelector, View> shutdownPhaseDurationView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.SHUTDOWN_PHASE_DURATION_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.SHUTDOWN_PHASE_DURATION_METER_NAME)
+            .setDescription("Duration of each phase of draining the scheduler at shutdown")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .setAttributeFilter(Set.of(MetricsHelper.PHASE_KEY.getKey()))
+            .build());
+  }
+
+  @Bean(name = MetricsHelper.RESUME_DURATION_METER_NAME)
+  public Pair<InstrumentSelector, View> resumeDurationView() {
+    return Pair.of(
+        InstrumentSelector.builder()
+            .setMeterName(MetricsHelper.RESUME_DURATION_METER_NAME)
+            .build(),
+        View.builder()
+            .setName(MetricsHelper.RESUME_DURATION_METER_NAME)
+            .setDescription(
+                "Duration between the scheduler starting and it being ready to submit flights")
+            .setAggregation(Aggregation.base2ExponentialBucketHistogram())
+            .setAttributeFilter(Set.of(MetricsHelper.RECOVERY_SCAN_KEY.getKey()))
+            .build());
+  }
 }
@@ -0,0 +1,157 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.app.configuration.JanitorJdbcConfiguration;
+import bio.terra.janitor.db.JanitorDao;
+import bio.terra.janitor.db.TrackedResourceId;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listens for Postgres notifications on {@link JanitorDao#RESOURCE_READY_CHANNEL} so that the
+ * {@link FlightScheduler} can wake up when a resource becomes READY instead of polling for it.
+ *
+ * <p>Also listens on {@link JanitorDao#RESOURCE_CLEAN_NOW_CHANNEL} for resources that should be
+ * cleaned up right away. Such a notification that is missed while reconnecting only delays the
+ * resource until it is claimed with the other expired resources.
+ *
+ * <p>The listener holds its own connection outside of the connection pool for as long as it runs.
+ */
+class ResourceReadyListener {
+  private final Logger logger = LoggerFactory.getLogger(ResourceReadyListener.class);
+
+  /** How long to block waiting for notifications before checking whether to stop. */
+  private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+  /** How long to wait before reconnecting after a connection error. */
+  private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+  /**
+   * How long {@link #stop()} waits for the listening thread to exit. Long enough for it to notice
+   * that it was stopped while polling or waiting to reconnect.
+   */
+  private static final Duration STOP_TIMEOUT = Duration.ofSeconds(10);
+
+  private final JanitorJdbcConfiguration jdbcConfiguration;
+  /** Called with the expiration of each resource that became READY. */
+  private final Consumer<Instant> onResourceReady;
+  /** Called with the id of each resource that should be cleaned up right away. */
+  private final Consumer<TrackedResourceId> onCleanNow;
+
+  private volatile boolean running = false;
+  /** The thread listening for notifications. Guarded by {@code this}. */
+  private Thread thread;
+
+  ResourceReadyListener(
+      JanitorJdbcConfiguration jdbcConfiguration,
+      Consumer<Instant> onResourceReady,
+      Consumer<TrackedResourceId> onCleanNow) {
+    this.jdbcConfiguration = jdbcConfiguration;
+    this.onResourceReady = onResourceReady;
+    this.onCleanNow = onCleanNow;
+  }
+
+  /** Starts listening on a new daemon thread. */
+  public synchronized void start() {
+    running = true;
+    if (thread != null && thread.isAlive()) {
+      // The previous thread has not noticed that it was stopped yet and keeps listening.
+      return;
+    }
+    thread = new Thread(this::listen, "resource-ready-listener");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops listening and waits up to {@link #STOP_TIMEOUT} for the listening thread to finish
+   * handling the notifications it already received and exit. Returns whether it exited.
+   */
+  public synchronized boolean stop() {
+    running = false;
+    if (thread == null) {
+      return true;
+    }
+    try {
+      thread.join(STOP_TIMEOUT.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      logger.warn("The listening thread did not stop within {}.", STOP_TIMEOUT);
+      return false;
+    }
+    return true;
+  }
+
+  private void listen() {
+    while (running) {
+      try (Connection connection =
+          DriverManager.getConnection(
+              jdbcConfiguration.getUri(),
+              jdbcConfiguration.getUsername(),
+              jdbcConfiguration.getPassword())) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("LISTEN " + JanitorDao.RESOURCE_READY_CHANNEL);
+          statement.execute("LISTEN " + JanitorDao.RESOURCE_CLEAN_NOW_CHANNEL);
+        }
+        logger.info("Listening for ready resources.");
+        // Notifications sent while we were not listening are lost, so treat (re)connecting as a
+        // notification.
+        onResourceReady.accept(JanitorDao.currentInstant());
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        while (running) {
+          PGNotification[] notifications =
+              pgConnection.getNotifications((int) POLL_TIMEOUT.toMillis());
+          if (notifications == null) {
+            continue;
+          }
+          for (PGNotification notification : notifications) {
+            if (JanitorDao.RESOURCE_CLEAN_NOW_CHANNEL.equals(notification.getName())) {
+              parseId(notification.getParameter()).ifPresent(onCleanNow);
+            } else {
+              onResourceReady.accept(parseExpiration(notification.getParameter()));
+            }
+          }
+        }
+      } catch (SQLException e) {
+        logger.error("Error listening for ready resources. Reconnecting.", e);
+        try {
+          TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY.toMillis());
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    logger.info("Stopped listening for ready resources.");
+  }
+
+  private Instant parseExpiration(String payload) {
+    try {
+      return Instant.parse(payload);
+    } catch (DateTimeParseException e) {
+      logger.warn("Unable to parse ready resource notification payload [{}].", payload);
+      return JanitorDao.currentInstant();
+    }
+  }
+
+  private Optional<TrackedResourceId> parseId(String payload) {
+    try {
+      return Optional.of(TrackedResourceId.create(UUID.fromString(payload)));
+    } catch (IllegalArgumentException e) {
+      logger.warn("Unable to parse clean now notification payload [{}].", payload);
+      return Optional.empty();
+    }
+  }
+}
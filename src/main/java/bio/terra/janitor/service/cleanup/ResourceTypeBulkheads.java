@@ -0,0 +1,134 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.app.configuration.PrimaryConfiguration;
+import bio.terra.janitor.db.JanitorDao;
+import bio.terra.janitor.db.ResourceType;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Separate concurrency limits on how many resources of each {@link ResourceType} may be cleaning
+ * at once, so that slow or failing cleanups of one type cannot take every Stairway slot from the
+ * others.
+ *
+ * <p>Each limit adapts with additive-increase/multiplicative-decrease. Every flight that succeeds
+ * in about the usual time for its type grows the limit by {@code 1 / limit}, i.e. by about 1 per
+ * limit's worth of flights. A flight that fails, or that takes much longer than the running average
+ * for its type, halves the limit. The limit is halved at most once per cooldown so that a burst of
+ * failures from the same cause is only counted once.
+ *
+ * <p>The limits are kept in memory, so each Janitor instance has its own. They are checked against
+ * the flights in flight that the same instance submitted, as recorded in the cleanup flight's
+ * instance, rather than against every instance's flights. Otherwise each instance would compare its
+ * own limit with the fleet's total, and a type would be held to a single instance's limit however
+ * many instances run. A type may have up to the sum of the instances' limits in flight at once.
+ * Each instance still adapts its limits from every flight of the type that it sees end, as failures
+ * and slow cleanups of a type usually come from the type's cloud service rather than an instance.
+ */
+class ResourceTypeBulkheads {
+  /** How much the limit is multiplied by when it decreases. */
+  private static final double DECREASE_FACTOR = 0.5;
+  /** The weight of the latest latency in the running average latency of each type. */
+  private static final double LATENCY_AVERAGE_WEIGHT = 0.1;
+
+  private final boolean enabled;
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double latencyTolerance;
+  private final Duration decreaseCooldown;
+
+  /** The bulkhead of each type that has had a flight end. Guarded by {@code this}. */
+  private final Map<ResourceType, Bulkhead> bulkheads = new EnumMap<>(ResourceType.class);
+
+  ResourceTypeBulkheads(PrimaryConfiguration primaryConfiguration) {
+    this.enabled = primaryConfiguration.isResourceTypeBulkheadsEnabled();
+    this.initialLimit = primaryConfiguration.getResourceTypeBulkheadInitialLimit();
+    this.minLimit = primaryConfiguration.getResourceTypeBulkheadMinLimit();
+    this.maxLimit = primaryConfiguration.getResourceTypeBulkheadMaxLimit();
+    this.latencyTolerance = primaryConfiguration.getResourceTypeBulkheadLatencyTolerance();
+    this.decreaseCooldown = primaryConfiguration.getResourceTypeBulkheadDecreaseCooldown();
+    Preconditions.checkArgument(minLimit > 0, "minLimit must be positive.");
+    Preconditions.checkArgument(
+        minLimit <= initialLimit && initialLimit <= maxLimit,
+        "initialLimit must be between minLimit and maxLimit.");
+    Preconditions.checkArgument(latencyTolerance >= 1, "latencyTolerance must be at least 1.");
+  }
+
+  /** Returns whether resources are limited per type. */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Returns the current limit of {@code type}. */
+  synchronized int limit(ResourceType type) {
+    Bulkhead bulkhead = bulkheads.get(type);
+    return bulkhead == null ? initialLimit : (int) bulkhead.limit;
+  }
+
+  /**
+   * Returns how many more resources of each type may start cleaning, given how many are {@code
+   * inFlight}. Returns an empty map, meaning no limit, if the bulkheads are disabled.
+   */
+  synchronized Map<ResourceType, Integer> remainingCapacity(Map<ResourceType, Integer> inFlight) {
+    Map<ResourceType, Integer> capacity = new EnumMap<>(ResourceType.class);
+    if (!enabled) {
+      return capacity;
+    }
+    for (ResourceType type : ResourceType.values()) {
+      capacity.put(type, Math.max(0, limit(type) - inFlight.getOrDefault(type, 0)));
+    }
+    return capacity;
+  }
+
+  /**
+   * Adjusts the limit of {@code type} for a flight that ended, successfully or not, after {@code
+   * latency}. The latency is null if it is not known.
+   */
+  synchronized void recordFlightEnded(
+      ResourceType type, boolean success, @Nullable Duration latency) {
+    if (!enabled) {
+      return;
+    }
+    Bulkhead bulkhead = bulkheads.computeIfAbsent(type, unused -> new Bulkhead(initialLimit));
+    boolean slow = false;
+    if (latency != null) {
+      double latencyMillis = latency.toMillis();
+      if (Double.isNaN(bulkhead.averageLatencyMillis)) {
+        bulkhead.averageLatencyMillis = latencyMillis;
+      } else {
+        slow = latencyMillis > bulkhead.averageLatencyMillis * latencyTolerance;
+        bulkhead.averageLatencyMillis +=
+            LATENCY_AVERAGE_WEIGHT * (latencyMillis - bulkhead.averageLatencyMillis);
+      }
+    }
+    if (success && !slow) {
+      bulkhead.limit = Math.min(maxLimit, bulkhead.limit + 1 / bulkhead.limit);
+      return;
+    }
+    Instant now = JanitorDao.currentInstant();
+    boolean coolingDown =
+        bulkhead.lastDecrease != null && now.isBefore(bulkhead.lastDecrease.plus(decreaseCooldown));
+    if (!coolingDown) {
+      bulkhead.limit = Math.max(minLimit, bulkhead.limit * DECREASE_FACTOR);
+      bulkhead.lastDecrease = now;
+    }
+  }
+
+  /** The adaptive limit of a single resource type. */
+  private static class Bulkhead {
+    private double limit;
+    /** The running average latency of the type's flights, or NaN before the first one. */
+    private double averageLatencyMillis = Double.NaN;
+    /** When the limit last decreased, if it has. */
+    @Nullable private Instant lastDecrease;
+
+    private Bulkhead(double limit) {
+      this.limit = limit;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.db.JanitorDao;
+import bio.terra.janitor.db.SchedulerLease;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * Elects a single leader among Janitor instances to run the {@link FlightScheduler}'s tasks.
+ *
+ * <p>The leader holds a lease row in the Janitor database and must renew it before it expires.
+ * If the leader stops renewing, e.g. because it died, any other instance may acquire the lease
+ * once it has expired. Lease expiration is judged by the database clock, so the instances' clocks
+ * need not agree.
+ */
+class SchedulerLeaderElection {
+  private final Logger logger = LoggerFactory.getLogger(SchedulerLeaderElection.class);
+
+  /** The name of the lease row for the flight scheduler. */
+  private static final String LEASE_NAME = "flight_scheduler";
+
+  private final JanitorDao janitorDao;
+  private final MetricsHelper metricsHelper;
+  private final Duration leaseDuration;
+  /** A unique id for this instance as the holder of the lease. */
+  private final String holderId;
+
+  private volatile boolean leader = false;
+
+  SchedulerLeaderElection(
+      JanitorDao janitorDao, MetricsHelper metricsHelper, Duration leaseDuration, String holderId) {
+    this.janitorDao = janitorDao;
+    this.metricsHelper = metricsHelper;
+    this.leaseDuration = leaseDuration;
+    this.holderId = holderId;
+  }
+
+  /** Returns the unique id of this instance. */
+  public String holderId() {
+    return holderId;
+  }
+
+  /** Returns whether this instance held the lease as of the last acquisition attempt. */
+  public boolean isLeader() {
+    return leader;
+  }
+
+  /**
+   * Tries to acquire or renew the lease. Returns whether this instance is the leader afterwards.
+   */
+  public boolean tryAcquire() {
+    Optional<SchedulerLease> acquiredLease;
+    Optional<SchedulerLease> previousLease;
+    try {
+      previousLease = janitorDao.retrieveSchedulerLease(LEASE_NAME);
+      acquiredLease = janitorDao.acquireSchedulerLease(LEASE_NAME, holderId, leaseDuration);
+    } catch (DataAccessException e) {
+      // We can't tell whether we still hold the lease, so pessimistically give up leadership.
+      logger.error("Error acquiring scheduler lease.", e);
+      previousLease = Optional.empty();
+      acquiredLease = Optional.empty();
+    }
+    boolean acquired = acquiredLease.isPresent();
+    if (acquired && !leader) {
+      logger.info("Acquired scheduler lease as {}.", holderId);
+      metricsHelper.incrementLeadershipChange(true);
+      Instant acquiredAt = acquiredLease.get().heartbeat();
+      previousLease
+          .filter(lease -> !lease.holder().equals(holderId))
+          .ifPresent(
+              lease -> {
+                Duration gap = Duration.between(lease.heartbeat(), acquiredAt);
+                metricsHelper.recordLeaderlessGapDuration(
+                    gap.isNegative() ? Duration.ZERO : gap);
+              });
+    } else if (!acquired && leader) {
+      logger.warn("Lost scheduler lease as {}.", holderId);
+      metricsHelper.incrementLeadershipChange(false);
+    }
+    leader = acquired;
+    return acquired;
+  }
+
+  /** Releases the lease if this instance is the leader so that another instance may take over. */
+  public void release() {
+    if (!leader) {
+      return;
+    }
+    leader = false;
+    try {
+      janitorDao.releaseSchedulerLease(LEASE_NAME, holderId);
+      logger.info("Released scheduler lease as {}.", holderId);
+      metricsHelper.incrementLeadershipChange(false);
+    } catch (DataAccessException e) {
+      logger.error("Error releasing scheduler lease. It will expire instead.", e);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.db.JanitorDao;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A task run on a {@link ScheduledExecutorService} that decides when it should next run each time
+ * it runs, instead of running on a fixed period.
+ *
+ * <p>Each run is handed off to a runner once it is due, so the {@link ScheduledExecutorService}
+ * may only keep time while the runs themselves happen elsewhere, e.g. on virtual threads.
+ *
+ * <p>The task never runs concurrently with itself. It may be woken up earlier than it asked for
+ * with {@link #wakeAt(Instant)}; a wakeup requested while the task is running takes effect once
+ * that run finishes.
+ */
+class SelfSchedulingTask {
+  private final Logger logger = LoggerFactory.getLogger(SelfSchedulingTask.class);
+
+  private final String name;
+  private final ScheduledExecutorService executor;
+  /** Runs each run of the task once it is due. */
+  private final Executor runner;
+  /** Runs the task, returning when it should next run. */
+  private final Supplier<Instant> task;
+  /** How long to wait before running again if the task throws. */
+  private final Duration retryDelay;
+
+  // All of the following fields are guarded by this.
+  private boolean active = false;
+  private boolean running = false;
+  /** The earliest wakeup requested while the task was running. */
+  @Nullable private Instant pendingWakeup;
+  /** The next scheduled run, if there is one. */
+  @Nullable private ScheduledFuture<?> nextRun;
+  /** When {@link #nextRun} is scheduled to run. */
+  @Nullable private Instant nextRunTime;
+  /** Incremented for each scheduled run so that stale, cancelled runs can be ignored. */
+  private long generation = 0;
+
+  SelfSchedulingTask(
+      String name, ScheduledExecutorService executor, Supplier<Instant> task, Duration retryDelay) {
+    this(name, executor, MoreExecutors.directExecutor(), task, retryDelay);
+  }
+
+  SelfSchedulingTask(
+      String name,
+      ScheduledExecutorService executor,
+      Executor runner,
+      Supplier<Instant> task,
+      Duration retryDelay) {
+    this.name = name;
+    this.executor = executor;
+    this.runner = runner;
+    this.task = task;
+    this.retryDelay = retryDelay;
+  }
+
+  /** Starts running the task immediately. */
+  public synchronized void start() {
+    startAt(JanitorDao.currentInstant());
+  }
+
+  /** Starts running the task, first running it at {@code firstRun}. */
+  public synchronized void startAt(Instant firstRun) {
+    active = true;
+    wakeAt(firstRun);
+  }
+
+  /** Stops scheduling the task. A run that is in progress is allowed to finish. */
+  public synchronized void stop() {
+    active = false;
+    pendingWakeup = null;
+    cancelNextRun();
+  }
+
+  /** Returns whether the task has been started and not stopped. */
+  public synchronized boolean isActive() {
+    return active;
+  }
+
+  /** Requests that the task run no later than {@code when}. */
+  public synchronized void wakeAt(Instant when) {
+    if (!active) {
+      return;
+    }
+    if (running) {
+      if (pendingWakeup == null || when.isBefore(pendingWakeup)) {
+        pendingWakeup = when;
+      }
+      return;
+    }
+    if (nextRun != null) {
+      if (!when.isBefore(nextRunTime)) {
+        // Already scheduled to run soon enough.
+        return;
+      }
+      cancelNextRun();
+    }
+    long runGeneration = ++generation;
+    long delayMillis = Math.max(0, Duration.between(JanitorDao.currentInstant(), when).toMillis());
+    try {
+      nextRun =
+          executor.schedule(() -> handOff(runGeneration), delayMillis, TimeUnit.MILLISECONDS);
+      nextRunTime = when;
+    } catch (RejectedExecutionException e) {
+      // The executor is shutting down.
+      active = false;
+    }
+  }
+
+  private void cancelNextRun() {
+    if (nextRun != null) {
+      nextRun.cancel(/* mayInterruptIfRunning= */ false);
+    }
+    nextRun = null;
+    nextRunTime = null;
+  }
+
+  private void handOff(long runGeneration) {
+    try {
+      runner.execute(() -> run(runGeneration));
+    } catch (RejectedExecutionException e) {
+      // The runner is shutting down.
+      synchronized (this) {
+        active = false;
+      }
+    }
+  }
+
+  private void run(long runGeneration) {
+    synchronized (this) {
+      if (!active || runGeneration != generation || running) {
+        // This run was stopped or superseded by an earlier wakeup.
+        return;
+      }
+      running = true;
+      nextRun = null;
+      nextRunTime = null;
+    }
+    Instant next;
+    try {
+      next = task.get();
+    } catch (Throwable t) {
+      logger.error(String.format("Caught exception in FlightScheduler task %s.", name), t);
+      next = JanitorDao.currentInstant().plus(retryDelay);
+    }
+    synchronized (this) {
+      running = false;
+      if (pendingWakeup != null && pendingWakeup.isBefore(next)) {
+        next = pendingWakeup;
+      }
+      pendingWakeup = null;
+      wakeAt(next);
+    }
+  }
+}
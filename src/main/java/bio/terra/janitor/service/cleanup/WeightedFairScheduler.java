@@ -0,0 +1,160 @@
+package bio.terra.janitor.service.cleanup;
+
+import bio.terra.janitor.app.configuration.PrimaryConfiguration.ResourceKindPolicy;
+import bio.terra.janitor.db.ResourceKind;
+import bio.terra.janitor.db.ResourceKindBacklog;
+import bio.terra.janitor.db.ResourceType;
+import com.google.common.base.Preconditions;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * Shares the flight submission slots of each claim batch between the kinds of resources that are
+ * waiting to be cleaned, using weighted fair queuing.
+ *
+ * <p>Each kind has a virtual finish tag that advances by {@code 1 / weight} for every slot it is
+ * given, and each slot goes to the waiting kind with the lowest next tag. A kind that was not
+ * waiting starts from the current virtual time, so it cannot save up slots while it is idle. Over
+ * time each waiting kind gets slots in proportion to its weight, so a flood of one kind of
+ * resource cannot starve the others. Ties go to the kind whose oldest resource expired first.
+ *
+ * <p>A kind's weight is scaled by one more than the highest priority of its waiting resources, so
+ * kinds with expensive resources waiting get a bigger share of the slots. Because every waiting
+ * kind still gets its share, even kinds of the lowest priority are never starved.
+ *
+ * <p>A kind with a max in-flight limit is given no more slots than it has room for below its limit.
+ * Kinds of the same resource type also share that type's remaining capacity, if it has a limit.
+ */
+class WeightedFairScheduler {
+  private final List<ResourceKindPolicy> policies;
+
+  // All of the following fields are guarded by this.
+  /** The virtual finish tag of the last slot given to each kind. */
+  private final Map<ResourceKind, Double> finishTags = new HashMap<>();
+  /** The weight, scaled by priority, that each kind was last given slots with. */
+  private final Map<ResourceKind, Double> lastWeights = new HashMap<>();
+  /** The start tag of the last slot given to any kind. */
+  private double virtualTime = 0;
+
+  WeightedFairScheduler(List<ResourceKindPolicy> policies) {
+    policies.forEach(
+        policy ->
+            Preconditions.checkArgument(
+                policy.getWeight() > 0, "Resource kind weights must be positive."));
+    this.policies = List.copyOf(policies);
+  }
+
+  /** Returns whether any kind has a max in-flight limit. */
+  boolean hasInFlightLimits() {
+    return policies.stream().anyMatch(policy -> policy.getMaxInFlight() > 0);
+  }
+
+  /**
+   * Returns how many of {@code slots} to give to each kind with a {@code backlog}, given how many
+   * resources of each kind are already {@code inFlight} and how many more of each resource type
+   * there is {@code typeCapacity} for. Types missing from {@code typeCapacity} are not limited.
+   * Kinds that get no slots are left out.
+   */
+  synchronized Map<ResourceKind, Integer> allocate(
+      List<ResourceKindBacklog> backlogs,
+      Map<ResourceKind, Integer> inFlight,
+      Map<ResourceType, Integer> typeCapacity,
+      int slots) {
+    Map<ResourceType, Integer> remainingTypeCapacity = new HashMap<>(typeCapacity);
+    PriorityQueue<Candidate> candidates =
+        new PriorityQueue<>(
+            Comparator.comparingDouble((Candidate candidate) -> candidate.nextFinish)
+                .thenComparing(candidate -> candidate.oldestExpiration));
+    for (ResourceKindBacklog backlog : backlogs) {
+      int available = backlog.count();
+      int maxInFlight = maxInFlight(backlog.kind());
+      if (maxInFlight > 0) {
+        available = Math.min(available, maxInFlight - inFlight.getOrDefault(backlog.kind(), 0));
+      }
+      if (available <= 0) {
+        continue;
+      }
+      double start = Math.max(finishTags.getOrDefault(backlog.kind(), 0.0), virtualTime);
+      double weight = weight(backlog.kind()) * (1 + Math.max(backlog.maxPriority(), 0));
+      lastWeights.put(backlog.kind(), weight);
+      candidates.add(
+          new Candidate(backlog.kind(), weight, available, start, backlog.oldestExpiration()));
+    }
+    Map<ResourceKind, Integer> allocation = new LinkedHashMap<>();
+    while (slots > 0 && !candidates.isEmpty()) {
+      Candidate candidate = candidates.poll();
+      ResourceType type = candidate.kind.resourceType();
+      if (remainingTypeCapacity.getOrDefault(type, 1) <= 0) {
+        // The type is full, so drop the kind from this allocation.
+        continue;
+      }
+      remainingTypeCapacity.computeIfPresent(type, (unused, capacity) -> capacity - 1);
+      double increment = 1 / candidate.weight;
+      virtualTime = Math.max(virtualTime, candidate.nextFinish - increment);
+      finishTags.put(candidate.kind, candidate.nextFinish);
+      allocation.merge(candidate.kind, 1, Integer::sum);
+      --slots;
+      if (--candidate.available > 0) {
+        candidate.nextFinish += increment;
+        candidates.add(candidate);
+      }
+    }
+    return allocation;
+  }
+
+  /**
+   * Gives back {@code unused} slots allocated to {@code kind} that could not be claimed, e.g.
+   * because another instance claimed the resources first, so that the kind is not charged for them.
+   */
+  synchronized void refund(ResourceKind kind, int unused) {
+    double weight = lastWeights.getOrDefault(kind, weight(kind));
+    finishTags.computeIfPresent(
+        kind, (unusedKind, finish) -> Math.max(virtualTime, finish - unused / weight));
+  }
+
+  private double weight(ResourceKind kind) {
+    return policyFor(kind).map(ResourceKindPolicy::getWeight).orElse(1.0);
+  }
+
+  private int maxInFlight(ResourceKind kind) {
+    return policyFor(kind).map(ResourceKindPolicy::getMaxInFlight).orElse(0);
+  }
+
+  /** Returns the most specific policy that matches {@code kind}, if any. */
+  private Optional<ResourceKindPolicy> policyFor(ResourceKind kind) {
+    return policies.stream()
+        .filter(
+            policy ->
+                (policy.getClient() == null || policy.getClient().equals(kind.client()))
+                    && (policy.getResourceType() == null
+                        || policy.getResourceType().equals(kind.resourceType())))
+        .max(
+            Comparator.comparing((ResourceKindPolicy policy) -> policy.getResourceType() != null)
+                .thenComparing(policy -> policy.getClient() != null));
+  }
+
+  /** A kind of resource competing for the slots of a single allocation. */
+  private static class Candidate {
+    private final ResourceKind kind;
+    private final double weight;
+    private final Instant oldestExpiration;
+    private int available;
+    /** The finish tag of the next slot given to this kind. */
+    private double nextFinish;
+
+    private Candidate(
+        ResourceKind kind, double weight, int available, double start, Instant oldestExpiration) {
+      this.kind = kind;
+      this.weight = weight;
+      this.available = available;
+      this.nextFinish = start + 1 / weight;
+      this.oldestExpiration = oldestExpiration;
+    }
+  }
+}
@@ -1,29 +1,60 @@
 package bio.terra.janitor.service.janitor;
 
+import static bio.terra.janitor.app.configuration.BeanNames.OBJECT_MAPPER;
+
 import bio.terra.common.exception.BadRequestException;
 import bio.terra.common.iam.AuthenticatedUserRequest;
 import bio.terra.janitor.db.*;
 import bio.terra.janitor.generated.model.*;
 import bio.terra.janitor.service.iam.IamService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /** Service handles incoming HTTP requests. */
 @Component
 public class JanitorApiService {
+  /** How many rows are fetched from the database at a time while exporting resources. */
+  private static final int EXPORT_FETCH_SIZE = 1000;
+
+  /**
+   * How long reading the export may run, and how long writing a fetch's worth of resources to the
+   * client may take, before the export is abandoned.
+   */
+  private static final Duration EXPORT_TIMEOUT = Duration.ofMinutes(1);
+
+  /** The field of the last line of an export, which holds how many resources were exported. */
+  public static final String EXPORT_COUNT_FIELD = "exportedCount";
+
   private final IamService iamService;
   private final TrackedResourceService trackedResourceService;
   private final JanitorDao janitorDao;
+  private final TransactionTemplate transactionTemplate;
+  private final ObjectMapper objectMapper;
 
   @Autowired
   public JanitorApiService(
-      IamService iamService, TrackedResourceService trackedResourceService, JanitorDao janitorDao) {
+      IamService iamService,
+      TrackedResourceService trackedResourceService,
+      JanitorDao janitorDao,
+      TransactionTemplate transactionTemplate,
+      @Qualifier(OBJECT_MAPPER) ObjectMapper objectMapper) {
     this.iamService = iamService;
     this.trackedResourceService = trackedResourceService;
     this.janitorDao = janitorDao;
+    this.transactionTemplate = transactionTemplate;
+    this.objectMapper = objectMapper;
   }
 
   public CreatedResource createResource(
@@ -49,28 +80,101 @@ public class JanitorApiService {
     return janitorDao.retrieveResourceAndLabels(trackedResourceId).map(ModelUtils::createInfo);
   }
 
-  /** Retrieves the resources matching the filters. */
+  /**
+   * Retrieves the resources matching the filters. If {@code limit} is set and the page is full, the
+   * returned list has a token for the next page.
+   */
   public TrackedResourceInfoList getResources(
       @Nullable CloudResourceUid cloudResourceUid,
       @Nullable ResourceState state,
       Integer offset,
       Integer limit,
+      @Nullable String pageToken,
       AuthenticatedUserRequest userReq) {
     iamService.requireAdminUser(userReq);
 
-    TrackedResourceFilter.Builder filter =
-        TrackedResourceFilter.builder()
-            .cloudResourceUid(Optional.ofNullable(cloudResourceUid))
+    TrackedResourceFilter filter =
+        filterBuilder(cloudResourceUid, state)
             .limit(limit)
-            .offset(offset);
+            .offset(offset)
+            .after(Optional.ofNullable(pageToken).map(ModelUtils::parsePageToken))
+            .build();
+    List<TrackedResourceAndLabels> resources = janitorDao.retrieveResourcesAndLabels(filter);
+    TrackedResourceInfoList resourceList = new TrackedResourceInfoList();
+    resources.stream().map(ModelUtils::createInfo).forEach(resourceList::addResourcesItem);
+    if (limit > 0 && resources.size() == limit) {
+      TrackedResource last = resources.get(resources.size() - 1).trackedResource();
+      resourceList.nextPageToken(ModelUtils.createPageToken(TrackedResourceCursor.after(last)));
+    }
+    return resourceList;
+  }
+
+  /**
+   * Returns an export of the resources matching the filters as newline delimited JSON, one {@link
+   * TrackedResourceInfo} per line, in (creation, id) order. The user is authorized before this
+   * returns, so nothing needs to be written if they are not.
+   *
+   * <p>Each resource is written as soon as it is read from the database, so memory use does not
+   * grow with the number of resources. The last line is an object with only the {@link
+   * #EXPORT_COUNT_FIELD}, which is only written if every resource was, so that a client can tell a
+   * complete export from one that was cut short after the response status was sent.
+   */
+  public ResourceExport exportResources(
+      @Nullable CloudResourceUid cloudResourceUid,
+      @Nullable ResourceState state,
+      AuthenticatedUserRequest userReq) {
+    iamService.requireAdminUser(userReq);
+
+    TrackedResourceFilter filter = filterBuilder(cloudResourceUid, state).build();
+    return out -> {
+      OutputStream buffered = new BufferedOutputStream(out);
+      AtomicLong count = new AtomicLong();
+      try {
+        // Read within a transaction so that the rows are fetched through a cursor.
+        transactionTemplate.executeWithoutResult(
+            status ->
+                janitorDao.streamResourcesAndLabels(
+                    filter,
+                    EXPORT_FETCH_SIZE,
+                    EXPORT_TIMEOUT,
+                    resource -> {
+                      writeLine(ModelUtils.createInfo(resource), buffered);
+                      count.incrementAndGet();
+                    }));
+        writeLine(Map.of(EXPORT_COUNT_FIELD, count.get()), buffered);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      buffered.flush();
+    };
+  }
+
+  /** Writes an export of resources. */
+  @FunctionalInterface
+  public interface ResourceExport {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /** Writes {@code value} as a line of JSON. */
+  private void writeLine(Object value, OutputStream out) {
+    try {
+      out.write(objectMapper.writeValueAsBytes(value));
+      out.write('\n');
+    } catch (IOException e) {
+      // Stop reading if the client went away.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns a builder of a filter for the resources with the uid and state, if they are set. */
+  private static TrackedResourceFilter.Builder filterBuilder(
+      @Nullable CloudResourceUid cloudResourceUid, @Nullable ResourceState state) {
+    TrackedResourceFilter.Builder filter =
+        TrackedResourceFilter.builder().cloudResourceUid(Optional.ofNullable(cloudResourceUid));
     if (state != null) {
       filter.allowedStates(ImmutableSet.of(ModelUtils.convert(state)));
     }
-    TrackedResourceInfoList resourceList = new TrackedResourceInfoList();
-    janitorDao.retrieveResourcesAndLabels(filter.build()).stream()
-        .map(ModelUtils::createInfo)
-        .forEach(resourceList::addResourcesItem);
-    return resourceList;
+    return filter;
   }
 
   /**
@@ -95,6 +199,13 @@ public class JanitorApiService {
     }
   }
 
+  /** Expires the READY tracked resource now and cleans it up ahead of the expired backlog. */
+  public void cleanResourceNow(
+      CloudResourceUid cloudResourceUid, AuthenticatedUserRequest userReq) {
+    iamService.requireAdminUser(userReq);
+    trackedResourceService.cleanResourceNow(cloudResourceUid);
+  }
+
   /** Update all ERROR tracked resources to READY. */
   public void bumpErrors(AuthenticatedUserRequest userReq) {
     iamService.requireAdminUser(userReq);
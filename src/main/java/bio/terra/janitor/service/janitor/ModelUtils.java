@@ -1,9 +1,12 @@
 package bio.terra.janitor.service.janitor;
 
+import bio.terra.janitor.common.exception.InvalidPageTokenException;
 import bio.terra.janitor.db.ResourceMetadata;
 import bio.terra.janitor.db.TrackRequest;
 import bio.terra.janitor.db.TrackedResource;
 import bio.terra.janitor.db.TrackedResourceAndLabels;
+import bio.terra.janitor.db.TrackedResourceCursor;
+import bio.terra.janitor.db.TrackedResourceId;
 import bio.terra.janitor.db.TrackedResourceState;
 import bio.terra.janitor.generated.model.CreateResourceRequestBody;
 import bio.terra.janitor.generated.model.ResourceState;
@@ -12,9 +15,14 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.EnumBiMap;
 import com.google.common.collect.ImmutableMap;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.Base64;
 import java.util.Optional;
+import java.util.UUID;
 import javax.annotation.Nullable;
 
 /** Helper class for converting to and from the request/response model format. */
@@ -40,6 +48,7 @@ public class ModelUtils {
         .expiration(body.getExpiration().toInstant())
         .labels(body.getLabels() == null ? ImmutableMap.of() : body.getLabels())
         .metadata(createMetadata(body.getResourceMetadata()))
+        .priority(Optional.ofNullable(body.getPriority()))
         .build();
   }
 
@@ -63,6 +72,7 @@ public class ModelUtils {
         .state(convert(resource.trackedResourceState()))
         .creation(OffsetDateTime.ofInstant(resource.creation(), ZoneOffset.UTC))
         .expiration(OffsetDateTime.ofInstant(resource.expiration(), ZoneOffset.UTC))
+        .priority(resource.priority())
         .labels(resourceAndLabels.labels());
   }
 
@@ -89,4 +99,41 @@ public class ModelUtils {
         converted, String.format("Unable to convert ResourceState %s", state));
     return converted;
   }
+
+  /**
+   * Encodes {@code cursor} as an opaque page token. The token is the cursor's creation time and id,
+   * so it stays valid however long the client waits before using it.
+   */
+  public static String createPageToken(TrackedResourceCursor cursor) {
+    String token =
+        String.format(
+            "%d.%d.%s",
+            cursor.creation().getEpochSecond(),
+            cursor.creation().getNano(),
+            cursor.trackedResourceId());
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a page token created by {@link #createPageToken}.
+   *
+   * <p>Throws {@link InvalidPageTokenException} if the token was not created by the Janitor.
+   */
+  public static TrackedResourceCursor parsePageToken(String pageToken) {
+    try {
+      String[] parts =
+          new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8)
+              .split("\\.", 3);
+      if (parts.length != 3) {
+        throw new InvalidPageTokenException(String.format("Invalid page token %s", pageToken));
+      }
+      return TrackedResourceCursor.create(
+          Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1])),
+          TrackedResourceId.create(UUID.fromString(parts[2])));
+    } catch (IllegalArgumentException | DateTimeException e) {
+      throw new InvalidPageTokenException(String.format("Invalid page token %s", pageToken), e);
+    }
+  }
 }
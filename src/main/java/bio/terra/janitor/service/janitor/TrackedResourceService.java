@@ -1,9 +1,10 @@
 package bio.terra.janitor.service.janitor;
 
+import bio.terra.janitor.app.configuration.PrimaryConfiguration;
+import bio.terra.janitor.common.exception.InvalidPriorityException;
 import bio.terra.janitor.common.exception.NotFoundException;
 import bio.terra.janitor.db.*;
 import bio.terra.janitor.generated.model.*;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import java.time.Instant;
 import java.util.*;
@@ -21,15 +22,32 @@ public class TrackedResourceService {
 
   private final JanitorDao janitorDao;
   private final TransactionTemplate transactionTemplate;
+  private final PrimaryConfiguration primaryConfiguration;
 
   @Autowired
-  public TrackedResourceService(JanitorDao janitorDao, TransactionTemplate transactionTemplate) {
+  public TrackedResourceService(
+      JanitorDao janitorDao,
+      TransactionTemplate transactionTemplate,
+      PrimaryConfiguration primaryConfiguration) {
     this.janitorDao = janitorDao;
     this.transactionTemplate = transactionTemplate;
+    this.primaryConfiguration = primaryConfiguration;
   }
 
-  /** Create a new {@link TrackedResource} tracking a resource. */
+  /**
+   * Create a new {@link TrackedResource} tracking a resource.
+   *
+   * <p>Throws {@link InvalidPriorityException} if the requested priority is out of range.
+   */
   public TrackedResource createResource(TrackRequest trackRequest) {
+    Optional<Integer> priority = trackRequest.priority();
+    if (priority.isPresent()
+        && (priority.get() < 0 || priority.get() > TrackedResource.MAX_PRIORITY)) {
+      throw new InvalidPriorityException(
+          String.format(
+              "Priority %d must be between 0 and %d.",
+              priority.get(), TrackedResource.MAX_PRIORITY));
+    }
     return transactionTemplate.execute(
         status -> createResourceAndUpdateDuplicates(trackRequest, status));
   }
@@ -40,7 +58,8 @@ public class TrackedResourceService {
    * TrackedResourceId}. This should be done as a part of a single database transaction.
    *
    * <p>Several parts of the Janitor system assume that there is at most one non-DONE, non-DUPLICATE
-   * TrackedResource per CloudResourceUid. Change with care.
+   * TrackedResource per CloudResourceUid. The database enforces this with a unique index, so
+   * concurrent requests for the same uid wait on each other instead of failing to serialize.
    */
   private TrackedResource createResourceAndUpdateDuplicates(
       TrackRequest trackRequest, TransactionStatus unused) {
@@ -53,46 +72,47 @@ public class TrackedResourceService {
             .creation(trackRequest.creation())
             .expiration(trackRequest.expiration())
             .metadata(trackRequest.metadata())
+            .priority(
+                trackRequest
+                    .priority()
+                    .orElseGet(() -> defaultPriority(trackRequest.cloudResourceUid())))
             .build();
-    List<TrackedResource> duplicateResources =
-        janitorDao.retrieveResourcesMatching(
-            TrackedResourceFilter.builder()
-                .cloudResourceUid(resource.cloudResourceUid())
-                .forbiddenStates(
-                    ImmutableSet.of(TrackedResourceState.DONE, TrackedResourceState.DUPLICATED))
-                .build());
-    if (!duplicateResources.isEmpty()) {
-      if (duplicateResources.size() > 1) {
-        // If all resources are created through this function, they should be duplicated
-        // as new resources come in so that there are not multiple resources that need to
-        // be marked as duplicated at once.
-        logger.error(
-            "There was more than one not DONE or DUPLICATE resource with the same CloudResourceUid {}",
-            resource.cloudResourceUid());
-      }
-      Instant lastExpiration =
-          duplicateResources.stream()
-              .map(TrackedResource::expiration)
-              .max(Instant::compareTo)
-              .get();
-      if (resource.expiration().isAfter(lastExpiration)) {
-        // The new resource expires after existing resources. The other resources are now
-        // duplicates of the new resource.
-        for (TrackedResource duplicateResource : duplicateResources) {
-          janitorDao.updateResourceState(
-              duplicateResource.trackedResourceId(), TrackedResourceState.DUPLICATED);
-          logger.info(
-              "Duplicated resource, trackedResourceId: {}", duplicateResource.trackedResourceId());
-        }
-      } else {
-        // There is a duplicating resource with a later or equal expiration time. The new
-        // resource is duplicated on arrival.
+    boolean conflicted = false;
+    // Each round either creates the resource or duplicates an active resource that another request
+    // created concurrently, so this ends once the concurrent requests for the uid do.
+    while (true) {
+      // The existing resources that expire before the new resource are now duplicates of it.
+      List<TrackedResourceId> duplicatedIds =
+          janitorDao.updateOlderActiveResourcesToDuplicated(
+              resource.cloudResourceUid(), resource.expiration());
+      duplicatedIds.forEach(
+          duplicatedId -> logger.info("Duplicated resource, trackedResourceId: {}", duplicatedId));
+      if (conflicted && duplicatedIds.isEmpty()) {
+        // There is an active resource with a later or equal expiration time. The new resource is
+        // duplicated on arrival.
         resource =
             resource.toBuilder().trackedResourceState(TrackedResourceState.DUPLICATED).build();
+        janitorDao.createResource(resource, trackRequest.labels());
+        return resource;
       }
+      if (janitorDao.createResourceIfNoActiveDuplicate(resource, trackRequest.labels())) {
+        return resource;
+      }
+      // Another active resource with the same uid exists, and it has been committed by now.
+      conflicted = true;
     }
-    janitorDao.createResource(resource, trackRequest.labels());
-    return resource;
+  }
+
+  /**
+   * Returns the configured priority of the type of {@code cloudResourceUid}, clamped to the range
+   * of valid priorities.
+   */
+  private int defaultPriority(CloudResourceUid cloudResourceUid) {
+    int priority =
+        primaryConfiguration
+            .getResourceTypePriorities()
+            .getOrDefault(new ResourceTypeVisitor().accept(cloudResourceUid), 0);
+    return Math.max(0, Math.min(priority, TrackedResource.MAX_PRIORITY));
   }
 
   /**
@@ -112,23 +132,25 @@ public class TrackedResourceService {
 
   private List<TrackedResource> abandonResourceTransaction(
       CloudResourceUid cloudResourceUid, TransactionStatus unused) {
+    Set<TrackedResourceState> abandonableStates =
+        Set.of(
+            TrackedResourceState.READY, TrackedResourceState.CLEANING, TrackedResourceState.ERROR);
+    // Check and change the state in one statement so that a concurrent transition is never
+    // overwritten.
     List<TrackedResource> resources =
-        getResourceWithState(
-            cloudResourceUid,
-            TrackedResourceState.READY,
-            TrackedResourceState.CLEANING,
-            TrackedResourceState.ERROR);
-
+        janitorDao.transitionResourceStates(
+            cloudResourceUid, abandonableStates, TrackedResourceState.ABANDONED);
+    if (resources.isEmpty()) {
+      throw new NotFoundException(
+          String.format(
+              "Resource: %s not found with state %s", cloudResourceUid, abandonableStates));
+    }
     if (resources.size() > 1) {
       logger.error(
           "More than one READY, CLEANING, or ERROR state resources are found during abandon for"
               + " resource {}.",
           cloudResourceUid);
     }
-    resources.forEach(
-        resource ->
-            janitorDao.updateResourceState(
-                resource.trackedResourceId(), TrackedResourceState.ABANDONED));
     return resources;
   }
 
@@ -165,9 +187,48 @@ public class TrackedResourceService {
     TrackedResource toBump =
         resources.stream().max(Comparator.comparing(TrackedResource::expiration)).get();
     janitorDao.updateResourceState(toBump.trackedResourceId(), TrackedResourceState.READY);
+    // A human bumped it, so it gets all of its automatic retries again.
+    janitorDao.resetErrorRetries(toBump.trackedResourceId());
     return toBump.trackedResourceId();
   }
 
+  /**
+   * Expires the READY resource now and asks the scheduler to clean it up ahead of the other expired
+   * resources.
+   *
+   * <p>Throws {@link NotFoundException} if there were no resources to clean up.
+   */
+  public void cleanResourceNow(CloudResourceUid cloudResourceUid) {
+    TrackedResourceId cleanedId =
+        transactionTemplate.execute(
+            status -> cleanResourceNowTransaction(cloudResourceUid, status));
+    // Log only after the transaction has completed successfully so that we don't log something that
+    // got rolled back.
+    logger.info("Clean resource now, trackedResourceId: {} ", cleanedId);
+  }
+
+  private TrackedResourceId cleanResourceNowTransaction(
+      CloudResourceUid cloudResourceUid, TransactionStatus unused) {
+    List<TrackedResource> resources =
+        getResourceWithState(cloudResourceUid, TrackedResourceState.READY);
+
+    if (resources.size() > 1) {
+      logger.error(
+          "More than one READY state resources are found during clean now for resource {}.",
+          cloudResourceUid);
+    }
+
+    // Pick the latest expiration, though there should have only been one resource.
+    TrackedResource toClean =
+        resources.stream().max(Comparator.comparing(TrackedResource::expiration)).get();
+    Instant now = JanitorDao.currentInstant();
+    if (toClean.expiration().isAfter(now)) {
+      janitorDao.updateResourceExpiration(toClean.trackedResourceId(), now);
+    }
+    janitorDao.notifyResourceCleanNow(toClean.trackedResourceId());
+    return toClean.trackedResourceId();
+  }
+
   /**
    * Gets list of {@link TrackedResource} with {@link TrackedResourceState}.
    *
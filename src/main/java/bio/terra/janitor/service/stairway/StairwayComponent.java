@@ -4,6 +4,7 @@ import bio.terra.common.stairway.MonitoringHook;
 import bio.terra.janitor.app.configuration.StairwayConfiguration;
 import bio.terra.janitor.app.configuration.StairwayJdbcConfiguration;
 import bio.terra.janitor.service.cleanup.CleanupLoggingHook;
+import bio.terra.janitor.service.cleanup.FlightCompletionHook;
 import bio.terra.stairway.Stairway;
 import bio.terra.stairway.StairwayBuilder;
 import bio.terra.stairway.exception.StairwayException;
@@ -39,7 +40,8 @@ public class StairwayComponent {
   public StairwayComponent(
       ApplicationContext applicationContext,
       StairwayConfiguration stairwayConfiguration,
-      StairwayJdbcConfiguration stairwayJdbcConfiguration) {
+      StairwayJdbcConfiguration stairwayJdbcConfiguration,
+      FlightCompletionHook flightCompletionHook) {
     this.stairwayConfiguration = stairwayConfiguration;
     this.stairwayJdbcConfiguration = stairwayJdbcConfiguration;
 
@@ -57,6 +59,7 @@ public class StairwayComponent {
             .applicationContext(applicationContext)
             .stairwayName(stairwayConfiguration.getName())
             .stairwayHook(new CleanupLoggingHook())
+            .stairwayHook(flightCompletionHook)
             .stairwayHook(new MonitoringHook(applicationContext.getBean(OpenTelemetry.class)));
     try {
       stairway = builder.build();
@@ -106,4 +109,9 @@ public class StairwayComponent {
   public Status getStatus() {
     return status;
   }
+
+  /** Returns how many flights this Stairway instance runs at once. */
+  public int getMaxParallelFlights() {
+    return stairwayConfiguration.getMaxParallelFlights();
+  }
 }
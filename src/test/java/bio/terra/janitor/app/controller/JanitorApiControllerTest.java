@@ -3,9 +3,11 @@ package bio.terra.janitor.app.controller;
 import static bio.terra.janitor.app.configuration.BeanNames.OBJECT_MAPPER;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -20,9 +22,12 @@ import bio.terra.janitor.generated.model.ResourceMetadata;
 import bio.terra.janitor.generated.model.ResourceState;
 import bio.terra.janitor.generated.model.TrackedResourceInfo;
 import bio.terra.janitor.generated.model.TrackedResourceInfoList;
+import bio.terra.janitor.service.janitor.JanitorApiService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -315,6 +320,40 @@ public class JanitorApiControllerTest {
             .getContentAsString();
     resourceInfoList = objectMapper.readValue(getResponseLimit, TrackedResourceInfoList.class);
     assertThat(resourceInfoList.getResources(), Matchers.hasSize(1));
+    assertNotNull(resourceInfoList.getNextPageToken());
+
+    String getResponseNextPage =
+        this.mvc
+            .perform(
+                get("/api/janitor/v1/resource")
+                    .queryParam("limit", String.valueOf(1))
+                    .queryParam("pageToken", resourceInfoList.getNextPageToken())
+                    .header(CLAIM_EMAIL_KEY, ADMIN_USER_EMAIL)
+                    .header(CLAIM_SUBJECT_KEY, ADMIN_SUBJECT_ID)
+                    .header(CLAIM_TOKEN_KEY, ADMIN_TOKEN))
+            .andDo(MockMvcResultHandlers.print())
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    TrackedResourceInfoList nextPage =
+        objectMapper.readValue(getResponseNextPage, TrackedResourceInfoList.class);
+    assertThat(nextPage.getResources(), Matchers.hasSize(1));
+    assertThat(
+        List.of(
+            resourceInfoList.getResources().get(0).getId(), nextPage.getResources().get(0).getId()),
+        Matchers.containsInAnyOrder(id1, id2));
+
+    this.mvc
+        .perform(
+            get("/api/janitor/v1/resource")
+                .queryParam("limit", String.valueOf(1))
+                .queryParam("pageToken", "not-a-page-token")
+                .header(CLAIM_EMAIL_KEY, ADMIN_USER_EMAIL)
+                .header(CLAIM_SUBJECT_KEY, ADMIN_SUBJECT_ID)
+                .header(CLAIM_TOKEN_KEY, ADMIN_TOKEN))
+        .andDo(MockMvcResultHandlers.print())
+        .andExpect(status().is(400));
 
     this.mvc
         .perform(
@@ -329,6 +368,110 @@ public class JanitorApiControllerTest {
         .andExpect(status().is(400));
   }
 
+  @Test
+  public void exportResources() throws Exception {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 3; ++i) {
+      CreateResourceRequestBody body =
+          new CreateResourceRequestBody()
+              .resourceUid(
+                  new CloudResourceUid()
+                      .googleProjectUid(
+                          new GoogleProjectUid().projectId(UUID.randomUUID().toString())))
+              .creation(CREATION.plusSeconds(i))
+              .expiration(EXPIRATION)
+              .labels(DEFAULT_LABELS);
+      String createResponse =
+          this.mvc
+              .perform(
+                  post("/api/janitor/v1/resource")
+                      .contentType(MediaType.APPLICATION_JSON)
+                      .content(objectMapper.writeValueAsString(body))
+                      .header(CLAIM_EMAIL_KEY, ADMIN_USER_EMAIL)
+                      .header(CLAIM_SUBJECT_KEY, ADMIN_SUBJECT_ID)
+                      .header(CLAIM_TOKEN_KEY, ADMIN_TOKEN))
+              .andExpect(status().isOk())
+              .andReturn()
+              .getResponse()
+              .getContentAsString();
+      ids.add(objectMapper.readValue(createResponse, CreatedResource.class).getId());
+    }
+
+    String exportResponse =
+        this.mvc
+            .perform(
+                get("/api/janitor/v1/resource/export")
+                    .header(CLAIM_EMAIL_KEY, ADMIN_USER_EMAIL)
+                    .header(CLAIM_SUBJECT_KEY, ADMIN_SUBJECT_ID)
+                    .header(CLAIM_TOKEN_KEY, ADMIN_TOKEN))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(JanitorApiController.NDJSON_MEDIA_TYPE))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    // One resource per line, in creation order, followed by how many there were.
+    List<String> lines = List.of(exportResponse.split("\n"));
+    List<TrackedResourceInfo> exported = new ArrayList<>();
+    for (String line : lines.subList(0, lines.size() - 1)) {
+      exported.add(objectMapper.readValue(line, TrackedResourceInfo.class));
+    }
+    assertEquals(
+        3,
+        objectMapper
+            .readTree(lines.get(lines.size() - 1))
+            .get(JanitorApiService.EXPORT_COUNT_FIELD)
+            .asInt());
+    assertEquals(
+        ids, exported.stream().map(TrackedResourceInfo::getId).collect(Collectors.toList()));
+    exported.forEach(info -> assertEquals(DEFAULT_LABELS, info.getLabels()));
+
+    String filteredResponse =
+        this.mvc
+            .perform(
+                get("/api/janitor/v1/resource/export")
+                    .queryParam("state", ResourceState.DONE.toString())
+                    .header(CLAIM_EMAIL_KEY, ADMIN_USER_EMAIL)
+                    .header(CLAIM_SUBJECT_KEY, ADMIN_SUBJECT_ID)
+                    .header(CLAIM_TOKEN_KEY, ADMIN_TOKEN))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    // Only the count, so that an empty export is distinguishable from one that was cut short.
+    assertEquals(
+        0,
+        objectMapper.readTree(filteredResponse).get(JanitorApiService.EXPORT_COUNT_FIELD).asInt());
+  }
+
+  @Test
+  public void cleanResourceNow_notFound() throws Exception {
+    CloudResourceUid resourceUid =
+        new CloudResourceUid()
+            .googleProjectUid(new GoogleProjectUid().projectId(UUID.randomUUID().toString()));
+    this.mvc
+        .perform(
+            put("/api/janitor/v1/resource/cleanNow")
+                .queryParam("cloudResourceUid", objectMapper.writeValueAsString(resourceUid))
+                .header(CLAIM_EMAIL_KEY, ADMIN_USER_EMAIL)
+                .header(CLAIM_SUBJECT_KEY, ADMIN_SUBJECT_ID)
+                .header(CLAIM_TOKEN_KEY, ADMIN_TOKEN))
+        .andDo(MockMvcResultHandlers.print())
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void cleanResourceNow_notAuthorized() throws Exception {
+    CloudResourceUid resourceUid =
+        new CloudResourceUid()
+            .googleProjectUid(new GoogleProjectUid().projectId(UUID.randomUUID().toString()));
+    this.mvc
+        .perform(
+            put("/api/janitor/v1/resource/cleanNow")
+                .queryParam("cloudResourceUid", objectMapper.writeValueAsString(resourceUid)))
+        .andDo(MockMvcResultHandlers.print())
+        .andExpect(status().isUnauthorized());
+  }
+
   @Test
   public void bumpErrors() throws Exception {
     this.mvc
@@ -0,0 +1,19 @@
+package bio.terra.janitor.common;
+
+import bio.terra.janitor.app.Main;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Base class for benchmarks that measure latency against the local database. They are slow and
+ * sensitive to the machine they run on, so they are left out of the unit tests and run with {@code
+ * ./gradlew benchmarkTest}.
+ */
+@Tag("benchmark")
+@ActiveProfiles({"test", "unit"})
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = Main.class)
+public class BaseBenchmarkTest {}
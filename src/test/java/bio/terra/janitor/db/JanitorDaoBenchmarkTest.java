@@ -0,0 +1,86 @@
+package bio.terra.janitor.db;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bio.terra.janitor.common.BaseBenchmarkTest;
+import com.google.common.base.Stopwatch;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JanitorDaoBenchmarkTest extends BaseBenchmarkTest {
+  @Autowired JanitorJdbcConfiguration jdbcConfiguration;
+  @Autowired JanitorDao janitorDao;
+  @Autowired TransactionTemplate transactionTemplate;
+
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  public void setup() {
+    jdbcTemplate = new NamedParameterJdbcTemplate(jdbcConfiguration.getDataSource());
+  }
+
+  @Test
+  public void retrieveResourcesMatching_deepPageAsFastAsFirstPage() {
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          // Many resources with distinct creation times, rolled back at the end so that they do
+          // not affect other tests.
+          int resourceCount = 200000;
+          jdbcTemplate.update(
+              "INSERT INTO tracked_resource "
+                  + "(id, resource_uid, resource_type, creation, expiration, state) "
+                  + "SELECT gen_random_uuid(), "
+                  + "jsonb_build_object('googleBucketUid', jsonb_build_object('bucketName', i)), "
+                  + "'GOOGLE_BUCKET', now() + i * interval '1 millisecond', now(), 'DONE' "
+                  + "FROM generate_series(1, :count) AS i",
+              new MapSqlParameterSource().addValue("count", resourceCount));
+          jdbcTemplate.update("ANALYZE tracked_resource", new MapSqlParameterSource());
+
+          TrackedResourceFilter offsetPage =
+              TrackedResourceFilter.builder().limit(1).offset(resourceCount - 100).build();
+          TrackedResource deepResource = janitorDao.retrieveResourcesMatching(offsetPage).get(0);
+          TrackedResourceFilter firstPage = TrackedResourceFilter.builder().limit(50).build();
+          TrackedResourceFilter deepPage =
+              TrackedResourceFilter.builder()
+                  .limit(50)
+                  .after(TrackedResourceCursor.after(deepResource))
+                  .build();
+
+          // The deep page takes about as long as the first page, however many resources precede
+          // it.
+          Duration firstPageLatency = medianLatency(firstPage);
+          Duration deepPageLatency = medianLatency(deepPage);
+          assertTrue(
+              deepPageLatency.compareTo(firstPageLatency.multipliedBy(5).plusMillis(20)) <= 0,
+              String.format(
+                  "First page took %s but page after %d resources took %s.",
+                  firstPageLatency, resourceCount - 100, deepPageLatency));
+          assertThat(janitorDao.retrieveResourcesMatching(deepPage), Matchers.hasSize(50));
+          status.setRollbackOnly();
+        });
+  }
+
+  /** Returns the median latency of retrieving the resources matching {@code filter}. */
+  private Duration medianLatency(TrackedResourceFilter filter) {
+    // Warm up the caches first.
+    janitorDao.retrieveResourcesMatching(filter);
+    List<Duration> latencies = new ArrayList<>();
+    for (int i = 0; i < 21; ++i) {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      janitorDao.retrieveResourcesMatching(filter);
+      latencies.add(stopwatch.elapsed());
+    }
+    Collections.sort(latencies);
+    return latencies.get(latencies.size() / 2);
+  }
+}
@@ -2,7 +2,9 @@ package bio.terra.janitor.db;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import bio.terra.janitor.app.configuration.JanitorJdbcConfiguration;
@@ -13,12 +15,20 @@ import bio.terra.janitor.generated.model.GoogleProjectUid;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -27,6 +37,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @AutoConfigureMockMvc
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
@@ -36,9 +47,12 @@ public class JanitorDaoTest extends BaseUnitTest {
 
   private static final Instant CREATION = JanitorDao.currentInstant();
   private static final Instant EXPIRATION = CREATION.plus(1, ChronoUnit.MINUTES);
+  /** A claim cutoff before which no resource expired, so none goes ahead of priority. */
+  private static final Instant NOT_AGED = EXPIRATION.minus(1, ChronoUnit.DAYS);
 
   @Autowired JanitorJdbcConfiguration jdbcConfiguration;
   @Autowired JanitorDao janitorDao;
+  @Autowired TransactionTemplate transactionTemplate;
 
   private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -187,6 +201,104 @@ public class JanitorDaoTest extends BaseUnitTest {
         Optional.of(expected), janitorDao.retrieveTrackedResource(resource.trackedResourceId()));
   }
 
+  @Test
+  public void retrieveTrackedResources() {
+    TrackedResource resource1 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.DONE).build();
+    TrackedResource resource2 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.ERROR).build();
+    TrackedResource resource3 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createResource(resource3, ImmutableMap.of());
+
+    TrackedResourceId unknownId = TrackedResourceId.create(UUID.randomUUID());
+    assertThat(
+        janitorDao.retrieveTrackedResources(
+            List.of(
+                resource1.trackedResourceId(),
+                resource2.trackedResourceId(),
+                resource3.trackedResourceId(),
+                unknownId)),
+        Matchers.containsInAnyOrder(resource1, resource2, resource3));
+    assertThat(janitorDao.retrieveTrackedResources(List.of()), Matchers.empty());
+  }
+
+  @Test
+  public void transitionResourceStates() {
+    TrackedResource cleaning1 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    TrackedResource cleaning2 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    TrackedResource abandoned =
+        newDefaultResource().trackedResourceState(TrackedResourceState.ABANDONED).build();
+    janitorDao.createResource(cleaning1, ImmutableMap.of());
+    janitorDao.createResource(cleaning2, ImmutableMap.of());
+    janitorDao.createResource(abandoned, ImmutableMap.of());
+
+    // Only the resources in an expected state are moved.
+    TrackedResource done1 =
+        cleaning1.toBuilder().trackedResourceState(TrackedResourceState.DONE).build();
+    TrackedResource done2 =
+        cleaning2.toBuilder().trackedResourceState(TrackedResourceState.DONE).build();
+    assertThat(
+        janitorDao.transitionResourceStates(
+            List.of(
+                cleaning1.trackedResourceId(),
+                cleaning2.trackedResourceId(),
+                abandoned.trackedResourceId()),
+            Set.of(TrackedResourceState.CLEANING),
+            TrackedResourceState.DONE),
+        Matchers.containsInAnyOrder(done1, done2));
+    assertEquals(
+        Optional.of(abandoned), janitorDao.retrieveTrackedResource(abandoned.trackedResourceId()));
+    assertThat(
+        janitorDao.transitionResourceStates(
+            List.of(), Set.of(TrackedResourceState.CLEANING), TrackedResourceState.DONE),
+        Matchers.empty());
+
+    // A single resource that has already moved on is not moved again.
+    assertEquals(
+        Optional.empty(),
+        janitorDao.transitionResourceState(
+            cleaning1.trackedResourceId(),
+            Set.of(TrackedResourceState.CLEANING),
+            TrackedResourceState.ERROR));
+    assertEquals(
+        Optional.of(done1), janitorDao.retrieveTrackedResource(cleaning1.trackedResourceId()));
+
+    // Only the resources with the uid that are in an expected state are moved.
+    TrackedResource ready =
+        newDefaultResource().cloudResourceUid(cleaning2.cloudResourceUid()).build();
+    janitorDao.createResource(ready, ImmutableMap.of());
+    assertEquals(
+        List.of(ready.toBuilder().trackedResourceState(TrackedResourceState.ABANDONED).build()),
+        janitorDao.transitionResourceStates(
+            ready.cloudResourceUid(),
+            Set.of(TrackedResourceState.READY, TrackedResourceState.CLEANING),
+            TrackedResourceState.ABANDONED));
+    assertEquals(
+        Optional.of(done2), janitorDao.retrieveTrackedResource(cleaning2.trackedResourceId()));
+  }
+
+  @Test
+  public void updateResourceExpiration() {
+    TrackedResource resource = newDefaultResource().build();
+    janitorDao.createResource(resource, ImmutableMap.of());
+
+    TrackedResource expected = resource.toBuilder().expiration(CREATION).build();
+    assertEquals(
+        Optional.of(expected),
+        janitorDao.updateResourceExpiration(resource.trackedResourceId(), CREATION));
+    assertEquals(
+        Optional.of(expected), janitorDao.retrieveTrackedResource(resource.trackedResourceId()));
+    assertEquals(
+        Optional.empty(),
+        janitorDao.updateResourceExpiration(
+            TrackedResourceId.create(UUID.randomUUID()), CREATION));
+  }
+
   @Test
   public void updateResourceState_unknownId() {
     assertEquals(
@@ -287,6 +399,527 @@ public class JanitorDaoTest extends BaseUnitTest {
     assertNotEquals(limit1.get(0), limit1Offset1.get(0));
   }
 
+  @Test
+  public void retrieveResourcesMatching_cloudResourceUidUsesHashIndex() {
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          // Many resources with distinct uids, rolled back at the end so that they do not affect
+          // other tests.
+          jdbcTemplate.update(
+              "INSERT INTO tracked_resource "
+                  + "(id, resource_uid, resource_type, creation, expiration, state) "
+                  + "SELECT gen_random_uuid(), "
+                  + "jsonb_build_object('googleBucketUid', jsonb_build_object('bucketName', i)), "
+                  + "'GOOGLE_BUCKET', now(), now(), 'DONE' "
+                  + "FROM generate_series(1, 100000) AS i",
+              new MapSqlParameterSource());
+          // A resource whose uid was written with different whitespace than JanitorDao writes.
+          CloudResourceUid uid =
+              new CloudResourceUid().googleBucketUid(new GoogleBucketUid().bucketName("spaced"));
+          jdbcTemplate.update(
+              "INSERT INTO tracked_resource "
+                  + "(id, resource_uid, resource_type, creation, expiration, state) "
+                  + "VALUES (gen_random_uuid(), :uid::jsonb, 'GOOGLE_BUCKET', now(), now(), "
+                  + "'DONE')",
+              new MapSqlParameterSource()
+                  .addValue("uid", "{ \"googleBucketUid\" : { \"bucketName\" : \"spaced\" } }"));
+          jdbcTemplate.update("ANALYZE tracked_resource", new MapSqlParameterSource());
+
+          String plan =
+              String.join(
+                  "\n",
+                  jdbcTemplate.queryForList(
+                      "EXPLAIN SELECT id FROM tracked_resource "
+                          + "WHERE resource_uid_hash = md5(:uid::jsonb::text)::uuid "
+                          + "AND resource_uid = :uid::jsonb",
+                      new MapSqlParameterSource().addValue("uid", JanitorDao.serialize(uid)),
+                      String.class));
+          assertThat(plan, Matchers.containsString("idx_tr_resource_uid_hash"));
+          assertThat(plan, Matchers.not(Matchers.containsString("Seq Scan")));
+
+          List<TrackedResource> matching =
+              janitorDao.retrieveResourcesMatching(
+                  TrackedResourceFilter.builder().cloudResourceUid(uid).build());
+          assertThat(matching, Matchers.hasSize(1));
+          assertEquals(uid, matching.get(0).cloudResourceUid());
+          status.setRollbackOnly();
+        });
+  }
+
+  @Test
+  public void retrieveResourcesAndLabels_pagesInCreationOrder() {
+    List<TrackedResourceAndLabels> resources = new ArrayList<>();
+    for (int i = 0; i < 7; ++i) {
+      // Some resources share a creation time, so that the id breaks the tie.
+      TrackedResource resource = newDefaultResource().creation(CREATION.plusSeconds(i % 3)).build();
+      ImmutableMap<String, String> labels = ImmutableMap.of("a", "x", "b", String.valueOf(i));
+      janitorDao.createResource(resource, labels);
+      resources.add(TrackedResourceAndLabels.create(resource, labels));
+    }
+    // Postgres orders uuids as unsigned bytes, like their lower case strings.
+    resources.sort(
+        Comparator.comparing((TrackedResourceAndLabels r) -> r.trackedResource().creation())
+            .thenComparing(r -> r.trackedResource().trackedResourceId().toString()));
+
+    List<TrackedResourceAndLabels> paged = new ArrayList<>();
+    Optional<TrackedResourceCursor> after = Optional.empty();
+    List<TrackedResourceAndLabels> page;
+    do {
+      page =
+          janitorDao.retrieveResourcesAndLabels(
+              TrackedResourceFilter.builder().limit(3).after(after).build());
+      // The limit counts resources, not labels.
+      assertThat(page.size(), Matchers.lessThanOrEqualTo(3));
+      paged.addAll(page);
+      if (!page.isEmpty()) {
+        after =
+            Optional.of(TrackedResourceCursor.after(page.get(page.size() - 1).trackedResource()));
+      }
+    } while (!page.isEmpty());
+    assertEquals(resources, paged);
+  }
+
+  @Test
+  public void streamResourcesAndLabels() {
+    List<TrackedResourceAndLabels> resources = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      TrackedResource resource = newDefaultResource().creation(CREATION.plusSeconds(i)).build();
+      // Some resources have several labels and some have none.
+      ImmutableMap<String, String> labels =
+          i % 2 == 0 ? ImmutableMap.of("a", "x", "b", String.valueOf(i)) : ImmutableMap.of();
+      janitorDao.createResource(resource, labels);
+      resources.add(TrackedResourceAndLabels.create(resource, labels));
+    }
+
+    // Fetch fewer rows at a time than there are, so that resources span fetches.
+    List<TrackedResourceAndLabels> streamed = new ArrayList<>();
+    transactionTemplate.executeWithoutResult(
+        status ->
+            janitorDao.streamResourcesAndLabels(
+                TrackedResourceFilter.builder().build(),
+                /* fetchSize= */ 2,
+                Duration.ofMinutes(1),
+                streamed::add));
+    assertEquals(resources, streamed);
+
+    List<TrackedResourceAndLabels> filtered = new ArrayList<>();
+    janitorDao.streamResourcesAndLabels(
+        TrackedResourceFilter.builder()
+            .cloudResourceUid(resources.get(2).trackedResource().cloudResourceUid())
+            .build(),
+        /* fetchSize= */ 2,
+        Duration.ofMinutes(1),
+        filtered::add);
+    assertEquals(List.of(resources.get(2)), filtered);
+  }
+
+  @Test
+  public void streamResourcesAndLabels_slowConsumerTimesOut() {
+    for (int i = 0; i < 5; ++i) {
+      janitorDao.createResource(
+          newDefaultResource().creation(CREATION.plusSeconds(i)).build(), DEFAULT_LABELS);
+    }
+
+    // The first resource takes longer to consume than the timeout, so the next fetch fails instead
+    // of the stream holding its transaction open.
+    List<TrackedResourceAndLabels> streamed = new ArrayList<>();
+    assertThrows(
+        RuntimeException.class,
+        () ->
+            transactionTemplate.executeWithoutResult(
+                status ->
+                    janitorDao.streamResourcesAndLabels(
+                        TrackedResourceFilter.builder().build(),
+                        /* fetchSize= */ 2,
+                        Duration.ofSeconds(1),
+                        resource -> {
+                          Uninterruptibles.sleepUninterruptibly(2, TimeUnit.SECONDS);
+                          streamed.add(resource);
+                        })));
+    assertThat(streamed.size(), Matchers.lessThan(5));
+  }
+
+  @Test
+  public void retrieveResourcesMatching_deepPageUsesCreationIdIndex() {
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          // Many resources with distinct creation times, rolled back at the end so that they do
+          // not affect other tests.
+          int resourceCount = 50000;
+          jdbcTemplate.update(
+              "INSERT INTO tracked_resource "
+                  + "(id, resource_uid, resource_type, creation, expiration, state) "
+                  + "SELECT gen_random_uuid(), "
+                  + "jsonb_build_object('googleBucketUid', jsonb_build_object('bucketName', i)), "
+                  + "'GOOGLE_BUCKET', now() + i * interval '1 millisecond', now(), 'DONE' "
+                  + "FROM generate_series(1, :count) AS i",
+              new MapSqlParameterSource().addValue("count", resourceCount));
+          jdbcTemplate.update("ANALYZE tracked_resource", new MapSqlParameterSource());
+
+          TrackedResourceFilter offsetPage =
+              TrackedResourceFilter.builder().limit(1).offset(resourceCount - 100).build();
+          TrackedResource deepResource = janitorDao.retrieveResourcesMatching(offsetPage).get(0);
+          TrackedResourceFilter deepPage =
+              TrackedResourceFilter.builder()
+                  .limit(50)
+                  .after(TrackedResourceCursor.after(deepResource))
+                  .build();
+
+          MapSqlParameterSource params = new MapSqlParameterSource();
+          String plan =
+              String.join(
+                  "\n",
+                  jdbcTemplate.queryForList(
+                      "EXPLAIN " + JanitorDao.resourcesMatchingSql(deepPage, params),
+                      params,
+                      String.class));
+          assertThat(plan, Matchers.containsString("idx_tr_creation_id"));
+          assertThat(plan, Matchers.not(Matchers.containsString("Sort")));
+          assertThat(plan, Matchers.not(Matchers.containsString("Seq Scan")));
+          assertThat(janitorDao.retrieveResourcesMatching(deepPage), Matchers.hasSize(50));
+          status.setRollbackOnly();
+        });
+  }
+
+  @Test
+  public void updateReadyResourcesToCleaning() {
+    TrackedResource readyResource1 = newDefaultResource().build();
+    TrackedResource readyResource2 = newDefaultResource().build();
+    TrackedResource notExpiredResource =
+        newDefaultResource().expiration(EXPIRATION.plusSeconds(10)).build();
+    TrackedResource errorResource =
+        newDefaultResource().trackedResourceState(TrackedResourceState.ERROR).build();
+    janitorDao.createResource(readyResource1, ImmutableMap.of());
+    janitorDao.createResource(readyResource2, ImmutableMap.of());
+    janitorDao.createResource(notExpiredResource, ImmutableMap.of());
+    janitorDao.createResource(errorResource, ImmutableMap.of());
+
+    ResourceKind kind = ResourceKind.create("", ResourceType.GOOGLE_PROJECT);
+    List<TrackedResource> claimed =
+        janitorDao.updateReadyResourcesToCleaning(EXPIRATION, NOT_AGED, kind, 1);
+    assertThat(claimed, Matchers.hasSize(1));
+    claimed.addAll(janitorDao.updateReadyResourcesToCleaning(EXPIRATION, NOT_AGED, kind, 10));
+    assertThat(
+        claimed,
+        Matchers.containsInAnyOrder(
+            readyResource1.toBuilder().trackedResourceState(TrackedResourceState.CLEANING).build(),
+            readyResource2.toBuilder()
+                .trackedResourceState(TrackedResourceState.CLEANING)
+                .build()));
+    assertThat(
+        janitorDao.updateReadyResourcesToCleaning(EXPIRATION, NOT_AGED, kind, 10),
+        Matchers.empty());
+
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                claimed.get(0), CleanupFlight.create("foo", CleanupFlightState.INITIATING)),
+            TrackedResourceAndFlight.create(
+                claimed.get(1), CleanupFlight.create("bar", CleanupFlightState.INITIATING))),
+        "instance");
+    assertThat(
+        janitorDao.retrieveResourcesWith(CleanupFlightState.INITIATING, 10),
+        Matchers.containsInAnyOrder(
+            TrackedResourceAndFlight.create(
+                claimed.get(0), CleanupFlight.create("foo", CleanupFlightState.INITIATING)),
+            TrackedResourceAndFlight.create(
+                claimed.get(1), CleanupFlight.create("bar", CleanupFlightState.INITIATING))));
+  }
+
+  @Test
+  public void retrieveReadyResourcesExpiringBetween() {
+    TrackedResource expired = newDefaultResource().expiration(EXPIRATION).build();
+    TrackedResource first = newDefaultResource().expiration(EXPIRATION.plusSeconds(5)).build();
+    TrackedResource second = newDefaultResource().expiration(EXPIRATION.plusSeconds(10)).build();
+    TrackedResource later = newDefaultResource().expiration(EXPIRATION.plusSeconds(20)).build();
+    TrackedResource abandoned =
+        newDefaultResource()
+            .expiration(EXPIRATION.plusSeconds(5))
+            .trackedResourceState(TrackedResourceState.ABANDONED)
+            .build();
+    for (TrackedResource resource : List.of(expired, first, second, later, abandoned)) {
+      janitorDao.createResource(resource, ImmutableMap.of());
+    }
+
+    assertThat(
+        janitorDao.retrieveReadyResourcesExpiringBetween(
+            EXPIRATION, EXPIRATION.plusSeconds(10), 10),
+        Matchers.contains(first, second));
+    assertThat(
+        janitorDao.retrieveReadyResourcesExpiringBetween(
+            EXPIRATION, EXPIRATION.plusSeconds(10), 1),
+        Matchers.contains(first));
+    assertEquals(
+        Optional.of(EXPIRATION.plusSeconds(20)),
+        janitorDao.retrieveEarliestReadyExpiration(EXPIRATION.plusSeconds(10)));
+    assertEquals(
+        Optional.empty(), janitorDao.retrieveEarliestReadyExpiration(EXPIRATION.plusSeconds(20)));
+  }
+
+  @Test
+  public void updateReadyResourcesToCleaning_byIds() {
+    TrackedResource expired = newDefaultResource().expiration(EXPIRATION).build();
+    TrackedResource notExpired =
+        newDefaultResource().expiration(EXPIRATION.plusSeconds(10)).build();
+    TrackedResource abandoned =
+        newDefaultResource()
+            .expiration(EXPIRATION)
+            .trackedResourceState(TrackedResourceState.ABANDONED)
+            .build();
+    TrackedResource unlisted = newDefaultResource().expiration(EXPIRATION).build();
+    for (TrackedResource resource : List.of(expired, notExpired, abandoned, unlisted)) {
+      janitorDao.createResource(resource, ImmutableMap.of());
+    }
+
+    assertThat(
+        janitorDao.updateReadyResourcesToCleaning(
+            List.of(
+                expired.trackedResourceId(),
+                notExpired.trackedResourceId(),
+                abandoned.trackedResourceId()),
+            EXPIRATION),
+        Matchers.contains(
+            expired.toBuilder().trackedResourceState(TrackedResourceState.CLEANING).build()));
+    assertEquals(
+        TrackedResourceState.READY,
+        janitorDao
+            .retrieveTrackedResource(notExpired.trackedResourceId())
+            .get()
+            .trackedResourceState());
+    assertEquals(
+        TrackedResourceState.READY,
+        janitorDao
+            .retrieveTrackedResource(unlisted.trackedResourceId())
+            .get()
+            .trackedResourceState());
+    assertThat(janitorDao.updateReadyResourcesToCleaning(List.of(), EXPIRATION), Matchers.empty());
+  }
+
+  @Test
+  public void updateReadyResourcesToCleaning_byKind() {
+    TrackedResource fooResource = newDefaultResource().build();
+    TrackedResource laterFooResource =
+        newDefaultResource().expiration(EXPIRATION.minusSeconds(10)).build();
+    TrackedResource barResource = newDefaultResource().build();
+    TrackedResource noClientResource =
+        newDefaultResource().expiration(EXPIRATION.minusSeconds(20)).build();
+    TrackedResource cleaningResource =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    janitorDao.createResource(fooResource, ImmutableMap.of("client", "foo"));
+    janitorDao.createResource(laterFooResource, ImmutableMap.of("client", "foo"));
+    janitorDao.createResource(barResource, ImmutableMap.of("client", "bar"));
+    janitorDao.createResource(noClientResource, ImmutableMap.of());
+    janitorDao.createResource(cleaningResource, ImmutableMap.of("client", "foo"));
+
+    ResourceKind fooKind = ResourceKind.create("foo", ResourceType.GOOGLE_PROJECT);
+    ResourceKind barKind = ResourceKind.create("bar", ResourceType.GOOGLE_PROJECT);
+    ResourceKind noClientKind = ResourceKind.create("", ResourceType.GOOGLE_PROJECT);
+    assertThat(
+        janitorDao.retrieveReadyBacklog(EXPIRATION),
+        Matchers.containsInAnyOrder(
+            ResourceKindBacklog.create(fooKind, 2, EXPIRATION.minusSeconds(10)),
+            ResourceKindBacklog.create(barKind, 1, EXPIRATION),
+            ResourceKindBacklog.create(noClientKind, 1, EXPIRATION.minusSeconds(20))));
+    assertEquals(Map.of(fooKind, 1), janitorDao.retrieveCleaningCounts());
+
+    assertThat(
+        janitorDao.updateReadyResourcesToCleaning(EXPIRATION, NOT_AGED, fooKind, 1),
+        Matchers.contains(
+            laterFooResource.toBuilder()
+                .trackedResourceState(TrackedResourceState.CLEANING)
+                .build()));
+    assertThat(
+        janitorDao.updateReadyResourcesToCleaning(EXPIRATION, NOT_AGED, noClientKind, 10),
+        Matchers.contains(
+            noClientResource.toBuilder()
+                .trackedResourceState(TrackedResourceState.CLEANING)
+                .build()));
+    assertEquals(Map.of(fooKind, 2, noClientKind, 1), janitorDao.retrieveCleaningCounts());
+    assertThat(
+        janitorDao.retrieveReadyBacklog(EXPIRATION),
+        Matchers.containsInAnyOrder(
+            ResourceKindBacklog.create(fooKind, 1, EXPIRATION),
+            ResourceKindBacklog.create(barKind, 1, EXPIRATION)));
+  }
+
+  @Test
+  public void updateReadyResourcesToCleaning_byKindPrioritizes() {
+    TrackedResource oldResource =
+        newDefaultResource().expiration(EXPIRATION.minus(2, ChronoUnit.HOURS)).build();
+    TrackedResource priorityResource =
+        newDefaultResource().expiration(EXPIRATION.minusSeconds(10)).priority(1).build();
+    TrackedResource recentResource =
+        newDefaultResource().expiration(EXPIRATION.minusSeconds(20)).build();
+    janitorDao.createResource(oldResource, ImmutableMap.of("client", "foo"));
+    janitorDao.createResource(priorityResource, ImmutableMap.of("client", "foo"));
+    janitorDao.createResource(recentResource, ImmutableMap.of("client", "foo"));
+
+    ResourceKind fooKind = ResourceKind.create("foo", ResourceType.GOOGLE_PROJECT);
+    assertThat(
+        janitorDao.retrieveReadyBacklog(EXPIRATION),
+        Matchers.contains(ResourceKindBacklog.create(fooKind, 3, oldResource.expiration(), 1)));
+    // The priority resource goes first, then the others earliest expiration first.
+    assertThat(
+        janitorDao.updateReadyResourcesToCleaning(EXPIRATION, NOT_AGED, fooKind, 2),
+        Matchers.containsInAnyOrder(
+            priorityResource.toBuilder()
+                .trackedResourceState(TrackedResourceState.CLEANING)
+                .build(),
+            oldResource.toBuilder().trackedResourceState(TrackedResourceState.CLEANING).build()));
+  }
+
+  @Test
+  public void updateReadyResourcesToCleaning_byKindAgesLowPriority() {
+    Duration maxWait = Duration.ofMinutes(10);
+    TrackedResource lowPriorityResource = newDefaultResource().expiration(EXPIRATION).build();
+    janitorDao.createResource(lowPriorityResource, ImmutableMap.of("client", "foo"));
+
+    ResourceKind fooKind = ResourceKind.create("foo", ResourceType.GOOGLE_PROJECT);
+    // Every minute, another high priority resource expires and one resource is claimed.
+    for (int minute = 0; minute <= maxWait.toMinutes(); ++minute) {
+      Instant now = EXPIRATION.plus(Duration.ofMinutes(minute));
+      janitorDao.createResource(
+          newDefaultResource().expiration(now).priority(TrackedResource.MAX_PRIORITY).build(),
+          ImmutableMap.of("client", "foo"));
+      List<TrackedResource> claimed =
+          janitorDao.updateReadyResourcesToCleaning(now, now.minus(maxWait), fooKind, 1);
+      assertThat(claimed, Matchers.hasSize(1));
+      // The low priority resource only goes ahead once it has waited for the max wait.
+      assertEquals(
+          minute == maxWait.toMinutes(),
+          claimed.get(0).trackedResourceId().equals(lowPriorityResource.trackedResourceId()));
+    }
+  }
+
+  @Test
+  public void scheduleErrorRetries_backsOffAndQuarantines() {
+    TrackedResource resource =
+        newDefaultResource().trackedResourceState(TrackedResourceState.ERROR).build();
+    TrackedResourceId id = resource.trackedResourceId();
+    janitorDao.createResource(resource, DEFAULT_LABELS);
+    TrackedResource readyResource =
+        resource.toBuilder().trackedResourceState(TrackedResourceState.READY).build();
+    Duration initialBackoff = Duration.ofMinutes(1);
+    Duration maxBackoff = Duration.ofSeconds(90);
+
+    assertEquals(
+        Set.of(id),
+        janitorDao.scheduleErrorRetries(List.of(id), CREATION, 2, initialBackoff, maxBackoff));
+    assertThat(
+        janitorDao.updateErrorResourcesToReady(CREATION.plusSeconds(59), 10), Matchers.empty());
+    assertThat(
+        janitorDao.updateErrorResourcesToReady(CREATION.plusSeconds(60), 10),
+        Matchers.contains(readyResource));
+
+    // The second retry backs off twice as long, but no more than the max backoff.
+    janitorDao.updateResourceState(id, TrackedResourceState.ERROR);
+    assertEquals(
+        Set.of(id),
+        janitorDao.scheduleErrorRetries(List.of(id), CREATION, 2, initialBackoff, maxBackoff));
+    assertThat(
+        janitorDao.updateErrorResourcesToReady(CREATION.plusSeconds(89), 10), Matchers.empty());
+    assertThat(
+        janitorDao.updateErrorResourcesToReady(CREATION.plusSeconds(90), 10),
+        Matchers.contains(readyResource));
+
+    // Out of retries, so the resource stays in ERROR until its retries are reset.
+    janitorDao.updateResourceState(id, TrackedResourceState.ERROR);
+    assertThat(
+        janitorDao.scheduleErrorRetries(List.of(id), CREATION, 2, initialBackoff, maxBackoff),
+        Matchers.empty());
+    assertThat(
+        janitorDao.updateErrorResourcesToReady(CREATION.plus(1, ChronoUnit.DAYS), 10),
+        Matchers.empty());
+    janitorDao.resetErrorRetries(id);
+    assertEquals(
+        Set.of(id),
+        janitorDao.scheduleErrorRetries(List.of(id), CREATION, 2, initialBackoff, maxBackoff));
+  }
+
+  @Test
+  public void updateReadyResourcesToCleaning_byKindUsesReadyKindPriorityIndex() {
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          // Many resources of which only a few are READY, rolled back at the end so that they do
+          // not affect other tests.
+          jdbcTemplate.update(
+              "INSERT INTO tracked_resource "
+                  + "(id, resource_uid, resource_type, creation, expiration, state, priority) "
+                  + "SELECT gen_random_uuid(), "
+                  + "jsonb_build_object('googleBucketUid', jsonb_build_object('bucketName', i)), "
+                  + "'GOOGLE_BUCKET', now(), now() - i * interval '1 second', "
+                  + "CASE WHEN i % 100 = 0 THEN 'READY' ELSE 'DONE' END, i % 7 "
+                  + "FROM generate_series(1, 100000) AS i",
+              new MapSqlParameterSource());
+          jdbcTemplate.update("ANALYZE tracked_resource", new MapSqlParameterSource());
+
+          Instant expiredBy = JanitorDao.currentInstant();
+          ResourceKind kind = ResourceKind.create("", ResourceType.GOOGLE_BUCKET);
+          String plan =
+              String.join(
+                  "\n",
+                  jdbcTemplate.queryForList(
+                      "EXPLAIN "
+                          + JanitorDao.claimReadyResourcesSql(JanitorDao.PRIORITY_CLAIM_ORDER),
+                      new MapSqlParameterSource()
+                          .addValue("cleaning_state", TrackedResourceState.CLEANING.toString())
+                          .addValue("expired_by", expiredBy.atOffset(ZoneOffset.UTC))
+                          .addValue("resource_type", kind.resourceType().toString())
+                          .addValue("client", kind.client())
+                          .addValue("limit", 100),
+                      String.class));
+          assertThat(plan, Matchers.containsString("idx_tr_ready_kind_priority"));
+          assertThat(plan, Matchers.not(Matchers.containsString("Seq Scan")));
+
+          // The highest priority resources are claimed first, then the earliest expired ones.
+          // RETURNING does not keep the order of the subquery, so sort the claimed resources
+          // before comparing.
+          List<Instant> first =
+              jdbcTemplate
+                  .queryForList(
+                      "SELECT expiration FROM tracked_resource WHERE state = 'READY' "
+                          + "AND resource_type = 'GOOGLE_BUCKET' AND client = '' "
+                          + "AND expiration <= :expired_by "
+                          + "ORDER BY priority DESC, expiration LIMIT 2",
+                      new MapSqlParameterSource()
+                          .addValue("expired_by", expiredBy.atOffset(ZoneOffset.UTC)),
+                      OffsetDateTime.class)
+                  .stream()
+                  .map(OffsetDateTime::toInstant)
+                  .sorted()
+                  .toList();
+          // No resource expired before the epoch, so none goes ahead of priority.
+          List<Instant> claimed =
+              janitorDao.updateReadyResourcesToCleaning(expiredBy, Instant.EPOCH, kind, 2).stream()
+                  .map(TrackedResource::expiration)
+                  .sorted()
+                  .toList();
+          assertEquals(first, claimed);
+          status.setRollbackOnly();
+        });
+  }
+
+  @Test
+  public void retrieveEarliestReadyExpiration() {
+    // Use an expiration earlier than any other resource's.
+    Instant earliest = Instant.EPOCH;
+    TrackedResource earliestResource = newDefaultResource().expiration(earliest).build();
+    TrackedResource errorResource =
+        newDefaultResource()
+            .trackedResourceState(TrackedResourceState.ERROR)
+            .expiration(earliest.minusSeconds(10))
+            .build();
+    janitorDao.createResource(earliestResource, ImmutableMap.of());
+    janitorDao.createResource(errorResource, ImmutableMap.of());
+
+    assertEquals(Optional.of(earliest), janitorDao.retrieveEarliestReadyExpiration());
+
+    janitorDao.updateResourceState(earliestResource.trackedResourceId(), TrackedResourceState.DONE);
+    assertThat(
+        janitorDao.retrieveEarliestReadyExpiration(),
+        Matchers.not(Matchers.equalTo(Optional.of(earliest))));
+  }
+
   @Test
   public void cleanupFlight() {
     TrackedResource resource = newDefaultResource().build();
@@ -311,6 +944,228 @@ public class JanitorDaoTest extends BaseUnitTest {
         Matchers.contains(TrackedResourceAndFlight.create(resource, expectedFlight)));
     assertThat(
         janitorDao.retrieveResourcesWith(CleanupFlightState.INITIATING, 10), Matchers.empty());
+    assertEquals(
+        1,
+        janitorDao.countFlightsWith(
+            ImmutableSet.of(CleanupFlightState.INITIATING, CleanupFlightState.IN_FLIGHT)));
+    assertEquals(0, janitorDao.countFlightsWith(ImmutableSet.of(CleanupFlightState.FINISHING)));
+  }
+
+  @Test
+  public void countFlightsWith_byInstance() {
+    TrackedResource resource1 = newDefaultResource().build();
+    TrackedResource resource2 = newDefaultResource().build();
+    TrackedResource resource3 = newDefaultResource().build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createResource(resource3, ImmutableMap.of());
+    String flightId1 = UUID.randomUUID().toString();
+    String instance1 = UUID.randomUUID().toString();
+    String instance2 = UUID.randomUUID().toString();
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                resource1, CleanupFlight.create(flightId1, CleanupFlightState.INITIATING)),
+            TrackedResourceAndFlight.create(
+                resource2,
+                CleanupFlight.create(UUID.randomUUID().toString(), CleanupFlightState.IN_FLIGHT))),
+        instance1);
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                resource3,
+                CleanupFlight.create(UUID.randomUUID().toString(), CleanupFlightState.IN_FLIGHT))),
+        instance2);
+    Set<CleanupFlightState> inFlightStates =
+        ImmutableSet.of(CleanupFlightState.INITIATING, CleanupFlightState.IN_FLIGHT);
+
+    assertEquals(2, janitorDao.countFlightsWith(inFlightStates, instance1));
+    assertEquals(1, janitorDao.countFlightsWith(inFlightStates, instance2));
+    assertEquals(
+        1,
+        janitorDao.countFlightsWith(ImmutableSet.of(CleanupFlightState.INITIATING), instance1));
+
+    janitorDao.updateFlightInstance(flightId1, instance2);
+    assertEquals(1, janitorDao.countFlightsWith(inFlightStates, instance1));
+    assertEquals(2, janitorDao.countFlightsWith(inFlightStates, instance2));
+  }
+
+  @Test
+  public void retrieveFlightTypeCounts_byInstance() {
+    TrackedResource resource1 = newDefaultResource().build();
+    TrackedResource resource2 = newDefaultResource().build();
+    TrackedResource resource3 = newDefaultResource().build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createResource(resource3, ImmutableMap.of());
+    String instance1 = UUID.randomUUID().toString();
+    String instance2 = UUID.randomUUID().toString();
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                resource1,
+                CleanupFlight.create(UUID.randomUUID().toString(), CleanupFlightState.INITIATING)),
+            TrackedResourceAndFlight.create(
+                resource2,
+                CleanupFlight.create(UUID.randomUUID().toString(), CleanupFlightState.FINISHING))),
+        instance1);
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                resource3,
+                CleanupFlight.create(UUID.randomUUID().toString(), CleanupFlightState.IN_FLIGHT))),
+        instance2);
+    Set<CleanupFlightState> inFlightStates =
+        ImmutableSet.of(CleanupFlightState.INITIATING, CleanupFlightState.IN_FLIGHT);
+
+    assertEquals(
+        Map.of(ResourceType.GOOGLE_PROJECT, 1),
+        janitorDao.retrieveFlightTypeCounts(inFlightStates, instance1));
+    assertEquals(
+        Map.of(ResourceType.GOOGLE_PROJECT, 1),
+        janitorDao.retrieveFlightTypeCounts(inFlightStates, instance2));
+    assertEquals(
+        Map.of(),
+        janitorDao.retrieveFlightTypeCounts(inFlightStates, UUID.randomUUID().toString()));
+  }
+
+  @Test
+  public void lockFlights_updateFlightStates() {
+    TrackedResource resource1 = newDefaultResource().build();
+    TrackedResource resource2 = newDefaultResource().build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createCleanupFlight(
+        resource1.trackedResourceId(), CleanupFlight.create("a", CleanupFlightState.FINISHING));
+    janitorDao.createCleanupFlight(
+        resource2.trackedResourceId(), CleanupFlight.create("b", CleanupFlightState.FINISHING));
+
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          assertEquals(
+              Map.of("a", CleanupFlightState.FINISHING, "b", CleanupFlightState.FINISHING),
+              janitorDao.lockFlights(List.of("a", "b", "unknown")));
+          janitorDao.updateFlightStates(
+              Map.of("a", CleanupFlightState.FINISHED, "b", CleanupFlightState.LOST));
+        });
+
+    assertEquals(Optional.of(CleanupFlightState.FINISHED), janitorDao.retrieveFlightState("a"));
+    assertEquals(Optional.of(CleanupFlightState.LOST), janitorDao.retrieveFlightState("b"));
+  }
+
+  @Test
+  public void retrieveInitiatingFlights() {
+    TrackedResource resource1 = newDefaultResource().build();
+    TrackedResource resource2 = newDefaultResource().build();
+    TrackedResource resource3 = newDefaultResource().build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createResource(resource3, ImmutableMap.of());
+    CleanupFlight flight1 = CleanupFlight.create("a", CleanupFlightState.INITIATING);
+    CleanupFlight flight2 = CleanupFlight.create("b", CleanupFlightState.INITIATING);
+    CleanupFlight flight3 = CleanupFlight.create("c", CleanupFlightState.IN_FLIGHT);
+    janitorDao.createCleanupFlight(resource1.trackedResourceId(), flight1);
+    janitorDao.createCleanupFlight(resource2.trackedResourceId(), flight2);
+    janitorDao.createCleanupFlight(resource3.trackedResourceId(), flight3);
+    Instant createdBy = JanitorDao.currentInstant();
+
+    List<InitiatingFlight> firstPage = janitorDao.retrieveInitiatingFlights(createdBy, "", 1);
+    assertThat(firstPage, Matchers.hasSize(1));
+    assertEquals(
+        TrackedResourceAndFlight.create(resource1, flight1), firstPage.get(0).resourceAndFlight());
+    assertFalse(firstPage.get(0).creation().isAfter(createdBy));
+
+    List<InitiatingFlight> secondPage = janitorDao.retrieveInitiatingFlights(createdBy, "a", 10);
+    assertThat(secondPage, Matchers.hasSize(1));
+    assertEquals(
+        TrackedResourceAndFlight.create(resource2, flight2), secondPage.get(0).resourceAndFlight());
+
+    assertThat(janitorDao.retrieveInitiatingFlights(createdBy, "b", 10), Matchers.empty());
+    // Flights created after createdBy are excluded.
+    assertThat(
+        janitorDao.retrieveInitiatingFlights(CREATION.minusSeconds(60), "", 10), Matchers.empty());
+  }
+
+  @Test
+  public void retrieveInitiatingFlights_byInstance() {
+    TrackedResource resource1 = newDefaultResource().build();
+    TrackedResource resource2 = newDefaultResource().build();
+    TrackedResource resource3 = newDefaultResource().build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createResource(resource3, ImmutableMap.of());
+    String instance1 = UUID.randomUUID().toString();
+    String instance2 = UUID.randomUUID().toString();
+    CleanupFlight flight1 = CleanupFlight.create("a", CleanupFlightState.INITIATING);
+    CleanupFlight flight2 = CleanupFlight.create("b", CleanupFlightState.INITIATING);
+    CleanupFlight legacyFlight = CleanupFlight.create("c", CleanupFlightState.INITIATING);
+    janitorDao.createCleanupFlights(
+        List.of(TrackedResourceAndFlight.create(resource1, flight1)), instance1);
+    janitorDao.createCleanupFlights(
+        List.of(TrackedResourceAndFlight.create(resource2, flight2)), instance2);
+    // A flight created before flights recorded their instance.
+    janitorDao.createCleanupFlight(resource3.trackedResourceId(), legacyFlight);
+    Instant createdBy = JanitorDao.currentInstant();
+
+    assertEquals(
+        List.of(
+            TrackedResourceAndFlight.create(resource1, flight1),
+            TrackedResourceAndFlight.create(resource3, legacyFlight)),
+        janitorDao.retrieveInitiatingFlights(Set.of(instance1), createdBy, "", 10).stream()
+            .map(InitiatingFlight::resourceAndFlight)
+            .toList());
+    assertEquals(
+        List.of(TrackedResourceAndFlight.create(resource3, legacyFlight)),
+        janitorDao.retrieveInitiatingFlights(Set.of(), createdBy, "", 10).stream()
+            .map(InitiatingFlight::resourceAndFlight)
+            .toList());
+  }
+
+  @Test
+  public void releaseInitiatingFlights() {
+    TrackedResource resource1 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    TrackedResource resource2 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    TrackedResource resource3 =
+        newDefaultResource().trackedResourceState(TrackedResourceState.CLEANING).build();
+    janitorDao.createResource(resource3, ImmutableMap.of());
+    String instance = UUID.randomUUID().toString();
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                resource1, CleanupFlight.create("a", CleanupFlightState.INITIATING)),
+            TrackedResourceAndFlight.create(
+                resource2, CleanupFlight.create("b", CleanupFlightState.IN_FLIGHT))),
+        instance);
+    // Another instance took this flight over to recover it.
+    janitorDao.createCleanupFlights(
+        List.of(
+            TrackedResourceAndFlight.create(
+                resource3, CleanupFlight.create("c", CleanupFlightState.INITIATING))),
+        UUID.randomUUID().toString());
+
+    // Only the instance's own flight that was never submitted is released.
+    assertEquals(
+        Set.of(resource1.trackedResourceId()),
+        janitorDao.releaseInitiatingFlights(List.of("a", "b", "c", "unknown"), instance));
+    assertEquals(
+        TrackedResourceState.READY,
+        janitorDao
+            .retrieveTrackedResource(resource1.trackedResourceId())
+            .get()
+            .trackedResourceState());
+    assertThat(janitorDao.retrieveFlights(resource1.trackedResourceId()), Matchers.empty());
+    assertEquals(
+        TrackedResourceState.CLEANING,
+        janitorDao
+            .retrieveTrackedResource(resource2.trackedResourceId())
+            .get()
+            .trackedResourceState());
+    assertEquals(Optional.of(CleanupFlightState.IN_FLIGHT), janitorDao.retrieveFlightState("b"));
+    assertEquals(Optional.of(CleanupFlightState.INITIATING), janitorDao.retrieveFlightState("c"));
   }
 
   @Test
@@ -325,9 +1180,18 @@ public class JanitorDaoTest extends BaseUnitTest {
     CloudResourceUid resourceUid2 =
         new CloudResourceUid().googleProjectUid(new GoogleProjectUid().projectId("project2"));
 
+    // Only one resource per uid may be active, i.e. not DONE or DUPLICATED.
     TrackedResource resource1 = newDefaultResource().cloudResourceUid(resourceUid1).build();
-    TrackedResource resource2 = newDefaultResource().cloudResourceUid(resourceUid1).build();
-    TrackedResource resource3 = newDefaultResource().cloudResourceUid(resourceUid1).build();
+    TrackedResource resource2 =
+        newDefaultResource()
+            .cloudResourceUid(resourceUid1)
+            .trackedResourceState(TrackedResourceState.DUPLICATED)
+            .build();
+    TrackedResource resource3 =
+        newDefaultResource()
+            .cloudResourceUid(resourceUid1)
+            .trackedResourceState(TrackedResourceState.DONE)
+            .build();
     ImmutableMap<String, String> labels1 = ImmutableMap.of("a", "x", "b", "y");
     ImmutableMap<String, String> labels2 = ImmutableMap.of("a", "x");
     ImmutableMap<String, String> labels3 = ImmutableMap.of();
@@ -373,6 +1237,10 @@ public class JanitorDaoTest extends BaseUnitTest {
     assertEquals(
         Optional.of(TrackedResourceAndFlight.create(resource, cleanupFlight)),
         janitorDao.retrieveResourceAndFlight(flightId));
+    assertThat(
+        janitorDao.retrieveResourcesAndFlights(List.of(flightId, "unknown-flight-id")),
+        Matchers.contains(TrackedResourceAndFlight.create(resource, cleanupFlight)));
+    assertThat(janitorDao.retrieveResourcesAndFlights(List.of()), Matchers.empty());
   }
 
   @Test
@@ -380,6 +1248,67 @@ public class JanitorDaoTest extends BaseUnitTest {
     assertEquals(Optional.empty(), janitorDao.retrieveResourceAndFlight("unknown-flight-id"));
   }
 
+  @Test
+  public void schedulerLease() {
+    String leaseName = "lease";
+    Duration leaseDuration = Duration.ofSeconds(10);
+    assertEquals(Optional.empty(), janitorDao.retrieveSchedulerLease(leaseName));
+
+    Optional<SchedulerLease> lease =
+        janitorDao.acquireSchedulerLease(leaseName, "foo", leaseDuration);
+    assertTrue(lease.isPresent());
+    assertEquals("foo", lease.get().holder());
+    assertEquals(
+        leaseDuration, Duration.between(lease.get().heartbeat(), lease.get().expiration()));
+    assertEquals(lease, janitorDao.retrieveSchedulerLease(leaseName));
+    // The lease is held by foo until it expires.
+    assertEquals(
+        Optional.empty(), janitorDao.acquireSchedulerLease(leaseName, "bar", leaseDuration));
+    // The holder may renew the lease, here so that it expires right away.
+    assertTrue(janitorDao.acquireSchedulerLease(leaseName, "foo", Duration.ZERO).isPresent());
+    // Once expired, someone else may acquire the lease.
+    assertTrue(janitorDao.acquireSchedulerLease(leaseName, "bar", leaseDuration).isPresent());
+    assertEquals("bar", janitorDao.retrieveSchedulerLease(leaseName).get().holder());
+
+    // Only the holder may release the lease.
+    assertFalse(janitorDao.releaseSchedulerLease(leaseName, "foo"));
+    assertTrue(janitorDao.releaseSchedulerLease(leaseName, "bar"));
+    assertTrue(janitorDao.acquireSchedulerLease(leaseName, "foo", leaseDuration).isPresent());
+  }
+
+  @Test
+  public void watermark() {
+    String name = "watermark";
+    Instant watermark = Instant.EPOCH.plusSeconds(10);
+    assertEquals(Optional.empty(), janitorDao.retrieveWatermark(name));
+
+    janitorDao.advanceWatermark(name, watermark);
+    assertEquals(Optional.of(watermark), janitorDao.retrieveWatermark(name));
+    // The watermark never moves backwards.
+    janitorDao.advanceWatermark(name, watermark.minusSeconds(1));
+    assertEquals(Optional.of(watermark), janitorDao.retrieveWatermark(name));
+    janitorDao.advanceWatermark(name, watermark.plusSeconds(1));
+    assertEquals(Optional.of(watermark.plusSeconds(1)), janitorDao.retrieveWatermark(name));
+  }
+
+  @Test
+  public void watermarksByPrefix() {
+    Instant watermark = Instant.EPOCH.plusSeconds(10);
+    janitorDao.advanceWatermark("started/foo", watermark);
+    janitorDao.advanceWatermark("started/bar", watermark.plusSeconds(1));
+    janitorDao.advanceWatermark("drained/foo", watermark);
+
+    assertEquals(
+        Map.of("started/foo", watermark, "started/bar", watermark.plusSeconds(1)),
+        janitorDao.retrieveWatermarks("started/"));
+
+    janitorDao.deleteWatermarks(List.of("started/foo", "drained/foo"));
+    assertEquals(
+        Map.of("started/bar", watermark.plusSeconds(1)), janitorDao.retrieveWatermarks("started/"));
+    assertEquals(Map.of(), janitorDao.retrieveWatermarks("drained/"));
+    janitorDao.deleteWatermarks(List.of());
+  }
+
   @Test
   public void retrieveResourceCounts() {
     janitorDao.createResource(
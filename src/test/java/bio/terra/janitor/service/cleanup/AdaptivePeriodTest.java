@@ -0,0 +1,40 @@
+package bio.terra.janitor.service.cleanup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bio.terra.janitor.common.BaseUnitTest;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class AdaptivePeriodTest extends BaseUnitTest {
+  @Test
+  public void update_staysWithinBounds() {
+    AdaptivePeriod period =
+        new AdaptivePeriod(Duration.ofMinutes(4), Duration.ofMinutes(1), Duration.ofMinutes(10));
+
+    assertEquals(Duration.ofMinutes(4), period.update(AdaptivePeriod.Load.NORMAL));
+    assertEquals(Duration.ofMinutes(8), period.update(AdaptivePeriod.Load.IDLE));
+    assertEquals(Duration.ofMinutes(10), period.update(AdaptivePeriod.Load.IDLE));
+    assertEquals(Duration.ofMinutes(5), period.update(AdaptivePeriod.Load.SATURATED));
+    assertEquals(Duration.ofSeconds(150), period.update(AdaptivePeriod.Load.SATURATED));
+    assertEquals(Duration.ofSeconds(75), period.update(AdaptivePeriod.Load.SATURATED));
+    assertEquals(Duration.ofMinutes(1), period.update(AdaptivePeriod.Load.SATURATED));
+    assertEquals(Duration.ofMinutes(1), period.get());
+  }
+
+  @Test
+  public void boundsWidenedToInitialPeriod() {
+    AdaptivePeriod period =
+        new AdaptivePeriod(Duration.ofSeconds(2), Duration.ofMinutes(1), Duration.ofMinutes(10));
+
+    assertEquals(Duration.ofSeconds(2), period.update(AdaptivePeriod.Load.SATURATED));
+    assertEquals(Duration.ofSeconds(4), period.update(AdaptivePeriod.Load.IDLE));
+  }
+
+  @Test
+  public void loadOf() {
+    assertEquals(AdaptivePeriod.Load.IDLE, AdaptivePeriod.loadOf(0, 10));
+    assertEquals(AdaptivePeriod.Load.NORMAL, AdaptivePeriod.loadOf(5, 10));
+    assertEquals(AdaptivePeriod.Load.SATURATED, AdaptivePeriod.loadOf(10, 10));
+  }
+}
@@ -5,12 +5,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import bio.terra.janitor.app.configuration.PrimaryConfiguration;
 import bio.terra.janitor.common.BaseUnitTest;
 import bio.terra.janitor.db.CleanupFlight;
 import bio.terra.janitor.db.CleanupFlightState;
 import bio.terra.janitor.db.JanitorDao;
 import bio.terra.janitor.db.ResourceMetadata;
+import bio.terra.janitor.db.ResourceType;
 import bio.terra.janitor.db.TrackedResource;
+import bio.terra.janitor.db.TrackedResourceAndFlight;
 import bio.terra.janitor.db.TrackedResourceId;
 import bio.terra.janitor.db.TrackedResourceState;
 import bio.terra.janitor.generated.model.CloudResourceUid;
@@ -24,13 +27,22 @@ import bio.terra.janitor.service.stairway.StairwayComponent;
 import bio.terra.stairway.Flight;
 import bio.terra.stairway.FlightMap;
 import bio.terra.stairway.exception.DatabaseOperationException;
-import bio.terra.stairway.exception.FlightNotFoundException;
 import com.google.common.collect.ImmutableMap;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
@@ -48,6 +60,7 @@ import org.springframework.transaction.support.TransactionTemplate;
 public class FlightManagerTest extends BaseUnitTest {
   private static final Instant CREATION = Instant.EPOCH;
   private static final Instant EXPIRATION = CREATION.plusSeconds(60);
+  private static final Duration PIPELINE_TIMEOUT = Duration.ofSeconds(10);
 
   @Autowired StairwayComponent stairwayComponent;
   @Autowired JanitorDao janitorDao;
@@ -55,12 +68,24 @@ public class FlightManagerTest extends BaseUnitTest {
   @MockitoBean private MetricsHelper mockMetricsHelper;
 
   private FlightManager createFlightManager(FlightSubmissionFactory submissionFactory) {
+    PrimaryConfiguration primaryConfiguration = new PrimaryConfiguration();
+    primaryConfiguration.setResourceTypeBulkheadsEnabled(false);
+    return createFlightManager(submissionFactory, new ResourceTypeBulkheads(primaryConfiguration));
+  }
+
+  private FlightManager createFlightManager(
+      FlightSubmissionFactory submissionFactory, ResourceTypeBulkheads bulkheads) {
     return new FlightManager(
         stairwayComponent.get(),
         janitorDao,
         transactionTemplate,
         submissionFactory,
-        mockMetricsHelper);
+        mockMetricsHelper,
+        new WeightedFairScheduler(List.of()),
+        bulkheads,
+        new ErrorRetryPolicy(new PrimaryConfiguration()),
+        new PrimaryConfiguration().getPriorityMaxWait(),
+        UUID.randomUUID().toString());
   }
 
   private static TrackedResource newResourceForCleaning() {
@@ -91,6 +116,54 @@ public class FlightManagerTest extends BaseUnitTest {
     throw new InterruptedException("Flight did not complete in time.");
   }
 
+  /**
+   * Returns a spy of {@code manager} that adds the ids of the flights that it claims in batches to
+   * {@code flightIds}.
+   */
+  private static FlightManager recordClaimedFlightIds(
+      FlightManager manager, List<String> flightIds) {
+    FlightManager managerSpy = Mockito.spy(manager);
+    Mockito.doAnswer(
+            invocation -> {
+              @SuppressWarnings("unchecked")
+              List<TrackedResourceAndFlight> claimed =
+                  (List<TrackedResourceAndFlight>) invocation.callRealMethod();
+              claimed.forEach(
+                  resourceAndFlight -> flightIds.add(resourceAndFlight.cleanupFlight().flightId()));
+              return claimed;
+            })
+        .when(managerSpy)
+        .claimFlightBatch(Mockito.any(), Mockito.anyInt());
+    return managerSpy;
+  }
+
+  private FlightSubmissionPipeline createPipeline(FlightManager manager, int queueCapacity) {
+    return new FlightSubmissionPipeline(
+        manager, mockMetricsHelper, queueCapacity, 2, Executors.defaultThreadFactory());
+  }
+
+  /**
+   * Claims up to {@code batchSize} expired resources and submits their flights through a {@link
+   * FlightSubmissionPipeline}, like the {@link FlightScheduler}. Returns the ids of the claimed
+   * flights once they have all been submitted.
+   */
+  private List<String> submitFlights(FlightManager manager, int batchSize)
+      throws InterruptedException {
+    List<String> flightIds = new ArrayList<>();
+    FlightSubmissionPipeline pipeline =
+        createPipeline(recordClaimedFlightIds(manager, flightIds), batchSize);
+    pipeline.start();
+    pipeline.claimBatch(manager.startClaimRound(EXPIRATION), batchSize);
+    assertEquals(List.of(), pipeline.drain(PIPELINE_TIMEOUT));
+    assertTrue(pipeline.awaitTermination(PIPELINE_TIMEOUT));
+    return flightIds;
+  }
+
+  /** Submits the flight of a single expired resource like {@link #submitFlights}, if any. */
+  private Optional<String> submitFlight(FlightManager manager) throws InterruptedException {
+    return submitFlights(manager, 1).stream().findFirst();
+  }
+
   @Test
   public void scheduleAndCompleteFlight() throws Exception {
     FlightManager manager =
@@ -101,7 +174,7 @@ public class FlightManagerTest extends BaseUnitTest {
     TrackedResource resource = newResourceForCleaning();
     janitorDao.createResource(resource, ImmutableMap.of());
 
-    Optional<String> flightId = manager.submitFlight(EXPIRATION);
+    Optional<String> flightId = submitFlight(manager);
     assertTrue(flightId.isPresent());
     blockUntilFlightComplete(flightId.get());
 
@@ -116,19 +189,452 @@ public class FlightManagerTest extends BaseUnitTest {
         Optional.of(CleanupFlightState.FINISHED), janitorDao.retrieveFlightState(flightId.get()));
 
     // No more work to be done once the flight is completed.
-    assertFalse(manager.submitFlight(EXPIRATION).isPresent());
+    assertFalse(submitFlight(manager).isPresent());
     assertEquals(0, manager.updateCompletedFlights(10));
   }
 
   @Test
-  public void scheduleFlight_nothingReady() {
+  public void updateCompletedFlights_batches() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()));
+    List<TrackedResource> resources = new ArrayList<>();
+    List<String> flightIds = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      TrackedResource resource = newResourceForCleaning();
+      janitorDao.createResource(resource, ImmutableMap.of());
+      resources.add(resource);
+      flightIds.add(submitFlight(manager).get());
+    }
+    for (String flightId : flightIds) {
+      blockUntilFlightComplete(flightId);
+    }
+    // An abandoned resource keeps its state, but its flight is still finished.
+    TrackedResource abandoned = resources.get(0);
+    janitorDao.updateResourceState(abandoned.trackedResourceId(), TrackedResourceState.ABANDONED);
+
+    assertEquals(5, manager.updateCompletedFlights(10, 2));
+
+    assertEquals(
+        TrackedResourceState.ABANDONED,
+        janitorDao
+            .retrieveTrackedResource(abandoned.trackedResourceId())
+            .get()
+            .trackedResourceState());
+    for (TrackedResource resource : resources.subList(1, resources.size())) {
+      assertEquals(
+          TrackedResourceState.DONE,
+          janitorDao
+              .retrieveTrackedResource(resource.trackedResourceId())
+              .get()
+              .trackedResourceState());
+    }
+    for (String flightId : flightIds) {
+      assertEquals(
+          Optional.of(CleanupFlightState.FINISHED), janitorDao.retrieveFlightState(flightId));
+    }
+    assertEquals(0, manager.updateCompletedFlights(10, 2));
+  }
+
+  @Test
+  public void completeFlights() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()));
+    TrackedResource resource1 = newResourceForCleaning();
+    TrackedResource resource2 = newResourceForCleaning();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    String flightId1 = submitFlight(manager).get();
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    String flightId2 = submitFlight(manager).get();
+    blockUntilFlightComplete(flightId1);
+    blockUntilFlightComplete(flightId2);
+
+    // Only the given flights are completed.
+    assertEquals(Set.of(flightId1), manager.completeFlights(List.of(flightId1, "unknown")));
+    assertEquals(
+        TrackedResourceState.DONE,
+        janitorDao
+            .retrieveTrackedResource(resource1.trackedResourceId())
+            .get()
+            .trackedResourceState());
+    assertEquals(
+        Optional.of(CleanupFlightState.FINISHED), janitorDao.retrieveFlightState(flightId1));
+    assertEquals(
+        Optional.of(CleanupFlightState.FINISHING), janitorDao.retrieveFlightState(flightId2));
+
+    // Flights that are no longer finishing are not completed again.
+    assertEquals(Set.of(), manager.completeFlights(List.of(flightId1)));
+    assertEquals(1, manager.updateCompletedFlights(10));
+  }
+
+  @Test
+  public void scheduleFlight_nothingReady() throws Exception {
     // No resources for cleaning inserted.
     FlightManager manager =
         createFlightManager(
             trackedResource ->
                 FlightSubmissionFactory.FlightSubmission.create(
                     OkCleanupFlight.class, new FlightMap()));
-    assertFalse(manager.submitFlight(EXPIRATION).isPresent());
+    assertFalse(submitFlight(manager).isPresent());
+  }
+
+  @Test
+  public void submitFlights_batches() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()));
+    TrackedResource resource1 = newResourceForCleaning();
+    TrackedResource resource2 = newResourceForCleaning();
+    TrackedResource resource3 = newResourceForCleaning();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    janitorDao.createResource(resource3, ImmutableMap.of());
+
+    List<String> flightIds = new ArrayList<>();
+    FlightSubmissionPipeline pipeline =
+        createPipeline(recordClaimedFlightIds(manager, flightIds), 2);
+    pipeline.start();
+    ClaimRound round = manager.startClaimRound(EXPIRATION);
+    assertEquals(2, pipeline.claimBatch(round, 2));
+    assertEquals(1, pipeline.claimBatch(round, 2));
+    assertFalse(round.hasBacklog());
+    assertEquals(0, pipeline.claimBatch(round, 2));
+    assertEquals(List.of(), pipeline.drain(PIPELINE_TIMEOUT));
+    assertTrue(pipeline.awaitTermination(PIPELINE_TIMEOUT));
+    assertEquals(3, flightIds.size());
+
+    for (String flightId : flightIds) {
+      blockUntilFlightComplete(flightId);
+    }
+    assertEquals(3, manager.updateCompletedFlights(10));
+    for (TrackedResource resource : List.of(resource1, resource2, resource3)) {
+      assertEquals(
+          TrackedResourceState.DONE,
+          janitorDao
+              .retrieveTrackedResource(resource.trackedResourceId())
+              .get()
+              .trackedResourceState());
+      assertEquals(1, janitorDao.retrieveFlights(resource.trackedResourceId()).size());
+    }
+  }
+
+  @Test
+  public void submitFlights_concurrentManagers() throws Exception {
+    FlightSubmissionFactory submissionFactory =
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(OkCleanupFlight.class, new FlightMap());
+    List<FlightManager> managers =
+        List.of(
+            createFlightManager(submissionFactory),
+            createFlightManager(submissionFactory),
+            createFlightManager(submissionFactory));
+    List<TrackedResource> resources = new ArrayList<>();
+    for (int i = 0; i < 60; ++i) {
+      TrackedResource resource = newResourceForCleaning();
+      janitorDao.createResource(resource, ImmutableMap.of());
+      resources.add(resource);
+    }
+
+    // Each manager claims, submits and recovers flights through its own pipeline concurrently,
+    // like separate Janitor instances.
+    ExecutorService executor = Executors.newFixedThreadPool(managers.size());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<List<String>>> futures = new ArrayList<>();
+    for (FlightManager manager : managers) {
+      futures.add(
+          executor.submit(
+              () -> {
+                List<String> flightIds = new ArrayList<>();
+                FlightSubmissionPipeline pipeline =
+                    createPipeline(recordClaimedFlightIds(manager, flightIds), 4);
+                pipeline.start();
+                start.await();
+                while (pipeline.claimBatch(manager.startClaimRound(EXPIRATION), 4) > 0) {
+                  manager.recoverUnsubmittedFlights(JanitorDao.currentInstant(), 10);
+                }
+                assertEquals(List.of(), pipeline.drain(PIPELINE_TIMEOUT));
+                assertTrue(pipeline.awaitTermination(PIPELINE_TIMEOUT));
+                return flightIds;
+              }));
+    }
+    start.countDown();
+    Set<String> submittedFlightIds = new HashSet<>();
+    for (Future<List<String>> future : futures) {
+      for (String flightId : future.get(30, TimeUnit.SECONDS)) {
+        // No flight id is claimed by more than one manager.
+        assertTrue(submittedFlightIds.add(flightId));
+      }
+    }
+    executor.shutdown();
+    assertEquals(resources.size(), submittedFlightIds.size());
+
+    for (String flightId : submittedFlightIds) {
+      blockUntilFlightComplete(flightId);
+    }
+    for (TrackedResource resource : resources) {
+      // Each resource was cleaned by exactly one flight.
+      assertEquals(1, janitorDao.retrieveFlights(resource.trackedResourceId()).size());
+    }
+    // Concurrent completion handles each flight exactly once.
+    List<Future<Integer>> completions = new ArrayList<>();
+    ExecutorService completionExecutor = Executors.newFixedThreadPool(managers.size());
+    for (FlightManager manager : managers) {
+      completions.add(completionExecutor.submit(() -> manager.updateCompletedFlights(100)));
+    }
+    int completedFlights = 0;
+    for (Future<Integer> completion : completions) {
+      completedFlights += completion.get(30, TimeUnit.SECONDS);
+    }
+    completionExecutor.shutdown();
+    assertEquals(resources.size(), completedFlights);
+  }
+
+  @Test
+  public void claimFlightBatch_limitedByBulkhead() {
+    PrimaryConfiguration primaryConfiguration = new PrimaryConfiguration();
+    primaryConfiguration.setResourceTypeBulkheadsEnabled(true);
+    primaryConfiguration.setResourceTypeBulkheadInitialLimit(2);
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()),
+            new ResourceTypeBulkheads(primaryConfiguration));
+    for (int i = 0; i < 5; ++i) {
+      janitorDao.createResource(newResourceForCleaning(), ImmutableMap.of());
+    }
+
+    ClaimRound round = manager.startClaimRound(EXPIRATION);
+    assertEquals(2, manager.claimFlightBatch(round, 5).size());
+    // The round counts the claimed resources as cleaning, so the bulkhead is full.
+    assertEquals(0, manager.claimFlightBatch(round, 5).size());
+    // The claimed resources are still cleaning in the database too.
+    assertEquals(0, manager.claimFlightBatch(manager.startClaimRound(EXPIRATION), 5).size());
+  }
+
+  @Test
+  public void claimFlightBatch_bulkheadIgnoresOtherInstances() {
+    PrimaryConfiguration primaryConfiguration = new PrimaryConfiguration();
+    primaryConfiguration.setResourceTypeBulkheadsEnabled(true);
+    primaryConfiguration.setResourceTypeBulkheadInitialLimit(2);
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()),
+            new ResourceTypeBulkheads(primaryConfiguration));
+    // Another instance already has as many resources of the type in flight as the limit.
+    List<TrackedResourceAndFlight> otherFlights = new ArrayList<>();
+    for (int i = 0; i < 2; ++i) {
+      TrackedResource cleaning =
+          newResourceForCleaning().toBuilder()
+              .trackedResourceState(TrackedResourceState.CLEANING)
+              .build();
+      janitorDao.createResource(cleaning, ImmutableMap.of());
+      otherFlights.add(
+          TrackedResourceAndFlight.create(
+              cleaning,
+              CleanupFlight.create(UUID.randomUUID().toString(), CleanupFlightState.IN_FLIGHT)));
+    }
+    janitorDao.createCleanupFlights(otherFlights, UUID.randomUUID().toString());
+    for (int i = 0; i < 5; ++i) {
+      janitorDao.createResource(newResourceForCleaning(), ImmutableMap.of());
+    }
+
+    // This instance's bulkhead only counts the flights it submitted.
+    assertEquals(2, manager.claimFlightBatch(manager.startClaimRound(EXPIRATION), 5).size());
+    assertEquals(0, manager.claimFlightBatch(manager.startClaimRound(EXPIRATION), 5).size());
+  }
+
+  @Test
+  public void claimStagedFlights_skipsChangedResources() {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()));
+    TrackedResource ready = newResourceForCleaning();
+    TrackedResource abandoned = newResourceForCleaning();
+    TrackedResource bumped = newResourceForCleaning();
+    janitorDao.createResource(ready, ImmutableMap.of());
+    janitorDao.createResource(abandoned, ImmutableMap.of());
+    // The staged copy of the resource is stale; it now expires later.
+    janitorDao.createResource(
+        bumped.toBuilder().expiration(EXPIRATION.plus(Duration.ofHours(1))).build(),
+        ImmutableMap.of());
+    janitorDao.updateResourceState(abandoned.trackedResourceId(), TrackedResourceState.ABANDONED);
+
+    List<TrackedResourceAndFlight> claimed =
+        manager.claimStagedFlights(
+            manager.startClaimRound(EXPIRATION), List.of(ready, abandoned, bumped), EXPIRATION);
+    assertEquals(1, claimed.size());
+    assertEquals(ready.trackedResourceId(), claimed.get(0).trackedResource().trackedResourceId());
+    assertEquals(
+        CleanupFlightState.INITIATING,
+        janitorDao.retrieveFlights(ready.trackedResourceId()).get(0).state());
+    assertTrue(janitorDao.retrieveFlights(bumped.trackedResourceId()).isEmpty());
+  }
+
+  @Test
+  public void claimStagedFlights_prioritizedWithinBulkhead() {
+    PrimaryConfiguration primaryConfiguration = new PrimaryConfiguration();
+    primaryConfiguration.setResourceTypeBulkheadsEnabled(true);
+    primaryConfiguration.setResourceTypeBulkheadInitialLimit(2);
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()),
+            new ResourceTypeBulkheads(primaryConfiguration));
+    TrackedResource low = newResourceForCleaning();
+    TrackedResource high = newResourceForCleaning().toBuilder().priority(2).build();
+    TrackedResource medium = newResourceForCleaning().toBuilder().priority(1).build();
+    List<TrackedResource> staged = List.of(low, high, medium);
+    staged.forEach(resource -> janitorDao.createResource(resource, ImmutableMap.of()));
+    ClaimRound round = manager.startClaimRound(EXPIRATION.minus(Duration.ofHours(1)));
+
+    assertEquals(
+        Set.of(high.trackedResourceId(), medium.trackedResourceId()),
+        manager.claimStagedFlights(round, staged, EXPIRATION).stream()
+            .map(resourceAndFlight -> resourceAndFlight.trackedResource().trackedResourceId())
+            .collect(Collectors.toSet()));
+    // The round counts the claimed resources, so the bulkhead is full without reading the counts.
+    assertEquals(List.of(), manager.claimStagedFlights(round, List.of(low), EXPIRATION));
+  }
+
+  @Test
+  public void submissionPipeline() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()));
+    List<TrackedResource> resources = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      TrackedResource resource = newResourceForCleaning();
+      janitorDao.createResource(resource, ImmutableMap.of());
+      resources.add(resource);
+    }
+    FlightSubmissionPipeline pipeline =
+        new FlightSubmissionPipeline(
+            manager,
+            mockMetricsHelper,
+            /* queueCapacity= */ 4,
+            /* submitterThreads= */ 2,
+            Executors.defaultThreadFactory());
+    pipeline.start();
+    try {
+      ClaimRound round = manager.startClaimRound(EXPIRATION);
+      int claimed = 0;
+      int batchClaimed;
+      do {
+        batchClaimed = pipeline.claimBatch(round, 3);
+        claimed += batchClaimed;
+      } while (batchClaimed > 0);
+      assertEquals(resources.size(), claimed);
+
+      for (TrackedResource resource : resources) {
+        List<CleanupFlight> flights = janitorDao.retrieveFlights(resource.trackedResourceId());
+        assertEquals(1, flights.size());
+        String flightId = flights.get(0).flightId();
+        pollUntil(
+            () ->
+                janitorDao
+                    .retrieveFlightState(flightId)
+                    .equals(Optional.of(CleanupFlightState.FINISHING)),
+            Duration.ofMillis(100),
+            100);
+      }
+    } finally {
+      pipeline.stop();
+    }
+  }
+
+  @Test
+  public void submissionPipeline_stopLeavesQueuedFlightsForRecovery() throws Exception {
+    CountDownLatch submitterBlocked = new CountDownLatch(1);
+    CountDownLatch releaseSubmitter = new CountDownLatch(1);
+    FlightManager manager =
+        createFlightManager(
+            trackedResource -> {
+              submitterBlocked.countDown();
+              try {
+                releaseSubmitter.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+              return FlightSubmissionFactory.FlightSubmission.create(
+                  OkCleanupFlight.class, new FlightMap());
+            });
+    for (int i = 0; i < 3; ++i) {
+      janitorDao.createResource(newResourceForCleaning(), ImmutableMap.of());
+    }
+    FlightSubmissionPipeline pipeline =
+        new FlightSubmissionPipeline(
+            manager,
+            mockMetricsHelper,
+            /* queueCapacity= */ 4,
+            /* submitterThreads= */ 1,
+            Executors.defaultThreadFactory());
+    pipeline.start();
+    assertEquals(3, pipeline.claimBatch(manager.startClaimRound(EXPIRATION), 4));
+
+    // Stop while the only submitter is busy with the first flight and the others are queued.
+    assertTrue(submitterBlocked.await(5, TimeUnit.SECONDS));
+    pipeline.stop();
+    releaseSubmitter.countDown();
+    Mockito.verify(mockMetricsHelper, Mockito.timeout(5000))
+        .incrementPipelineStage(FlightSubmissionPipeline.SUBMIT_STAGE, 1);
+    assertEquals(0, pipeline.claimBatch(manager.startClaimRound(EXPIRATION), 4));
+
+    // The queued flights were dropped without being submitted, so they are recovered.
+    assertEquals(2, manager.recoverUnsubmittedFlights(JanitorDao.currentInstant(), 10));
+  }
+
+  @Test
+  public void releaseUnsubmittedFlights_skipsSubmittedFlights() throws Exception {
+    String latchKey = "foo";
+    FlightMap inputMap = new FlightMap();
+    LatchStep.createLatch(inputMap, latchKey);
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    LatchBeforeCleanupFlight.class, inputMap));
+    TrackedResource resource1 = newResourceForCleaning();
+    TrackedResource resource2 = newResourceForCleaning();
+    janitorDao.createResource(resource1, ImmutableMap.of());
+    janitorDao.createResource(resource2, ImmutableMap.of());
+    List<TrackedResourceAndFlight> claimed =
+        manager.claimFlightBatch(manager.startClaimRound(EXPIRATION), 2);
+    assertEquals(2, claimed.size());
+    // The first flight is submitted after all, e.g. by a submitter that was still running.
+    assertTrue(manager.submitClaimedFlight(claimed.get(0)));
+
+    assertEquals(1, manager.releaseUnsubmittedFlights(claimed));
+
+    String submittedFlightId = claimed.get(0).cleanupFlight().flightId();
+    assertEquals(
+        Optional.of(CleanupFlightState.INITIATING),
+        janitorDao.retrieveFlightState(submittedFlightId));
+    TrackedResourceId releasedId = claimed.get(1).trackedResource().trackedResourceId();
+    assertEquals(
+        TrackedResourceState.READY,
+        janitorDao.retrieveTrackedResource(releasedId).get().trackedResourceState());
+    assertEquals(List.of(), janitorDao.retrieveFlights(releasedId));
+
+    LatchStep.releaseLatch(latchKey);
+    blockUntilFlightComplete(submittedFlightId);
+    assertEquals(
+        Optional.of(CleanupFlightState.FINISHING),
+        janitorDao.retrieveFlightState(submittedFlightId));
   }
 
   @Test
@@ -150,7 +656,7 @@ public class FlightManagerTest extends BaseUnitTest {
         resource.trackedResourceId(),
         CleanupFlight.create(flightId, CleanupFlightState.INITIATING));
 
-    assertEquals(1, manager.recoverUnsubmittedFlights(10));
+    assertEquals(1, manager.recoverUnsubmittedFlights(JanitorDao.currentInstant(), 10));
 
     blockUntilFlightComplete(flightId);
 
@@ -158,6 +664,54 @@ public class FlightManagerTest extends BaseUnitTest {
         Optional.of(CleanupFlightState.FINISHING), janitorDao.retrieveFlightState(flightId));
   }
 
+  @Test
+  public void recoverUnsubmittedFlights_pagesThroughFlights() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    OkCleanupFlight.class, new FlightMap()));
+    List<String> flightIds = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      TrackedResource resource =
+          newResourceForCleaning().toBuilder()
+              .trackedResourceState(TrackedResourceState.CLEANING)
+              .build();
+      janitorDao.createResource(resource, ImmutableMap.of());
+      String flightId = stairwayComponent.get().createFlightId();
+      janitorDao.createCleanupFlight(
+          resource.trackedResourceId(),
+          CleanupFlight.create(flightId, CleanupFlightState.INITIATING));
+      flightIds.add(flightId);
+    }
+    Instant createdBy = JanitorDao.currentInstant();
+    // A flight created after createdBy is still within its grace period and left alone.
+    TimeUnit.MILLISECONDS.sleep(10);
+    TrackedResource recentResource =
+        newResourceForCleaning().toBuilder()
+            .trackedResourceState(TrackedResourceState.CLEANING)
+            .build();
+    janitorDao.createResource(recentResource, ImmutableMap.of());
+    String recentFlightId = stairwayComponent.get().createFlightId();
+    janitorDao.createCleanupFlight(
+        recentResource.trackedResourceId(),
+        CleanupFlight.create(recentFlightId, CleanupFlightState.INITIATING));
+
+    assertEquals(5, manager.recoverUnsubmittedFlights(createdBy, 2));
+    Mockito.verify(mockMetricsHelper, Mockito.times(5))
+        .recordRecoveredUnsubmittedFlightAge(Mockito.any());
+
+    for (String flightId : flightIds) {
+      blockUntilFlightComplete(flightId);
+      assertEquals(
+          Optional.of(CleanupFlightState.FINISHING), janitorDao.retrieveFlightState(flightId));
+    }
+    assertEquals(
+        Optional.of(CleanupFlightState.INITIATING), janitorDao.retrieveFlightState(recentFlightId));
+    // Submitted flights are not recovered again.
+    assertEquals(0, manager.recoverUnsubmittedFlights(createdBy, 2));
+  }
+
   @Test
   public void recoverUnsubmittedFlights_submittedButStillInitializing() throws Exception {
     String latchKey = "foo";
@@ -174,12 +728,12 @@ public class FlightManagerTest extends BaseUnitTest {
     TrackedResource resource = newResourceForCleaning();
     janitorDao.createResource(resource, ImmutableMap.of());
 
-    Optional<String> flightId = manager.submitFlight(EXPIRATION);
+    Optional<String> flightId = submitFlight(manager);
     assertTrue(flightId.isPresent());
     assertEquals(
         janitorDao.retrieveFlightState(flightId.get()), Optional.of(CleanupFlightState.INITIATING));
     // The flight was submitted, so this should be a no-op.
-    assertEquals(0, manager.recoverUnsubmittedFlights(10));
+    assertEquals(0, manager.recoverUnsubmittedFlights(JanitorDao.currentInstant(), 10));
 
     // Let the flight finish now.
     LatchStep.releaseLatch(latchKey);
@@ -209,7 +763,7 @@ public class FlightManagerTest extends BaseUnitTest {
     TrackedResource resource = newResourceForCleaning();
     janitorDao.createResource(resource, ImmutableMap.of());
 
-    Optional<String> flightId = manager.submitFlight(EXPIRATION);
+    Optional<String> flightId = submitFlight(manager);
     blockUntilFlightComplete(flightId.get());
     assertEquals(1, manager.updateCompletedFlights(10));
 
@@ -220,6 +774,30 @@ public class FlightManagerTest extends BaseUnitTest {
         Optional.of(CleanupFlightState.FINISHED), janitorDao.retrieveFlightState(flightId.get()));
   }
 
+  @Test
+  public void retryErrorResources_afterBackoff() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    ErrorCleanupFlight.class, new FlightMap()));
+    TrackedResource resource = newResourceForCleaning();
+    janitorDao.createResource(resource, ImmutableMap.of());
+
+    Optional<String> flightId = submitFlight(manager);
+    blockUntilFlightComplete(flightId.get());
+    assertEquals(1, manager.updateCompletedFlights(10));
+
+    // The retry is not due until the initial backoff has passed.
+    Instant now = JanitorDao.currentInstant();
+    assertEquals(0, manager.retryErrorResources(now, 10));
+    Duration backoff = new PrimaryConfiguration().getErrorRetryInitialBackoff();
+    assertEquals(1, manager.retryErrorResources(now.plus(backoff).plusSeconds(10), 10));
+    assertEquals(
+        Optional.of(resource), janitorDao.retrieveTrackedResource(resource.trackedResourceId()));
+    Mockito.verify(mockMetricsHelper).incrementErrorRetry(ResourceType.GOOGLE_BUCKET);
+  }
+
   @Test
   public void updateCompletedFlights_lostFlight() throws Exception {
     String latchKey = "foo";
@@ -233,14 +811,13 @@ public class FlightManagerTest extends BaseUnitTest {
                     LatchAfterCleanupFlight.class, inputMap));
 
     FlightManager managerSpy = Mockito.spy(manager);
-    Mockito.doThrow(FlightNotFoundException.class)
-        .when(managerSpy)
-        .getCompleteFlightStatus(Mockito.anyString());
+    // Stairway does not know about any of the flights.
+    Mockito.doReturn(Map.of()).when(managerSpy).getCompleteFlightStates(Mockito.anyList());
 
     TrackedResource resource = newResourceForCleaning();
     janitorDao.createResource(resource, ImmutableMap.of());
 
-    String flightId = managerSpy.submitFlight(EXPIRATION).get();
+    String flightId = submitFlight(manager).get();
     // Wait until the flight is in the finishing state so that the manager will try to pick it up.
     pollUntil(
         () ->
@@ -272,7 +849,7 @@ public class FlightManagerTest extends BaseUnitTest {
     TrackedResource resource = newResourceForCleaning();
     janitorDao.createResource(resource, ImmutableMap.of());
 
-    Optional<String> flightId = manager.submitFlight(EXPIRATION);
+    Optional<String> flightId = submitFlight(manager);
     // Test that the manager does not update flights that Stairway hasn't finished with even if the
     // CleanupFlightState is finishing.
     pollUntil(
@@ -309,15 +886,15 @@ public class FlightManagerTest extends BaseUnitTest {
 
     TrackedResource duplicatedResource = newResourceForCleaning();
     janitorDao.createResource(duplicatedResource, ImmutableMap.of());
-    String duplicatedFlight = manager.submitFlight(EXPIRATION).get();
+    String duplicatedFlight = submitFlight(manager).get();
 
     TrackedResource abandonedResource = newResourceForCleaning();
     janitorDao.createResource(abandonedResource, ImmutableMap.of());
-    String abandonedFlight = manager.submitFlight(EXPIRATION).get();
+    String abandonedFlight = submitFlight(manager).get();
 
     TrackedResource readyResource = newResourceForCleaning();
     janitorDao.createResource(readyResource, ImmutableMap.of());
-    String readyFlight = manager.submitFlight(EXPIRATION).get();
+    String readyFlight = submitFlight(manager).get();
 
     // The resource is modified while the flight is being cleaned up.
     janitorDao.updateResourceState(
@@ -368,13 +945,13 @@ public class FlightManagerTest extends BaseUnitTest {
                     FatalFlight.class, new FlightMap()));
     TrackedResource resource = newResourceForCleaning();
     janitorDao.createResource(resource, ImmutableMap.of());
-    Optional<String> flightId = manager.submitFlight(EXPIRATION);
+    Optional<String> flightId = submitFlight(manager);
     blockUntilFlightComplete(flightId.get());
 
     // Updates for completed flights does not include fatal flights.
     assertEquals(0, manager.updateCompletedFlights(10));
 
-    assertEquals(1, manager.updateFatalFlights(10));
+    assertEquals(1, manager.updateFatalFlights(JanitorDao.currentInstant(), 10));
     assertEquals(
         Optional.of(CleanupFlightState.FATAL), janitorDao.retrieveFlightState(flightId.get()));
     assertEquals(
@@ -382,6 +959,66 @@ public class FlightManagerTest extends BaseUnitTest {
         janitorDao.retrieveTrackedResource(resource.trackedResourceId()));
   }
 
+  @Test
+  public void updateFatalFlights_onlyHandlesNewFlights() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    FatalFlight.class, new FlightMap()));
+    janitorDao.createResource(newResourceForCleaning(), ImmutableMap.of());
+    blockUntilFlightComplete(submitFlight(manager).get());
+
+    assertEquals(1, manager.updateFatalFlights(JanitorDao.currentInstant(), 10));
+    // The flight is still FATAL in Stairway, but it is behind the watermark now.
+    assertEquals(0, manager.updateFatalFlights(JanitorDao.currentInstant(), 10));
+
+    List<String> flightIds = new ArrayList<>();
+    for (int i = 0; i < 3; ++i) {
+      janitorDao.createResource(newResourceForCleaning(), ImmutableMap.of());
+      flightIds.add(submitFlight(manager).get());
+    }
+    for (String flightId : flightIds) {
+      blockUntilFlightComplete(flightId);
+    }
+    Instant completedBy = JanitorDao.currentInstant();
+    // New FATAL flights are found no matter the page size.
+    assertEquals(3, manager.updateFatalFlights(completedBy, 1));
+    for (String flightId : flightIds) {
+      assertEquals(Optional.of(CleanupFlightState.FATAL), janitorDao.retrieveFlightState(flightId));
+    }
+    assertEquals(
+        Optional.of(completedBy),
+        janitorDao.retrieveWatermark(FlightManager.FATAL_FLIGHT_WATERMARK));
+  }
+
+  @Test
+  public void updateFatalFlights_skipsFlightWithoutJanitorRow() throws Exception {
+    FlightManager manager =
+        createFlightManager(
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    FatalFlight.class, new FlightMap()));
+    // A FATAL flight that the Janitor has no cleanup flight or tracked resource for.
+    String orphanedFlightId = stairwayComponent.get().createFlightId();
+    stairwayComponent.get().submitToQueue(orphanedFlightId, FatalFlight.class, new FlightMap());
+    blockUntilFlightComplete(orphanedFlightId);
+    janitorDao.createResource(newResourceForCleaning(), ImmutableMap.of());
+    String flightId = submitFlight(manager).get();
+    blockUntilFlightComplete(flightId);
+    Instant completedBy = JanitorDao.currentInstant();
+
+    assertEquals(1, manager.updateFatalFlights(completedBy, 10));
+    assertEquals(Optional.of(CleanupFlightState.FATAL), janitorDao.retrieveFlightState(flightId));
+    Mockito.verify(mockMetricsHelper).incrementFatalFlightOrphaned();
+    // The orphaned flight does not hold the watermark back, so it is not handled again.
+    assertEquals(
+        Optional.of(completedBy),
+        janitorDao.retrieveWatermark(FlightManager.FATAL_FLIGHT_WATERMARK));
+    assertEquals(0, manager.updateFatalFlights(JanitorDao.currentInstant(), 10));
+    Mockito.verify(mockMetricsHelper).incrementFatalFlightOrphaned();
+  }
+
   @Test
   public void updateFatalFlight_stateModifiedDuringCleaning() throws Exception {
     String latchKey = "foo";
@@ -396,15 +1033,15 @@ public class FlightManagerTest extends BaseUnitTest {
 
     TrackedResource duplicatedResource = newResourceForCleaning();
     janitorDao.createResource(duplicatedResource, ImmutableMap.of());
-    String duplicatedFlight = manager.submitFlight(EXPIRATION).get();
+    String duplicatedFlight = submitFlight(manager).get();
 
     TrackedResource abandonedResource = newResourceForCleaning();
     janitorDao.createResource(abandonedResource, ImmutableMap.of());
-    String abandonedFlight = manager.submitFlight(EXPIRATION).get();
+    String abandonedFlight = submitFlight(manager).get();
 
     TrackedResource readyResource = newResourceForCleaning();
     janitorDao.createResource(readyResource, ImmutableMap.of());
-    String readyFlight = manager.submitFlight(EXPIRATION).get();
+    String readyFlight = submitFlight(manager).get();
 
     // The resource is modified while the flight is being cleaned up.
     janitorDao.updateResourceState(
@@ -418,7 +1055,7 @@ public class FlightManagerTest extends BaseUnitTest {
     blockUntilFlightComplete(abandonedFlight);
     blockUntilFlightComplete(readyFlight);
     // Only the duplicated and abandoned tracked resource states (2) are updated for fatal.
-    assertEquals(2, manager.updateFatalFlights(10));
+    assertEquals(2, manager.updateFatalFlights(JanitorDao.currentInstant(), 10));
 
     assertEquals(
         Optional.of(
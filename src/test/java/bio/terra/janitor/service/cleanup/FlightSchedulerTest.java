@@ -2,9 +2,18 @@ package bio.terra.janitor.service.cleanup;
 
 import static bio.terra.janitor.service.cleanup.CleanupTestUtils.pollUntil;
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
+import bio.terra.janitor.app.configuration.JanitorJdbcConfiguration;
 import bio.terra.janitor.app.configuration.PrimaryConfiguration;
+import bio.terra.janitor.app.configuration.StairwayConfiguration;
+import bio.terra.janitor.app.configuration.StairwayJdbcConfiguration;
 import bio.terra.janitor.common.BaseUnitTest;
 import bio.terra.janitor.db.JanitorDao;
 import bio.terra.janitor.db.ResourceKind;
@@ -16,17 +25,28 @@ import bio.terra.janitor.db.TrackedResourceState;
 import bio.terra.janitor.generated.model.CloudResourceUid;
 import bio.terra.janitor.generated.model.GoogleBucketUid;
 import bio.terra.janitor.service.cleanup.flight.FatalStep;
+import bio.terra.janitor.service.cleanup.flight.FinalCleanupStep;
+import bio.terra.janitor.service.cleanup.flight.InitialCleanupStep;
+import bio.terra.janitor.service.cleanup.flight.LatchStep;
+import bio.terra.janitor.service.janitor.TrackedResourceService;
 import bio.terra.janitor.service.stairway.StairwayComponent;
 import bio.terra.stairway.Flight;
 import bio.terra.stairway.FlightMap;
 import com.google.common.collect.ImmutableMap;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.context.ApplicationContext;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.transaction.support.TransactionTemplate;
@@ -38,23 +58,35 @@ public class FlightSchedulerTest extends BaseUnitTest {
   // Construct a FlightScheduler manually instead of Autowired for ease of testing.
   private FlightScheduler flightScheduler;
   @Autowired JanitorDao janitorDao;
+  @Autowired JanitorJdbcConfiguration jdbcConfiguration;
   @Autowired StairwayComponent stairwayComponent;
   @Autowired TransactionTemplate transactionTemplate;
+  @Autowired FlightCompletionHook flightCompletionHook;
+  @Autowired TrackedResourceService trackedResourceService;
+  @Autowired ApplicationContext applicationContext;
+  @Autowired StairwayConfiguration stairwayConfiguration;
+  @Autowired StairwayJdbcConfiguration stairwayJdbcConfiguration;
   @MockitoBean
   private MetricsHelper mockMetricsHelper;
 
   private void initializeScheduler(FlightSubmissionFactory submissionFactory) {
-    flightScheduler =
-        new FlightScheduler(
-            newPrimaryConfiguration(),
-            stairwayComponent,
-            janitorDao,
-            transactionTemplate,
-            submissionFactory,
-            mockMetricsHelper);
+    flightScheduler = newScheduler(newPrimaryConfiguration(), submissionFactory);
     flightScheduler.initialize();
   }
 
+  private FlightScheduler newScheduler(
+      PrimaryConfiguration primaryConfiguration, FlightSubmissionFactory submissionFactory) {
+    return new FlightScheduler(
+        primaryConfiguration,
+        stairwayComponent,
+        janitorDao,
+        jdbcConfiguration,
+        transactionTemplate,
+        submissionFactory,
+        flightCompletionHook,
+        mockMetricsHelper);
+  }
+
   @AfterEach
   public void tearDown() {
     // Shutdown the FlightScheduler so that it isn't running during other tests.
@@ -69,6 +101,10 @@ public class FlightSchedulerTest extends BaseUnitTest {
     primaryConfiguration.setFlightCompletionPeriod(Duration.ofSeconds(2));
     primaryConfiguration.setFlightSubmissionPeriod(Duration.ofSeconds(2));
     primaryConfiguration.setFatalFlightCompletionPeriod(Duration.ofSeconds(2));
+    primaryConfiguration.setFatalFlightCompletionDelay(Duration.ofSeconds(1));
+    // Keep the periodic tasks from backing off while the tests wait on them.
+    primaryConfiguration.setFlightCompletionMaxPeriod(Duration.ofSeconds(2));
+    primaryConfiguration.setFatalFlightCompletionMaxPeriod(Duration.ofSeconds(2));
     primaryConfiguration.setRecordResourceCountPeriod(Duration.ofSeconds(2));
     return primaryConfiguration;
   }
@@ -79,7 +115,8 @@ public class FlightSchedulerTest extends BaseUnitTest {
         .trackedResourceId(TrackedResourceId.create(UUID.randomUUID()))
         .trackedResourceState(TrackedResourceState.READY)
         .cloudResourceUid(
-            new CloudResourceUid().googleBucketUid(new GoogleBucketUid().bucketName("foo")))
+            new CloudResourceUid()
+                .googleBucketUid(new GoogleBucketUid().bucketName(UUID.randomUUID().toString())))
         .creation(expiredBy)
         .expiration(expiredBy)
         .metadata(ResourceMetadata.none())
@@ -125,6 +162,202 @@ public class FlightSchedulerTest extends BaseUnitTest {
         10);
   }
 
+  @Test
+  public void resourceReadyWakesScheduler() throws Exception {
+    PrimaryConfiguration primaryConfiguration = newPrimaryConfiguration();
+    // Long enough that the resource is only cleaned up if the scheduler is woken up for it.
+    primaryConfiguration.setFlightSubmissionPeriod(Duration.ofHours(1));
+    FlightSubmissionFactory fatalFactory =
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(FatalFlight.class, new FlightMap());
+    flightScheduler = newScheduler(primaryConfiguration, fatalFactory);
+    flightScheduler.initialize();
+    // Let the scheduler go idle before the resource is created.
+    TimeUnit.SECONDS.sleep(2);
+
+    TrackedResource resource = newReadyExpiredResource(JanitorDao.currentInstant());
+    janitorDao.createResource(resource, ImmutableMap.of());
+
+    pollUntil(
+        () -> resourceStateIs(resource.trackedResourceId(), TrackedResourceState.ERROR),
+        Duration.ofSeconds(1),
+        10);
+  }
+
+  @Test
+  public void endedFlightCompletedWithoutSweep() throws Exception {
+    PrimaryConfiguration primaryConfiguration = newPrimaryConfiguration();
+    // Long enough that the flight is only completed if the completion hook picks it up.
+    primaryConfiguration.setFlightCompletionPeriod(Duration.ofHours(1));
+    flightScheduler =
+        newScheduler(
+            primaryConfiguration,
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(
+                    FlightManagerTest.OkCleanupFlight.class, new FlightMap()));
+    flightScheduler.initialize();
+
+    TrackedResource resource = newReadyExpiredResource(JanitorDao.currentInstant());
+    janitorDao.createResource(resource, ImmutableMap.of());
+
+    pollUntil(
+        () -> resourceStateIs(resource.trackedResourceId(), TrackedResourceState.DONE),
+        Duration.ofSeconds(1),
+        10);
+  }
+
+  @Test
+  public void inFlightWindowFull() throws Exception {
+    // Leave room in the window for a single flight. Flights left over from other tests were
+    // submitted by other instances, so they do not count against this scheduler's window.
+    int windowLimit = 1;
+    PrimaryConfiguration primaryConfiguration = newPrimaryConfiguration();
+    primaryConfiguration.setFlightSubmissionWindowMultiplier(
+        (windowLimit - 0.5) / stairwayComponent.getMaxParallelFlights());
+    String latchKey = UUID.randomUUID().toString();
+    FlightMap inputMap = new FlightMap();
+    LatchStep.createLatch(inputMap, latchKey);
+    flightScheduler =
+        newScheduler(
+            primaryConfiguration,
+            trackedResource ->
+                FlightSubmissionFactory.FlightSubmission.create(LatchFlight.class, inputMap));
+
+    // Expire before any resources left over from other tests so that these are claimed first.
+    TrackedResource first = newReadyExpiredResource(Instant.EPOCH);
+    TrackedResource second = newReadyExpiredResource(Instant.EPOCH.plusSeconds(1));
+    janitorDao.createResource(first, ImmutableMap.of());
+    janitorDao.createResource(second, ImmutableMap.of());
+    try {
+      flightScheduler.initialize();
+      pollUntil(
+          () -> resourceStateIs(first.trackedResourceId(), TrackedResourceState.CLEANING),
+          Duration.ofSeconds(1),
+          10);
+      // The window is full while the first flight is latched, so the second resource is left.
+      TimeUnit.SECONDS.sleep(3);
+      assertTrue(resourceStateIs(second.trackedResourceId(), TrackedResourceState.READY));
+      verify(mockMetricsHelper, atLeast(1)).recordInFlightWindow(windowLimit, windowLimit);
+    } finally {
+      LatchStep.releaseLatch(latchKey);
+    }
+  }
+
+  @Test
+  public void multipleInstancesShareCleanup() throws Exception {
+    // A second Janitor instance with its own Stairway, sharing the Janitor and Stairway databases.
+    // It must not clean start the Stairway database that the first instance is using.
+    StairwayConfiguration otherStairwayConfiguration = new StairwayConfiguration();
+    otherStairwayConfiguration.setName("janitor-stairway-" + UUID.randomUUID());
+    otherStairwayConfiguration.setClusterName(stairwayConfiguration.getClusterName());
+    otherStairwayConfiguration.setMaxParallelFlights(stairwayConfiguration.getMaxParallelFlights());
+    otherStairwayConfiguration.setQuietDownTimeout(stairwayConfiguration.getQuietDownTimeout());
+    otherStairwayConfiguration.setTerminateTimeout(stairwayConfiguration.getTerminateTimeout());
+    otherStairwayConfiguration.setRetentionCheckInterval(
+        stairwayConfiguration.getRetentionCheckInterval());
+    otherStairwayConfiguration.setCompletedFlightRetention(
+        stairwayConfiguration.getCompletedFlightRetention());
+    FlightCompletionHook otherCompletionHook = new FlightCompletionHook();
+    StairwayComponent otherStairwayComponent =
+        new StairwayComponent(
+            applicationContext,
+            otherStairwayConfiguration,
+            stairwayJdbcConfiguration,
+            otherCompletionHook);
+    otherStairwayComponent.initialize();
+
+    String latchKey = UUID.randomUUID().toString();
+    FlightMap inputMap = new FlightMap();
+    LatchStep.createLatch(inputMap, latchKey);
+    FlightSubmissionFactory latchedFactory =
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(LatchedCleanupFlight.class, inputMap);
+    // Each instance may only have 3 flights in flight, so neither can clean up all of the
+    // resources alone while the flights are latched.
+    PrimaryConfiguration primaryConfiguration = newPrimaryConfiguration();
+    primaryConfiguration.setFlightSubmissionWindowMultiplier(
+        2.5 / stairwayComponent.getMaxParallelFlights());
+    flightScheduler = newScheduler(primaryConfiguration, latchedFactory);
+    FlightScheduler otherScheduler =
+        new FlightScheduler(
+            primaryConfiguration,
+            otherStairwayComponent,
+            janitorDao,
+            jdbcConfiguration,
+            transactionTemplate,
+            latchedFactory,
+            otherCompletionHook,
+            mockMetricsHelper);
+
+    // Expire before any resources left over from other tests so that these are claimed first.
+    List<TrackedResource> resources = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      TrackedResource resource = newReadyExpiredResource(Instant.EPOCH);
+      janitorDao.createResource(resource, ImmutableMap.of());
+      resources.add(resource);
+    }
+    try {
+      flightScheduler.initialize();
+      otherScheduler.initialize();
+      pollUntil(
+          () ->
+              resources.stream()
+                  .allMatch(
+                      resource ->
+                          resourceStateIs(
+                              resource.trackedResourceId(), TrackedResourceState.CLEANING)),
+          Duration.ofSeconds(1),
+          10);
+      LatchStep.releaseLatch(latchKey);
+      pollUntil(
+          () ->
+              resources.stream()
+                  .allMatch(
+                      resource ->
+                          resourceStateIs(resource.trackedResourceId(), TrackedResourceState.DONE)),
+          Duration.ofSeconds(1),
+          10);
+    } finally {
+      LatchStep.releaseLatch(latchKey);
+      otherScheduler.shutdown();
+      otherStairwayComponent.shutdown();
+    }
+    for (TrackedResource resource : resources) {
+      // Each resource was cleaned up by exactly one flight, on one of the instances.
+      assertEquals(1, janitorDao.retrieveFlights(resource.trackedResourceId()).size());
+    }
+  }
+
+  @Test
+  public void cleanNowSkipsFullWindow() throws Exception {
+    PrimaryConfiguration primaryConfiguration = newPrimaryConfiguration();
+    // The window is always full and the scheduler never wakes up on its own.
+    primaryConfiguration.setFlightSubmissionWindowMultiplier(0);
+    primaryConfiguration.setFlightSubmissionPeriod(Duration.ofHours(1));
+    FlightSubmissionFactory fatalFactory =
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(FatalFlight.class, new FlightMap());
+    flightScheduler = newScheduler(primaryConfiguration, fatalFactory);
+    flightScheduler.initialize();
+
+    CloudResourceUid resourceUid =
+        new CloudResourceUid()
+            .googleBucketUid(new GoogleBucketUid().bucketName(UUID.randomUUID().toString()));
+    TrackedResource resource =
+        newReadyExpiredResource(JanitorDao.currentInstant().plus(Duration.ofHours(1))).toBuilder()
+            .cloudResourceUid(resourceUid)
+            .build();
+    janitorDao.createResource(resource, ImmutableMap.of());
+    // Let the listener connect before asking for the resource to be cleaned up.
+    TimeUnit.SECONDS.sleep(2);
+
+    trackedResourceService.cleanResourceNow(resourceUid);
+    pollUntil(
+        () -> resourceStateIs(resource.trackedResourceId(), TrackedResourceState.ERROR),
+        Duration.ofSeconds(1),
+        10);
+  }
+
   @Test
   public void recordResourceCount() {
     TrackedResource resource = newReadyExpiredResource(JanitorDao.currentInstant());
@@ -145,6 +378,109 @@ public class FlightSchedulerTest extends BaseUnitTest {
                         1));
   }
 
+  /** Deletes the watermarks of every scheduler instance, including those of other tests. */
+  private void clearInstanceWatermarks() {
+    Set<String> names =
+        new HashSet<>(
+            janitorDao.retrieveWatermarks(FlightScheduler.STARTED_WATERMARK_PREFIX).keySet());
+    names.addAll(janitorDao.retrieveWatermarks(FlightScheduler.DRAINED_WATERMARK_PREFIX).keySet());
+    janitorDao.deleteWatermarks(names);
+  }
+
+  @Test
+  public void start_recoversFlightsOfUndrainedInstances() {
+    clearInstanceWatermarks();
+    Instant started = JanitorDao.currentInstant().minusSeconds(60);
+    janitorDao.advanceWatermark(FlightScheduler.STARTED_WATERMARK_PREFIX + "drained", started);
+    janitorDao.advanceWatermark(
+        FlightScheduler.DRAINED_WATERMARK_PREFIX + "drained", started.plusSeconds(1));
+    janitorDao.advanceWatermark(FlightScheduler.STARTED_WATERMARK_PREFIX + "crashed", started);
+
+    initializeScheduler(
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(FatalFlight.class, new FlightMap()));
+
+    // The crashed instance may have left unsubmitted flights behind.
+    verify(mockMetricsHelper, timeout(5000)).recordResumeDuration(any(), eq(true));
+    // The other instances are accounted for now, so only this instance's watermark is left.
+    Map<String, Instant> startedWatermarks =
+        janitorDao.retrieveWatermarks(FlightScheduler.STARTED_WATERMARK_PREFIX);
+    assertEquals(1, startedWatermarks.size());
+    assertTrue(startedWatermarks.values().iterator().next().isAfter(started));
+    assertEquals(Map.of(), janitorDao.retrieveWatermarks(FlightScheduler.DRAINED_WATERMARK_PREFIX));
+  }
+
+  @Test
+  public void start_skipsRecoveryIfEveryInstanceDrained() {
+    clearInstanceWatermarks();
+    Instant started = JanitorDao.currentInstant().minusSeconds(60);
+    janitorDao.advanceWatermark(FlightScheduler.STARTED_WATERMARK_PREFIX + "drained", started);
+    janitorDao.advanceWatermark(
+        FlightScheduler.DRAINED_WATERMARK_PREFIX + "drained", started.plusSeconds(1));
+
+    initializeScheduler(
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(FatalFlight.class, new FlightMap()));
+
+    verify(mockMetricsHelper, timeout(5000)).recordResumeDuration(any(), eq(false));
+  }
+
+  @Test
+  public void leaderElection_standbyTakesOver() throws Exception {
+    PrimaryConfiguration primaryConfiguration = newPrimaryConfiguration();
+    primaryConfiguration.setLeaderElectionEnabled(true);
+    primaryConfiguration.setLeaderLeaseDuration(Duration.ofSeconds(2));
+    primaryConfiguration.setLeaderLeaseRenewalPeriod(Duration.ofMillis(200));
+    FlightSubmissionFactory fatalFactory =
+        trackedResource ->
+            FlightSubmissionFactory.FlightSubmission.create(FatalFlight.class, new FlightMap());
+    FlightScheduler first = newScheduler(primaryConfiguration, fatalFactory);
+    FlightScheduler second = newScheduler(primaryConfiguration, fatalFactory);
+    try {
+      first.initialize();
+      second.initialize();
+      // Exactly one of the schedulers becomes the leader.
+      await().atMost(Duration.ofSeconds(5)).until(() -> first.isLeader() != second.isLeader());
+      FlightScheduler leader = first.isLeader() ? first : second;
+      FlightScheduler standby = first.isLeader() ? second : first;
+
+      leader.shutdown();
+      await().atMost(Duration.ofSeconds(5)).until(standby::isLeader);
+      verify(mockMetricsHelper, atLeast(2)).incrementLeadershipChange(true);
+
+      // The new leader cleans up resources.
+      TrackedResource resource = newReadyExpiredResource(JanitorDao.currentInstant());
+      janitorDao.createResource(resource, ImmutableMap.of());
+      pollUntil(
+          () -> resourceStateIs(resource.trackedResourceId(), TrackedResourceState.ERROR),
+          Duration.ofSeconds(1),
+          10);
+    } finally {
+      first.shutdown();
+      second.shutdown();
+    }
+  }
+
+  /** A {@link Flight} that blocks until its latch is released, leaving its flight state alone. */
+  public static class LatchFlight extends Flight {
+    public LatchFlight(FlightMap inputParameters, Object applicationContext) {
+      super(inputParameters, applicationContext);
+      addStep(new LatchStep());
+    }
+  }
+
+  /** A cleanup {@link Flight} that waits for its {@link LatchStep} to be released. */
+  public static class LatchedCleanupFlight extends Flight {
+    public LatchedCleanupFlight(FlightMap inputParameters, Object applicationContext) {
+      super(inputParameters, applicationContext);
+      JanitorDao janitorDao =
+          ((ApplicationContext) applicationContext).getBean("janitorDao", JanitorDao.class);
+      addStep(new InitialCleanupStep(janitorDao));
+      addStep(new LatchStep());
+      addStep(new FinalCleanupStep(janitorDao));
+    }
+  }
+
   /** A {@link Flight} that ends fatally. */
   public static class FatalFlight extends Flight {
     public FatalFlight(FlightMap inputParameters, Object applicationContext) {
@@ -0,0 +1,115 @@
+package bio.terra.janitor.service.cleanup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bio.terra.janitor.common.BaseUnitTest;
+import bio.terra.janitor.db.JanitorDao;
+import bio.terra.janitor.db.ResourceMetadata;
+import bio.terra.janitor.db.TrackedResource;
+import bio.terra.janitor.db.TrackedResourceId;
+import bio.terra.janitor.db.TrackedResourceState;
+import bio.terra.janitor.generated.model.CloudResourceUid;
+import bio.terra.janitor.generated.model.GoogleBucketUid;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LookaheadStagerTest extends BaseUnitTest {
+  private final BlockingQueue<List<TrackedResource>> expired = new LinkedBlockingQueue<>();
+  private LookaheadStager stager;
+
+  @BeforeEach
+  public void setUp() {
+    stager = new LookaheadStager(/* limit= */ 2, Executors.defaultThreadFactory(), expired::add);
+    stager.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    stager.stop();
+  }
+
+  private static TrackedResource newResource(Instant expiration) {
+    return TrackedResource.builder()
+        .trackedResourceId(TrackedResourceId.create(UUID.randomUUID()))
+        .trackedResourceState(TrackedResourceState.READY)
+        .cloudResourceUid(
+            new CloudResourceUid()
+                .googleBucketUid(new GoogleBucketUid().bucketName(UUID.randomUUID().toString())))
+        .creation(Instant.EPOCH)
+        .expiration(expiration)
+        .metadata(ResourceMetadata.none())
+        .build();
+  }
+
+  @Test
+  public void handsOffAtExpiration() throws Exception {
+    Instant expiration = JanitorDao.currentInstant().plusMillis(500);
+    TrackedResource resource = newResource(expiration);
+    assertEquals(1, stager.stage(List.of(resource)));
+
+    List<TrackedResource> handedOff = expired.poll(5, TimeUnit.SECONDS);
+    assertEquals(List.of(resource), handedOff);
+    assertFalse(JanitorDao.currentInstant().isBefore(expiration));
+    assertEquals(0, stager.size());
+  }
+
+  @Test
+  public void stagesEachResourceOnceUpToLimit() throws Exception {
+    Instant later = JanitorDao.currentInstant().plusSeconds(60);
+    TrackedResource first = newResource(later);
+    TrackedResource second = newResource(later.plusSeconds(1));
+    TrackedResource third = newResource(later.plusSeconds(2));
+
+    assertEquals(1, stager.stage(List.of(first)));
+    // The first resource is already staged, so it still counts, but the third is over the limit.
+    assertEquals(2, stager.stage(List.of(first, second, third)));
+    assertEquals(2, stager.size());
+    assertNull(expired.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void stopForgetsStagedResources() {
+    stager.stage(List.of(newResource(JanitorDao.currentInstant().plusSeconds(60))));
+    stager.stop();
+
+    assertEquals(0, stager.size());
+    assertEquals(0, stager.stage(List.of(newResource(JanitorDao.currentInstant()))));
+    assertTrue(expired.isEmpty());
+  }
+
+  @Test
+  public void stopWaitsForHandOff() throws Exception {
+    CountDownLatch handingOff = new CountDownLatch(1);
+    AtomicBoolean handedOff = new AtomicBoolean(false);
+    LookaheadStager slowStager =
+        new LookaheadStager(
+            /* limit= */ 2,
+            Executors.defaultThreadFactory(),
+            resources -> {
+              handingOff.countDown();
+              // Claiming is not interrupted by stopping, like a database call.
+              Uninterruptibles.sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+              handedOff.set(true);
+            });
+    slowStager.start();
+    slowStager.stage(List.of(newResource(JanitorDao.currentInstant())));
+    assertTrue(handingOff.await(5, TimeUnit.SECONDS));
+
+    assertTrue(slowStager.stop());
+    assertTrue(handedOff.get());
+  }
+}
@@ -1,16 +1,46 @@
 package bio.terra.janitor.service.cleanup;
 
+import static bio.terra.janitor.service.cleanup.MetricsHelper.BULKHEAD_GAUGE_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.CLAIM_WAIT_DURATION_METER_NAME;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.CLIENT_KEY;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.COMPLETION_COUNT_METER_NAME;
-import static bio.terra.janitor.service.cleanup.MetricsHelper.COMPLETION_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.COMPLETION_PATH_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.COMPLETION_BATCH_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.COMPLETION_BATCH_SIZE_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.ERROR_QUARANTINE_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.ERROR_RETRY_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.FATAL_FLIGHT_UNDELETED_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.FATAL_FLIGHT_WATERMARK_LAG_METER_NAME;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.FATAL_UPDATE_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.FLIGHT_START_DELAY_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.FLIGHT_SUBMISSION_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.HOOK_COMPLETION_PATH;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.IN_FLIGHT_WINDOW_GAUGE_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.LEADERLESS_GAP_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.LEADERSHIP_CHANGE_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.LEADER_KEY;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.LIMIT_WINDOW;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.PATH_KEY;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.PHASE_KEY;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.PIPELINE_STAGE_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.READY_BACKLOG_GAUGE_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.RECOVERED_SUBMITTED_FLIGHTS_COUNT_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.RECOVERY_SCAN_KEY;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.RESOURCE_STATE_KEY;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.RESOURCE_TYPE_KEY;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.RESUME_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.SHUTDOWN_PHASE_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.STAGE_KEY;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.SUBMISSION_COUNT_METER_NAME;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.SUBMISSION_DURATION_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.SUBMISSION_QUEUE_DEPTH_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.TASK_KEY;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.TASK_PERIOD_GAUGE_METER_NAME;
 import static bio.terra.janitor.service.cleanup.MetricsHelper.TRACKED_RESOURCE_GAUGE_METER_NAME;
+import static bio.terra.janitor.service.cleanup.MetricsHelper.WINDOW_KEY;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -27,6 +57,7 @@ import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
+import java.util.Map;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
@@ -51,6 +82,13 @@ public class MetricsHelperTest extends BaseUnitTest {
         d -> metricsHelper.recordSubmissionDuration(d, true), SUBMISSION_DURATION_METER_NAME);
   }
 
+  @Test
+  public void testRecordFlightSubmissionDuration() {
+    testHistogram(
+        d -> metricsHelper.recordFlightSubmissionDuration(d, true),
+        FLIGHT_SUBMISSION_DURATION_METER_NAME);
+  }
+
   @Test
   public void testIncrementSubmission() {
     var resourceType = ResourceType.AZURE_MANAGED_IDENTITY;
@@ -61,9 +99,18 @@ public class MetricsHelperTest extends BaseUnitTest {
   }
 
   @Test
-  public void testRecordCompletionDuration() {
+  public void testRecordCompletionBatchDuration() {
     testHistogram(
-        d -> metricsHelper.recordCompletionDuration(d, true), COMPLETION_DURATION_METER_NAME);
+        metricsHelper::recordCompletionBatchDuration, COMPLETION_BATCH_DURATION_METER_NAME);
+  }
+
+  @Test
+  public void testRecordCompletionBatchSize() {
+    metricsHelper.recordCompletionBatchSize(42);
+    var metricData = waitForMetrics(testMetricExporter, METRICS_COLLECTION_INTERVAL);
+    assertEquals(COMPLETION_BATCH_SIZE_METER_NAME, metricData.getName());
+    assertEquals(1, metricData.getHistogramData().getPoints().size());
+    assertEquals(42, metricData.getHistogramData().getPoints().iterator().next().getSum());
   }
 
   @Test
@@ -78,12 +125,37 @@ public class MetricsHelperTest extends BaseUnitTest {
     assertEquals(state.toString(), attributes.get(RESOURCE_STATE_KEY));
   }
 
+  @Test
+  public void testIncrementCompletionPath() {
+    var attributes =
+        testCounter(
+            () -> metricsHelper.incrementCompletionPath(HOOK_COMPLETION_PATH, 1),
+            COMPLETION_PATH_COUNT_METER_NAME);
+    assertEquals(HOOK_COMPLETION_PATH, attributes.get(PATH_KEY));
+  }
+
   @Test
   public void testRecordFatalUpdateDuration() {
     testHistogram(
         d -> metricsHelper.recordFatalUpdateDuration(d, true), FATAL_UPDATE_DURATION_METER_NAME);
   }
 
+  @Test
+  public void testRecordTaskPeriod() {
+    var attributes =
+        testGauge(
+            l -> metricsHelper.recordTaskPeriod("completeFlights", Duration.ofMillis(l)),
+            TASK_PERIOD_GAUGE_METER_NAME);
+    assertEquals("completeFlights", attributes.get(TASK_KEY));
+  }
+
+  @Test
+  public void testRecordFatalFlightWatermarkLag() {
+    testGauge(
+        l -> metricsHelper.recordFatalFlightWatermarkLag(Duration.ofMillis(l)),
+        FATAL_FLIGHT_WATERMARK_LAG_METER_NAME);
+  }
+
   @Test
   public void testRecordResourceKindGauge() {
     var resourceKind = ResourceKind.create("client", ResourceType.GOOGLE_BUCKET);
@@ -104,12 +176,154 @@ public class MetricsHelperTest extends BaseUnitTest {
         RECOVERED_SUBMITTED_FLIGHTS_COUNT_METER_NAME);
   }
 
+  @Test
+  public void testIncrementRecoveredDuplicateFlight() {
+    testCounter(
+        metricsHelper::incrementRecoveredDuplicateFlight,
+        RECOVERED_DUPLICATE_FLIGHTS_COUNT_METER_NAME);
+  }
+
+  @Test
+  public void testRecordRecoveredUnsubmittedFlightAge() {
+    testHistogram(
+        metricsHelper::recordRecoveredUnsubmittedFlightAge,
+        RECOVERED_UNSUBMITTED_FLIGHT_AGE_METER_NAME);
+  }
+
   @Test
   public void testIncrementFatalFlightUndeleted() {
     testCounter(
         metricsHelper::incrementFatalFlightUndeleted, FATAL_FLIGHT_UNDELETED_COUNT_METER_NAME);
   }
 
+  @Test
+  public void testIncrementFatalFlightOrphaned() {
+    testCounter(
+        metricsHelper::incrementFatalFlightOrphaned, FATAL_FLIGHT_ORPHANED_COUNT_METER_NAME);
+  }
+
+  @Test
+  public void testIncrementLeadershipChange() {
+    var attributes =
+        testCounter(
+            () -> metricsHelper.incrementLeadershipChange(true),
+            LEADERSHIP_CHANGE_COUNT_METER_NAME);
+    assertEquals("true", attributes.get(LEADER_KEY));
+  }
+
+  @Test
+  public void testRecordLeaderlessGapDuration() {
+    testHistogram(metricsHelper::recordLeaderlessGapDuration, LEADERLESS_GAP_DURATION_METER_NAME);
+  }
+
+  @Test
+  public void testIncrementPipelineStage() {
+    var attributes =
+        testCounter(
+            () -> metricsHelper.incrementPipelineStage(FlightSubmissionPipeline.SUBMIT_STAGE, 1),
+            PIPELINE_STAGE_COUNT_METER_NAME);
+    assertEquals(FlightSubmissionPipeline.SUBMIT_STAGE, attributes.get(STAGE_KEY));
+  }
+
+  @Test
+  public void testRecordSubmissionQueueDepth() {
+    testGauge(metricsHelper::recordSubmissionQueueDepth, SUBMISSION_QUEUE_DEPTH_METER_NAME);
+  }
+
+  @Test
+  public void testRecordInFlightWindow() {
+    metricsHelper.recordInFlightWindow(30, 80);
+    var metricData = waitForMetrics(testMetricExporter, METRICS_COLLECTION_INTERVAL);
+    assertEquals(IN_FLIGHT_WINDOW_GAUGE_METER_NAME, metricData.getName());
+    var points = metricData.getLongGaugeData().getPoints();
+    assertEquals(2, points.size());
+    for (var point : points) {
+      assertEquals(
+          point.getAttributes().get(WINDOW_KEY).equals(LIMIT_WINDOW) ? 80 : 30, point.getValue());
+    }
+  }
+
+  @Test
+  public void testRecordBulkhead() {
+    metricsHelper.recordBulkhead(ResourceType.GOOGLE_PROJECT, 3, 12);
+    var metricData = waitForMetrics(testMetricExporter, METRICS_COLLECTION_INTERVAL);
+    assertEquals(BULKHEAD_GAUGE_METER_NAME, metricData.getName());
+    var points = metricData.getLongGaugeData().getPoints();
+    assertEquals(2, points.size());
+    for (var point : points) {
+      assertEquals(
+          ResourceType.GOOGLE_PROJECT.toString(), point.getAttributes().get(RESOURCE_TYPE_KEY));
+      assertEquals(
+          point.getAttributes().get(WINDOW_KEY).equals(LIMIT_WINDOW) ? 12 : 3, point.getValue());
+    }
+  }
+
+  @Test
+  public void testRecordReadyBacklog() {
+    var resourceKind = ResourceKind.create("client", ResourceType.GOOGLE_PROJECT);
+    var attributes =
+        testGauge(
+            l -> metricsHelper.recordReadyBacklog(Map.of(resourceKind, l)),
+            READY_BACKLOG_GAUGE_METER_NAME);
+    assertEquals(resourceKind.resourceType().toString(), attributes.get(RESOURCE_TYPE_KEY));
+    assertEquals(resourceKind.client(), attributes.get(CLIENT_KEY));
+  }
+
+  @Test
+  public void testRecordClaimWaitDuration() {
+    var resourceKind = ResourceKind.create("client", ResourceType.GOOGLE_PROJECT);
+    var attributes =
+        testHistogram(
+            d -> metricsHelper.recordClaimWaitDuration(resourceKind, d),
+            CLAIM_WAIT_DURATION_METER_NAME);
+    assertEquals(resourceKind.resourceType().toString(), attributes.get(RESOURCE_TYPE_KEY));
+    assertEquals(resourceKind.client(), attributes.get(CLIENT_KEY));
+  }
+
+  @Test
+  public void testRecordFlightStartDelay() {
+    var attributes =
+        testHistogram(
+            d -> metricsHelper.recordFlightStartDelay(ResourceType.GOOGLE_PROJECT, d),
+            FLIGHT_START_DELAY_METER_NAME);
+    assertEquals(ResourceType.GOOGLE_PROJECT.toString(), attributes.get(RESOURCE_TYPE_KEY));
+  }
+
+  @Test
+  public void testIncrementErrorRetry() {
+    var attributes =
+        testCounter(
+            () -> metricsHelper.incrementErrorRetry(ResourceType.GOOGLE_BUCKET),
+            ERROR_RETRY_COUNT_METER_NAME);
+    assertEquals(ResourceType.GOOGLE_BUCKET.toString(), attributes.get(RESOURCE_TYPE_KEY));
+  }
+
+  @Test
+  public void testIncrementErrorQuarantine() {
+    var attributes =
+        testCounter(
+            () -> metricsHelper.incrementErrorQuarantine(ResourceType.GOOGLE_BUCKET),
+            ERROR_QUARANTINE_COUNT_METER_NAME);
+    assertEquals(ResourceType.GOOGLE_BUCKET.toString(), attributes.get(RESOURCE_TYPE_KEY));
+  }
+
+  @Test
+  public void testRecordShutdownPhaseDuration() {
+    var attributes =
+        testHistogram(
+            d -> metricsHelper.recordShutdownPhaseDuration("drain_submissions", d),
+            SHUTDOWN_PHASE_DURATION_METER_NAME);
+    assertEquals("drain_submissions", attributes.get(PHASE_KEY));
+  }
+
+  @Test
+  public void testRecordResumeDuration() {
+    var attributes =
+        testHistogram(
+            d -> metricsHelper.recordResumeDuration(d, false), RESUME_DURATION_METER_NAME);
+    assertEquals("false", attributes.get(RECOVERY_SCAN_KEY));
+  }
+
   private Attributes testHistogram(Consumer<Duration> recordMetric, String name) {
     var duration = Duration.of(5, ChronoUnit.MINUTES);
     recordMetric.accept(duration);
@@ -0,0 +1,84 @@
+package bio.terra.janitor.service.cleanup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bio.terra.janitor.app.configuration.PrimaryConfiguration;
+import bio.terra.janitor.common.BaseUnitTest;
+import bio.terra.janitor.db.ResourceType;
+import java.time.Duration;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class ResourceTypeBulkheadsTest extends BaseUnitTest {
+  private static ResourceTypeBulkheads newBulkheads(Duration decreaseCooldown) {
+    PrimaryConfiguration primaryConfiguration = new PrimaryConfiguration();
+    primaryConfiguration.setResourceTypeBulkheadsEnabled(true);
+    primaryConfiguration.setResourceTypeBulkheadInitialLimit(8);
+    primaryConfiguration.setResourceTypeBulkheadMinLimit(2);
+    primaryConfiguration.setResourceTypeBulkheadMaxLimit(10);
+    primaryConfiguration.setResourceTypeBulkheadLatencyTolerance(3.0);
+    primaryConfiguration.setResourceTypeBulkheadDecreaseCooldown(decreaseCooldown);
+    return new ResourceTypeBulkheads(primaryConfiguration);
+  }
+
+  @Test
+  public void successesIncreaseLimitAdditively() {
+    ResourceTypeBulkheads bulkheads = newBulkheads(Duration.ZERO);
+    for (int i = 0; i < 8; ++i) {
+      bulkheads.recordFlightEnded(ResourceType.GOOGLE_BLOB, true, Duration.ofSeconds(1));
+    }
+    // About 1 more per limit's worth of successes.
+    assertEquals(8, bulkheads.limit(ResourceType.GOOGLE_BLOB));
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_BLOB, true, Duration.ofSeconds(1));
+    assertEquals(9, bulkheads.limit(ResourceType.GOOGLE_BLOB));
+    for (int i = 0; i < 100; ++i) {
+      bulkheads.recordFlightEnded(ResourceType.GOOGLE_BLOB, true, Duration.ofSeconds(1));
+    }
+    assertEquals(10, bulkheads.limit(ResourceType.GOOGLE_BLOB));
+    // Other types are unaffected.
+    assertEquals(8, bulkheads.limit(ResourceType.GOOGLE_PROJECT));
+  }
+
+  @Test
+  public void failuresAndSlowFlightsDecreaseLimitMultiplicatively() {
+    ResourceTypeBulkheads bulkheads = newBulkheads(Duration.ZERO);
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, false, null);
+    assertEquals(4, bulkheads.limit(ResourceType.GOOGLE_PROJECT));
+
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, true, Duration.ofMinutes(1));
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, true, Duration.ofMinutes(10));
+    assertEquals(2, bulkheads.limit(ResourceType.GOOGLE_PROJECT));
+
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, false, null);
+    assertEquals(2, bulkheads.limit(ResourceType.GOOGLE_PROJECT));
+  }
+
+  @Test
+  public void decreasesAtMostOncePerCooldown() {
+    ResourceTypeBulkheads bulkheads = newBulkheads(Duration.ofHours(1));
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, false, null);
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, false, null);
+    assertEquals(4, bulkheads.limit(ResourceType.GOOGLE_PROJECT));
+  }
+
+  @Test
+  public void remainingCapacity() {
+    ResourceTypeBulkheads bulkheads = newBulkheads(Duration.ZERO);
+    Map<ResourceType, Integer> capacity =
+        bulkheads.remainingCapacity(
+            Map.of(ResourceType.GOOGLE_PROJECT, 3, ResourceType.GOOGLE_BLOB, 20));
+    assertEquals(5, capacity.get(ResourceType.GOOGLE_PROJECT));
+    assertEquals(0, capacity.get(ResourceType.GOOGLE_BLOB));
+    assertEquals(8, capacity.get(ResourceType.GOOGLE_BUCKET));
+  }
+
+  @Test
+  public void disabled() {
+    PrimaryConfiguration primaryConfiguration = new PrimaryConfiguration();
+    primaryConfiguration.setResourceTypeBulkheadsEnabled(false);
+    ResourceTypeBulkheads bulkheads = new ResourceTypeBulkheads(primaryConfiguration);
+    bulkheads.recordFlightEnded(ResourceType.GOOGLE_PROJECT, false, null);
+    assertTrue(bulkheads.remainingCapacity(Map.of(ResourceType.GOOGLE_PROJECT, 1000)).isEmpty());
+  }
+}
@@ -0,0 +1,99 @@
+package bio.terra.janitor.service.cleanup;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import bio.terra.janitor.common.BaseBenchmarkTest;
+import bio.terra.janitor.db.JanitorDao;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares running {@link SelfSchedulingTask}s on the scheduler's fixed pool of platform threads
+ * with running them on virtual threads, as with {@code
+ * janitor.primary.scheduler-virtual-threads-enabled}, when every run blocks on a slow cloud call.
+ */
+public class SelfSchedulingTaskBenchmarkTest extends BaseBenchmarkTest {
+  private final Logger logger = LoggerFactory.getLogger(SelfSchedulingTaskBenchmarkTest.class);
+
+  /** As many platform threads as the {@link FlightScheduler} executor has. */
+  private static final int POOL_THREADS = 8;
+
+  private static final int TASK_COUNT = 1000;
+
+  /** How long each simulated cloud call blocks the thread it runs on. */
+  private static final Duration CLOUD_CALL_LATENCY = Duration.ofMillis(50);
+
+  private static final Duration MEASUREMENT_PERIOD = Duration.ofSeconds(5);
+
+  @Test
+  public void virtualThreadsRunMoreSlowCloudCalls() {
+    long platformRuns = countRuns(/* virtualThreads= */ false);
+    long virtualRuns = countRuns(/* virtualThreads= */ true);
+    logger.info(
+        "In {}, {} tasks made {} slow cloud calls on platform threads and {} on virtual threads.",
+        MEASUREMENT_PERIOD,
+        TASK_COUNT,
+        platformRuns,
+        virtualRuns);
+    // The platform pool can only have POOL_THREADS calls outstanding at once.
+    assertThat(virtualRuns, Matchers.greaterThan(platformRuns * 10));
+  }
+
+  /**
+   * Runs {@link #TASK_COUNT} tasks that each make a slow cloud call and run again right away for
+   * {@link #MEASUREMENT_PERIOD}. Returns how many calls they made in total.
+   */
+  private long countRuns(boolean virtualThreads) {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(POOL_THREADS);
+    ExecutorService runner =
+        virtualThreads
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : MoreExecutors.newDirectExecutorService();
+    AtomicLong runs = new AtomicLong();
+    List<SelfSchedulingTask> tasks = new ArrayList<>();
+    for (int i = 0; i < TASK_COUNT; ++i) {
+      tasks.add(
+          new SelfSchedulingTask(
+              "slowCloudCall" + i,
+              executor,
+              runner,
+              () -> {
+                Uninterruptibles.sleepUninterruptibly(CLOUD_CALL_LATENCY);
+                runs.incrementAndGet();
+                return JanitorDao.currentInstant();
+              },
+              Duration.ZERO));
+    }
+    Runtime runtime = Runtime.getRuntime();
+    long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+    tasks.forEach(SelfSchedulingTask::start);
+    Uninterruptibles.sleepUninterruptibly(MEASUREMENT_PERIOD.dividedBy(2));
+    long threads = ManagementFactory.getThreadMXBean().getThreadCount();
+    long heapDuring = runtime.totalMemory() - runtime.freeMemory();
+    Uninterruptibles.sleepUninterruptibly(MEASUREMENT_PERIOD.dividedBy(2));
+    tasks.forEach(SelfSchedulingTask::stop);
+    long totalRuns = runs.get();
+    executor.shutdownNow();
+    runner.shutdown();
+    Uninterruptibles.awaitTerminationUninterruptibly(runner, 10, TimeUnit.SECONDS);
+    logger.info(
+        "With virtual threads {}: {} platform threads, {} MiB more heap in use mid-run.",
+        virtualThreads,
+        threads,
+        (heapDuring - heapBefore) / (1024 * 1024));
+    return totalRuns;
+  }
+}
@@ -0,0 +1,156 @@
+package bio.terra.janitor.service.cleanup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bio.terra.janitor.app.configuration.PrimaryConfiguration.ResourceKindPolicy;
+import bio.terra.janitor.common.BaseUnitTest;
+import bio.terra.janitor.db.ResourceKind;
+import bio.terra.janitor.db.ResourceKindBacklog;
+import bio.terra.janitor.db.ResourceType;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class WeightedFairSchedulerTest extends BaseUnitTest {
+  private static final Instant EXPIRATION = Instant.parse("2026-10-01T00:00:00Z");
+  private static final ResourceKind BLOBS = ResourceKind.create("foo", ResourceType.GOOGLE_BLOB);
+  private static final ResourceKind PROJECTS =
+      ResourceKind.create("bar", ResourceType.GOOGLE_PROJECT);
+
+  private static ResourceKindPolicy newPolicy(
+      String client, ResourceType resourceType, double weight, int maxInFlight) {
+    ResourceKindPolicy policy = new ResourceKindPolicy();
+    policy.setClient(client);
+    policy.setResourceType(resourceType);
+    policy.setWeight(weight);
+    policy.setMaxInFlight(maxInFlight);
+    return policy;
+  }
+
+  @Test
+  public void allocate_equalWeightsShareSlots() {
+    WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of());
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION),
+                ResourceKindBacklog.create(PROJECTS, 10, EXPIRATION.plusSeconds(60))),
+            Map.of(),
+            Map.of(),
+            10);
+    assertEquals(Map.of(BLOBS, 5, PROJECTS, 5), allocation);
+  }
+
+  @Test
+  public void allocate_slotsFollowWeights() {
+    WeightedFairScheduler scheduler =
+        new WeightedFairScheduler(List.of(newPolicy(null, ResourceType.GOOGLE_PROJECT, 3, 0)));
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION.plusSeconds(60)),
+                ResourceKindBacklog.create(PROJECTS, 1000, EXPIRATION)),
+            Map.of(),
+            Map.of(),
+            8);
+    assertEquals(Map.of(PROJECTS, 6, BLOBS, 2), allocation);
+  }
+
+  @Test
+  public void allocate_priorityScalesWeights() {
+    WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of());
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION, /* maxPriority= */ 0),
+                ResourceKindBacklog.create(
+                    PROJECTS, 1000, EXPIRATION.plusSeconds(60), /* maxPriority= */ 3)),
+            Map.of(),
+            Map.of(),
+            10);
+    // The blobs still get their share, so they are not starved by the projects.
+    assertEquals(Map.of(PROJECTS, 8, BLOBS, 2), allocation);
+  }
+
+  @Test
+  public void allocate_mostSpecificPolicyApplies() {
+    ResourceKind otherProjects = ResourceKind.create("baz", ResourceType.GOOGLE_PROJECT);
+    WeightedFairScheduler scheduler =
+        new WeightedFairScheduler(
+            List.of(
+                newPolicy("bar", null, 5, 0),
+                newPolicy(null, ResourceType.GOOGLE_PROJECT, 3, 0),
+                newPolicy("bar", ResourceType.GOOGLE_PROJECT, 1, 0)));
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(PROJECTS, 1000, EXPIRATION.plusSeconds(60)),
+                ResourceKindBacklog.create(otherProjects, 1000, EXPIRATION)),
+            Map.of(),
+            Map.of(),
+            8);
+    assertEquals(Map.of(otherProjects, 6, PROJECTS, 2), allocation);
+  }
+
+  @Test
+  public void allocate_respectsMaxInFlight() {
+    WeightedFairScheduler scheduler =
+        new WeightedFairScheduler(List.of(newPolicy(null, ResourceType.GOOGLE_PROJECT, 1, 3)));
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION),
+                ResourceKindBacklog.create(PROJECTS, 1000, EXPIRATION)),
+            Map.of(PROJECTS, 2),
+            Map.of(),
+            10);
+    assertEquals(Map.of(BLOBS, 9, PROJECTS, 1), allocation);
+
+    assertEquals(
+        Map.of(BLOBS, 10),
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION),
+                ResourceKindBacklog.create(PROJECTS, 1000, EXPIRATION)),
+            Map.of(PROJECTS, 3),
+            Map.of(),
+            10));
+  }
+
+  @Test
+  public void allocate_kindsShareTypeCapacity() {
+    ResourceKind otherProjects = ResourceKind.create("baz", ResourceType.GOOGLE_PROJECT);
+    WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of());
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION),
+                ResourceKindBacklog.create(PROJECTS, 1000, EXPIRATION),
+                ResourceKindBacklog.create(otherProjects, 1000, EXPIRATION)),
+            Map.of(),
+            Map.of(ResourceType.GOOGLE_PROJECT, 2),
+            10);
+    assertEquals(Map.of(BLOBS, 8, PROJECTS, 1, otherProjects, 1), allocation);
+  }
+
+  @Test
+  public void allocate_idleKindDoesNotSaveUpSlots() {
+    WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of());
+    assertEquals(
+        Map.of(BLOBS, 10),
+        scheduler.allocate(
+            List.of(ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION)), Map.of(), Map.of(), 10));
+
+    // The projects only started waiting, so they share the slots instead of taking all of them.
+    Map<ResourceKind, Integer> allocation =
+        scheduler.allocate(
+            List.of(
+                ResourceKindBacklog.create(BLOBS, 1000, EXPIRATION),
+                ResourceKindBacklog.create(PROJECTS, 1000, EXPIRATION.plusSeconds(60))),
+            Map.of(),
+            Map.of(),
+            4);
+    assertEquals(Map.of(BLOBS, 2, PROJECTS, 2), allocation);
+  }
+}
@@ -1,9 +1,12 @@
 package bio.terra.janitor.service.janitor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import bio.terra.janitor.common.BaseUnitTest;
+import bio.terra.janitor.common.exception.InvalidPriorityException;
 import bio.terra.janitor.common.exception.NotFoundException;
 import bio.terra.janitor.db.JanitorDao;
 import bio.terra.janitor.db.ResourceMetadata;
@@ -16,10 +19,17 @@ import bio.terra.janitor.generated.model.CloudResourceUid;
 import bio.terra.janitor.generated.model.GoogleProjectUid;
 import bio.terra.janitor.generated.model.ResourceState;
 import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -106,6 +116,111 @@ public class TrackedResourceServiceTest extends BaseUnitTest {
         extractStates(janitorDao.retrieveResourcesMatching(filterOf(resourceUid))));
   }
 
+  @Test
+  public void createResource_concurrentDuplicates() throws Exception {
+    int threads = 8;
+    int requestsPerUid = 40;
+    List<CloudResourceUid> resourceUids =
+        List.of(createUniqueId(), createUniqueId(), createUniqueId());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<TrackedResource>> futures = new ArrayList<>();
+    Instant start = Instant.now();
+    for (int i = 0; i < requestsPerUid; ++i) {
+      // Several requests share each expiration, so that ties race as well.
+      Instant expiration = DEFAULT_TIME.plusSeconds(i % 10);
+      for (CloudResourceUid resourceUid : resourceUids) {
+        TrackRequest request =
+            TrackRequest.builder()
+                .cloudResourceUid(resourceUid)
+                .creation(DEFAULT_TIME)
+                .expiration(expiration)
+                .metadata(ResourceMetadata.none())
+                .build();
+        futures.add(executor.submit(() -> trackedResourceService.createResource(request)));
+      }
+    }
+    // Every request succeeds without being retried.
+    for (Future<TrackedResource> future : futures) {
+      future.get(1, TimeUnit.MINUTES);
+    }
+    Duration elapsed = Duration.between(start, Instant.now());
+    executor.shutdown();
+    assertTrue(
+        elapsed.compareTo(Duration.ofSeconds(30)) < 0,
+        String.format("%d requests took %s", futures.size(), elapsed));
+
+    for (CloudResourceUid resourceUid : resourceUids) {
+      List<TrackedResource> resources = janitorDao.retrieveResourcesMatching(filterOf(resourceUid));
+      assertEquals(requestsPerUid, resources.size());
+      // Exactly one resource is active, and it is one with the latest expiration.
+      List<TrackedResource> active =
+          resources.stream()
+              .filter(
+                  resource ->
+                      !resource.trackedResourceState().equals(TrackedResourceState.DUPLICATED))
+              .toList();
+      assertEquals(1, active.size());
+      assertEquals(TrackedResourceState.READY, active.get(0).trackedResourceState());
+      assertEquals(DEFAULT_TIME.plusSeconds(9), active.get(0).expiration());
+    }
+  }
+
+  @Test
+  public void createResource_priority() {
+    TrackRequest.Builder request =
+        TrackRequest.builder()
+            .creation(DEFAULT_TIME)
+            .expiration(DEFAULT_TIME)
+            .metadata(ResourceMetadata.none());
+    // Projects default to the priority configured for their type.
+    TrackedResource defaultPriority =
+        trackedResourceService.createResource(request.cloudResourceUid(createUniqueId()).build());
+    TrackedResource explicitPriority =
+        trackedResourceService.createResource(
+            request.cloudResourceUid(createUniqueId()).priority(7).build());
+
+    assertEquals(
+        Optional.of(3),
+        janitorDao
+            .retrieveTrackedResource(defaultPriority.trackedResourceId())
+            .map(TrackedResource::priority));
+    assertEquals(
+        Optional.of(7),
+        janitorDao
+            .retrieveTrackedResource(explicitPriority.trackedResourceId())
+            .map(TrackedResource::priority));
+  }
+
+  @Test
+  public void createResource_priorityOutOfRange() {
+    TrackRequest.Builder request =
+        TrackRequest.builder()
+            .creation(DEFAULT_TIME)
+            .expiration(DEFAULT_TIME)
+            .metadata(ResourceMetadata.none());
+
+    assertThrows(
+        InvalidPriorityException.class,
+        () ->
+            trackedResourceService.createResource(
+                request.cloudResourceUid(createUniqueId()).priority(-1).build()));
+    assertThrows(
+        InvalidPriorityException.class,
+        () ->
+            trackedResourceService.createResource(
+                request
+                    .cloudResourceUid(createUniqueId())
+                    .priority(TrackedResource.MAX_PRIORITY + 1)
+                    .build()));
+    TrackedResource maxPriority =
+        trackedResourceService.createResource(
+            request
+                .cloudResourceUid(createUniqueId())
+                .priority(TrackedResource.MAX_PRIORITY)
+                .build());
+    assertEquals(TrackedResource.MAX_PRIORITY, maxPriority.priority());
+  }
+
   @Test
   public void abandonThenBumpResources() {
     CloudResourceUid resourceUid = createUniqueId();
@@ -197,6 +312,31 @@ public class TrackedResourceServiceTest extends BaseUnitTest {
         extractStates(janitorDao.retrieveResourcesMatching(filterOf(resourceUid))));
   }
 
+  @Test
+  public void cleanResourceNow() {
+    CloudResourceUid resourceUid = createUniqueId();
+    TrackedResourceId id =
+        trackedResourceService
+            .createResource(
+                TrackRequest.builder()
+                    .cloudResourceUid(resourceUid)
+                    .creation(DEFAULT_TIME)
+                    .expiration(DEFAULT_TIME.plus(Duration.ofDays(1)))
+                    .metadata(ResourceMetadata.none())
+                    .build())
+            .trackedResourceId();
+
+    trackedResourceService.cleanResourceNow(resourceUid);
+    TrackedResource resource = janitorDao.retrieveTrackedResource(id).get();
+    assertEquals(TrackedResourceState.READY, resource.trackedResourceState());
+    assertFalse(resource.expiration().isAfter(JanitorDao.currentInstant()));
+
+    // Only READY resources can be cleaned up now.
+    janitorDao.updateResourceState(id, TrackedResourceState.ABANDONED);
+    assertThrows(
+        NotFoundException.class, () -> trackedResourceService.cleanResourceNow(resourceUid));
+  }
+
   @Test
   public void abandonResources_notFound() throws Exception {
     CloudResourceUid resourceUid =
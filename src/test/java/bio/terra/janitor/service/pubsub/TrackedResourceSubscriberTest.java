@@ -104,6 +104,43 @@ public class TrackedResourceSubscriberTest extends BaseUnitTest {
                 consumer));
   }
 
+  @Test
+  public void receiveMessage_priorityOutOfRange() throws Exception {
+    OffsetDateTime publishTime = JanitorDao.currentOffsetDateTime();
+    CloudResourceUid resource =
+        new CloudResourceUid().googleBucketUid(new GoogleBucketUid().bucketName("priority"));
+    ByteString data =
+        ByteString.copyFromUtf8(
+            objectMapper.writeValueAsString(
+                new CreateResourceRequestBody()
+                    .resourceUid(resource)
+                    .creation(publishTime)
+                    .expiration(publishTime)
+                    .priority(Integer.MAX_VALUE)));
+    AckReplyConsumer consumer =
+        new AckReplyConsumer() {
+          @Override
+          public void ack() {
+            Assertions.fail("Shouldn't ack for invalid message");
+          }
+
+          @Override
+          public void nack() {}
+        };
+
+    TrackedResourceSubscriber.ResourceReceiver resourceReceiver =
+        new TrackedResourceSubscriber.ResourceReceiver(objectMapper, trackedResourceService);
+    Assertions.assertThrows(
+        InvalidMessageException.class,
+        () ->
+            resourceReceiver.receiveMessage(
+                PubsubMessage.newBuilder().setData(data).build(), consumer));
+    assertEquals(
+        List.of(),
+        janitorDao.retrieveResourcesAndLabels(
+            TrackedResourceFilter.builder().cloudResourceUid(resource).build()));
+  }
+
   // See https://broadworkbench.atlassian.net/browse/CORE-104
   @Test
   public void receiveMessage_unknownFields() throws Exception {